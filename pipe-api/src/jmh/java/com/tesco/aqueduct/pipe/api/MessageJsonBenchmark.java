@@ -0,0 +1,75 @@
+package com.tesco.aqueduct.pipe.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link MessageJsonCodec} against databind reflection for reading and writing a page of messages, the way a
+ * till does while catching up with its parent.
+ */
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MessageJsonBenchmark {
+
+    private static final ZonedDateTime CREATED = ZonedDateTime.parse("2000-12-01T10:00:00.123Z");
+
+    @State(Scope.Benchmark)
+    public static class PageState {
+
+        @Param({"codec", "databind"})
+        public String mapping;
+
+        @Param({"1000"})
+        public int pageSize;
+
+        @Param({"200"})
+        public int dataSize;
+
+        private ObjectMapper mapper;
+        private CollectionType messageListType;
+        private List<Message> messages;
+        private byte[] json;
+
+        @Setup(Level.Trial)
+        public void doSetup() throws IOException {
+            mapper = "codec".equals(mapping)
+                ? JsonHelper.configureObjectMapper(new ObjectMapper())
+                : JsonHelper.configureDatabindObjectMapper(new ObjectMapper());
+            messageListType = mapper.getTypeFactory().constructCollectionType(List.class, Message.class);
+
+            final StringBuilder data = new StringBuilder("{\"value\":\"");
+            while (data.length() < dataSize) {
+                data.append('x');
+            }
+            data.append("\"}");
+
+            messages = new ArrayList<>(pageSize);
+            for (int i = 0; i < pageSize; i++) {
+                messages.add(new Message(
+                    "type" + i % 10, "key" + i, "application/json", 1_000_000_000L + i, CREATED.plusSeconds(i), data.toString()
+                ));
+            }
+            json = mapper.writeValueAsBytes(messages);
+        }
+    }
+
+    @Benchmark
+    public byte[] writePage(final PageState state) throws IOException {
+        return state.mapper.writeValueAsBytes(state.messages);
+    }
+
+    @Benchmark
+    public List<Message> readPage(final PageState state) throws IOException {
+        return state.mapper.readValue(state.json, state.messageListType);
+    }
+}
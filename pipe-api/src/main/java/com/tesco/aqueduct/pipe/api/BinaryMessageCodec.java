@@ -0,0 +1,211 @@
+package com.tesco.aqueduct.pipe.api;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.*;
+
+/**
+ * Compact binary alternative to the JSON array of messages served by /pipe/{offset}, requested with
+ * {@link #MEDIA_TYPE} in Accept.
+ *
+ * A page is a version byte, a dictionary of the strings repeated across messages (types, content types and time
+ * zones), the number of messages and the messages. Each message is:
+ * <ul>
+ *     <li>type and content type as dictionary references</li>
+ *     <li>offset as the zig-zag varint difference to the previous offset</li>
+ *     <li>key and data as length prefixed UTF-8</li>
+ *     <li>created as zig-zag varint difference in epoch seconds to the previous message, nanos and a zone reference</li>
+ * </ul>
+ * Lengths and references are varints shifted by one, with 0 standing for null.
+ */
+public final class BinaryMessageCodec {
+    public static final String MEDIA_TYPE = "application/vnd.aqueduct.pipe-page";
+
+    private static final int VERSION = 1;
+    private static final int NULL = 0;
+
+    private BinaryMessageCodec() {
+    }
+
+    public static byte[] encode(final List<Message> messages) {
+        final Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (final Message message : messages) {
+            addToDictionary(dictionary, message.getType());
+            addToDictionary(dictionary, message.getContentType());
+            if (message.getCreated() != null) {
+                addToDictionary(dictionary, message.getCreated().getZone().getId());
+            }
+        }
+
+        final Output output = new Output(messages.size() * 64 + 16);
+        output.write(VERSION);
+        output.writeVarint(dictionary.size());
+        dictionary.keySet().forEach(output::writeString);
+        output.writeVarint(messages.size());
+
+        long previousOffset = 0;
+        long previousSeconds = 0;
+        for (final Message message : messages) {
+            output.writeVarint(reference(dictionary, message.getType()));
+            output.writeVarint(reference(dictionary, message.getContentType()));
+
+            if (message.getOffset() == null) {
+                output.write(NULL);
+            } else {
+                output.write(1);
+                output.writeSignedVarint(message.getOffset() - previousOffset);
+                previousOffset = message.getOffset();
+            }
+
+            output.writeString(message.getKey());
+            output.writeString(message.getData());
+
+            final ZonedDateTime created = message.getCreated();
+            if (created == null) {
+                output.writeVarint(NULL);
+            } else {
+                output.writeVarint(reference(dictionary, created.getZone().getId()));
+                output.writeSignedVarint(created.toEpochSecond() - previousSeconds);
+                output.writeVarint(created.getNano());
+                previousSeconds = created.toEpochSecond();
+            }
+        }
+        return output.toByteArray();
+    }
+
+    public static List<Message> decode(final byte[] page) {
+        final Input input = new Input(page);
+        final int version = input.read();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary page version " + version);
+        }
+
+        final int dictionarySize = (int) input.readVarint();
+        final List<String> dictionary = new ArrayList<>(dictionarySize);
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionary.add(input.readString());
+        }
+
+        final int count = (int) input.readVarint();
+        final List<Message> messages = new ArrayList<>(count);
+
+        long previousOffset = 0;
+        long previousSeconds = 0;
+        for (int i = 0; i < count; i++) {
+            final String type = lookup(dictionary, input.readVarint());
+            final String contentType = lookup(dictionary, input.readVarint());
+
+            Long offset = null;
+            if (input.read() != NULL) {
+                previousOffset += input.readSignedVarint();
+                offset = previousOffset;
+            }
+
+            final String key = input.readString();
+            final String data = input.readString();
+
+            ZonedDateTime created = null;
+            final String zone = lookup(dictionary, input.readVarint());
+            if (zone != null) {
+                previousSeconds += input.readSignedVarint();
+                final int nanos = (int) input.readVarint();
+                created = ZonedDateTime.ofInstant(Instant.ofEpochSecond(previousSeconds, nanos), ZoneId.of(zone));
+            }
+
+            messages.add(new Message(type, key, contentType, offset, created, data));
+        }
+        return messages;
+    }
+
+    private static void addToDictionary(final Map<String, Integer> dictionary, final String value) {
+        if (value != null && !dictionary.containsKey(value)) {
+            dictionary.put(value, dictionary.size());
+        }
+    }
+
+    private static int reference(final Map<String, Integer> dictionary, final String value) {
+        return value == null ? NULL : dictionary.get(value) + 1;
+    }
+
+    private static String lookup(final List<String> dictionary, final long reference) {
+        return reference == NULL ? null : dictionary.get((int) reference - 1);
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+        Output(final int size) {
+            super(size);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeSignedVarint(final long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(final String value) {
+            if (value == null) {
+                writeVarint(NULL);
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        Input(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int read() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Binary page is truncated");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in binary page");
+        }
+
+        long readSignedVarint() {
+            final long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            final long length = readVarint();
+            if (length == NULL) {
+                return null;
+            }
+            final int size = (int) length - 1;
+            if (size > bytes.length - position) {
+                throw new IllegalArgumentException("Binary page is truncated");
+            }
+            final String value = new String(bytes, position, size, StandardCharsets.UTF_8);
+            position += size;
+            return value;
+        }
+    }
+}
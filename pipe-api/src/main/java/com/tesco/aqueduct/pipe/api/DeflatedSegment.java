@@ -0,0 +1,175 @@
+package com.tesco.aqueduct.pipe.api;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Part of a response compressed ahead of time.
+ *
+ * A segment is raw deflate data ending on a byte boundary and without the final block flag, so segments can be joined
+ * into a single gzip stream without compressing them again. The checksum of the joined content is combined from the
+ * checksums of the segments.
+ */
+public final class DeflatedSegment {
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    // empty block with the final flag set, ends the deflate stream
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00};
+
+    private final byte[] deflated;
+    private final long crc;
+    private final long length;
+
+    public DeflatedSegment(final byte[] deflated, final long crc, final long length) {
+        this.deflated = deflated;
+        this.crc = crc;
+        this.length = length;
+    }
+
+    public static DeflatedSegment deflate(final byte[] bytes, final int level) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(bytes);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 4 + 16);
+            final byte[] buffer = new byte[8192];
+            int written;
+            do {
+                written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                output.write(buffer, 0, written);
+            } while (written == buffer.length);
+
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            return new DeflatedSegment(output.toByteArray(), crc.getValue(), bytes.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return one gzip member holding the content of the given segments in order
+     */
+    public static byte[] gzip(final DeflatedSegment... segments) {
+        int size = GZIP_HEADER.length + FINAL_BLOCK.length + 8;
+        for (final DeflatedSegment segment : segments) {
+            size += segment.deflated.length;
+        }
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(size);
+        output.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+
+        long crc = 0;
+        long length = 0;
+        for (final DeflatedSegment segment : segments) {
+            output.write(segment.deflated, 0, segment.deflated.length);
+            crc = combineCrc(crc, segment.crc, segment.length);
+            length += segment.length;
+        }
+
+        output.write(FINAL_BLOCK, 0, FINAL_BLOCK.length);
+        writeIntLittleEndian(output, crc);
+        writeIntLittleEndian(output, length);
+        return output.toByteArray();
+    }
+
+    public byte[] inflate() {
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(deflated);
+            final byte[] inflated = new byte[(int) length];
+            int read = 0;
+            while (read < inflated.length) {
+                final int count = inflater.inflate(inflated, read, inflated.length - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Deflated segment is truncated");
+                }
+                read += count;
+            }
+            return inflated;
+        } catch (DataFormatException exception) {
+            throw new IllegalStateException("Deflated segment is corrupted", exception);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public byte[] getDeflated() {
+        return deflated;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    private static void writeIntLittleEndian(final ByteArrayOutputStream output, final long value) {
+        output.write((int) (value & 0xFF));
+        output.write((int) ((value >> 8) & 0xFF));
+        output.write((int) ((value >> 16) & 0xFF));
+        output.write((int) ((value >> 24) & 0xFF));
+    }
+
+    // CRC32 of two joined byte sequences from their CRC32s, as crc32_combine in zlib
+    static long combineCrc(long crc1, final long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        final long[] even = new long[32];
+        final long[] odd = new long[32];
+
+        // operator for one zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // operators for two and four zero bits
+        square(even, odd);
+        square(odd, even);
+
+        // apply the operator for each zero byte of the second sequence
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long times(final long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(final long[] square, final long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.tesco.aqueduct.pipe.api;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalLong;
+
+/**
+ * Page held already encoded for the wire, with what is needed to classify the read next to it.
+ *
+ * Messages are only decoded for readers asking for them, e.g. a node not accepting the encoding the page is held in.
+ */
+public abstract class EncodedMessageResults extends MessageResults {
+
+    private final int messageCount;
+    private final ZonedDateTime firstCreated;
+    private final boolean clusterChange;
+
+    private List<Message> messages;
+
+    protected EncodedMessageResults(
+        final int messageCount,
+        final ZonedDateTime firstCreated,
+        final boolean clusterChange,
+        final long retryAfterMs,
+        final OptionalLong globalLatestOffset,
+        final PipeState pipeState
+    ) {
+        super(null, retryAfterMs, globalLatestOffset, pipeState);
+        this.messageCount = messageCount;
+        this.firstCreated = firstCreated;
+        this.clusterChange = clusterChange;
+    }
+
+    protected abstract List<Message> decodeMessages();
+
+    @Override
+    public synchronized List<Message> getMessages() {
+        if (messages == null) {
+            messages = decodeMessages();
+        }
+        return messages;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return created of the first message, null for a page without messages
+     */
+    public ZonedDateTime getFirstCreated() {
+        return firstCreated;
+    }
+
+    /**
+     * @return whether any of the messages was routed from a cluster other than its own
+     */
+    public boolean isClusterChange() {
+        return clusterChange;
+    }
+
+    /**
+     * @return whether any of the given messages was routed from a cluster other than its own
+     */
+    public static boolean isClusterChange(final List<Message> messages) {
+        return messages.stream().anyMatch(message -> !Objects.equals(message.getClusterId(), message.getRoutingId()));
+    }
+}
@@ -23,6 +23,13 @@ public class JsonHelper {
 
 
     public static ObjectMapper configureObjectMapper(final ObjectMapper mapper) {
+        return configureDatabindObjectMapper(mapper).registerModule(MessageJsonCodec.module());
+    }
+
+    /**
+     * Configuration without {@link MessageJsonCodec}, messages are mapped by databind from their annotations
+     */
+    static ObjectMapper configureDatabindObjectMapper(final ObjectMapper mapper) {
         return mapper.registerModule(new JavaTimeModule())
             .registerModule(new Jdk8Module())
             .registerModule(new ParameterNamesModule())
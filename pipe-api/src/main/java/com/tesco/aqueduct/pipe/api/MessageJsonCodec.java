@@ -0,0 +1,495 @@
+package com.tesco.aqueduct.pipe.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.std.DelegatingDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Streaming JSON mapping of {@link Message}, in place of databind reflection over its {@link
+ * com.fasterxml.jackson.annotation.JsonCreator} constructor. Lists of messages are mapped by Jackson's collection
+ * (de)serializers, one message at a time through this codec.
+ *
+ * The JSON is the same as databind's with the configuration of {@link JsonHelper}: fields in declaration order, empty
+ * ones left out, offset as a string and created as an ISO offset date time. Created is written and read without
+ * {@link java.time.format.DateTimeFormatter} when it has the fixed shape {@code yyyy-MM-ddTHH:mm:ss[.SSSSSSSSS]} with
+ * {@code Z} or a {@code +HH:MM} offset; any other value goes through the Java time module as before, and so do
+ * values of other JSON types than databind would coerce.
+ *
+ * {@link StoredMessage}s are written as the messages they stand for, their data as the UTF-8 bytes it is stored as.
+ */
+public final class MessageJsonCodec {
+
+    private static final String TYPE = "type";
+    private static final String KEY = "key";
+    private static final String CONTENT_TYPE = "contentType";
+    private static final String OFFSET = "offset";
+    private static final String CREATED = "created";
+    private static final String DATA = "data";
+
+    private static final SerializableString TYPE_FIELD = new SerializedString(TYPE);
+    private static final SerializableString KEY_FIELD = new SerializedString(KEY);
+    private static final SerializableString CONTENT_TYPE_FIELD = new SerializedString(CONTENT_TYPE);
+    private static final SerializableString OFFSET_FIELD = new SerializedString(OFFSET);
+    private static final SerializableString CREATED_FIELD = new SerializedString(CREATED);
+    private static final SerializableString DATA_FIELD = new SerializedString(DATA);
+
+    private static final int MAX_OFFSET_DIGITS = 18;
+    private static final int MAX_CREATED_LENGTH = 35;
+    private static final int MIN_CREATED_LENGTH = 17;
+    private static final int NANO_DIGITS = 9;
+    private static final long MICROS_PER_SECOND = 1_000_000;
+    private static final int SECONDS_PER_DAY = 86_400;
+    private static final int[] POWERS_OF_TEN = {
+        1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000
+    };
+
+    private MessageJsonCodec() {
+    }
+
+    public static Module module() {
+        return new SimpleModule(MessageJsonCodec.class.getSimpleName())
+            .addSerializer(Message.class, new Serializer())
+            .addSerializer(StoredMessage.class, new StoredMessageSerializer())
+            .setDeserializerModifier(new BeanDeserializerModifier() {
+                @Override
+                public JsonDeserializer<?> modifyDeserializer(
+                    final DeserializationConfig config,
+                    final BeanDescription description,
+                    final JsonDeserializer<?> deserializer
+                ) {
+                    return description.getBeanClass() == Message.class ? new Deserializer(deserializer) : deserializer;
+                }
+            });
+    }
+
+    static final class Serializer extends StdSerializer<Message> {
+
+        Serializer() {
+            super(Message.class);
+        }
+
+        @Override
+        public void serialize(final Message message, final JsonGenerator generator, final SerializerProvider provider)
+            throws IOException {
+            generator.writeStartObject();
+            writeString(generator, TYPE_FIELD, message.getType());
+            writeString(generator, KEY_FIELD, message.getKey());
+            writeString(generator, CONTENT_TYPE_FIELD, message.getContentType());
+
+            final char[] buffer = new char[MAX_CREATED_LENGTH];
+            if (message.getOffset() != null) {
+                generator.writeFieldName(OFFSET_FIELD);
+                writeOffset(generator, message.getOffset(), buffer);
+            }
+            if (message.getCreated() != null) {
+                generator.writeFieldName(CREATED_FIELD);
+                final int length = writesDatesAsText(provider) ? formatCreated(message.getCreated(), buffer) : -1;
+                if (length < 0) {
+                    provider.defaultSerializeValue(message.getCreated(), generator);
+                } else {
+                    generator.writeString(buffer, 0, length);
+                }
+            }
+
+            writeString(generator, DATA_FIELD, message.getData());
+            generator.writeEndObject();
+        }
+    }
+
+    static final class StoredMessageSerializer extends StdSerializer<StoredMessage> {
+
+        StoredMessageSerializer() {
+            super(StoredMessage.class);
+        }
+
+        @Override
+        public void serialize(final StoredMessage message, final JsonGenerator generator, final SerializerProvider provider)
+            throws IOException {
+            generator.writeStartObject();
+            writeString(generator, TYPE_FIELD, message.getType());
+            writeString(generator, KEY_FIELD, message.getKey());
+            writeString(generator, CONTENT_TYPE_FIELD, message.getContentType());
+
+            final char[] buffer = new char[MAX_CREATED_LENGTH];
+            generator.writeFieldName(OFFSET_FIELD);
+            writeOffset(generator, message.getOffset(), buffer);
+
+            generator.writeFieldName(CREATED_FIELD);
+            final int length = writesDatesAsText(provider) ? formatCreated(message.getCreatedMicros(), buffer) : -1;
+            if (length < 0) {
+                provider.defaultSerializeValue(message.getCreated(), generator);
+            } else {
+                generator.writeString(buffer, 0, length);
+            }
+
+            final byte[] data = message.getData();
+            if (data != null && data.length > 0) {
+                generator.writeFieldName(DATA_FIELD);
+                // characters outside the BMP are escaped as surrogate pairs when written from a string, and
+                // generators writing characters need the string
+                if (generator instanceof UTF8JsonGenerator && !hasSupplementaryCharacters(data)) {
+                    generator.writeUTF8String(data, 0, data.length);
+                } else {
+                    generator.writeString(new String(data, StandardCharsets.UTF_8));
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeString(final JsonGenerator generator, final SerializableString field, final String value)
+        throws IOException {
+        if (value != null && !value.isEmpty()) {
+            generator.writeFieldName(field);
+            generator.writeString(value);
+        }
+    }
+
+    private static void writeOffset(final JsonGenerator generator, final long offset, final char[] buffer)
+        throws IOException {
+        if (offset < 0) {
+            generator.writeString(Long.toString(offset));
+            return;
+        }
+
+        int position = buffer.length;
+        long remaining = offset;
+        do {
+            buffer[--position] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        generator.writeString(buffer, position, buffer.length - position);
+    }
+
+    // lead bytes of four byte UTF-8 sequences
+    private static boolean hasSupplementaryCharacters(final byte[] utf8) {
+        for (final byte b : utf8) {
+            if ((b & 0xF8) == 0xF0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // otherwise dates are written by the Java time module
+    private static boolean writesDatesAsText(final SerializerProvider provider) {
+        return !provider.isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            && !provider.isEnabled(SerializationFeature.WRITE_DATES_WITH_ZONE_ID);
+    }
+
+    static final class Deserializer extends DelegatingDeserializer {
+
+        Deserializer(final JsonDeserializer<?> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        protected JsonDeserializer<?> newDelegatingInstance(final JsonDeserializer<?> delegate) {
+            return new Deserializer(delegate);
+        }
+
+        @Override
+        public Object deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+            JsonToken token = parser.getCurrentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = parser.nextToken();
+            } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+                return super.deserialize(parser, context);
+            }
+
+            String type = null;
+            String key = null;
+            String contentType = null;
+            Long offset = null;
+            ZonedDateTime created = null;
+            String data = null;
+
+            for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+
+                switch (name) {
+                    case TYPE:
+                        type = readString(parser, context);
+                        break;
+                    case KEY:
+                        key = readString(parser, context);
+                        break;
+                    case CONTENT_TYPE:
+                        contentType = readString(parser, context);
+                        break;
+                    case OFFSET:
+                        offset = readOffset(parser, context);
+                        break;
+                    case CREATED:
+                        created = readCreated(parser, context);
+                        break;
+                    case DATA:
+                        data = readString(parser, context);
+                        break;
+                    case "size":
+                    case "clusterId":
+                    case "routingId":
+                        parser.skipChildren();
+                        break;
+                    default:
+                        context.handleUnknownProperty(parser, this, Message.class, name);
+                }
+            }
+
+            return new Message(type, key, contentType, offset, created, data);
+        }
+
+        private static String readString(final JsonParser parser, final DeserializationContext context)
+            throws IOException {
+            switch (parser.getCurrentToken()) {
+                case VALUE_STRING:
+                    return parser.getText();
+                case VALUE_NULL:
+                    return null;
+                default:
+                    return context.readValue(parser, String.class);
+            }
+        }
+
+        private static Long readOffset(final JsonParser parser, final DeserializationContext context)
+            throws IOException {
+            switch (parser.getCurrentToken()) {
+                case VALUE_NUMBER_INT:
+                    if (parser.getNumberType() == JsonParser.NumberType.INT
+                        || parser.getNumberType() == JsonParser.NumberType.LONG) {
+                        return parser.getLongValue();
+                    }
+                    break;
+                case VALUE_STRING:
+                    final long offset = parseOffset(
+                        parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength()
+                    );
+                    if (offset >= 0) {
+                        return offset;
+                    }
+                    break;
+                case VALUE_NULL:
+                    return null;
+                default:
+                    break;
+            }
+            return context.readValue(parser, Long.class);
+        }
+
+        private static ZonedDateTime readCreated(final JsonParser parser, final DeserializationContext context)
+            throws IOException {
+            if (parser.getCurrentToken() == JsonToken.VALUE_STRING
+                && !context.isEnabled(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE)) {
+                final ZonedDateTime created = parseCreated(
+                    parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength()
+                );
+                if (created != null) {
+                    return created;
+                }
+            } else if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            return context.readValue(parser, ZonedDateTime.class);
+        }
+    }
+
+    /**
+     * @return offset of up to {@link #MAX_OFFSET_DIGITS} digits, or -1 for anything else
+     */
+    static long parseOffset(final char[] chars, final int start, final int length) {
+        if (length == 0 || length > MAX_OFFSET_DIGITS) {
+            return -1;
+        }
+        long offset = 0;
+        for (int i = start; i < start + length; i++) {
+            final int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            offset = offset * 10 + digit;
+        }
+        return offset;
+    }
+
+    /**
+     * @return length of created written as ISO offset date time, or -1 when it takes the formatter to write it
+     */
+    static int formatCreated(final ZonedDateTime created, final char[] buffer) {
+        return formatCreated(
+            created.getYear(), created.getMonthValue(), created.getDayOfMonth(),
+            created.getHour(), created.getMinute(), created.getSecond(), created.getNano(),
+            created.getOffset().getTotalSeconds(), buffer
+        );
+    }
+
+    /**
+     * @return length of created written as ISO offset date time in UTC, or -1 when it takes the formatter to write it
+     */
+    static int formatCreated(final long createdMicros, final char[] buffer) {
+        final long seconds = Math.floorDiv(createdMicros, MICROS_PER_SECOND);
+        final int secondOfDay = (int) Math.floorMod(seconds, SECONDS_PER_DAY);
+        final LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(seconds, SECONDS_PER_DAY));
+        return formatCreated(
+            date.getYear(), date.getMonthValue(), date.getDayOfMonth(),
+            secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60,
+            (int) Math.floorMod(createdMicros, MICROS_PER_SECOND) * 1_000,
+            0, buffer
+        );
+    }
+
+    private static int formatCreated(
+        final int year,
+        final int month,
+        final int day,
+        final int hour,
+        final int minute,
+        final int second,
+        final int nanoOfSecond,
+        final int offsetSeconds,
+        final char[] buffer
+    ) {
+        if (year < 0 || year > 9999 || offsetSeconds % 60 != 0) {
+            return -1;
+        }
+
+        int position = writeDigits(buffer, 0, year, 4);
+        buffer[position++] = '-';
+        position = writeDigits(buffer, position, month, 2);
+        buffer[position++] = '-';
+        position = writeDigits(buffer, position, day, 2);
+        buffer[position++] = 'T';
+        position = writeDigits(buffer, position, hour, 2);
+        buffer[position++] = ':';
+        position = writeDigits(buffer, position, minute, 2);
+        buffer[position++] = ':';
+        position = writeDigits(buffer, position, second, 2);
+
+        int nano = nanoOfSecond;
+        if (nano != 0) {
+            int digits = NANO_DIGITS;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            buffer[position++] = '.';
+            position = writeDigits(buffer, position, nano, digits);
+        }
+
+        if (offsetSeconds == 0) {
+            buffer[position++] = 'Z';
+        } else {
+            final int offsetMinutes = Math.abs(offsetSeconds / 60);
+            buffer[position++] = offsetSeconds < 0 ? '-' : '+';
+            position = writeDigits(buffer, position, offsetMinutes / 60, 2);
+            buffer[position++] = ':';
+            position = writeDigits(buffer, position, offsetMinutes % 60, 2);
+        }
+        return position;
+    }
+
+    /**
+     * @return created read from an ISO offset date time of the fixed shape, or null when it takes the parser to read it
+     */
+    static ZonedDateTime parseCreated(final char[] chars, final int start, final int length) {
+        final int end = start + length;
+        if (length < MIN_CREATED_LENGTH
+            || chars[start + 4] != '-' || chars[start + 7] != '-' || chars[start + 10] != 'T' || chars[start + 13] != ':') {
+            return null;
+        }
+
+        final int year = readDigits(chars, start, 4);
+        final int month = readDigits(chars, start + 5, 2);
+        final int day = readDigits(chars, start + 8, 2);
+        final int hour = readDigits(chars, start + 11, 2);
+        final int minute = readDigits(chars, start + 14, 2);
+
+        int position = start + 16;
+        int second = 0;
+        int nano = 0;
+        if (position + 3 <= end && chars[position] == ':') {
+            second = readDigits(chars, position + 1, 2);
+            position += 3;
+
+            if (position < end && chars[position] == '.') {
+                final int fractionStart = ++position;
+                while (position < end && position - fractionStart < NANO_DIGITS && isDigit(chars[position])) {
+                    nano = nano * 10 + chars[position++] - '0';
+                }
+                if (position == fractionStart) {
+                    return null;
+                }
+                nano *= POWERS_OF_TEN[NANO_DIGITS - (position - fractionStart)];
+            }
+        }
+        if ((year | month | day | hour | minute | second) < 0) {
+            return null;
+        }
+
+        try {
+            final ZoneOffset offset;
+            if (position == end - 1 && chars[position] == 'Z') {
+                offset = ZoneOffset.UTC;
+            } else if (position == end - 6 && (chars[position] == '+' || chars[position] == '-') && chars[position + 3] == ':') {
+                final int offsetHours = readDigits(chars, position + 1, 2);
+                final int offsetMinutes = readDigits(chars, position + 4, 2);
+                if ((offsetHours | offsetMinutes) < 0) {
+                    return null;
+                }
+                final int sign = chars[position] == '-' ? -1 : 1;
+                offset = ZoneOffset.ofHoursMinutes(sign * offsetHours, sign * offsetMinutes);
+            } else {
+                return null;
+            }
+            return ZonedDateTime.of(year, month, day, hour, minute, second, nano, offset);
+        } catch (final DateTimeException exception) {
+            return null;
+        }
+    }
+
+    private static int writeDigits(final char[] buffer, final int position, final int value, final int digits) {
+        int remaining = value;
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return position + digits;
+    }
+
+    private static int readDigits(final char[] chars, final int start, final int digits) {
+        int value = 0;
+        for (int i = start; i < start + digits; i++) {
+            if (!isDigit(chars[i])) {
+                return -1;
+            }
+            value = value * 10 + chars[i] - '0';
+        }
+        return value;
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,77 @@
+package com.tesco.aqueduct.pipe.api;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.zip.Deflater;
+
+/**
+ * Page read from a block compressed ahead of time.
+ *
+ * The block holds the JSON of its messages joined by commas as a deflated segment, it is served as a gzip JSON array
+ * without serialising or compressing it again.
+ */
+public class PrecompressedMessageResults extends EncodedMessageResults {
+
+    private static final DeflatedSegment ARRAY_START = DeflatedSegment.deflate("[".getBytes(StandardCharsets.UTF_8), Deflater.BEST_COMPRESSION);
+    private static final DeflatedSegment ARRAY_END = DeflatedSegment.deflate("]".getBytes(StandardCharsets.UTF_8), Deflater.BEST_COMPRESSION);
+
+    private final DeflatedSegment messagesJson;
+
+    public PrecompressedMessageResults(
+        final DeflatedSegment messagesJson,
+        final int messageCount,
+        final ZonedDateTime firstCreated,
+        final boolean clusterChange,
+        final long retryAfterMs,
+        final OptionalLong globalLatestOffset,
+        final PipeState pipeState
+    ) {
+        super(messageCount, firstCreated, clusterChange, retryAfterMs, globalLatestOffset, pipeState);
+        this.messagesJson = messagesJson;
+    }
+
+    /**
+     * @param messages {@link Message}s or {@link StoredMessage}s
+     * @return JSON of the messages joined by commas, deflated
+     */
+    public static DeflatedSegment deflateJson(final List<?> messages, final int level) {
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                json.write(',');
+            }
+            final Object item = messages.get(i);
+            final byte[] message = item instanceof StoredMessage ? ((StoredMessage) item).toJsonBytes() : JsonHelper.toJsonBytes(item);
+            json.write(message, 0, message.length);
+        }
+        return DeflatedSegment.deflate(json.toByteArray(), level);
+    }
+
+    @Override
+    protected List<Message> decodeMessages() {
+        final byte[] items = messagesJson.inflate();
+        final byte[] json = new byte[items.length + 2];
+        json[0] = '[';
+        System.arraycopy(items, 0, json, 1, items.length);
+        json[json.length - 1] = ']';
+        return JsonHelper.messageFromJsonArray(json);
+    }
+
+    /**
+     * @return JSON array of the messages as a gzip stream
+     */
+    public byte[] toGzipJson() {
+        return toGzipJson(messagesJson);
+    }
+
+    /**
+     * @param messagesJson JSON of messages joined by commas, deflated
+     * @return JSON array of the messages as a gzip stream
+     */
+    public static byte[] toGzipJson(final DeflatedSegment messagesJson) {
+        return DeflatedSegment.gzip(ARRAY_START, messagesJson, ARRAY_END);
+    }
+}
@@ -0,0 +1,83 @@
+package com.tesco.aqueduct.pipe.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Page cached in a local segment file as a gzip JSON array, to be sent straight from the file.
+ *
+ * The file is only opened once the page is sent or its messages are decoded, so results that are never used hold
+ * nothing open. The segment can be evicted in between, the page then has to be read again.
+ */
+public class SegmentFileMessageResults extends EncodedMessageResults {
+
+    private final Path path;
+    private final long position;
+    private final long length;
+
+    public SegmentFileMessageResults(
+        final Path path,
+        final long position,
+        final long length,
+        final int messageCount,
+        final ZonedDateTime firstCreated,
+        final boolean clusterChange,
+        final long retryAfterMs,
+        final OptionalLong globalLatestOffset,
+        final PipeState pipeState
+    ) {
+        super(messageCount, firstCreated, clusterChange, retryAfterMs, globalLatestOffset, pipeState);
+        this.path = path;
+        this.position = position;
+        this.length = length;
+    }
+
+    @Override
+    protected List<Message> decodeMessages() {
+        try (FileChannel page = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer gzip = ByteBuffer.allocate((int) length);
+            while (gzip.hasRemaining()) {
+                if (page.read(gzip, position + gzip.position()) < 0) {
+                    throw new IOException("Segment file is truncated");
+                }
+            }
+
+            try (GZIPInputStream json = new GZIPInputStream(new ByteArrayInputStream(gzip.array()));
+                 ByteArrayOutputStream out = new ByteArrayOutputStream((int) length * 4)) {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = json.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return JsonHelper.messageFromJsonArray(out.toByteArray());
+            }
+        } catch (NoSuchFileException exception) {
+            throw new UncheckedIOException("Cached page was evicted before it was read", exception);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Error reading cached page", exception);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
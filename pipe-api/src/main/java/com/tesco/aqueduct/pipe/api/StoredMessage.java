@@ -0,0 +1,115 @@
+package com.tesco.aqueduct.pipe.api;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Message as read from storage to be written to the wire: created as epoch microseconds in UTC and data as the UTF-8
+ * bytes of the column, so neither is decoded for a page only sent on as JSON.
+ *
+ * Written as JSON by {@link MessageJsonCodec} the same as the {@link Message} it stands for, which is only made for
+ * readers asking for messages. A message stored along with its wire JSON is spliced into pages as that JSON instead.
+ */
+@Value
+@AllArgsConstructor
+public class StoredMessage {
+    private static final ZoneId UTC = ZoneId.of("UTC");
+    private static final long MICROS_PER_SECOND = 1_000_000;
+
+    String type;
+    String key;
+    String contentType;
+    long offset;
+    long createdMicros;
+    byte[] data;
+    long size;
+    Long clusterId;
+    Long routingId;
+    byte[] wireJson;
+
+    public StoredMessage(
+        final String type,
+        final String key,
+        final String contentType,
+        final long offset,
+        final long createdMicros,
+        final byte[] data,
+        final long size,
+        final Long clusterId,
+        final Long routingId
+    ) {
+        this(type, key, contentType, offset, createdMicros, data, size, clusterId, routingId, null);
+    }
+
+    /**
+     * @return created in the UTC zone, as storages made it before
+     */
+    public ZonedDateTime getCreated() {
+        return ZonedDateTime.of(
+            LocalDateTime.ofEpochSecond(
+                Math.floorDiv(createdMicros, MICROS_PER_SECOND),
+                (int) Math.floorMod(createdMicros, MICROS_PER_SECOND) * 1_000,
+                ZoneOffset.UTC
+            ),
+            UTC
+        );
+    }
+
+    public boolean isCreatedBefore(final ZonedDateTime time) {
+        final long seconds = Math.floorDiv(createdMicros, MICROS_PER_SECOND);
+        final long nanos = Math.floorMod(createdMicros, MICROS_PER_SECOND) * 1_000;
+        return seconds < time.toEpochSecond() || (seconds == time.toEpochSecond() && nanos < time.getNano());
+    }
+
+    public boolean isRoutedFromOtherCluster() {
+        return !Objects.equals(clusterId, routingId);
+    }
+
+    public Message toMessage() {
+        return new Message(
+            type,
+            key,
+            contentType,
+            offset,
+            getCreated(),
+            data == null ? null : new String(data, StandardCharsets.UTF_8),
+            size,
+            clusterId,
+            routingId
+        );
+    }
+
+    /**
+     * @return JSON of the message as {@link JsonHelper} writes it, the stored wire JSON when there is one
+     */
+    public byte[] toJsonBytes() {
+        return wireJson != null ? wireJson : JsonHelper.toJsonBytes(this);
+    }
+
+    /**
+     * @param created time stored without zone, in UTC
+     */
+    public static long toEpochMicros(final LocalDateTime created) {
+        return created.toEpochSecond(ZoneOffset.UTC) * MICROS_PER_SECOND + created.getNano() / 1_000;
+    }
+
+    /**
+     * @return whether any of the given messages was routed from a cluster other than its own
+     */
+    public static boolean isClusterChange(final List<StoredMessage> messages) {
+        for (final StoredMessage message : messages) {
+            if (message.isRoutedFromOtherCluster()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,67 @@
+package com.tesco.aqueduct.pipe.api;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * Page read from storage, served as JSON straight from its stored messages.
+ */
+public class StoredMessageResults extends EncodedMessageResults {
+
+    private final List<StoredMessage> storedMessages;
+
+    public StoredMessageResults(
+        final List<StoredMessage> storedMessages,
+        final long retryAfterMs,
+        final OptionalLong globalLatestOffset,
+        final PipeState pipeState
+    ) {
+        super(
+            storedMessages.size(),
+            storedMessages.isEmpty() ? null : storedMessages.get(0).getCreated(),
+            StoredMessage.isClusterChange(storedMessages),
+            retryAfterMs,
+            globalLatestOffset,
+            pipeState
+        );
+        this.storedMessages = storedMessages;
+    }
+
+    public List<StoredMessage> getStoredMessages() {
+        return storedMessages;
+    }
+
+    @Override
+    protected List<Message> decodeMessages() {
+        final List<Message> messages = new ArrayList<>(storedMessages.size());
+        for (final StoredMessage storedMessage : storedMessages) {
+            messages.add(storedMessage.toMessage());
+        }
+        return messages;
+    }
+
+    /**
+     * Messages stored with their wire JSON are spliced into the array as it is, others are serialised.
+     *
+     * @return JSON array of the messages, as UTF-8
+     */
+    public byte[] toJson() {
+        if (storedMessages.stream().noneMatch(message -> message.getWireJson() != null)) {
+            return JsonHelper.toJsonBytes(storedMessages);
+        }
+
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        json.write('[');
+        for (int i = 0; i < storedMessages.size(); i++) {
+            if (i > 0) {
+                json.write(',');
+            }
+            final byte[] message = storedMessages.get(i).toJsonBytes();
+            json.write(message, 0, message.length);
+        }
+        json.write(']');
+        return json.toByteArray();
+    }
+}
@@ -0,0 +1,71 @@
+package com.tesco.aqueduct.pipe.api
+
+import spock.lang.Specification
+
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+
+class BinaryMessageCodecSpec extends Specification {
+
+    def created = ZonedDateTime.of(2018, 11, 4, 8, 57, 45, 0, ZoneOffset.UTC)
+
+    def "messages decoded from a binary page are the ones parsed from their JSON"() {
+        given:
+        def messages = [
+            new Message("type1", "key1", "application/json", 123, created, '{"valid":"json"}'),
+            new Message("type1", "key2", "application/json", 125, created.plusNanos(5), "data"),
+            new Message("type2", "key3", "text/plain", 124, created.minusDays(1), null),
+            new Message("type2", "ключ", "text/plain", Long.MAX_VALUE, ZonedDateTime.of(2020, 1, 1, 1, 1, 1, 1, ZoneOffset.ofHours(2)), "дані")
+        ]
+
+        when:
+        def decoded = BinaryMessageCodec.decode(BinaryMessageCodec.encode(messages))
+
+        then:
+        decoded == JsonHelper.messageFromJsonArray(JsonHelper.toJson(messages).bytes)
+        decoded == messages
+    }
+
+    def "time zones are kept"() {
+        given:
+        def messages = [new Message("type1", "key1", "ct", 1, created.withZoneSameInstant(ZoneId.of("Europe/London")), "data")]
+
+        expect:
+        BinaryMessageCodec.decode(BinaryMessageCodec.encode(messages)) == messages
+    }
+
+    def "an empty page is encoded"() {
+        expect:
+        BinaryMessageCodec.decode(BinaryMessageCodec.encode([])) == []
+    }
+
+    def "missing fields are kept missing"() {
+        given:
+        def messages = [new Message(null, null, null, null, null, null)]
+
+        expect:
+        BinaryMessageCodec.decode(BinaryMessageCodec.encode(messages)) == messages
+    }
+
+    def "binary page is smaller than the JSON of the same messages"() {
+        given:
+        def messages = (0..<100).collect {
+            new Message("type1", "key$it", "application/json", 1000 + it, created.plusSeconds(it), '{"some":"data"}')
+        }
+
+        expect:
+        BinaryMessageCodec.encode(messages).length < JsonHelper.toJson(messages).bytes.length / 2
+    }
+
+    def "truncated page is rejected"() {
+        given:
+        def page = BinaryMessageCodec.encode([new Message("type1", "key1", "ct", 1, created, "data")])
+
+        when:
+        BinaryMessageCodec.decode(Arrays.copyOf(page, page.length - 2))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
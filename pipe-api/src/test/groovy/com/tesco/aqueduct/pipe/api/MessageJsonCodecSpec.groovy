@@ -0,0 +1,118 @@
+package com.tesco.aqueduct.pipe.api
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.exc.InvalidFormatException
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+
+class MessageJsonCodecSpec extends Specification {
+
+    static final ObjectMapper DATABIND = JsonHelper.configureDatabindObjectMapper(new ObjectMapper())
+    static final ZonedDateTime CREATED = ZonedDateTime.of(2018, 11, 4, 8, 57, 45, 0, ZoneOffset.UTC)
+
+    @Unroll
+    def "message is written byte for byte as databind writes it when #description"() {
+        expect:
+        JsonHelper.MAPPER.writeValueAsBytes(message) == DATABIND.writeValueAsBytes(message)
+
+        and:
+        JsonHelper.toJson([message, message]) == DATABIND.writeValueAsString([message, message])
+
+        where:
+        message                                                                    | description
+        new Message("type", "key", "application/json", 123, CREATED, "data")       | "all fields are set"
+        new Message(null, null, null, null, null, null)                            | "all fields are null"
+        new Message("", "", "", 0, CREATED, "")                                    | "strings are empty"
+        new Message("type", "key", null, Long.MAX_VALUE, CREATED, null)            | "offset is the largest"
+        new Message("type", "key", null, -1, CREATED, null)                        | "offset is negative"
+        new Message("type", "q\"b\\\n\u0001é✓😀", null, 1, CREATED, "{\"a\":[1]}") | "strings need escaping"
+        message(CREATED.withNano(1))                                               | "created has a nanosecond"
+        message(CREATED.withNano(120_000_000))                                     | "created has milliseconds"
+        message(CREATED.withNano(123_456_789))                                     | "created has nanoseconds"
+        message(CREATED.withZoneSameInstant(ZoneOffset.ofHours(1)))                | "created has an offset"
+        message(CREATED.withZoneSameInstant(ZoneOffset.ofHoursMinutes(-5, -30)))   | "created has a negative offset"
+        message(CREATED.withZoneSameInstant(ZoneOffset.ofTotalSeconds(3630)))      | "created has an offset in seconds"
+        message(CREATED.withZoneSameInstant(ZoneId.of("Europe/London")))           | "created has a region"
+        message(CREATED.withYear(1))                                               | "created has a small year"
+        message(CREATED.withYear(10000))                                           | "created has a large year"
+    }
+
+    @Unroll
+    def "message is read as databind reads it when #description"() {
+        expect:
+        JsonHelper.messageFromJson(json) == DATABIND.readValue(json, Message)
+
+        where:
+        json                                                     | description
+        '{"type":"t","key":"k","offset":"1","data":"d"}'         | "offset is a string"
+        '{"offset":1}'                                           | "offset is a number"
+        '{"offset":" 1"}'                                        | "offset is a string to trim"
+        '{"offset":""}'                                          | "offset is empty"
+        '{"offset":null}'                                        | "offset is null"
+        '{"created":"2018-11-04T08:57:45Z"}'                     | "created is in UTC"
+        '{"created":"2018-11-04T08:57Z"}'                        | "created has no seconds"
+        '{"created":"2018-11-04T08:57:45.000000001Z"}'           | "created has nanoseconds"
+        '{"created":"2018-11-04T08:57:45.12+01:00"}'             | "created has an offset"
+        '{"created":"2018-11-04T08:57:45-00:00"}'                | "created has a negative zero offset"
+        '{"created":"2018-11-04T08:57:45+01:00[Europe/London]"}' | "created has a region"
+        '{"created":"2018-11-04t08:57:45z"}'                     | "created is in lower case"
+        '{"created":""}'                                         | "created is empty"
+        '{"type":1,"key":true,"data":null}'                      | "strings are scalars"
+        '{"size":{"a":1},"clusterId":2,"routingId":3}'           | "ignored fields are set"
+        '{/* comment */"type":"t","type":"u"}'                   | "fields are repeated"
+        '""'                                                     | "message is empty"
+    }
+
+    @Unroll
+    def "message failing with databind fails alike when #description"() {
+        when:
+        JsonHelper.messageFromJson(json)
+
+        then:
+        exception.isInstance(thrown(Exception))
+
+        when:
+        DATABIND.readValue(json, Message)
+
+        then:
+        exception.isInstance(thrown(Exception))
+
+        where:
+        json                                      | exception                     | description
+        '{"unknown":1}'                           | UnrecognizedPropertyException | "field is unknown"
+        '{"offset":"abc"}'                        | InvalidFormatException        | "offset is not a number"
+        '{"created":"2018-02-30T08:57:45Z"}'      | InvalidFormatException        | "created is not a date"
+        '{"created":"2018-11-04T24:00:00Z"}'      | InvalidFormatException        | "created is not a time"
+        '{"created":"2018-11-04T08:57:45+19:00"}' | InvalidFormatException        | "created has an offset out of range"
+    }
+
+    def "messages are read as a list as databind reads them"() {
+        given:
+        def json = '[{"type":"t","offset":"1"},null,{"offset":2,"created":"2018-11-04T08:57:45Z"}]'
+
+        expect:
+        JsonHelper.messageFromJsonArray(json) == DATABIND.readValue(json, DATABIND.typeFactory.constructCollectionType(List, Message))
+
+        and:
+        JsonHelper.messageFromJsonArray('{"type":"t"}') == [new Message("t", null, null, null, null, null)]
+    }
+
+    def "messages written are read back"() {
+        given:
+        def messages = (1..100).collect {
+            new Message("type" + it % 3, "key" + it, "application/json", it, CREATED.plusSeconds(it).withNano(it * 1000), "data" + it)
+        }
+
+        expect:
+        JsonHelper.messageFromJsonArray(JsonHelper.toJson(messages)) == messages
+    }
+
+    private static Message message(ZonedDateTime created) {
+        new Message("type", "key", "application/json", 1, created, "data")
+    }
+}
@@ -0,0 +1,77 @@
+package com.tesco.aqueduct.pipe.api
+
+import spock.lang.Specification
+
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.GZIPInputStream
+
+class PrecompressedMessageResultsSpec extends Specification {
+
+    def created = ZonedDateTime.of(2018, 11, 4, 8, 57, 45, 0, ZoneOffset.UTC)
+
+    def messages = [
+        new Message("type1", "key1", "application/json", 123, created, '{"valid":"json"}'),
+        new Message("type2", "key2", "text/plain", 124, created.plusSeconds(1), null)
+    ]
+
+    def "the compressed page is the gzip of the JSON array of its messages"() {
+        given:
+        def results = precompressed(messages)
+
+        expect:
+        new String(gunzip(results.toGzipJson()), "UTF-8") == JsonHelper.toJson(messages)
+    }
+
+    def "messages are decoded when asked for"() {
+        expect:
+        precompressed(messages).messages == messages
+    }
+
+    def "joined segments are a single gzip stream of their content"() {
+        given:
+        def parts = ["first", "", "x" * 100_000, "last"]
+
+        when:
+        def gzip = DeflatedSegment.gzip(parts.collect { DeflatedSegment.deflate(it.bytes, Deflater.DEFAULT_COMPRESSION) } as DeflatedSegment[])
+
+        then:
+        new String(gunzip(gzip)) == parts.join()
+    }
+
+    def "checksums of joined content are combined from the checksums of the parts"() {
+        given:
+        def first = "some content".bytes
+        def second = ("more content" * 1000).bytes
+
+        expect:
+        DeflatedSegment.combineCrc(crc(first), crc(second), second.length) == crc(("some content" + "more content" * 1000).bytes)
+    }
+
+    def "segment is inflated back to its content"() {
+        given:
+        def content = ("content" * 10_000).bytes
+
+        expect:
+        DeflatedSegment.deflate(content, Deflater.BEST_COMPRESSION).inflate() == content
+    }
+
+    private PrecompressedMessageResults precompressed(List<Message> messages) {
+        def json = messages.collect { JsonHelper.toJson(it) }.join(",").getBytes("UTF-8")
+        new PrecompressedMessageResults(
+            DeflatedSegment.deflate(json, Deflater.BEST_COMPRESSION), messages.size(), created, false, 0, OptionalLong.of(124), PipeState.UP_TO_DATE
+        )
+    }
+
+    private static byte[] gunzip(byte[] bytes) {
+        new GZIPInputStream(new ByteArrayInputStream(bytes)).bytes
+    }
+
+    private static long crc(byte[] bytes) {
+        def crc = new CRC32()
+        crc.update(bytes)
+        crc.value
+    }
+}
@@ -0,0 +1,122 @@
+package com.tesco.aqueduct.pipe.api
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.StandardCharsets
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.ZonedDateTime
+
+class StoredMessageSpec extends Specification {
+
+    static final LocalDateTime CREATED = LocalDateTime.of(2018, 11, 4, 8, 57, 45, 123_456_000)
+
+    def "stored message turns into the message storages read before"() {
+        given:
+        def stored = new StoredMessage("type", "key", "application/json", 12, StoredMessage.toEpochMicros(CREATED), bytes("data"), 100, 1L, 2L)
+
+        expect:
+        stored.toMessage() == new Message("type", "key", "application/json", 12, ZonedDateTime.of(CREATED, ZoneId.of("UTC")), "data", 100, 1L, 2L)
+    }
+
+    @Unroll
+    def "stored message is written as JSON byte for byte as its message when #description"() {
+        given:
+        def stored = new StoredMessage("type", "key", "application/json", 12, StoredMessage.toEpochMicros(created), data == null ? null : bytes(data), 0, null, null)
+
+        expect:
+        JsonHelper.toJsonBytes([stored]) == JsonHelper.toJsonBytes([stored.toMessage()])
+        JsonHelper.toJson([stored]) == JsonHelper.toJson([stored.toMessage()])
+
+        where:
+        created                                | data               | description
+        CREATED                                | '{"a":[1,"b"]}'    | "data is JSON"
+        CREATED                                | null               | "data is null"
+        CREATED                                | ""                 | "data is empty"
+        CREATED                                | "q\"b\\\n\u0001é✓" | "data needs escaping"
+        CREATED                                | "emoji 😀"          | "data has characters outside the BMP"
+        CREATED.withNano(0)                    | "data"             | "created has no fraction"
+        CREATED.withNano(1_000)                | "data"             | "created has a microsecond"
+        LocalDateTime.of(1969, 12, 31, 23, 59) | "data"             | "created is before the epoch"
+        LocalDateTime.of(12018, 1, 1, 0, 0)    | "data"             | "created has a large year"
+    }
+
+    def "stored message is created before a time later than created only"() {
+        given:
+        def created = ZonedDateTime.of(CREATED, ZoneId.of("UTC"))
+        def stored = new StoredMessage("type", "key", null, 1, StoredMessage.toEpochMicros(CREATED), null, 0, null, null)
+
+        expect:
+        stored.isCreatedBefore(created.plusNanos(1))
+        !stored.isCreatedBefore(created)
+        !stored.isCreatedBefore(created.minusNanos(1))
+    }
+
+    def "messages of a page of stored messages are only made when asked for"() {
+        given:
+        def stored = [
+            new StoredMessage("type", "key1", null, 1, StoredMessage.toEpochMicros(CREATED), bytes("data"), 0, 1L, 1L),
+            new StoredMessage("type", "key2", null, 2, StoredMessage.toEpochMicros(CREATED), null, 0, 1L, 2L)
+        ]
+
+        when:
+        def page = new StoredMessageResults(stored, 0, OptionalLong.of(2), PipeState.UP_TO_DATE)
+
+        then:
+        page.messageCount == 2
+        page.firstCreated == ZonedDateTime.of(CREATED, ZoneId.of("UTC"))
+        page.clusterChange
+        JsonHelper.messageFromJsonArray(page.toJson()) == page.messages.collect { it.withSize(0).withClusterId(null).withRoutingId(null) }
+        page.messages == stored*.toMessage()
+    }
+
+    def "page of messages stored with their wire JSON is written as the page serialised"() {
+        given:
+        def stored = (1..5).collect {
+            new StoredMessage("type", "key$it", "application/json", it, StoredMessage.toEpochMicros(CREATED.plusSeconds(it)), bytes("data 😀 $it"), 0, 1L, 1L)
+        }
+        def withWireJson = stored.withIndex().collect { message, i ->
+            i == 2 ? message : withWireJson(message)
+        }
+
+        expect:
+        new StoredMessageResults(withWireJson, 0, OptionalLong.empty(), PipeState.UP_TO_DATE).toJson() ==
+            new StoredMessageResults(stored, 0, OptionalLong.empty(), PipeState.UP_TO_DATE).toJson()
+
+        and:
+        PrecompressedMessageResults.deflateJson(withWireJson, 6).inflate() == PrecompressedMessageResults.deflateJson(stored, 6).inflate()
+    }
+
+    def "wire JSON of a stored message is used as it is"() {
+        given:
+        def stored = new StoredMessage("type", "key", null, 1, StoredMessage.toEpochMicros(CREATED), bytes("data"), 0, null, null, bytes('{"spliced":true}'))
+
+        expect:
+        new String(new StoredMessageResults([stored, stored], 0, OptionalLong.empty(), PipeState.UP_TO_DATE).toJson(), StandardCharsets.UTF_8) ==
+            '[{"spliced":true},{"spliced":true}]'
+    }
+
+    def "page without stored messages has no first created"() {
+        when:
+        def page = new StoredMessageResults([], 1000, OptionalLong.empty(), PipeState.UP_TO_DATE)
+
+        then:
+        page.messageCount == 0
+        page.firstCreated == null
+        !page.clusterChange
+        page.messages == []
+        new String(page.toJson(), StandardCharsets.UTF_8) == "[]"
+    }
+
+    private static StoredMessage withWireJson(StoredMessage message) {
+        new StoredMessage(
+            message.type, message.key, message.contentType, message.offset, message.createdMicros, message.data, message.size,
+            message.clusterId, message.routingId, JsonHelper.toJsonBytes(message)
+        )
+    }
+
+    private static byte[] bytes(String value) {
+        value.getBytes(StandardCharsets.UTF_8)
+    }
+}
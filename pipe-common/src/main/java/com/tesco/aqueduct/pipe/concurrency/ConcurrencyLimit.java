@@ -0,0 +1,20 @@
+package com.tesco.aqueduct.pipe.concurrency;
+
+import io.micronaut.aop.Around;
+import io.micronaut.context.annotation.Type;
+
+import java.lang.annotation.*;
+
+/**
+ * Bounds the number of concurrent invocations to the permits configured under concurrency.limits.{value},
+ * e.g. the size of the connection pool the invocations use. Without configured permits, or without virtual threads
+ * enabled under executors.virtual-threads.enabled, invocations are not limited.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Around
+@Type(ConcurrencyLimitInterceptor.class)
+public @interface ConcurrencyLimit {
+    String value();
+}
@@ -0,0 +1,7 @@
+package com.tesco.aqueduct.pipe.concurrency;
+
+public class ConcurrencyLimitExceededException extends RuntimeException {
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+}
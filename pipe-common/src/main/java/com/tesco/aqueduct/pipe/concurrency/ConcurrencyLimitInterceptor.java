@@ -0,0 +1,90 @@
+package com.tesco.aqueduct.pipe.concurrency;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.aop.MethodInterceptor;
+import io.micronaut.aop.MethodInvocationContext;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.core.value.PropertyResolver;
+import jakarta.inject.Singleton;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits invocations only when blocking work runs on virtual threads, otherwise the bounded thread pools already
+ * bound them and invocations proceed as they are.
+ */
+@Singleton
+public class ConcurrencyLimitInterceptor implements MethodInterceptor<Object, Object> {
+
+    private final PropertyResolver propertyResolver;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration timeout;
+    private final Map<String, Optional<Semaphore>> limits = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimitInterceptor(
+        final PropertyResolver propertyResolver,
+        final MeterRegistry meterRegistry,
+        @Value("${executors.virtual-threads.enabled:false}") final boolean enabled,
+        @Value("${concurrency.limits.timeout:30s}") final Duration timeout
+    ) {
+        this.propertyResolver = propertyResolver;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public Object intercept(final MethodInvocationContext<Object, Object> context) {
+        if (!enabled) {
+            return context.proceed();
+        }
+
+        final String name = context.stringValue(ConcurrencyLimit.class).orElse("default");
+        final Optional<Semaphore> limit = limits.computeIfAbsent(name, this::createLimit);
+
+        if (!limit.isPresent()) {
+            return context.proceed();
+        }
+
+        final Semaphore permits = limit.get();
+        acquire(name, permits);
+        try {
+            return context.proceed();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void acquire(final String name, final Semaphore permits) {
+        try {
+            if (!permits.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ConcurrencyLimitExceededException("No permit available for " + name + " within " + timeout);
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new ConcurrencyLimitExceededException("Interrupted waiting for permit for " + name);
+        }
+    }
+
+    private Optional<Semaphore> createLimit(final String name) {
+        return propertyResolver
+            .getProperty("concurrency.limits." + name, Integer.class)
+            .map(permits -> {
+                final Semaphore semaphore = new Semaphore(permits, true);
+                Gauge.builder("pipe.concurrency.available", semaphore, Semaphore::availablePermits)
+                    .tag("name", name)
+                    .register(meterRegistry);
+                Gauge.builder("pipe.concurrency.waiting", semaphore, Semaphore::getQueueLength)
+                    .tag("name", name)
+                    .register(meterRegistry);
+                return semaphore;
+            });
+    }
+}
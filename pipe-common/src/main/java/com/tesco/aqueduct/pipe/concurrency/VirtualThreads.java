@@ -0,0 +1,38 @@
+package com.tesco.aqueduct.pipe.concurrency;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual thread executors when the running JDK supports them, the project is compiled for Java 8 hence
+ * the reflective access.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return newThreadPerTaskExecutor("probe").map(executor -> {
+            executor.shutdown();
+            return true;
+        }).orElse(false);
+    }
+
+    public static Optional<ExecutorService> newThreadPerTaskExecutor(final String namePrefix) {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix + "-", 0L);
+            final ThreadFactory threadFactory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+
+            final Method newThreadPerTaskExecutor =
+                java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return Optional.of((ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory));
+        } catch (ReflectiveOperationException | LinkageError exception) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.tesco.aqueduct.pipe.concurrency
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BoundedExecutorServiceSpec extends Specification {
+
+    ExecutorService delegate = Executors.newCachedThreadPool()
+
+    def cleanup() {
+        delegate.shutdownNow()
+    }
+
+    def "no more tasks than permits run at once"() {
+        given:
+        def executor = new BoundedExecutorService(delegate, 2)
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+        def done = new CountDownLatch(10)
+
+        when:
+        10.times {
+            executor.execute {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math.&max)
+                Thread.sleep(20)
+                running.decrementAndGet()
+                done.countDown()
+            }
+        }
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        maxRunning.get() == 2
+        executor.availablePermits() == 2
+    }
+
+    def "tasks over the limit wait for a permit"() {
+        given:
+        def executor = new BoundedExecutorService(delegate, 1)
+        def release = new CountDownLatch(1)
+        def started = new CountDownLatch(1)
+
+        when:
+        executor.execute { started.countDown(); release.await() }
+        started.await(5, TimeUnit.SECONDS)
+        def second = executor.submit({ "second" } as java.util.concurrent.Callable)
+
+        then:
+        waitFor { executor.waiting() == 1 }
+        executor.availablePermits() == 0
+        !second.isDone()
+
+        when:
+        release.countDown()
+
+        then:
+        second.get(5, TimeUnit.SECONDS) == "second"
+    }
+
+    def "permit is released when a task fails"() {
+        given:
+        def executor = new BoundedExecutorService(delegate, 1)
+
+        when:
+        def failed = executor.submit({ throw new IllegalStateException() } as Runnable)
+        failed.get(5, TimeUnit.SECONDS)
+
+        then:
+        thrown(Exception)
+        executor.submit({ "next" } as java.util.concurrent.Callable).get(5, TimeUnit.SECONDS) == "next"
+    }
+
+    def "shutdown is delegated"() {
+        given:
+        def executor = new BoundedExecutorService(delegate, 1)
+
+        when:
+        executor.shutdown()
+
+        then:
+        executor.isShutdown()
+        delegate.isShutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+    }
+
+    private static boolean waitFor(Closure<Boolean> condition) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        condition()
+    }
+}
@@ -0,0 +1,99 @@
+package com.tesco.aqueduct.pipe.concurrency
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.micronaut.aop.MethodInvocationContext
+import io.micronaut.core.value.PropertyResolver
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ConcurrencyLimitInterceptorSpec extends Specification {
+
+    PropertyResolver propertyResolver = Mock()
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+
+    def "invocations beyond the configured permits fail once the timeout is reached"() {
+        given:
+        propertyResolver.getProperty("concurrency.limits.registry", Integer) >> Optional.of(1)
+        def interceptor = new ConcurrencyLimitInterceptor(propertyResolver, meterRegistry, true, Duration.ofMillis(50))
+        def release = new CountDownLatch(1)
+        def started = new CountDownLatch(1)
+        def executor = Executors.newSingleThreadExecutor()
+
+        and: "an invocation holding the only permit"
+        executor.submit {
+            interceptor.intercept(context("registry") { started.countDown(); release.await(); "first" })
+        }
+        started.await(5, TimeUnit.SECONDS)
+
+        when:
+        interceptor.intercept(context("registry") { "second" })
+
+        then:
+        thrown(ConcurrencyLimitExceededException)
+        meterRegistry.get("pipe.concurrency.available").tag("name", "registry").gauge().value() == 0
+
+        when: "the permit is released"
+        release.countDown()
+
+        then:
+        waitFor { meterRegistry.get("pipe.concurrency.available").tag("name", "registry").gauge().value() == 1 }
+        interceptor.intercept(context("registry") { "third" }) == "third"
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "permit is released when the invocation fails"() {
+        given:
+        propertyResolver.getProperty("concurrency.limits.registry", Integer) >> Optional.of(1)
+        def interceptor = new ConcurrencyLimitInterceptor(propertyResolver, meterRegistry, true, Duration.ofMillis(50))
+
+        when:
+        interceptor.intercept(context("registry") { throw new IllegalStateException() })
+
+        then:
+        thrown(IllegalStateException)
+        interceptor.intercept(context("registry") { "next" }) == "next"
+    }
+
+    def "invocations without configured permits are not limited"() {
+        given:
+        propertyResolver.getProperty("concurrency.limits.location", Integer) >> Optional.empty()
+        def interceptor = new ConcurrencyLimitInterceptor(propertyResolver, meterRegistry, true, Duration.ofMillis(50))
+
+        expect:
+        interceptor.intercept(context("location") { "result" }) == "result"
+        meterRegistry.find("pipe.concurrency.available").gauge() == null
+    }
+
+    def "invocations are not limited without virtual threads"() {
+        given:
+        def interceptor = new ConcurrencyLimitInterceptor(propertyResolver, meterRegistry, false, Duration.ofMillis(50))
+
+        when:
+        def result = interceptor.intercept(context("registry") { "result" })
+
+        then:
+        result == "result"
+        0 * propertyResolver.getProperty(*_)
+    }
+
+    private MethodInvocationContext<Object, Object> context(String name, Closure<Object> invocation) {
+        Stub(MethodInvocationContext) {
+            stringValue(ConcurrencyLimit) >> Optional.of(name)
+            proceed() >> { invocation() }
+        }
+    }
+
+    private static boolean waitFor(Closure<Boolean> condition) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        condition()
+    }
+}
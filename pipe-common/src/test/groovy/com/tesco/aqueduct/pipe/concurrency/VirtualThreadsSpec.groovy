@@ -0,0 +1,39 @@
+package com.tesco.aqueduct.pipe.concurrency
+
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.TimeUnit
+
+class VirtualThreadsSpec extends Specification {
+
+    // virtual threads are final from JDK 21, "1.8" and the like parse as versions before it
+    static boolean virtualThreadsAvailable() {
+        System.getProperty("java.specification.version").tokenize(".")[0].toInteger() >= 21
+    }
+
+    @Requires({ VirtualThreadsSpec.virtualThreadsAvailable() })
+    def "tasks run on named virtual threads when the JDK supports them"() {
+        given:
+        def executor = VirtualThreads.newThreadPerTaskExecutor("pipe-read").get()
+
+        when:
+        def thread = executor.submit({ Thread.currentThread() } as Callable<Thread>).get(5, TimeUnit.SECONDS)
+
+        then:
+        VirtualThreads.isSupported()
+        thread.isVirtual()
+        thread.name.startsWith("pipe-read-")
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    @Requires({ !VirtualThreadsSpec.virtualThreadsAvailable() })
+    def "no executor is created when the JDK does not support virtual threads"() {
+        expect:
+        !VirtualThreads.isSupported()
+        !VirtualThreads.newThreadPerTaskExecutor("pipe-read").isPresent()
+    }
+}
@@ -111,6 +111,7 @@ class PipeLoadBalancerIntegrationSpec extends Specification {
             }
         }
         serviceList.update([URL(serverA.httpUrl), URL(serverB.httpUrl)])
+        serviceList.stateChecked().blockingAwait()
 
         serverA.expectations {
             def offset = 0
@@ -185,6 +186,13 @@ class PipeLoadBalancerIntegrationSpec extends Specification {
         then: "second server is called"
         secondMessages.messages*.key == ["x1"]
         serverB.verify()
+
+        and: "reads are charged to the server that served them"
+        def services = serviceList.stream().collect()
+        !services[0].health.readLatencyMs.isNaN()
+        services[0].health.errorRate > 0
+        !services[1].health.readLatencyMs.isNaN()
+        services[1].health.errorRate == 0
     }
 
     def "a client respects the base path of the service it is calling"() {
@@ -230,6 +238,7 @@ class PipeLoadBalancerIntegrationSpec extends Specification {
         and: "loadbalancer is updated with the server url including the base path"
         def serverUrl = serverA.getHttpUrl() + basePath
         serviceList.update([ URL(serverUrl) ])
+        serviceList.stateChecked().blockingAwait()
 
         when: "the client calls the server"
         client.read([], 0, "locationUuid")
@@ -255,6 +264,7 @@ class PipeLoadBalancerIntegrationSpec extends Specification {
         }
 
         serviceList.update([URL(serverA.httpUrl)])
+        serviceList.stateChecked().blockingAwait()
 
         when: "we marked server as unhealthy"
         serviceList.stream().findFirst().ifPresent({ c -> c.isUp(false) })
@@ -0,0 +1,32 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.pipe.api.BinaryMessageCodec;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.annotation.Filter;
+import io.micronaut.http.filter.ClientFilterChain;
+import io.micronaut.http.filter.HttpClientFilter;
+import org.reactivestreams.Publisher;
+
+/**
+ * Asks pipe servers for binary pages, servers not supporting them keep answering with JSON
+ */
+@Filter(serviceId = "pipe")
+@Requires(property = "pipe.http.client.binary-pages", value = "true")
+public class BinaryPageFilter implements HttpClientFilter {
+
+    private static final String ACCEPT = BinaryMessageCodec.MEDIA_TYPE + ", " + MediaType.APPLICATION_JSON + ";q=0.9";
+
+    @Override
+    public Publisher<? extends HttpResponse<?>> doFilter(
+        final MutableHttpRequest<?> request, final ClientFilterChain chain
+    ) {
+        if (request.getPath().matches(".*/pipe/\\d+")) {
+            request.getHeaders().set(HttpHeaders.ACCEPT, ACCEPT);
+        }
+        return chain.proceed(request);
+    }
+}
@@ -55,7 +55,7 @@ public class HttpPipeClient implements Reader {
                 .orElse(defaultRetryAfter));
 
         return new MessageResults(
-            JsonHelper.messageFromJsonArray(responseBody),
+            isBinaryPage(response) ? BinaryMessageCodec.decode(responseBody) : JsonHelper.messageFromJsonArray(responseBody),
             retryAfter,
             getGlobalOffsetHeader(response),
             getPipeState(response)
@@ -80,6 +80,12 @@ public class HttpPipeClient implements Reader {
         }
     }
 
+    private boolean isBinaryPage(HttpResponse<?> response) {
+        return response.getContentType()
+            .map(mediaType -> BinaryMessageCodec.MEDIA_TYPE.equals(mediaType.getName()))
+            .orElse(false);
+    }
+
     private OptionalLong getGlobalOffsetHeader(HttpResponse<?> response) {
         String globalLatestOffset = response.header(HttpHeaders.GLOBAL_LATEST_OFFSET);
         return globalLatestOffset == null ? OptionalLong.empty() : OptionalLong.of(Long.parseLong(globalLatestOffset));
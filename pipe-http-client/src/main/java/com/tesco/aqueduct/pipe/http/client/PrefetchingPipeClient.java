@@ -0,0 +1,186 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.pipe.api.*;
+import com.tesco.aqueduct.pipe.codec.Codec;
+import io.micronaut.context.annotation.Bean;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Replaces;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.core.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import lombok.Value;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads pages ahead of the writer while it persists the page it was given.
+ *
+ * When a page says the next one can be read straight away (retry after of 0), the page after it is requested in the
+ * background, from the offset following its last message. Requests are issued one at a time, and at most window
+ * pages are requested or held for the writer, the window is topped up as the writer takes pages.
+ *
+ * The writer is expected to ask for the offset following the last message it persisted, with the same types and
+ * location. A read for anything else, e.g. after a bootstrap, discards the pages read ahead and is served directly.
+ * A page that failed to be read ahead is read again directly, so errors reach the writer as they would without
+ * prefetching.
+ */
+@Named("remote")
+@Bean(preDestroy = "close")
+@Replaces(HttpPipeClient.class)
+@Requires(property = "pipe.http.client.prefetch.window")
+public class PrefetchingPipeClient implements Reader, AutoCloseable {
+
+    private final Reader delegate;
+    private final int window;
+    private final ExecutorService executor;
+
+    // guarded by this
+    private final Deque<Prefetch> pages = new ArrayDeque<>();
+    private Request nextRequest;
+    private long generation;
+
+    public PrefetchingPipeClient(final Reader delegate, final int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Prefetch window has to be at least 1");
+        }
+        this.delegate = delegate;
+        this.window = window;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "pipe-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Inject
+    public PrefetchingPipeClient(
+        final InternalHttpPipeClient client,
+        final Codec codec,
+        @Property(name = "persistence.read.default-retry-after") long defaultRetryAfter,
+        @Property(name = "pipe.http.client.prefetch.window") int window
+    ) {
+        this(new HttpPipeClient(client, codec, defaultRetryAfter), window);
+    }
+
+    @Override
+    public MessageResults read(@Nullable final List<String> types, final long offset, final String locationUuid) {
+        final Request request = new Request(types, offset, locationUuid);
+        final Prefetch prefetched = take(request);
+
+        if (prefetched != null) {
+            try {
+                final MessageResults results = prefetched.results.get();
+                fillWindow();
+                return results;
+            } catch (ExecutionException exception) {
+                discard();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(exception);
+            }
+        }
+
+        final MessageResults results = delegate.read(types, offset, locationUuid);
+        synchronized (this) {
+            if (pages.isEmpty()) {
+                nextRequest = request.following(results);
+            }
+        }
+        fillWindow();
+        return results;
+    }
+
+    private synchronized Prefetch take(final Request request) {
+        final Prefetch head = pages.peekFirst();
+        if (head == null || !head.request.equals(request)) {
+            discard();
+            return null;
+        }
+        return pages.pollFirst();
+    }
+
+    private synchronized void discard() {
+        generation++;
+        pages.clear();
+        nextRequest = null;
+    }
+
+    private synchronized void fillWindow() {
+        while (nextRequest != null && pages.size() < window) {
+            final Request request = nextRequest;
+            final long requestGeneration = generation;
+            nextRequest = null;
+
+            final CompletableFuture<MessageResults> results = CompletableFuture.supplyAsync(
+                () -> delegate.read(request.types, request.offset, request.locationUuid),
+                executor
+            );
+            pages.addLast(new Prefetch(request, results));
+
+            // the page after this one is only known once this one is read
+            results.thenAccept(page -> prefetched(request, page, requestGeneration));
+        }
+    }
+
+    private synchronized void prefetched(final Request request, final MessageResults page, final long requestGeneration) {
+        if (requestGeneration == generation) {
+            nextRequest = request.following(page);
+            fillWindow();
+        }
+    }
+
+    /**
+     * @return number of pages requested or held for the writer
+     */
+    synchronized int prefetchedPages() {
+        return pages.size();
+    }
+
+    @Override
+    public OptionalLong getOffset(final OffsetName offsetName) {
+        return delegate.getOffset(offsetName);
+    }
+
+    @Override
+    public PipeState getPipeState() {
+        return delegate.getPipeState();
+    }
+
+    @Override
+    public void close() {
+        discard();
+        executor.shutdownNow();
+    }
+
+    @Value
+    private static class Request {
+        List<String> types;
+        long offset;
+        String locationUuid;
+
+        /**
+         * @return request for the page after the given one, null when it should not be read straight away
+         */
+        Request following(final MessageResults page) {
+            final List<Message> messages = page.getMessages();
+            if (page.getRetryAfterMs() != 0 || messages == null || messages.isEmpty()) {
+                return null;
+            }
+            return new Request(types, messages.get(messages.size() - 1).getOffset() + 1, locationUuid);
+        }
+    }
+
+    @Value
+    private static class Prefetch {
+        Request request;
+        CompletableFuture<MessageResults> results;
+    }
+}
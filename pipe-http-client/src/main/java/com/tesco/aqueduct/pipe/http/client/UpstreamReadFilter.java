@@ -0,0 +1,44 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.registry.client.PipeLoadBalancer;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.annotation.Filter;
+import io.micronaut.http.filter.ClientFilterChain;
+import io.micronaut.http.filter.HttpClientFilter;
+import io.reactivex.Flowable;
+import org.reactivestreams.Publisher;
+
+import java.net.URI;
+
+/**
+ * Tells the load balancer how long reads take and which fail, charged to the upstream each request was resolved to
+ */
+@Filter(serviceId = "pipe")
+@Requires(beans = PipeLoadBalancer.class)
+public class UpstreamReadFilter implements HttpClientFilter {
+
+    private final PipeLoadBalancer loadBalancer;
+
+    public UpstreamReadFilter(final PipeLoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    @Override
+    public Publisher<? extends HttpResponse<?>> doFilter(
+        final MutableHttpRequest<?> request, final ClientFilterChain chain
+    ) {
+        if (!request.getPath().matches(".*/pipe/\\d+")) {
+            return chain.proceed(request);
+        }
+
+        return Flowable.defer(() -> {
+            final URI requestUri = request.getUri();
+            final long start = System.nanoTime();
+            return Flowable.fromPublisher(chain.proceed(request))
+                .doOnNext(response -> loadBalancer.recordRead(requestUri, System.nanoTime() - start))
+                .doOnError(error -> loadBalancer.recordReadError(requestUri));
+        });
+    }
+}
@@ -161,6 +161,24 @@ class HttpPipeClientSpec extends Specification {
         responseBody.bytes                           | "gzip"
     }
 
+    def "binary pages are decoded"() {
+        given: "a binary page"
+        def message = new Message("type", "x", "ct", 100, ZonedDateTime.parse("2018-10-01T13:45:00Z"), "{ \"valid\": \"json\" }")
+        HttpResponse<byte[]> httpResponse = new SimpleHttpResponse()
+        httpResponse.body(BinaryMessageCodec.encode([message]))
+        httpResponse.contentType(BinaryMessageCodec.MEDIA_TYPE)
+        httpResponse.headers.set(HttpHeaders.RETRY_AFTER, "1")
+        httpResponse.headers.set(HttpHeaders.PIPE_STATE, PipeState.UP_TO_DATE.name())
+
+        internalClient.httpRead(_ as List, _ as Long, _ as String) >> httpResponse
+
+        when:
+        MessageResults messageResults = client.read([], 0, "locationUuid")
+
+        then:
+        messageResults.messages == [message]
+    }
+
     def "throws unsupported operation error when getOffset invoked"() {
         when:
         client.getOffset(OffsetName.GLOBAL_LATEST_OFFSET)
@@ -0,0 +1,107 @@
+package com.tesco.aqueduct.pipe.http.client
+
+import com.tesco.aqueduct.pipe.api.Message
+import com.tesco.aqueduct.pipe.api.MessageResults
+import com.tesco.aqueduct.pipe.api.PipeState
+import com.tesco.aqueduct.pipe.api.Reader
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.ZonedDateTime
+
+class PrefetchingPipeClientSpec extends Specification {
+
+    def conditions = new PollingConditions(timeout: 2)
+    def delegate = Mock(Reader)
+
+    @AutoCleanup
+    def client = new PrefetchingPipeClient(delegate, 2)
+
+    def "pages are read ahead while they can be read straight away, up to the window"() {
+        given: "pages of two messages that can all be read straight away"
+        delegate.read(["type"], _ as Long, "location") >> { types, long offset, location -> page(offset, 0) }
+
+        when: "the writer reads the first page"
+        def first = client.read(["type"], 0, "location")
+
+        then: "the next pages are read ahead up to the window"
+        first.messages*.offset == [0, 1]
+        conditions.eventually {
+            assert client.prefetchedPages() == 2
+        }
+
+        when: "the writer reads the following page"
+        def second = client.read(["type"], 2, "location")
+
+        then: "it is served from the pages read ahead and the window is topped up"
+        second.messages*.offset == [2, 3]
+        conditions.eventually {
+            assert client.prefetchedPages() == 2
+        }
+    }
+
+    def "pages read ahead are handed out in order without reading them again"() {
+        when:
+        def pages = [client.read(null, 0, "location"), client.read(null, 2, "location"), client.read(null, 4, "location")]
+
+        then:
+        pages*.messages*.offset == [[0, 1], [2, 3], [4, 5]]
+
+        and: "every page is read once"
+        1 * delegate.read(null, 0, "location") >> page(0, 0)
+        1 * delegate.read(null, 2, "location") >> page(2, 0)
+        1 * delegate.read(null, 4, "location") >> page(4, 0)
+        (0..1) * delegate.read(null, 6, "location") >> page(6, 0)
+        (0..1) * delegate.read(null, 8, "location") >> page(8, 0)
+    }
+
+    def "nothing is read ahead when the page says to retry later"() {
+        when:
+        client.read(null, 0, "location")
+        sleep(50)
+
+        then:
+        1 * delegate.read(null, 0, "location") >> page(0, 1000)
+        0 * delegate.read(*_)
+        client.prefetchedPages() == 0
+    }
+
+    def "a read of another offset discards the pages read ahead"() {
+        given:
+        delegate.read(null, _ as Long, "location") >> { types, long offset, location -> page(offset, 0) }
+        client.read(null, 0, "location")
+
+        when: "the writer starts over"
+        def results = client.read(null, 0, "location")
+
+        then:
+        results.messages*.offset == [0, 1]
+    }
+
+    def "a page that failed to be read ahead is read again for the writer"() {
+        given:
+        delegate.read(null, 0, "location") >> page(0, 0)
+        delegate.read(null, 2, "location") >> { throw new RuntimeException("unavailable") } >> page(2, 1000)
+        client.read(null, 0, "location")
+
+        when:
+        def results = client.read(null, 2, "location")
+
+        then:
+        results.messages*.offset == [2, 3]
+    }
+
+    def page(long offset, long retryAfterMs) {
+        new MessageResults(
+            [message(offset), message(offset + 1)],
+            retryAfterMs,
+            OptionalLong.of(100),
+            PipeState.UP_TO_DATE
+        )
+    }
+
+    def message(long offset) {
+        new Message("type", "key", "ct", offset, ZonedDateTime.now(), "data")
+    }
+}
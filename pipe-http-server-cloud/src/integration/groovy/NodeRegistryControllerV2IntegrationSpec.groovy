@@ -198,6 +198,36 @@ class NodeRegistryControllerV2IntegrationSpec extends Specification {
             )
     }
 
+    def "nodes are registered off the event loop"() {
+        given: "Identity accepting requests"
+        def identityToken = UUID.randomUUID().toString()
+        acceptSingleIdentityTokenValidationRequest(clientIdAndSecret, identityToken, NODE_A_CLIENT_UID, equalTo("someTraceId"))
+        TestAppender.clearEvents()
+
+        when: "a node is registered"
+        given()
+            .header("Authorization", "Bearer $identityToken")
+            .header("TraceId", "someTraceId")
+            .contentType("application/json")
+            .body("""{
+                "group": "6736",
+                "localUrl": "http://localhost:8080",
+                "offset": "123",
+                "pipe": {"pipeState" : "$UP_TO_DATE", "v":"1.0"},
+                "status": "$INITIALISING",
+                "following": ["$CLOUD_PIPE_URL"]
+            }""")
+        .when()
+            .post("/v2/registry")
+        .then()
+            .statusCode(200)
+
+        then: "registration did not run on a netty event loop thread"
+        def registered = TestAppender.getEvents().findAll { it.formattedMessage == "node registration complete" }
+        !registered.isEmpty()
+        registered.every { !it.threadName.contains("EventLoop") }
+    }
+
     @Ignore
     def "post to registry without version is a bad request"() {
         given: "Identity accepting requests"
@@ -264,6 +294,42 @@ class NodeRegistryControllerV2IntegrationSpec extends Specification {
             )
     }
 
+    def "Summary is not sent again while it has not changed"() {
+        given: "We register a node"
+        registerNode(6735, "http://1.1.1.1:1234", 123, FOLLOWING)
+
+        and: "we get the summary"
+        def etag = given()
+            .header("Authorization", "Basic $USERNAME_ENCODED_CREDENTIALS")
+            .when().get("/v2/registry")
+            .then().statusCode(200)
+            .extract().header("ETag")
+
+        when: "we get it again with its ETag"
+        def request = given()
+            .header("Authorization", "Basic $USERNAME_ENCODED_CREDENTIALS")
+            .header("If-None-Match", etag)
+            .when().get("/v2/registry")
+
+        then:
+        request.then().statusCode(304)
+
+        when: "another node registers and we ask for changes since the summary"
+        registerNode(6735, "http://1.1.1.2:1234", 123, FOLLOWING)
+        def delta = given()
+            .header("Authorization", "Basic $USERNAME_ENCODED_CREDENTIALS")
+            .queryParam("since", etag)
+            .when().get("/v2/registry")
+
+        then: "only the new node is returned"
+        delta.then()
+            .statusCode(200)
+            .body(
+                "full", equalTo(false),
+                "followers*.localUrl", contains("http://1.1.1.2:1234")
+            )
+    }
+
     @Unroll
     def "Summary can filter by stores - #comment"() {
         given: "We register nodes from different groups"
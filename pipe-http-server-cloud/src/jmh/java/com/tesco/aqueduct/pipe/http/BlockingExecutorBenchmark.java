@@ -0,0 +1,88 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.concurrency.BoundedExecutorService;
+import com.tesco.aqueduct.pipe.concurrency.VirtualThreads;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Compares running blocking storage calls on the fixed io pool with running them on virtual threads bounded by a
+ * semaphore sized to the connection pool.
+ *
+ * A storage call is simulated by taking a connection from a pool of the configured size, holding it for the query time
+ * and doing some work outside of it (location lookup, serialisation) for the same time.
+ */
+@Fork(value = 1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BlockingExecutorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ExecutorState {
+
+        @Param({"fixed", "virtual"})
+        public String mode;
+
+        @Param({"10"})
+        public int poolSize;
+
+        @Param({"1000"})
+        public int concurrentCalls;
+
+        @Param({"5"})
+        public long queryTimeMs;
+
+        private ExecutorService executor;
+        private Semaphore connectionPool;
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            connectionPool = new Semaphore(poolSize, true);
+
+            if ("virtual".equals(mode)) {
+                executor = new BoundedExecutorService(
+                    VirtualThreads.newThreadPerTaskExecutor("benchmark")
+                        .orElseThrow(() -> new IllegalStateException("Virtual threads need JDK 21+")),
+                    poolSize
+                );
+            } else {
+                executor = Executors.newFixedThreadPool(poolSize);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            executor.shutdownNow();
+        }
+
+        void storageCall() throws InterruptedException {
+            connectionPool.acquire();
+            try {
+                Thread.sleep(queryTimeMs);
+            } finally {
+                connectionPool.release();
+            }
+            Thread.sleep(queryTimeMs);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public void blockingCalls(final ExecutorState state) throws Exception {
+        final List<Future<?>> calls = new ArrayList<>(state.concurrentCalls);
+        for (int i = 0; i < state.concurrentCalls; i++) {
+            calls.add(state.executor.submit(() -> {
+                state.storageCall();
+                return null;
+            }));
+        }
+        for (Future<?> call : calls) {
+            call.get();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.client.DefaultHttpClientConfiguration;
+import io.micronaut.http.client.HttpClient;
+import io.micronaut.runtime.server.EmbeddedServer;
+import io.reactivex.Flowable;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test harness for the cloud pipe read path against an embedded Postgres.
+ *
+ * Each invocation releases a wave of concurrent pollers, each reading a page from a random offset, and waits for all
+ * of them. Wave time gives throughput, per request latency percentiles are logged at the end of each trial.
+ * Run with different sizes of the pipe-read executor to compare with the previous one-thread-per-read behaviour.
+ */
+@Fork(value = 1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadPipelineLoadBenchmark {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(ReadPipelineLoadBenchmark.class));
+    private static final String LOCATION = "benchmark-location";
+    private static final int EVENT_COUNT = 100000;
+
+    @State(Scope.Benchmark)
+    public static class CloudServerState {
+
+        @Param({"5000"})
+        public int pollers;
+
+        @Param({"10", "100"})
+        public int readExecutorThreads;
+
+        private EmbeddedPostgres pg;
+        private ApplicationContext context;
+        private HttpClient client;
+        private SimpleMeterRegistry meterRegistry;
+        private Timer latency;
+
+        @Setup(Level.Trial)
+        public void doSetup() throws Exception {
+            pg = EmbeddedPostgres.start();
+            setupDatabase(pg.getPostgresDatabase());
+
+            final String jdbcUrl = pg.getJdbcUrl("postgres", "postgres");
+            final Map<String, Object> properties = new HashMap<>();
+            properties.put("pipe.server.url", "http://cloud.pipe");
+            properties.put("micronaut.security.enabled", false);
+            properties.put("micronaut.server.netty.worker.threads", 100);
+            properties.put("micronaut.executors.pipe-read.type", "fixed");
+            properties.put("micronaut.executors.pipe-read.nThreads", readExecutorThreads);
+            properties.put("persistence.read.limit", 1000);
+            properties.put("persistence.read.retry-after", 10000);
+            properties.put("persistence.read.max-batch-size", "10485760");
+            properties.put("persistence.read.expected-node-count", pollers);
+            properties.put("persistence.read.cluster-db-pool-size", 10);
+            properties.put("compression.threshold-in-bytes", 1024);
+            properties.put("location.clusters.cache.expire-after-write", "1h");
+            for (String datasource : new String[] {"pipe", "registry", "compaction"}) {
+                properties.put("datasources." + datasource + ".jdbc-url", jdbcUrl);
+                properties.put("datasources." + datasource + ".username", "postgres");
+                properties.put("datasources." + datasource + ".password", "");
+                properties.put("datasources." + datasource + ".maximum-pool-size", 10);
+            }
+
+            context = ApplicationContext.run(properties);
+            final EmbeddedServer server = context.getBean(EmbeddedServer.class).start();
+
+            final DefaultHttpClientConfiguration configuration = new DefaultHttpClientConfiguration();
+            configuration.setReadTimeout(Duration.ofMinutes(5));
+            configuration.setMaxContentLength(Integer.MAX_VALUE);
+            client = HttpClient.create(server.getURL(), configuration);
+
+            meterRegistry = new SimpleMeterRegistry();
+            latency = Timer.builder("pipe.read.latency")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(meterRegistry);
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() throws IOException {
+            final StringBuilder percentiles = new StringBuilder();
+            for (ValueAtPercentile percentile : latency.takeSnapshot().percentileValues()) {
+                percentiles.append(String.format(" p%s: %.2f ms", percentile.percentile() * 100, percentile.value(TimeUnit.MILLISECONDS)));
+            }
+            LOG.info(
+                "read pipeline load benchmark",
+                "poll latency for " + pollers + " pollers and " + readExecutorThreads + " read threads," + percentiles
+            );
+            client.close();
+            context.close();
+            pg.close();
+        }
+
+        private void setupDatabase(final DataSource dataSource) throws SQLException {
+            try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE EVENTS(" +
+                    "    msg_offset BIGSERIAL PRIMARY KEY NOT NULL," +
+                    "    msg_key varchar NOT NULL," +
+                    "    content_type varchar NOT NULL," +
+                    "    type varchar NOT NULL," +
+                    "    created_utc timestamp NOT NULL," +
+                    "    data text NULL," +
+                    "    event_size int NOT NULL," +
+                    "    cluster_id BIGINT NOT NULL DEFAULT 1," +
+                    "    routing_id BIGINT," +
+                    "    time_to_live TIMESTAMP NULL" +
+                    ");" +
+                    "CREATE INDEX events_routing_idx ON EVENTS (routing_id, msg_offset);" +
+                    "CREATE TABLE CLUSTERS(cluster_id BIGSERIAL PRIMARY KEY NOT NULL, cluster_uuid VARCHAR NOT NULL);" +
+                    "CREATE TABLE CLUSTER_CACHE(" +
+                    "    location_uuid VARCHAR PRIMARY KEY NOT NULL," +
+                    "    cluster_ids BIGINT[] NOT NULL," +
+                    "    expiry TIMESTAMP NOT NULL," +
+                    "    valid BOOLEAN NOT NULL DEFAULT TRUE" +
+                    ");" +
+                    "CREATE TABLE REGISTRY(group_id VARCHAR PRIMARY KEY NOT NULL, entry JSON NOT NULL, version integer NOT NULL);" +
+                    "CREATE TABLE NODE_REQUESTS(" +
+                    "    host_id VARCHAR PRIMARY KEY NOT NULL," +
+                    "    bootstrap_requested timestamp NOT NULL," +
+                    "    bootstrap_type VARCHAR NOT NULL," +
+                    "    bootstrap_received timestamp" +
+                    ");" +
+                    "CREATE TABLE OFFSETS(name VARCHAR PRIMARY KEY NOT NULL, value BIGINT NOT NULL);" +
+                    "CREATE TABLE LOCKS(name VARCHAR PRIMARY KEY);" +
+                    "INSERT INTO CLUSTERS (cluster_uuid) VALUES ('NONE');" +
+                    "INSERT INTO OFFSETS (name, value) VALUES ('global_latest_offset', " + EVENT_COUNT + ");"
+                );
+            }
+
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement cache = connection.prepareStatement(
+                     "INSERT INTO CLUSTER_CACHE (location_uuid, cluster_ids, expiry) VALUES (?, ?, ?)");
+                 PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO EVENTS(msg_offset, msg_key, content_type, type, created_utc, data, event_size, cluster_id, routing_id) " +
+                     "VALUES(?,?,?,?,?,?,?,1,1)")) {
+
+                cache.setString(1, LOCATION);
+                cache.setArray(2, connection.createArrayOf("BIGINT", new Long[] {1L}));
+                cache.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now().plusYears(1)));
+                cache.execute();
+
+                final Timestamp created = Timestamp.valueOf(LocalDateTime.now().minusDays(1));
+                for (long offset = 1; offset <= EVENT_COUNT; offset++) {
+                    insert.setLong(1, offset);
+                    insert.setString(2, "key_" + offset);
+                    insert.setString(3, "application/json");
+                    insert.setString(4, "type_" + (offset % 10));
+                    insert.setTimestamp(5, created);
+                    insert.setString(6, "{\"id\":\"" + offset + "\",\"value\":\"some benchmark payload\"}");
+                    insert.setInt(7, 64);
+                    insert.addBatch();
+                    if (offset % 1000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+        }
+    }
+
+    @Benchmark
+    public long concurrentPollers(final CloudServerState state) {
+        return Flowable.range(0, state.pollers)
+            .flatMap(i -> poll(state), state.pollers)
+            .count()
+            .blockingGet();
+    }
+
+    private Flowable<Integer> poll(final CloudServerState state) {
+        final long offset = ThreadLocalRandom.current().nextLong(EVENT_COUNT);
+        final long start = System.nanoTime();
+
+        return Flowable.fromPublisher(
+                state.client.exchange(HttpRequest.GET("/pipe/" + offset + "?location=" + LOCATION), byte[].class)
+            )
+            .map(response -> response.code())
+            .doFinally(() -> state.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+}
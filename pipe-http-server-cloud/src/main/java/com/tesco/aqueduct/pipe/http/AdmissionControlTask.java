@@ -0,0 +1,35 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import com.tesco.aqueduct.pipe.storage.AdmissionController;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.annotation.Scheduled;
+import org.slf4j.LoggerFactory;
+
+@Context
+@Requires(property = "persistence.read.admission.enabled", value = "true")
+class AdmissionControlTask {
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(AdmissionControlTask.class));
+    private final AdmissionController admissionController;
+    private final PipeRateLimiter rateLimiter;
+
+    public AdmissionControlTask(final AdmissionController admissionController, final PipeRateLimiter rateLimiter) {
+        this.admissionController = admissionController;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Scheduled(fixedDelay = "${persistence.read.admission.interval:5s}")
+    void adjustFastLaneCapacity() {
+        final double capacity = admissionController.calculateFastLaneCapacity();
+        rateLimiter.setCapacity(capacity);
+
+        LOG.info("admission control", String.format(
+            "fast lane capacity %.2f, utilisation %.2f, connection wait %.2fms, read latency %.2fms",
+            capacity,
+            admissionController.utilisation(),
+            admissionController.connectionWait(),
+            admissionController.latency(AdmissionController.READ_ENDPOINT)
+        ));
+    }
+}
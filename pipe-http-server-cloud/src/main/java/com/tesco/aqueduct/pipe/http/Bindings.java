@@ -2,28 +2,51 @@ package com.tesco.aqueduct.pipe.http;
 
 import com.tesco.aqueduct.pipe.api.LocationService;
 import com.tesco.aqueduct.pipe.api.TokenProvider;
+import com.tesco.aqueduct.pipe.concurrency.BoundedExecutorService;
+import com.tesco.aqueduct.pipe.concurrency.ConcurrencyLimit;
+import com.tesco.aqueduct.pipe.concurrency.VirtualThreads;
 import com.tesco.aqueduct.pipe.identity.issuer.IdentityIssueTokenClient;
 import com.tesco.aqueduct.pipe.identity.issuer.IdentityIssueTokenProvider;
 import com.tesco.aqueduct.pipe.location.CloudLocationService;
 import com.tesco.aqueduct.pipe.location.LocationServiceClient;
 import com.tesco.aqueduct.pipe.metrics.Measure;
+import com.tesco.aqueduct.pipe.storage.AdmissionController;
 import com.tesco.aqueduct.pipe.storage.ClusterStorage;
+import com.tesco.aqueduct.pipe.storage.EventBlockStore;
+import com.tesco.aqueduct.pipe.storage.EventIngester;
+import com.tesco.aqueduct.pipe.storage.EventTailBuffer;
+import com.tesco.aqueduct.pipe.storage.EventWireJson;
 import com.tesco.aqueduct.pipe.storage.GlobalLatestOffsetCache;
+import com.tesco.aqueduct.pipe.storage.PageSegmentCache;
 import com.tesco.aqueduct.pipe.storage.PostgresqlStorage;
 import com.tesco.aqueduct.registry.model.NodeRegistry;
+import com.tesco.aqueduct.registry.model.LoadAwareTopology;
 import com.tesco.aqueduct.registry.model.NodeRequestStorage;
+import com.tesco.aqueduct.registry.model.TopologyStrategy;
+import com.tesco.aqueduct.registry.postgres.NodeGroupCache;
+import com.tesco.aqueduct.registry.postgres.PendingBootstrapIndex;
 import com.tesco.aqueduct.registry.postgres.PostgreSQLNodeRegistry;
+import com.tesco.aqueduct.registry.postgres.PostgreSQLNodeRowRegistry;
 import com.tesco.aqueduct.registry.postgres.PostgreSQLNodeRequestStorage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micronaut.context.annotation.Bean;
 import io.micronaut.context.annotation.Factory;
+import io.micronaut.context.annotation.Primary;
 import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
 import io.micronaut.context.annotation.Value;
+import io.micronaut.core.annotation.Nullable;
+import io.micronaut.scheduling.TaskExecutors;
 import jakarta.inject.Named;
 import jakarta.inject.Provider;
 import jakarta.inject.Singleton;
 
 import javax.sql.DataSource;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.concurrent.ExecutorService;
 
 @Factory
 @Singleton
@@ -42,10 +65,95 @@ public class Bindings {
         @Named("pipe") final DataSource pipeDataSource,
         final GlobalLatestOffsetCache globalLatestOffsetCache,
         ClusterStorage clusterStorage,
-        @Named("compaction") final DataSource compactionDataSource
+        @Named("compaction") final DataSource compactionDataSource,
+        @Nullable final AdmissionController admissionController,
+        @Nullable final EventBlockStore eventBlockStore,
+        @Nullable final PageSegmentCache pageSegmentCache,
+        @Nullable final EventTailBuffer eventTailBuffer,
+        @Nullable final EventWireJson eventWireJson
     ) {
-        return new PostgresqlStorage(
-            pipeDataSource, compactionDataSource, limit, retryAfter, maxBatchSize, globalLatestOffsetCache, expectedNodeCount, clusterDBPoolSize, workMemMb, clusterStorage
+        return PostgresqlStorage.builder()
+            .pipeDataSource(pipeDataSource)
+            .compactionDataSource(compactionDataSource)
+            .limit(limit)
+            .retryAfter(retryAfter)
+            .maxBatchSize(maxBatchSize)
+            .globalLatestOffsetCache(globalLatestOffsetCache)
+            .nodeCount(expectedNodeCount)
+            .clusterDBPoolSize(clusterDBPoolSize)
+            .workMemMb(workMemMb)
+            .clusterStorage(clusterStorage)
+            .admissionController(admissionController)
+            .blockStore(eventBlockStore)
+            .pageCache(pageSegmentCache)
+            .tail(eventTailBuffer)
+            .wireJson(eventWireJson)
+            .build();
+    }
+
+    @Singleton
+    @Requires(property = "persistence.read.wire-json.enabled", value = "true")
+    EventWireJson bindEventWireJson(
+        @Value("${persistence.read.wire-json.max-events-per-fill:10000}") final int maxEventsPerFill
+    ) {
+        return new EventWireJson(maxEventsPerFill);
+    }
+
+    @Singleton
+    @Requires(property = "persistence.read.tail.enabled", value = "true")
+    EventTailBuffer bindEventTailBuffer(
+        @Value("${persistence.read.tail.max-messages:1000}") final int maxMessages,
+        @Value("${persistence.read.tail.max-size-kb:1024}") final long maxSizeKb,
+        @Value("${persistence.read.tail.max-events-per-fill:10000}") final int maxEventsPerFill
+    ) {
+        return new EventTailBuffer(maxMessages, maxSizeKb * 1024, maxEventsPerFill);
+    }
+
+    @Singleton
+    @Bean(preDestroy = "close")
+    @Requires(property = "persistence.read.segment-cache.enabled", value = "true")
+    PageSegmentCache bindPageSegmentCache(
+        @Value("${persistence.read.segment-cache.directory}") final String directory,
+        @Value("${persistence.read.segment-cache.segment-size-mb:64}") final long segmentSizeMb,
+        @Value("${persistence.read.segment-cache.max-size-mb:2048}") final long maxSizeMb,
+        @Value("${persistence.read.segment-cache.min-age:6h}") final Duration minAge
+    ) {
+        return new PageSegmentCache(Paths.get(directory), segmentSizeMb * 1024 * 1024, maxSizeMb * 1024 * 1024, minAge);
+    }
+
+    @Singleton
+    @Requires(property = "persistence.read.blocks.enabled", value = "true")
+    EventBlockStore bindEventBlockStore(
+        @Value("${persistence.read.blocks.min-age:6h}") final Duration minAge,
+        @Value("${persistence.read.blocks.max-requested:10000}") final int maxRequested
+    ) {
+        return new EventBlockStore(minAge, maxRequested);
+    }
+
+    @Singleton
+    @Requires(property = "persistence.ingestion.enabled", value = "true")
+    EventIngester bindEventIngester(
+        @Named("ingestion") final DataSource ingestionDataSource,
+        @Value("${persistence.ingestion.batch-size:10000}") final int batchSize,
+        @Value("${persistence.ingestion.max-batches-per-run:100}") final int maxBatchesPerRun,
+        final MeterRegistry meterRegistry
+    ) {
+        return new EventIngester(ingestionDataSource, batchSize, maxBatchesPerRun, meterRegistry);
+    }
+
+    @Singleton
+    @Requires(property = "persistence.read.admission.enabled", value = "true")
+    AdmissionController bindAdmissionController(
+        @Value("${persistence.read.expected-node-count}") final int expectedNodeCount,
+        @Value("${persistence.read.cluster-db-pool-size}") final long clusterDBPoolSize,
+        @Value("${rate-limiter.capacity:80}") final double maxFastLaneCapacity,
+        @Value("${persistence.read.admission.min-fast-lane-capacity:1}") final double minFastLaneCapacity,
+        @Value("${persistence.read.admission.smoothing-factor:0.2}") final double smoothingFactor,
+        @Value("${persistence.read.admission.connection-wait-threshold-ms:100}") final long connectionWaitThresholdMs,
+        final MeterRegistry meterRegistry
+    ) {
+        return new AdmissionController(
+            expectedNodeCount, clusterDBPoolSize, maxFastLaneCapacity, minFastLaneCapacity, smoothingFactor, connectionWaitThresholdMs, meterRegistry
         );
     }
 
@@ -60,19 +168,81 @@ public class Bindings {
 
     @Singleton
     @Measure
+    @ConcurrencyLimit("registry")
+    @Requires(property = "registry.storage", value = "group", defaultValue = "group")
     NodeRegistry bindNodeRegistry(
         @Named("registry") final DataSource dataSource,
         @Property(name = "pipe.server.url") final URL selfUrl,
         @Value("${registry.mark-offline-after:1m}") final Duration markAsOffline,
-        @Value("${registry.remove-offline-after:1m}") final Duration removeOffline
+        @Value("${registry.remove-offline-after:1m}") final Duration removeOffline,
+        @Nullable final NodeGroupCache nodeGroupCache,
+        @Nullable final TopologyStrategy topology
+    ) {
+        return new PostgreSQLNodeRegistry(dataSource, selfUrl, markAsOffline, removeOffline, nodeGroupCache, topology);
+    }
+
+    @Singleton
+    @Measure
+    @ConcurrencyLimit("registry")
+    @Requires(property = "registry.storage", value = "node")
+    NodeRegistry bindNodeRowRegistry(
+        @Named("registry") final DataSource dataSource,
+        @Property(name = "pipe.server.url") final URL selfUrl,
+        @Value("${registry.mark-offline-after:1m}") final Duration markAsOffline,
+        @Value("${registry.remove-offline-after:1m}") final Duration removeOffline,
+        @Value("${registry.migrate-group-entries:false}") final boolean migrateGroupEntries,
+        @Nullable final TopologyStrategy topology
+    ) {
+        final PostgreSQLNodeRowRegistry registry = new PostgreSQLNodeRowRegistry(dataSource, selfUrl, markAsOffline, removeOffline, topology);
+        if (migrateGroupEntries) {
+            registry.migrateFromGroupEntries();
+        }
+        return registry;
+    }
+
+    // without it groups are laid out as a binary tree
+    @Singleton
+    @Requires(property = "registry.topology.strategy", value = "load-aware")
+    TopologyStrategy bindLoadAwareTopology(
+        @Value("${registry.topology.default-capacity:2}") final int defaultCapacity,
+        @Value("${registry.topology.cloud-capacity:1}") final int cloudCapacity,
+        @Value("${registry.topology.max-lag:1000}") final long maxLag
     ) {
-        return new PostgreSQLNodeRegistry(dataSource, selfUrl, markAsOffline, removeOffline);
+        return new LoadAwareTopology(defaultCapacity, cloudCapacity, maxLag);
+    }
+
+    @Singleton
+    @Requires(property = "registry.cache.enabled", value = "true")
+    NodeGroupCache bindNodeGroupCache() {
+        return new NodeGroupCache();
     }
 
     @Singleton
     @Measure
-    NodeRequestStorage bindNodeRequestStorage(@Named("registry") final DataSource dataSource) {
-        return new PostgreSQLNodeRequestStorage(dataSource);
+    @ConcurrencyLimit("registry")
+    NodeRequestStorage bindNodeRequestStorage(
+        @Named("registry") final DataSource dataSource,
+        @Nullable final PendingBootstrapIndex pendingBootstrapIndex
+    ) {
+        return new PostgreSQLNodeRequestStorage(dataSource, pendingBootstrapIndex);
+    }
+
+    // listens for node requests saved by any instance on a connection of its own, outside the registry pool
+    @Singleton
+    @Bean(preDestroy = "close")
+    @Requires(property = "registry.bootstrap-index.enabled", value = "true")
+    PendingBootstrapIndex bindPendingBootstrapIndex(
+        @Named("registry") final DataSource dataSource,
+        @Value("${datasources.registry.jdbc-url}") final String jdbcUrl,
+        @Value("${datasources.registry.username}") final String username,
+        @Value("${datasources.registry.password}") final String password,
+        @Value("${registry.bootstrap-index.refresh-interval:1m}") final Duration refreshInterval,
+        @Value("${registry.bootstrap-index.poll-interval:500ms}") final Duration pollInterval
+    ) {
+        final PendingBootstrapIndex index =
+            new PendingBootstrapIndex(dataSource, jdbcUrl, username, password, refreshInterval, pollInterval);
+        index.start();
+        return index;
     }
 
     @Singleton
@@ -85,8 +255,39 @@ public class Bindings {
     }
 
     @Singleton
+    @ConcurrencyLimit("location")
     LocationService locationService(final Provider<LocationServiceClient> locationServiceClientProvider) {
         return new CloudLocationService(locationServiceClientProvider);
     }
 
+    // Blocking pipe reads on virtual threads, bounded by the pipe connection pool instead of the number of threads
+    @Primary
+    @Singleton
+    @Named("pipe-read")
+    @Requires(property = "executors.virtual-threads.enabled", value = "true")
+    @Requires(sdk = Requires.Sdk.JAVA, version = "21")
+    ExecutorService virtualThreadPipeReadExecutor(
+        @Value("${concurrency.limits.pipe:10}") final int pipePoolSize,
+        final MeterRegistry meterRegistry
+    ) {
+        final BoundedExecutorService executor = new BoundedExecutorService(virtualThreadExecutor("pipe-read"), pipePoolSize);
+        meterRegistry.gauge("pipe.concurrency.available", Tags.of("name", "pipe"), executor, BoundedExecutorService::availablePermits);
+        meterRegistry.gauge("pipe.concurrency.waiting", Tags.of("name", "pipe"), executor, BoundedExecutorService::waiting);
+        return executor;
+    }
+
+    // Blocking controllers (registry, bootstrap) on virtual threads, their storage calls are bounded by @ConcurrencyLimit
+    @Primary
+    @Singleton
+    @Named(TaskExecutors.IO)
+    @Requires(property = "executors.virtual-threads.enabled", value = "true")
+    @Requires(sdk = Requires.Sdk.JAVA, version = "21")
+    ExecutorService virtualThreadIoExecutor() {
+        return virtualThreadExecutor(TaskExecutors.IO);
+    }
+
+    private ExecutorService virtualThreadExecutor(final String name) {
+        return VirtualThreads.newThreadPerTaskExecutor(name)
+            .orElseThrow(() -> new IllegalStateException("Virtual threads are not supported by this JDK"));
+    }
 }
@@ -0,0 +1,38 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import com.tesco.aqueduct.pipe.storage.PostgresqlStorage;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.annotation.Scheduled;
+import org.slf4j.LoggerFactory;
+
+@Context
+@Requires(property = "persistence.read.blocks.enabled", value = "true")
+class BlockMaterialiserTask {
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(BlockMaterialiserTask.class));
+    private final PostgresqlStorage postgresqlStorage;
+    private final LongTaskTimer longTaskTimer;
+    private final int maxBlocksPerRun;
+
+    public BlockMaterialiserTask(
+        final MeterRegistry registry,
+        final PostgresqlStorage postgresqlStorage,
+        @Property(name = "persistence.read.blocks.max-blocks-per-run", defaultValue = "100") final int maxBlocksPerRun
+    ) {
+        this.postgresqlStorage = postgresqlStorage;
+        this.longTaskTimer = registry.more().longTaskTimer("persistence.blocks.materialise");
+        this.maxBlocksPerRun = maxBlocksPerRun;
+    }
+
+    @Scheduled(fixedDelay = "${persistence.read.blocks.interval:1m}")
+    void materialise() {
+        longTaskTimer.record(() -> {
+            final int built = postgresqlStorage.materialiseBlocks(maxBlocksPerRun);
+            LOG.debug("materialise blocks", "built " + built + " blocks");
+        });
+    }
+}
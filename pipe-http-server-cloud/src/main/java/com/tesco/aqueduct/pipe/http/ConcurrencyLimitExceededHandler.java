@@ -0,0 +1,42 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.concurrency.ConcurrencyLimitExceededException;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.annotation.Produces;
+import io.micronaut.http.hateoas.JsonError;
+import io.micronaut.http.server.exceptions.ExceptionHandler;
+import jakarta.inject.Singleton;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+/**
+ * Calls not getting a permit of their concurrency limit in time are told to come back later rather than failing.
+ */
+@Produces
+@Singleton
+@Requires(classes = {ConcurrencyLimitExceededException.class, ExceptionHandler.class})
+public class ConcurrencyLimitExceededHandler implements ExceptionHandler<ConcurrencyLimitExceededException, HttpResponse<JsonError>> {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(ConcurrencyLimitExceededHandler.class));
+
+    private final Duration retryAfter;
+
+    public ConcurrencyLimitExceededHandler(@Value("${concurrency.limits.retry-after:5s}") final Duration retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    @Override
+    public HttpResponse<JsonError> handle(final HttpRequest request, final ConcurrencyLimitExceededException exception) {
+        LOG.error("concurrency limit", "limit exceeded", exception.getMessage());
+        return HttpResponse.<JsonError>status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, retryAfter.getSeconds())))
+            .body(new JsonError(exception.getMessage()));
+    }
+}
@@ -0,0 +1,21 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.storage.EventIngester;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.annotation.Scheduled;
+
+@Context
+@Requires(property = "persistence.ingestion.enabled", value = "true")
+class IngestionTask {
+    private final EventIngester eventIngester;
+
+    public IngestionTask(final EventIngester eventIngester) {
+        this.eventIngester = eventIngester;
+    }
+
+    @Scheduled(fixedDelay = "${persistence.ingestion.interval:100ms}")
+    void ingest() {
+        eventIngester.ingest();
+    }
+}
@@ -0,0 +1,21 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.storage.PostgresqlStorage;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.annotation.Scheduled;
+
+@Context
+@Requires(property = "persistence.read.segment-cache.enabled", value = "true")
+class PageCacheRefreshTask {
+    private final PostgresqlStorage postgresqlStorage;
+
+    public PageCacheRefreshTask(final PostgresqlStorage postgresqlStorage) {
+        this.postgresqlStorage = postgresqlStorage;
+    }
+
+    @Scheduled(fixedDelay = "${persistence.read.segment-cache.refresh-interval:30s}")
+    void refresh() {
+        postgresqlStorage.refreshPageCache();
+    }
+}
@@ -0,0 +1,24 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import com.tesco.aqueduct.registry.model.NodeRegistry;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.scheduling.annotation.Scheduled;
+import org.slf4j.LoggerFactory;
+
+@Context
+class RegistryFlushTask {
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(RegistryFlushTask.class));
+    private final NodeRegistry nodeRegistry;
+
+    public RegistryFlushTask(final NodeRegistry nodeRegistry) {
+        this.nodeRegistry = nodeRegistry;
+    }
+
+    @Scheduled(fixedDelay = "${registry.flush-interval:1m}")
+    void flush() {
+        final long start = System.currentTimeMillis();
+        nodeRegistry.flush();
+        LOG.info("registry flush:time", Long.toString(System.currentTimeMillis() - start));
+    }
+}
@@ -0,0 +1,21 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.storage.PostgresqlStorage;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.annotation.Scheduled;
+
+@Context
+@Requires(property = "persistence.read.tail.enabled", value = "true")
+class TailFillTask {
+    private final PostgresqlStorage postgresqlStorage;
+
+    public TailFillTask(final PostgresqlStorage postgresqlStorage) {
+        this.postgresqlStorage = postgresqlStorage;
+    }
+
+    @Scheduled(fixedDelay = "${persistence.read.tail.interval:1s}")
+    void fill() {
+        postgresqlStorage.fillTail();
+    }
+}
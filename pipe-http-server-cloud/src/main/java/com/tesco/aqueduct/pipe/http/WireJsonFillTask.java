@@ -0,0 +1,21 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.storage.PostgresqlStorage;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.annotation.Scheduled;
+
+@Context
+@Requires(property = "persistence.read.wire-json.enabled", value = "true")
+class WireJsonFillTask {
+    private final PostgresqlStorage postgresqlStorage;
+
+    public WireJsonFillTask(final PostgresqlStorage postgresqlStorage) {
+        this.postgresqlStorage = postgresqlStorage;
+    }
+
+    @Scheduled(fixedDelay = "${persistence.read.wire-json.interval:1s}")
+    void fill() {
+        postgresqlStorage.fillWireJson();
+    }
+}
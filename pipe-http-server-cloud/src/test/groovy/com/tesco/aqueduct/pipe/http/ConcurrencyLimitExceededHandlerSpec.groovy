@@ -0,0 +1,30 @@
+package com.tesco.aqueduct.pipe.http
+
+import com.tesco.aqueduct.pipe.concurrency.ConcurrencyLimitExceededException
+import io.micronaut.http.HttpHeaders
+import io.micronaut.http.HttpRequest
+import io.micronaut.http.HttpStatus
+import spock.lang.Specification
+
+import java.time.Duration
+
+class ConcurrencyLimitExceededHandlerSpec extends Specification {
+
+    def "callers not getting a permit are told to retry later"() {
+        given:
+        def handler = new ConcurrencyLimitExceededHandler(retryAfter)
+
+        when:
+        def response = handler.handle(HttpRequest.GET("/pipe/0"), new ConcurrencyLimitExceededException("No permit available for pipe"))
+
+        then:
+        response.status == HttpStatus.SERVICE_UNAVAILABLE
+        response.header(HttpHeaders.RETRY_AFTER) == expectedRetryAfter
+        response.body().message == "No permit available for pipe"
+
+        where:
+        retryAfter             | expectedRetryAfter
+        Duration.ofSeconds(5)  | "5"
+        Duration.ofMillis(100) | "1"
+    }
+}
@@ -13,7 +13,10 @@ import spock.lang.Specification
 import spock.lang.Unroll
 import spock.util.concurrent.PollingConditions
 
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
 import java.time.Clock
+import java.time.LocalDateTime
 import java.time.ZoneId
 import java.time.ZonedDateTime
 
@@ -100,6 +103,39 @@ class PipeReadControllerIntegrationSpec extends Specification {
         }
     }
 
+    void "messages are served as a binary page when it is accepted"() {
+        given:
+        def messages = [Message(type, "a", "ct", 100, zonedDateTime, "data"), Message(type, "b", "ct", 101, zonedDateTime, null)]
+        reader.read(*_) >> new MessageResults(messages, 0, of(0), PipeState.UP_TO_DATE)
+
+        when:
+        def response = RestAssured.given()
+            .header("Accept", BinaryMessageCodec.MEDIA_TYPE + ", application/json;q=0.9")
+            .get("/pipe/0?location='someLocation'")
+
+        then:
+        response.then().statusCode(200)
+        response.contentType() == BinaryMessageCodec.MEDIA_TYPE
+        BinaryMessageCodec.decode(response.body().asByteArray()) == messages
+    }
+
+    void "messages are read off the event loop"() {
+        given:
+        String readingThread = null
+        reader.read(*_) >> {
+            readingThread = Thread.currentThread().name
+            new MessageResults([], 0, of(0), PipeState.UP_TO_DATE)
+        }
+
+        when:
+        def response = RestAssured.given().get("/pipe/0?location='someLocation'")
+
+        then:
+        response.then().statusCode(200)
+        readingThread != null
+        !readingThread.toLowerCase().contains("eventloop")
+    }
+
     @Unroll
     void "Test bad requests do not have Retry-After header - #requestPath"() {
         given: "empty storage"
@@ -363,6 +399,122 @@ class PipeReadControllerIntegrationSpec extends Specification {
         response.header("content-encoding") == "gzip"
     }
 
+    @Unroll
+    def "pages compressed ahead of time are served as they are when gzip is accepted"() {
+        given: "a page read from a block"
+        def messages = [
+            new Message("type", "key1", "contentType", 0L, ZonedDateTime.now(Clock.systemUTC()).minusDays(1), "data"),
+            new Message("type", "key2", "contentType", 1L, ZonedDateTime.now(Clock.systemUTC()).minusDays(1), null)
+        ]
+        def block = DeflatedSegment.deflate(messages.collect { JsonHelper.toJson(it) }.join(",").bytes, 9)
+        reader.read([], 0, _ as String) >> new PrecompressedMessageResults(block, 2, messages[0].created, false, 0, of(1L), PipeState.UP_TO_DATE)
+
+        when: "we read from the pipe"
+        def response = RestAssured
+            .given()
+            .header("Accept-Encoding", acceptEncoding)
+            .get("/pipe/0?location=someLocation")
+
+        then: "the messages are read"
+        JsonHelper.messageFromJsonArray(response.body().asByteArray()) == messages
+
+        and: "the response is gzip encoded"
+        response.header("X-Content-Encoding") == xContentEncoding
+        response.header("content-encoding") == contentEncoding
+
+        where:
+        acceptEncoding | xContentEncoding | contentEncoding
+        "gzip"         | "gzip"           | "gzip"
+        "identity"     | null             | null
+    }
+
+    @Unroll
+    def "pages cached in segment files are sent from the file when gzip is accepted"() {
+        given: "a page cached after another one in a segment file"
+        def messages = [
+            new Message("type", "key1", "contentType", 0L, ZonedDateTime.now(Clock.systemUTC()).minusDays(1), "data"),
+            new Message("type", "key2", "contentType", 1L, ZonedDateTime.now(Clock.systemUTC()).minusDays(1), null)
+        ]
+        def page = PrecompressedMessageResults.toGzipJson(DeflatedSegment.deflate(messages.collect { JsonHelper.toJson(it) }.join(",").bytes, 6))
+        def segment = Files.createTempFile("pipe", ".segment")
+        Files.write(segment, "previous page".bytes)
+        Files.write(segment, page, StandardOpenOption.APPEND)
+        reader.read([], 0, _ as String) >> new SegmentFileMessageResults(
+            segment, "previous page".length(), page.length, 2, messages[0].created, false, 0, of(1L), PipeState.UP_TO_DATE
+        )
+
+        when: "we read from the pipe"
+        def response = RestAssured
+            .given()
+            .header("Accept-Encoding", acceptEncoding)
+            .get("/pipe/0?location=someLocation")
+
+        then: "the messages are read"
+        JsonHelper.messageFromJsonArray(response.body().asByteArray()) == messages
+
+        and: "the response is gzip encoded"
+        response.header("X-Content-Encoding") == xContentEncoding
+        response.header("content-encoding") == contentEncoding
+
+        cleanup:
+        Files.deleteIfExists(segment)
+
+        where:
+        acceptEncoding | xContentEncoding | contentEncoding
+        "gzip"         | "gzip"           | "gzip"
+        "identity"     | null             | null
+    }
+
+    def "page evicted before it is sent is retried straight away"() {
+        given: "a page whose segment file is deleted before the response is written"
+        def segment = Files.createTempFile("pipe", ".segment")
+        Files.delete(segment)
+        reader.read([], 0, _ as String) >> new SegmentFileMessageResults(
+            segment, 0, 10, 2, ZonedDateTime.now(Clock.systemUTC()), false, 0, of(1L), PipeState.UP_TO_DATE
+        )
+
+        when: "we read from the pipe"
+        def response = RestAssured
+            .given()
+            .header("Accept-Encoding", "gzip")
+            .get("/pipe/0?location=someLocation")
+
+        then: "the client is told to retry"
+        response.statusCode() == 503
+        response.header("Retry-After") == "0"
+    }
+
+    def "pages of stored messages are served as the JSON of their messages"() {
+        given: "a page read from storage"
+        def created = StoredMessage.toEpochMicros(LocalDateTime.now(Clock.systemUTC()).minusMinutes(1))
+        def stored = [
+            new StoredMessage("type", "key1", "contentType", 0L, created, "data".bytes, 0L, 1L, 1L),
+            new StoredMessage("type", "key2", "contentType", 1L, created, null, 0L, 1L, 1L)
+        ]
+        reader.read(*_) >> new StoredMessageResults(stored, 0, of(1L), PipeState.UP_TO_DATE)
+
+        when: "we read from the pipe"
+        def response = RestAssured.given().get("/pipe/0?location=someLocation")
+
+        then: "the messages are read"
+        JsonHelper.messageFromJsonArray(response.body().asByteArray()) == stored*.toMessage()*.withClusterId(null)*.withRoutingId(null)
+    }
+
+    def "empty pages of stored messages have the retry after of the storage"() {
+        given:
+        reader.read(*_) >> new StoredMessageResults([], RETRY_AFTER_MS, of(1L), PipeState.UP_TO_DATE)
+
+        when:
+        def response = RestAssured.given().get("/pipe/0?location=someLocation")
+
+        then:
+        response
+            .then()
+            .statusCode(200)
+            .body(equalTo("[]"))
+            .header(HttpHeaders.RETRY_AFTER_MS, "" + RETRY_AFTER_MS)
+    }
+
     def "messages smaller than the compression threshold should not be encoded"() {
         given: "a read request"
         def message = new Message("type", "key", "contentType", 0L, ZonedDateTime.now(Clock.systemUTC()), "smallPayload")
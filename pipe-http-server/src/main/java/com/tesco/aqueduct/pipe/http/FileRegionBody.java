@@ -0,0 +1,102 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.api.HttpHeaders;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.netty.NettyMutableHttpResponse;
+import io.micronaut.http.server.netty.types.NettyCustomizableResponseType;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Response body sent from a range of a file.
+ *
+ * Without TLS the range is transferred with a {@link DefaultFileRegion}, so the kernel copies it to the socket
+ * without it passing through the heap, with TLS it is read in chunks to be encrypted. The file is only opened here,
+ * so a response that is never written holds nothing open, and the channel is closed once the range is sent. When the
+ * file is gone by then, the client is told to retry straight away.
+ */
+class FileRegionBody implements NettyCustomizableResponseType {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(FileRegionBody.class));
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Path path;
+    private final long position;
+    private final long length;
+
+    FileRegionBody(final Path path, final long position, final long length) {
+        this.path = path;
+        this.position = position;
+        this.length = length;
+    }
+
+    @Override
+    public void write(final HttpRequest<?> request, final MutableHttpResponse<?> response, final ChannelHandlerContext context) {
+        if (!(response instanceof NettyMutableHttpResponse)) {
+            throw new IllegalArgumentException("Unsupported response type. Not a Netty response: " + response);
+        }
+
+        final NettyMutableHttpResponse<?> nettyResponse = (NettyMutableHttpResponse<?>) response;
+
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException exception) {
+            LOG.error("file region body", "open " + path, exception);
+            final DefaultFullHttpResponse unavailable =
+                new DefaultFullHttpResponse(nettyResponse.getNettyHttpVersion(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+            unavailable.headers().set(HttpHeaders.RETRY_AFTER, "0");
+            HttpUtil.setContentLength(unavailable, 0);
+            context.writeAndFlush(unavailable);
+            return;
+        }
+
+        final DefaultHttpResponse headers = new DefaultHttpResponse(
+            nettyResponse.getNettyHttpVersion(),
+            nettyResponse.getNettyHttpStatus(),
+            nettyResponse.getNettyHeaders()
+        );
+        HttpUtil.setContentLength(headers, length);
+        context.write(headers, context.voidPromise());
+
+        if (context.pipeline().get(SslHandler.class) == null) {
+            context.write(new DefaultFileRegion(channel, position, length), context.newProgressivePromise());
+            context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else {
+            try {
+                context.writeAndFlush(
+                    new HttpChunkedInput(new ChunkedNioFile(channel, position, length, CHUNK_SIZE)),
+                    context.newProgressivePromise()
+                );
+            } catch (IOException exception) {
+                closeQuietly(channel);
+                throw new UncheckedIOException("Error sending file region", exception);
+            }
+        }
+    }
+
+    private void closeQuietly(final FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            LOG.error("file region body", "close " + path, exception);
+        }
+    }
+}
@@ -15,4 +15,12 @@ public class PipeRateLimiter {
     public boolean tryAcquire() {
         return this.rateLimiter.tryAcquire();
     }
+
+    public void setCapacity(double capacity) {
+        this.rateLimiter.setRate(capacity);
+    }
+
+    public double getCapacity() {
+        return this.rateLimiter.getRate();
+    }
 }
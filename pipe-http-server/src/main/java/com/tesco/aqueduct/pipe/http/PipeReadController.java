@@ -11,21 +11,29 @@ import io.micronaut.core.util.StringUtils;
 import io.micronaut.http.HttpRequest;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
 import io.micronaut.http.MutableHttpResponse;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.Produces;
+import io.micronaut.scheduling.TaskExecutors;
 import io.micronaut.security.annotation.Secured;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
-import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static io.micronaut.http.HttpHeaders.ACCEPT_ENCODING;
+import static io.micronaut.http.HttpHeaders.CONTENT_ENCODING;
 import static java.lang.String.format;
 
 @Secured("PIPE_READ")
@@ -38,68 +46,115 @@ public class PipeReadController implements Bootstrapable {
     private static final PipeLogger DEBUG_LOGGER = new PipeLogger(LoggerFactory.getLogger("pipe-debug-logger"));
 
     private final Reader reader;
-    private final Duration bootstrapThreshold;
-    private final Duration clusterChangeThreshold;
+    private final ReadRequestClassifier classifier;
     private final ContentEncoder contentEncoder;
     private final PipeRateLimiter rateLimiter;
+    private final ReadLanes readLanes;
+    private final Duration retryAfterWhenLaneUnavailable;
     private final boolean logging;
+    private final Scheduler readScheduler;
     private AtomicBoolean serviceAvailable;
 
     @Inject
     public PipeReadController(
         @Named("local") Reader reader,
-        @Property(name = "pipe.bootstrap.threshold", defaultValue = "6h") Duration bootstrapThreshold,
-        @Property(name = "pipe.clusterChange.threshold", defaultValue = "24h") Duration clusterChangeThreshold,
         @Property(name = "bootstrap.retry.logging", defaultValue = "false") boolean logging,
+        @Property(name = "pipe.read.lanes.retry-after", defaultValue = "5s") Duration retryAfterWhenLaneUnavailable,
+        ReadRequestClassifier classifier,
         ContentEncoder contentEncoder,
-        PipeRateLimiter rateLimiter
+        PipeRateLimiter rateLimiter,
+        @Nullable ReadLanes readLanes,
+        @Named(TaskExecutors.IO) ExecutorService ioExecutor,
+        @Nullable @Named("pipe-read") ExecutorService readExecutor
     ) {
         this.reader = reader;
-        this.bootstrapThreshold = bootstrapThreshold;
-        this.clusterChangeThreshold = clusterChangeThreshold;
+        this.classifier = classifier;
         this.logging = logging;
         this.contentEncoder = contentEncoder;
         this.rateLimiter = rateLimiter;
+        this.readLanes = readLanes;
+        this.retryAfterWhenLaneUnavailable = retryAfterWhenLaneUnavailable;
+        // reads are blocking, they run on the dedicated pipe-read executor when configured to keep them off event loop
+        this.readScheduler = Schedulers.from(readExecutor != null ? readExecutor : ioExecutor);
         this.serviceAvailable = new AtomicBoolean(true);
     }
 
     @Get("/pipe/{offset}{?type,location}")
-    public HttpResponse<byte[]> readMessages(
+    @Produces({MediaType.APPLICATION_JSON, BinaryMessageCodec.MEDIA_TYPE})
+    public Single<HttpResponse<?>> readMessages(
         final long offset,
         final HttpRequest<?> request,
         @Nullable final List<String> type,
         @Nullable final String location
     ) {
         if (!serviceAvailable.get()) {
-            return HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE);
+            return Single.just(HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE));
         }
 
         if (offset < 0 || StringUtils.isEmpty(location)) {
-            return HttpResponse.badRequest();
+            return Single.just(HttpResponse.badRequest());
         }
 
         logOffsetRequestFromRemoteHost(offset, request);
         final List<String> types = flattenRequestParams(type);
+        final boolean binary = acceptsBinary(request);
+        final boolean gzip = acceptsGzip(request);
 
+        return Single
+            .fromCallable(() -> readResponse(offset, types, location, binary, gzip))
+            .subscribeOn(readScheduler);
+    }
+
+    private HttpResponse<?> readResponse(
+        final long offset,
+        final List<String> types,
+        final String location,
+        final boolean binary,
+        final boolean gzip
+    ) {
         DEBUG_LOGGER.withLocation(location).withOffset(offset).withTypes(types).info("pipe read controller", "reading for data");
 
-        final MessageResults messageResults = reader.read(types, offset, location);
-        final List<Message> messages = messageResults.getMessages();
+        final Optional<MessageResults> results = read(types, offset, location);
+
+        if (!results.isPresent()) {
+            return laneUnavailableResponse();
+        }
+
+        final MessageResults messageResults = results.get();
 
         final long retryAfterMs = calculateRetryAfter(messageResults);
         LOG.debug("pipe read controller", String.format("set retry time to %d", retryAfterMs));
 
-        byte[] responseBytes = JsonHelper.toJson(messages).getBytes();
-
         Map<CharSequence, CharSequence> responseHeaders = new HashMap<>();
 
+        // pages held as gzip JSON are sent as they are, PipeReadFilter leaves encoded responses alone
+        final boolean sendGzip = gzip && !binary;
+
+        final Object responseBody;
+        if (sendGzip && messageResults instanceof SegmentFileMessageResults) {
+            final SegmentFileMessageResults page = (SegmentFileMessageResults) messageResults;
+            responseBody = new FileRegionBody(page.getPath(), page.getPosition(), page.getLength());
+            putGzipHeaders(responseHeaders);
+        } else if (sendGzip && messageResults instanceof PrecompressedMessageResults) {
+            responseBody = ((PrecompressedMessageResults) messageResults).toGzipJson();
+            putGzipHeaders(responseHeaders);
+        } else if (binary) {
+            responseBody = BinaryMessageCodec.encode(messageResults.getMessages());
+        } else if (messageResults instanceof StoredMessageResults) {
+            responseBody = ((StoredMessageResults) messageResults).toJson();
+        } else {
+            responseBody = JsonHelper.toJson(messageResults.getMessages()).getBytes();
+        }
+
         final long retryAfterSeconds = (long) Math.ceil(retryAfterMs / (double) 1000);
 
         responseHeaders.put(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
         responseHeaders.put(HttpHeaders.RETRY_AFTER_MS, String.valueOf(retryAfterMs));
         responseHeaders.put(HttpHeaders.PIPE_STATE, messageResults.getPipeState().toString());
 
-        MutableHttpResponse<byte[]> response = HttpResponse.ok(responseBytes).headers(responseHeaders);
+        MutableHttpResponse<Object> response = HttpResponse.ok(responseBody)
+            .headers(responseHeaders)
+            .contentType(binary ? BinaryMessageCodec.MEDIA_TYPE : MediaType.APPLICATION_JSON);
 
         messageResults.getGlobalLatestOffset()
             .ifPresent(
@@ -109,7 +164,49 @@ public class PipeReadController implements Bootstrapable {
         return response;
     }
 
+    private void putGzipHeaders(final Map<CharSequence, CharSequence> headers) {
+        headers.put(HttpHeaders.X_CONTENT_ENCODING, "gzip");
+        headers.put(CONTENT_ENCODING, "gzip");
+    }
+
+    // JSON unless the binary page is accepted, clients not sending Accept keep getting JSON
+    private boolean acceptsBinary(final HttpRequest<?> request) {
+        return request.getHeaders().accept().stream()
+            .anyMatch(mediaType -> BinaryMessageCodec.MEDIA_TYPE.equals(mediaType.getName()));
+    }
+
+    private boolean acceptsGzip(final HttpRequest<?> request) {
+        final String acceptEncoding = request.getHeaders().get(ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    private Optional<MessageResults> read(final List<String> types, final long offset, final String location) {
+        if (readLanes == null) {
+            return Optional.of(reader.read(types, offset, location));
+        }
+
+        final Optional<MessageResults> messageResults =
+            readLanes.execute(readLanes.classify(location, offset), () -> reader.read(types, offset, location));
+
+        messageResults.ifPresent(results -> readLanes.record(location, classifier.classify(results)));
+
+        return messageResults;
+    }
+
+    private MutableHttpResponse<byte[]> laneUnavailableResponse() {
+        final long retryAfterMs = retryAfterWhenLaneUnavailable.toMillis();
+        final long retryAfterSeconds = (long) Math.ceil(retryAfterMs / (double) 1000);
+
+        return HttpResponse.<byte[]>status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+            .header(HttpHeaders.RETRY_AFTER_MS, String.valueOf(retryAfterMs));
+    }
+
     private long calculateRetryAfter(MessageResults messageResults) {
+        if (messageResults instanceof EncodedMessageResults) {
+            return calculateRetryAfter((EncodedMessageResults) messageResults);
+        }
+
         if (messageResults.getMessages().isEmpty()) {
             return messageResults.getRetryAfterMs();
         }
@@ -127,23 +224,31 @@ public class PipeReadController implements Bootstrapable {
         return messageResults.getRetryAfterMs();
     }
 
-    private boolean isClusterChangeAndCapacityAvailable(List<Message> messages) {
-        return isWithinClusterChangeThreshold(messages) && rateLimiter.tryAcquire();
-    }
+    // classified from what was recorded with the encoded page, without decoding its messages
+    private long calculateRetryAfter(EncodedMessageResults page) {
+        if (page.getMessageCount() == 0) {
+            return page.getRetryAfterMs();
+        }
+        if (
+            (classifier.isBootstrapping(page.getFirstCreated()) && rateLimiter.tryAcquire())
+            ||
+            (classifier.isClusterChange(page.getFirstCreated(), page.isClusterChange()) && rateLimiter.tryAcquire())
+        ) {
+            if (logging) {
+                LOG.info("pipe read controller", "retry time is 0ms");
+            }
+            return 0;
+        }
 
-    private boolean isWithinClusterChangeThreshold(List<Message> messages) {
-        return
-            messages.get(0).getCreated().isAfter(ZonedDateTime.now().minus(clusterChangeThreshold))
-            &&
-            messages.stream().anyMatch(message -> !Objects.equals(message.getClusterId(), message.getRoutingId()));
+        return page.getRetryAfterMs();
     }
 
-    private boolean isBootstrappingAndCapacityAvailable(List<Message> messages) {
-        return isBeforeBootstrapThreshold(messages) && rateLimiter.tryAcquire();
+    private boolean isClusterChangeAndCapacityAvailable(List<Message> messages) {
+        return classifier.isClusterChange(messages) && rateLimiter.tryAcquire();
     }
 
-    private boolean isBeforeBootstrapThreshold(List<Message> messages) {
-        return messages.get(0).getCreated().isBefore(ZonedDateTime.now().minus(bootstrapThreshold));
+    private boolean isBootstrappingAndCapacityAvailable(List<Message> messages) {
+        return classifier.isBootstrapping(messages) && rateLimiter.tryAcquire();
     }
 
     private void logOffsetRequestFromRemoteHost(final long offset, final HttpRequest<?> request) {
@@ -11,6 +11,8 @@ import io.reactivex.Flowable;
 import jakarta.inject.Inject;
 import org.reactivestreams.Publisher;
 
+import static io.micronaut.http.HttpHeaders.CONTENT_ENCODING;
+
 @Filter("/pipe/*")
 public class PipeReadFilter implements HttpServerFilter {
 
@@ -25,7 +27,7 @@ public class PipeReadFilter implements HttpServerFilter {
     public Publisher<MutableHttpResponse<?>> doFilter(HttpRequest<?> request, ServerFilterChain chain) {
         return Flowable.fromPublisher(chain.proceed(request))
             .doOnNext(response -> {
-                if (isReadEndpoint(request) && response.status() == HttpStatus.OK) {
+                if (isReadEndpoint(request) && response.status() == HttpStatus.OK && !isEncoded(response)) {
                     final ContentEncoder.EncodedResponse encodedResponse = encoder.encodeResponse(request, (byte[]) response.body());
                     response.body(encodedResponse.getEncodedBody());
                     encodedResponse.getHeaders().forEach(response::header);
@@ -33,6 +35,11 @@ public class PipeReadFilter implements HttpServerFilter {
             });
     }
 
+    // pages compressed ahead of time are already encoded by the controller
+    private boolean isEncoded(MutableHttpResponse<?> response) {
+        return response.getHeaders().contains(CONTENT_ENCODING);
+    }
+
     private boolean isReadEndpoint(HttpRequest<?> request) {
         return request.getUri().getPath().matches("\\/pipe\\/\\d+");
     }
@@ -0,0 +1,5 @@
+package com.tesco.aqueduct.pipe.http;
+
+public enum ReadLane {
+    TAILING, CLUSTER_CHANGE, BOOTSTRAP
+}
@@ -0,0 +1,126 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import jakarta.inject.Singleton;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the number of concurrent reads per lane, so that a wave of bootstrapping readers can only take its share
+ * of the storage connections and cannot starve readers tailing the pipe. Each lane's concurrency is the number of
+ * storage connections it may hold at once.
+ *
+ * Lane of a request is the lane of the last response served to the same location, or bootstrap for reads from
+ * offset zero.
+ */
+@Singleton
+@Requires(property = "pipe.read.lanes.enabled", value = "true")
+public class ReadLanes {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(ReadLanes.class));
+
+    private final Map<ReadLane, Lane> lanes = new EnumMap<>(ReadLane.class);
+    private final Cache<String, ReadLane> laneByLocation;
+    private final Duration queueTimeout;
+
+    public ReadLanes(
+        @Property(name = "pipe.read.lanes.tailing.concurrency", defaultValue = "6") int tailingConcurrency,
+        @Property(name = "pipe.read.lanes.cluster-change.concurrency", defaultValue = "2") int clusterChangeConcurrency,
+        @Property(name = "pipe.read.lanes.bootstrap.concurrency", defaultValue = "2") int bootstrapConcurrency,
+        @Property(name = "pipe.read.lanes.queue-timeout", defaultValue = "1s") Duration queueTimeout,
+        @Property(name = "pipe.read.lanes.location-expiry", defaultValue = "1h") Duration locationExpiry,
+        MeterRegistry meterRegistry
+    ) {
+        this.queueTimeout = queueTimeout;
+        this.laneByLocation = CacheBuilder.newBuilder()
+            .expireAfterAccess(locationExpiry.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+
+        lanes.put(ReadLane.TAILING, new Lane(ReadLane.TAILING, tailingConcurrency, meterRegistry));
+        lanes.put(ReadLane.CLUSTER_CHANGE, new Lane(ReadLane.CLUSTER_CHANGE, clusterChangeConcurrency, meterRegistry));
+        lanes.put(ReadLane.BOOTSTRAP, new Lane(ReadLane.BOOTSTRAP, bootstrapConcurrency, meterRegistry));
+    }
+
+    public ReadLane classify(final String location, final long offset) {
+        final ReadLane lane = laneByLocation.getIfPresent(location);
+        if (lane != null) {
+            return lane;
+        }
+        return offset == 0 ? ReadLane.BOOTSTRAP : ReadLane.TAILING;
+    }
+
+    public void record(final String location, final ReadLane lane) {
+        laneByLocation.put(location, lane);
+    }
+
+    /**
+     * @return result of the read, or empty when the lane had no capacity within the queue timeout
+     */
+    public <T> Optional<T> execute(final ReadLane readLane, final Supplier<T> read) {
+        return lanes.get(readLane).execute(read, queueTimeout);
+    }
+
+    private static class Lane {
+        private final ReadLane name;
+        private final Semaphore permits;
+        private final AtomicInteger queued;
+        private final AtomicInteger active;
+        private final Timer queueWait;
+        private final Counter rejected;
+
+        Lane(final ReadLane name, final int concurrency, final MeterRegistry meterRegistry) {
+            final Tags tags = Tags.of("lane", name.name().toLowerCase());
+            this.name = name;
+            this.permits = new Semaphore(concurrency, true);
+            this.queued = meterRegistry.gauge("pipe.read.lane.queued", tags, new AtomicInteger(0));
+            this.active = meterRegistry.gauge("pipe.read.lane.active", tags, new AtomicInteger(0));
+            this.queueWait = meterRegistry.timer("pipe.read.lane.wait", tags);
+            this.rejected = meterRegistry.counter("pipe.read.lane.rejected", tags);
+        }
+
+        <T> Optional<T> execute(final Supplier<T> read, final Duration queueTimeout) {
+            final long start = System.nanoTime();
+            queued.incrementAndGet();
+            final boolean acquired;
+            try {
+                acquired = permits.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(exception);
+            } finally {
+                queued.decrementAndGet();
+                queueWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+
+            if (!acquired) {
+                rejected.increment();
+                LOG.info("read lanes", "no capacity in lane " + name);
+                return Optional.empty();
+            }
+
+            active.incrementAndGet();
+            try {
+                return Optional.of(read.get());
+            } finally {
+                active.decrementAndGet();
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.api.EncodedMessageResults;
+import com.tesco.aqueduct.pipe.api.Message;
+import com.tesco.aqueduct.pipe.api.MessageResults;
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Singleton;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Objects;
+
+@Singleton
+public class ReadRequestClassifier {
+
+    private final Duration bootstrapThreshold;
+    private final Duration clusterChangeThreshold;
+
+    public ReadRequestClassifier(
+        @Property(name = "pipe.bootstrap.threshold", defaultValue = "6h") Duration bootstrapThreshold,
+        @Property(name = "pipe.clusterChange.threshold", defaultValue = "24h") Duration clusterChangeThreshold
+    ) {
+        this.bootstrapThreshold = bootstrapThreshold;
+        this.clusterChangeThreshold = clusterChangeThreshold;
+    }
+
+    public ReadLane classify(MessageResults results) {
+        if (results instanceof EncodedMessageResults) {
+            final EncodedMessageResults page = (EncodedMessageResults) results;
+            if (page.getMessageCount() == 0) {
+                return ReadLane.TAILING;
+            } else if (isBootstrapping(page.getFirstCreated())) {
+                return ReadLane.BOOTSTRAP;
+            } else if (isClusterChange(page.getFirstCreated(), page.isClusterChange())) {
+                return ReadLane.CLUSTER_CHANGE;
+            }
+            return ReadLane.TAILING;
+        }
+        return classify(results.getMessages());
+    }
+
+    public ReadLane classify(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return ReadLane.TAILING;
+        } else if (isBootstrapping(messages)) {
+            return ReadLane.BOOTSTRAP;
+        } else if (isClusterChange(messages)) {
+            return ReadLane.CLUSTER_CHANGE;
+        }
+        return ReadLane.TAILING;
+    }
+
+    public boolean isClusterChange(List<Message> messages) {
+        return
+            messages.get(0).getCreated().isAfter(ZonedDateTime.now().minus(clusterChangeThreshold))
+            &&
+            messages.stream().anyMatch(message -> !Objects.equals(message.getClusterId(), message.getRoutingId()));
+    }
+
+    public boolean isClusterChange(ZonedDateTime firstCreated, boolean routedFromOtherCluster) {
+        return firstCreated.isAfter(ZonedDateTime.now().minus(clusterChangeThreshold)) && routedFromOtherCluster;
+    }
+
+    public boolean isBootstrapping(List<Message> messages) {
+        return isBootstrapping(messages.get(0).getCreated());
+    }
+
+    public boolean isBootstrapping(ZonedDateTime firstCreated) {
+        return firstCreated.isBefore(ZonedDateTime.now().minus(bootstrapThreshold));
+    }
+}
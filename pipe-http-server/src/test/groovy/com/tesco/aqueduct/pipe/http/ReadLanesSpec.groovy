@@ -0,0 +1,70 @@
+package com.tesco.aqueduct.pipe.http
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+class ReadLanesSpec extends Specification {
+
+    def meterRegistry = new SimpleMeterRegistry()
+    def readLanes = new ReadLanes(1, 1, 1, Duration.ofMillis(50), Duration.ofHours(1), meterRegistry)
+
+    @Unroll
+    def "unknown location reading from offset #offset is classified as #lane"() {
+        expect:
+        readLanes.classify("location", offset) == lane
+
+        where:
+        offset | lane
+        0      | ReadLane.BOOTSTRAP
+        100    | ReadLane.TAILING
+    }
+
+    def "location is classified by the last recorded lane"() {
+        given:
+        readLanes.record("location", ReadLane.CLUSTER_CHANGE)
+
+        expect:
+        readLanes.classify("location", 100) == ReadLane.CLUSTER_CHANGE
+        readLanes.classify("otherLocation", 100) == ReadLane.TAILING
+    }
+
+    def "read is executed when lane has capacity"() {
+        expect:
+        readLanes.execute(ReadLane.TAILING, { "result" }) == Optional.of("result")
+    }
+
+    def "saturated lane rejects reads without affecting other lanes"() {
+        given: "a long running bootstrap read"
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def executor = Executors.newSingleThreadExecutor()
+        executor.submit({
+            readLanes.execute(ReadLane.BOOTSTRAP, {
+                started.countDown()
+                release.await()
+                "bootstrap"
+            })
+        })
+        started.await()
+
+        expect: "another bootstrap read times out in the queue"
+        readLanes.execute(ReadLane.BOOTSTRAP, { "second bootstrap" }) == Optional.empty()
+
+        and: "tailing reads are still served"
+        readLanes.execute(ReadLane.TAILING, { "tailing" }) == Optional.of("tailing")
+
+        and: "queueing metrics are recorded per lane"
+        meterRegistry.get("pipe.read.lane.rejected").tag("lane", "bootstrap").counter().count() == 1
+        meterRegistry.get("pipe.read.lane.rejected").tag("lane", "tailing").counter().count() == 0
+        meterRegistry.get("pipe.read.lane.active").tag("lane", "bootstrap").gauge().value() == 1
+
+        cleanup:
+        release.countDown()
+        executor.shutdown()
+    }
+}
@@ -0,0 +1,478 @@
+package com.tesco.aqueduct.pipe.storage.log
+
+import com.tesco.aqueduct.pipe.api.*
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.ZoneId
+import java.time.ZonedDateTime
+import java.time.temporal.ChronoUnit
+
+import static com.tesco.aqueduct.pipe.api.OffsetName.*
+
+/**
+ * Behaviour every {@link DistributedStorage} of a till has to share, run against each of them by its subclasses
+ */
+abstract class DistributedStorageContractSpec extends Specification {
+
+    static final int LIMIT = 1000
+    static final int RETRY_AFTER = 10
+    static final long BATCH_SIZE = 1000
+    static final ZonedDateTime DELETION_COMPACT_THRESHOLD = ZonedDateTime.parse("2000-12-01T00:00:00Z")
+
+    DistributedStorage storage
+
+    abstract DistributedStorage createStorage(int limit, int retryAfterMs, long maxBatchSize)
+
+    abstract void compactUpTo(
+        ZonedDateTime compactionThreshold,
+        ZonedDateTime deletionCompactionThreshold,
+        boolean compactDeletions
+    )
+
+    def setup() {
+        storage = createStorage(LIMIT, RETRY_AFTER, BATCH_SIZE)
+    }
+
+    def 'messages are read from the given offset in offset order'() {
+        given:
+        storage.write([message(1), message(2), message(3)])
+
+        when:
+        def results = storage.read(null, 2, "locationUuid")
+
+        then:
+        results.messages == [message(2), message(3)]
+        results.retryAfterMs == 0
+    }
+
+    def 'messages are read back created in UTC to the millisecond and sized by their JSON'() {
+        given:
+        def written = new Message("type", "key", "text/plain", 1, ZonedDateTime.parse("2020-01-01T10:00:00.123456+01:00"), "data")
+        storage.write(written)
+
+        when:
+        def read = storage.read(null, 1, "locationUuid").messages[0]
+
+        then:
+        read.created == ZonedDateTime.of(2020, 1, 1, 9, 0, 0, 123_000_000, ZoneId.of("UTC"))
+        read.size == JsonHelper.toJson(written).length()
+        read.data == "data"
+    }
+
+    def 'deletions are read back without data'() {
+        given:
+        storage.write(delete(1, "key", "type", createdTime()))
+
+        expect:
+        storage.read(null, 1, "locationUuid").messages == [delete(1, "key", "type", createdTime())]
+    }
+
+    @Unroll
+    def 'messages are filtered by the given types'() {
+        given:
+        storage.write([message(1, "type1"), message(2, "type2"), message(3, "type3"), message(4, "type1")])
+
+        expect:
+        storage.read(types, 1, "locationUuid").messages*.offset == expected
+
+        where:
+        types              | expected
+        null               | [1L, 2L, 3L, 4L]
+        []                 | [1L, 2L, 3L, 4L]
+        ["type1"]          | [1L, 4L]
+        ["type1", "type3"] | [1L, 3L, 4L]
+        ["type4"]          | []
+    }
+
+    def 'read returns no more messages than the limit'() {
+        given:
+        storage = createStorage(2, RETRY_AFTER, BATCH_SIZE)
+        storage.write([message(1), message(2), message(3)])
+
+        expect:
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L, 2L]
+    }
+
+    def 'read stops before the running size of messages reaches the max batch size'() {
+        given: 'a max batch size of the overhead allowed for the limit only'
+        def limit = 10
+        storage = createStorage(limit, RETRY_AFTER, 0)
+
+        and:
+        def messages = (1..limit).collect { message(it, "key", "type", createdTime(), "x" * 200) }
+        storage.write(messages)
+
+        and:
+        def maxBatchSize = Message.MAX_OVERHEAD_SIZE * limit
+        def runningSize = 0
+        def expected = messages.takeWhile { (runningSize += it.size) < maxBatchSize }
+
+        expect:
+        expected.size() < limit
+        storage.read(null, 1, "locationUuid").messages == expected
+    }
+
+    def 'read with no messages to return has the retry after'() {
+        given:
+        storage.write(message(1))
+
+        expect:
+        storage.read(null, 2, "locationUuid").retryAfterMs == RETRY_AFTER
+    }
+
+    def 'read returns global latest offset and pipe state'() {
+        given:
+        storage.write(new PipeEntity(
+            [message(1)], [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(5))], PipeState.UP_TO_DATE
+        ))
+
+        when:
+        def results = storage.read(null, 1, "locationUuid")
+
+        then:
+        results.globalLatestOffset == OptionalLong.of(5)
+        results.pipeState == PipeState.UP_TO_DATE
+    }
+
+    def 'read returns no global latest offset and unknown pipe state when none were written'() {
+        when:
+        def results = storage.read(null, 1, "locationUuid")
+
+        then:
+        results.messages.isEmpty()
+        results.globalLatestOffset == OptionalLong.empty()
+        results.pipeState == PipeState.UNKNOWN
+    }
+
+    def 'messages, offsets and pipe state of a pipe entity are written'() {
+        when:
+        storage.write(new PipeEntity(
+            [message(1), message(2)],
+            [new OffsetEntity(PIPE_OFFSET, OptionalLong.of(10)), new OffsetEntity(LOCAL_LATEST_OFFSET, OptionalLong.of(2))],
+            PipeState.OUT_OF_DATE
+        ))
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L, 2L]
+        storage.getOffset(PIPE_OFFSET) == OptionalLong.of(10)
+        storage.getOffset(LOCAL_LATEST_OFFSET) == OptionalLong.of(2)
+        storage.getPipeState() == PipeState.OUT_OF_DATE
+    }
+
+    def 'offsets and pipe state of a pipe entity are written without messages'() {
+        when:
+        storage.write(new PipeEntity([], [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(10))], PipeState.UP_TO_DATE))
+
+        then:
+        storage.getOffset(GLOBAL_LATEST_OFFSET) == OptionalLong.of(10)
+        storage.getPipeState() == PipeState.UP_TO_DATE
+        storage.read(null, 0, "locationUuid").messages.isEmpty()
+    }
+
+    @Unroll
+    def 'pipe entity with nothing to write is rejected'() {
+        when:
+        storage.write(pipeEntity)
+
+        then:
+        def exception = thrown(IllegalArgumentException)
+        exception.message == "Pipe entity data cannot be null."
+
+        where:
+        pipeEntity                       | _
+        null                             | _
+        new PipeEntity(null, null, null) | _
+        new PipeEntity([], [], null)     | _
+    }
+
+    def 'nothing of a pipe entity is written when one of its messages has an offset already written'() {
+        given:
+        storage.write([message(1), message(2)])
+
+        when:
+        storage.write(new PipeEntity(
+            [message(3), message(2)], [new OffsetEntity(PIPE_OFFSET, OptionalLong.of(10))], PipeState.UP_TO_DATE
+        ))
+
+        then:
+        thrown(RuntimeException)
+
+        and:
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L, 2L]
+        storage.getOffset(PIPE_OFFSET) == OptionalLong.empty()
+        storage.getPipeState() == PipeState.UNKNOWN
+    }
+
+    def 'no message of a pipe entity is written when one of its offsets cannot be'() {
+        when:
+        storage.write(new PipeEntity(
+            [message(1), message(2)], [new OffsetEntity(null, OptionalLong.of(6))], PipeState.UP_TO_DATE
+        ))
+
+        then:
+        thrown(RuntimeException)
+
+        and:
+        storage.read(null, 1, "locationUuid").messages.isEmpty()
+        storage.getPipeState() == PipeState.UNKNOWN
+    }
+
+    @Unroll
+    def 'latest offset written is returned'() {
+        when:
+        storage.write(new OffsetEntity(offsetName, OptionalLong.of(1)))
+        storage.write(new OffsetEntity(offsetName, OptionalLong.of(2)))
+
+        then:
+        storage.getOffset(offsetName) == OptionalLong.of(2)
+
+        where:
+        offsetName           | _
+        GLOBAL_LATEST_OFFSET | _
+        LOCAL_LATEST_OFFSET  | _
+        PIPE_OFFSET          | _
+    }
+
+    def 'latest pipe state written is returned'() {
+        when:
+        storage.write(PipeState.UP_TO_DATE)
+        storage.write(PipeState.OUT_OF_DATE)
+
+        then:
+        storage.getPipeState() == PipeState.OUT_OF_DATE
+    }
+
+    def 'messages, offsets and pipe state are deleted'() {
+        given:
+        storage.write(new PipeEntity(
+            [message(1), message(2)], [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(2))], PipeState.UP_TO_DATE
+        ))
+
+        when:
+        storage.deleteAll()
+
+        then:
+        storage.read(null, 0, "locationUuid").messages.isEmpty()
+        storage.getOffset(GLOBAL_LATEST_OFFSET) == OptionalLong.empty()
+        storage.getPipeState() == PipeState.UNKNOWN
+
+        when: 'messages are written again'
+        storage.write(message(1))
+
+        then:
+        storage.read(null, 0, "locationUuid").messages*.offset == [1L]
+    }
+
+    def 'duplicate messages of a key and type are compacted'() {
+        given:
+        storage.write([
+            message(1, "A", "type1", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(2, "B", "type1", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(3, "A", "type1", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(4, "B", "type2", ZonedDateTime.parse("2000-12-01T10:00:00Z"))
+        ])
+
+        when:
+        compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == [2L, 3L, 4L]
+    }
+
+    def 'messages created after the compaction threshold are not compacted'() {
+        given:
+        storage.write([
+            message(1, "A", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(2, "B", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(3, "C", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(4, "C", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(5, "A", ZonedDateTime.parse("2000-12-03T10:00:00Z")),
+            message(6, "B", ZonedDateTime.parse("2000-12-03T10:00:00Z")),
+            message(7, "B", ZonedDateTime.parse("2000-12-03T10:00:00Z")),
+            message(8, "D", ZonedDateTime.parse("2000-12-03T10:00:00Z"))
+        ])
+
+        when:
+        compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L, 2L, 4L, 5L, 6L, 7L, 8L]
+    }
+
+    @Unroll
+    def 'deletions created up to the deletion compaction threshold are compacted when compacting deletions'() {
+        given:
+        storage.write([
+            message(1, "A", "T", ZonedDateTime.parse("2000-12-01T10:00:00Z"), null),
+            message(2, "B", "T", ZonedDateTime.parse("2000-12-02T10:00:00Z")),
+            message(3, "B", "T", ZonedDateTime.parse("2000-12-03T10:00:00Z")),
+            message(4, "D", "T", ZonedDateTime.parse("2000-12-05T10:00:00Z"), null)
+        ])
+
+        when:
+        compactUpTo(ZonedDateTime.parse("2000-12-04T10:00:00Z"), ZonedDateTime.parse("2000-12-03T10:00:00Z"), compactDeletions)
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == expected
+
+        where:
+        compactDeletions | expected
+        true             | [3L, 4L]
+        false            | [1L, 3L, 4L]
+    }
+
+    def 'messages are compacted as per the compaction and deletion compaction thresholds'() {
+        given:
+        storage.write([
+            message(1, "A", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(2, "A", "some-type", ZonedDateTime.parse("2000-12-02T10:00:00Z"), null),
+            message(3, "B", ZonedDateTime.parse("2000-12-04T10:00:00Z")),
+            message(4, "B", "some-type", ZonedDateTime.parse("2000-12-05T10:00:00Z"), null),
+            message(5, "C", ZonedDateTime.parse("2000-11-30T10:00:00Z")),
+            message(6, "C", "some-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), null),
+            message(7, "C", "some-type", ZonedDateTime.parse("2000-12-04T10:00:00Z"), null),
+            message(8, "D", ZonedDateTime.parse("2000-11-29T10:00:00Z")),
+            message(9, "D", "some-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), null),
+            message(10, "D", "some-type", ZonedDateTime.parse("2000-12-06T10:00:00Z"), null),
+            message(11, "D", "some-type", ZonedDateTime.parse("2000-12-07T10:00:00Z"), null),
+            message(12, "E", ZonedDateTime.parse("2000-11-29T10:00:00Z")),
+            message(13, "E", "some-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), null),
+            message(14, "E", ZonedDateTime.parse("2000-12-02T10:00:00Z")),
+            message(15, "F", ZonedDateTime.parse("2000-12-06T10:00:00Z")),
+            message(16, "F", "some-type", ZonedDateTime.parse("2000-12-07T10:00:00Z"), null),
+            message(17, "F", ZonedDateTime.parse("2000-12-08T10:00:00Z")),
+            message(18, "F", ZonedDateTime.parse("2000-11-25T10:00:00Z")),
+            message(19, "F", "some-type", ZonedDateTime.parse("2000-11-29T10:00:00Z"), null),
+            message(20, "F", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(21, "F", "some-type", ZonedDateTime.parse("2000-12-02T10:00:00Z"), null),
+            message(22, "G", ZonedDateTime.parse("2000-12-06T10:00:00Z")),
+            message(23, "G", "some-type", ZonedDateTime.parse("2000-12-07T10:00:00Z"), null),
+            message(24, "G", ZonedDateTime.parse("2000-12-08T10:00:00Z")),
+            message(25, "G", "some-type", ZonedDateTime.parse("2000-12-08T10:00:00Z"), null)
+        ])
+
+        when:
+        compactUpTo(ZonedDateTime.parse("2000-12-05T10:00:00Z"), ZonedDateTime.parse("2000-12-03T10:00:00Z"), true)
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == [4L, 7L, 10L, 11L, 14L, 15L, 16L, 17L, 22L, 23L, 24L, 25L]
+    }
+
+    def 'offsets and pipe state are kept by compaction'() {
+        given:
+        storage.write(new PipeEntity(
+            [message(1, "A", ZonedDateTime.parse("2000-12-01T10:00:00Z")), message(2, "A", ZonedDateTime.parse("2000-12-01T10:00:00Z"))],
+            [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(2))],
+            PipeState.UP_TO_DATE
+        ))
+
+        when:
+        compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == [2L]
+        storage.getOffset(GLOBAL_LATEST_OFFSET) == OptionalLong.of(2)
+        storage.getPipeState() == PipeState.UP_TO_DATE
+    }
+
+    def 'offset consistency sum is zero when there are no messages'() {
+        expect:
+        storage.getOffsetConsistencySum(storage.getOffset(MAX_OFFSET_PREVIOUS_HOUR).asLong, []) == 0L
+    }
+
+    def 'max offset of the previous hour is the latest offset of messages created up to the start of the hour'() {
+        given:
+        def thresholdTime = ZonedDateTime.now(ZoneId.of("UTC")).truncatedTo(ChronoUnit.HOURS)
+        storage.write([
+            message(1, "A", thresholdTime.minusMinutes(10)),
+            message(2, "A", thresholdTime),
+            message(3, "A", thresholdTime.plusHours(2))
+        ])
+
+        expect:
+        storage.getOffset(MAX_OFFSET_PREVIOUS_HOUR) == OptionalLong.of(2)
+    }
+
+    @Unroll
+    def 'offset consistency sum adds the latest offset of each key and type not deleted up to the offset'() {
+        given:
+        storage.write([
+            message(1, "A", "type1", createdTime()),
+            message(2, "B", "type1", createdTime()),
+            delete(3, "A", "type1", createdTime()),
+            message(4, "C", "type2", createdTime()),
+            message(5, "A", "type1", createdTime()),
+            delete(6, "A", "type1", createdTime()),
+            message(7, "C", "type1", createdTime())
+        ])
+
+        expect:
+        storage.getOffsetConsistencySum(offset, []) == expected
+
+        where:
+        offset | expected
+        2      | 3L
+        3      | 2L
+        4      | 6L
+        5      | 11L
+        7      | 13L
+    }
+
+    @Unroll
+    def 'max offset for consumers is the latest offset of the given types'() {
+        given:
+        storage.write([
+            message(1, "type1"),
+            message(2, "type1"),
+            message(3, "type2"),
+            message(4, "type2"),
+            message(5, "type1"),
+            message(8, "type3"),
+            message(9, "type1")
+        ])
+
+        expect:
+        storage.getMaxOffsetForConsumers(types) == expected
+
+        where:
+        types              | expected
+        ["type1"]          | 9
+        ["type2"]          | 4
+        ["type2", "type3"] | 8
+        ["type4"]          | 0
+        []                 | 0
+    }
+
+    def 'visibility check runs without error'() {
+        given:
+        storage.write([message(1), message(2)])
+
+        when:
+        storage.runVisibilityCheck()
+
+        then:
+        noExceptionThrown()
+    }
+
+    static ZonedDateTime createdTime() {
+        ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"))
+    }
+
+    static Message message(long offset, String type = "some-type") {
+        message(offset, "some-key", type, createdTime())
+    }
+
+    static Message message(long offset, String key, ZonedDateTime created) {
+        message(offset, key, "some-type", created)
+    }
+
+    static Message message(long offset, String key, String type, ZonedDateTime created, String data = "some-data") {
+        def written = new Message(type, key, "text/plain", offset, created, data)
+        new Message(type, key, "text/plain", offset, created, data, JsonHelper.toJson(written).length())
+    }
+
+    static Message delete(long offset, String key, String type, ZonedDateTime created) {
+        message(offset, key, type, created, null)
+    }
+}
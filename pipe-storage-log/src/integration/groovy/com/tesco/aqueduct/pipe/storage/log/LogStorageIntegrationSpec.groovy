@@ -0,0 +1,248 @@
+package com.tesco.aqueduct.pipe.storage.log
+
+import com.tesco.aqueduct.pipe.api.DistributedStorage
+import com.tesco.aqueduct.pipe.api.OffsetEntity
+import com.tesco.aqueduct.pipe.api.PipeEntity
+import com.tesco.aqueduct.pipe.api.PipeState
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.ZonedDateTime
+
+import static com.tesco.aqueduct.pipe.api.OffsetName.GLOBAL_LATEST_OFFSET
+
+class LogStorageIntegrationSpec extends DistributedStorageContractSpec {
+
+    static final int SEGMENT_SIZE = 4 * 1024
+    static final int INDEX_INTERVAL = 256
+
+    Path directory = Files.createTempDirectory("aqueduct-pipe-log")
+
+    @Override
+    DistributedStorage createStorage(int limit, int retryAfterMs, long maxBatchSize) {
+        storage?.close()
+        new LogStorage(directory, limit, retryAfterMs, maxBatchSize, SEGMENT_SIZE, INDEX_INTERVAL)
+    }
+
+    @Override
+    void compactUpTo(ZonedDateTime compactionThreshold, ZonedDateTime deletionCompactionThreshold, boolean compactDeletions) {
+        ((LogStorage) storage).compactUpTo(compactionThreshold, deletionCompactionThreshold, compactDeletions)
+    }
+
+    def cleanup() {
+        storage.close()
+        directory.deleteDir()
+    }
+
+    def 'messages, offsets and pipe state are read back when the log is opened again'() {
+        given:
+        storage.write(new PipeEntity(
+            [message(1), message(2)], [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(2))], PipeState.UP_TO_DATE
+        ))
+
+        when:
+        reopen()
+
+        then:
+        storage.read(null, 1, "locationUuid").messages == [message(1), message(2)]
+        storage.getOffset(GLOBAL_LATEST_OFFSET) == OptionalLong.of(2)
+        storage.getPipeState() == PipeState.UP_TO_DATE
+        storage.getMaxOffsetForConsumers(["some-type"]) == 2
+    }
+
+    def 'messages are read from any offset once they span several segments'() {
+        given:
+        (1..100).each { storage.write(message(it, "key" + it, "type" + (it % 3), createdTime(), "x" * it)) }
+
+        expect:
+        segments().size() > 1
+
+        and:
+        (1..100).every { storage.read(null, it, "locationUuid").messages[0].offset == it }
+        storage.read(["type1"], 50, "locationUuid").messages*.offset == (50..100).findAll { it % 3 == 1 }*.longValue()
+    }
+
+    def 'write larger than a segment gets a segment of its own'() {
+        when:
+        storage.write(message(1, "key", "type", createdTime(), "x" * (SEGMENT_SIZE * 2)))
+        storage.write(message(2))
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L, 2L]
+    }
+
+    def 'messages have to be written in offset order'() {
+        given:
+        storage.write(message(2))
+
+        when:
+        storage.write(message(1))
+
+        then:
+        def exception = thrown(IllegalArgumentException)
+        exception.message == "Message offset 1 is not after offset 2 already written"
+    }
+
+    def 'write that did not complete is truncated when the log is opened again'() {
+        given:
+        storage.write(new PipeEntity([message(1)], [], PipeState.UP_TO_DATE))
+        storage.write(new PipeEntity([message(2)], [], PipeState.OUT_OF_DATE))
+
+        and: 'the last record of the last write is torn'
+        storage.close()
+        def lastSegment = segments().last()
+        corrupt(lastSegment, recordPositions(lastSegment).last())
+
+        when:
+        reopen()
+
+        then: 'no record of the last write is read'
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L]
+        storage.getPipeState() == PipeState.UP_TO_DATE
+
+        when: 'the write is retried'
+        storage.write(new PipeEntity([message(2)], [], PipeState.OUT_OF_DATE))
+        reopen()
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L, 2L]
+        storage.getPipeState() == PipeState.OUT_OF_DATE
+    }
+
+    def 'segments after a record failing its CRC are dropped when the log is opened again'() {
+        given:
+        (1..100).each { storage.write(message(it, "key", "type", createdTime(), "x" * 100)) }
+        storage.close()
+
+        and:
+        def firstSegment = segments().first()
+        def positions = recordPositions(firstSegment)
+        corrupt(firstSegment, positions[10])
+
+        when:
+        reopen()
+
+        then:
+        segments() == [firstSegment]
+        storage.read(null, 1, "locationUuid").messages*.offset == (1L..10L).toList()
+
+        and: 'messages after the last valid one are written again'
+        storage.write(message(11))
+        storage.read(null, 11, "locationUuid").messages*.offset == [11L]
+    }
+
+    def 'compaction replaces the segments of the log'() {
+        given:
+        (1..100).each { storage.write(message(it, "key" + (it % 10), "type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "x" * 100)) }
+        def segmentsBefore = segments()
+
+        when:
+        compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then:
+        segments().disjoint(segmentsBefore)
+        storage.read(null, 1, "locationUuid").messages*.offset == (91L..100L).toList()
+
+        when:
+        reopen()
+
+        then:
+        storage.read(null, 1, "locationUuid").messages*.offset == (91L..100L).toList()
+    }
+
+    def 'segments replaced by compaction are deleted and the log is still written after them'() {
+        given:
+        (1..100).each { storage.write(message(it, "key" + (it % 10), "type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "x" * 100)) }
+        def segmentsBefore = segments()
+
+        when:
+        compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then:
+        segmentsBefore.every { !Files.exists(it) }
+
+        when:
+        storage.write(message(101))
+
+        then:
+        storage.read(null, 100, "locationUuid").messages*.offset == [100L, 101L]
+
+        when: 'the compacted segments are deleted in turn'
+        def compactedSegments = segments()
+        storage.deleteAll()
+
+        then:
+        compactedSegments.every { !Files.exists(it) }
+        storage.read(null, 0, "locationUuid").messages.isEmpty()
+
+        when:
+        storage.write(message(1))
+
+        then:
+        storage.read(null, 0, "locationUuid").messages*.offset == [1L]
+    }
+
+    def 'compaction interrupted before its segments were complete is dropped when the log is opened again'() {
+        given:
+        storage.write([message(1), message(2)])
+        storage.close()
+
+        and:
+        Files.copy(segments().first(), directory.resolve("00000000000000000009.compacted"))
+
+        when:
+        reopen()
+
+        then:
+        !Files.exists(directory.resolve("00000000000000000009.compacted"))
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L, 2L]
+    }
+
+    def 'compaction interrupted once its segments were complete is finished when the log is opened again'() {
+        given:
+        storage.write(message(1))
+        storage.write(message(2))
+        storage.close()
+
+        and: 'compacted segments holding the first message only'
+        def compacted = directory.resolve("00000000000000000009.compacted")
+        Files.copy(segments().first(), compacted)
+        def secondRecord = recordPositions(compacted)[1]
+        corrupt(compacted, secondRecord)
+        Files.write(directory.resolve("compaction"), "9".bytes)
+
+        when:
+        reopen()
+
+        then:
+        segments()*.fileName*.toString() == ["00000000000000000009.log"]
+        storage.read(null, 1, "locationUuid").messages*.offset == [1L]
+    }
+
+    private void reopen() {
+        storage = createStorage(LIMIT, RETRY_AFTER, BATCH_SIZE)
+    }
+
+    private List<Path> segments() {
+        directory.toFile().listFiles()*.toPath().findAll { it.fileName.toString().endsWith(".log") }.sort()
+    }
+
+    private static List<Integer> recordPositions(Path segment) {
+        def bytes = ByteBuffer.wrap(Files.readAllBytes(segment))
+        def positions = []
+        def position = 0
+        while (position + LogRecord.HEADER_LENGTH <= bytes.capacity() && bytes.getInt(position) != 0) {
+            positions << position
+            position += LogRecord.HEADER_LENGTH + bytes.getInt(position)
+        }
+        positions
+    }
+
+    private static void corrupt(Path segment, int recordPosition) {
+        def bytes = Files.readAllBytes(segment)
+        def corrupted = recordPosition + LogRecord.HEADER_LENGTH + 2
+        bytes[corrupted] = (byte) (bytes[corrupted] ^ 0xFF)
+        Files.write(segment, bytes)
+    }
+}
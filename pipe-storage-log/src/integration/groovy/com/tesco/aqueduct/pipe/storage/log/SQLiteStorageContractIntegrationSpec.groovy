@@ -0,0 +1,31 @@
+package com.tesco.aqueduct.pipe.storage.log
+
+import com.tesco.aqueduct.pipe.api.DistributedStorage
+import com.tesco.aqueduct.pipe.storage.sqlite.SQLiteStorage
+import org.sqlite.SQLiteDataSource
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.ZonedDateTime
+
+class SQLiteStorageContractIntegrationSpec extends DistributedStorageContractSpec {
+
+    Path databaseFile = Files.createTempFile("aqueduct-pipe", ".db")
+
+    @Override
+    DistributedStorage createStorage(int limit, int retryAfterMs, long maxBatchSize) {
+        def dataSource = new SQLiteDataSource()
+        dataSource.setUrl("jdbc:sqlite:" + databaseFile)
+
+        new SQLiteStorage(dataSource, limit, retryAfterMs, maxBatchSize)
+    }
+
+    @Override
+    void compactUpTo(ZonedDateTime compactionThreshold, ZonedDateTime deletionCompactionThreshold, boolean compactDeletions) {
+        ((SQLiteStorage) storage).compactUpTo(compactionThreshold, deletionCompactionThreshold, compactDeletions)
+    }
+
+    def cleanup() {
+        Files.deleteIfExists(databaseFile)
+    }
+}
@@ -0,0 +1,192 @@
+package com.tesco.aqueduct.pipe.storage.log;
+
+import com.tesco.aqueduct.pipe.api.*;
+import com.tesco.aqueduct.pipe.storage.sqlite.SQLiteStorage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares {@link LogStorage} against {@link SQLiteStorage} for the work a till does: writing pages of messages read
+ * from its parent, serving reads to its children and compacting.
+ */
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 10, time = 10)
+public class LogStorageBenchmark {
+
+    private static final int LIMIT = 1000;
+    private static final int RETRY_AFTER = 1000;
+    private static final long BATCH_SIZE = 2_000_000;
+    private static final int KEYS = 10_000;
+    private static final int PAGE_SIZE = 100;
+    private static final ZonedDateTime CREATED = ZonedDateTime.parse("2000-12-01T10:00:00Z");
+    private static final ZonedDateTime COMPACTION_THRESHOLD = ZonedDateTime.parse("2000-12-02T10:00:00Z");
+
+    @State(Scope.Benchmark)
+    public static class WriteState {
+
+        @Param({"log", "sqlite"})
+        public String engine;
+
+        private Path directory;
+        private DistributedStorage storage;
+        private long offset;
+
+        @Setup(Level.Trial)
+        public void doSetup() throws IOException {
+            directory = Files.createTempDirectory("aqueduct-pipe-benchmark");
+            storage = open(engine, directory);
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() throws IOException {
+            close(storage, directory);
+        }
+
+        PipeEntity nextPage() {
+            final List<Message> messages = new ArrayList<>(PAGE_SIZE);
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                messages.add(message(++offset));
+            }
+            return new PipeEntity(
+                messages,
+                Collections.singletonList(new OffsetEntity(OffsetName.GLOBAL_LATEST_OFFSET, OptionalLong.of(offset))),
+                PipeState.UP_TO_DATE
+            );
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ReadState {
+
+        @Param({"log", "sqlite"})
+        public String engine;
+
+        @Param({"100000"})
+        public int messageCount;
+
+        private Path directory;
+        private DistributedStorage storage;
+
+        @Setup(Level.Trial)
+        public void doSetup() throws IOException {
+            directory = Files.createTempDirectory("aqueduct-pipe-benchmark");
+            storage = open(engine, directory);
+            populate(storage, messageCount);
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() throws IOException {
+            close(storage, directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class CompactionState {
+
+        @Param({"log", "sqlite"})
+        public String engine;
+
+        @Param({"100000"})
+        public int messageCount;
+
+        private Path directory;
+        private DistributedStorage storage;
+
+        @Setup(Level.Iteration)
+        public void doSetup() throws IOException {
+            directory = Files.createTempDirectory("aqueduct-pipe-benchmark");
+            storage = open(engine, directory);
+            populate(storage, messageCount);
+        }
+
+        @TearDown(Level.Iteration)
+        public void doTearDown() throws IOException {
+            close(storage, directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS)
+    public void writePage(final WriteState state) {
+        state.storage.write(state.nextPage());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void readPage(final ReadState state, final Blackhole blackhole) {
+        final long offset = ThreadLocalRandom.current().nextLong(1, state.messageCount + 1);
+        blackhole.consume(state.storage.read(null, offset, "locationUuid"));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public void compact(final CompactionState state) {
+        if (state.storage instanceof LogStorage) {
+            ((LogStorage) state.storage).compactUpTo(COMPACTION_THRESHOLD, COMPACTION_THRESHOLD, true);
+        } else {
+            ((SQLiteStorage) state.storage).compactUpTo(COMPACTION_THRESHOLD, COMPACTION_THRESHOLD, true);
+        }
+    }
+
+    private static DistributedStorage open(final String engine, final Path directory) {
+        if ("log".equals(engine)) {
+            return new LogStorage(directory, LIMIT, RETRY_AFTER, BATCH_SIZE);
+        }
+
+        final SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + directory.resolve("aqueduct-pipe.db"));
+        return new SQLiteStorage(dataSource, LIMIT, RETRY_AFTER, BATCH_SIZE);
+    }
+
+    private static void populate(final DistributedStorage storage, final int messageCount) {
+        for (long offset = 1; offset <= messageCount; offset += PAGE_SIZE) {
+            final List<Message> messages = new ArrayList<>(PAGE_SIZE);
+            for (long i = offset; i < offset + PAGE_SIZE && i <= messageCount; i++) {
+                messages.add(message(i));
+            }
+            storage.write(new PipeEntity(messages, Collections.emptyList(), PipeState.UP_TO_DATE));
+        }
+    }
+
+    private static void close(final DistributedStorage storage, final Path directory) throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // keys repeat every KEYS offsets, compaction keeps the latest message of each
+    private static Message message(final long offset) {
+        return new Message("type" + (offset % 10), "key" + (offset % KEYS), "application/json", offset, CREATED, MESSAGE_CONTENT);
+    }
+
+    private static final String MESSAGE_CONTENT = "{" +
+        "\"id\":\"DATA1\"," +
+        "\"bucketNumber\":\"790\"," +
+        "\"dataGroups\":[\"D1\"]," +
+        "\"startDateTime\":\"2017-04-19T00:00:00+00:00\"," +
+        "\"endDateTime\":\"2030-07-11T23:59:59+00:00\"," +
+        "\"name\":\"data\"," +
+        "\"shortDescription\":\"data\"," +
+        "\"condition\":{\"id\":\"1\",\"type\":\"dataMatch\",\"data\":[\"05050179865189\",\"00111122223333\"]}" +
+        "}";
+}
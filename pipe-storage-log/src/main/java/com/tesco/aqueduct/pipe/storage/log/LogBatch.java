@@ -0,0 +1,55 @@
+package com.tesco.aqueduct.pipe.storage.log;
+
+import com.tesco.aqueduct.pipe.api.Message;
+import com.tesco.aqueduct.pipe.api.OffsetEntity;
+import com.tesco.aqueduct.pipe.api.PipeState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records of a single write, encoded before the log is locked. The last record commits the write.
+ */
+final class LogBatch {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final List<LogRecord> records = new ArrayList<>();
+    private final int recordCount;
+
+    LogBatch(final int recordCount) {
+        this.recordCount = recordCount;
+    }
+
+    LogBatch message(final Message message) {
+        records.add(LogRecord.writeMessage(message, isLast(), out));
+        return this;
+    }
+
+    LogBatch offset(final OffsetEntity offset) {
+        records.add(LogRecord.writeOffset(offset, isLast(), out));
+        return this;
+    }
+
+    LogBatch pipeState(final PipeState pipeState) {
+        records.add(LogRecord.writePipeState(pipeState, isLast(), out));
+        return this;
+    }
+
+    List<LogRecord> records() {
+        return records;
+    }
+
+    byte[] toByteArray() {
+        if (records.size() != recordCount) {
+            throw new IllegalStateException("Batch of " + recordCount + " records has " + records.size());
+        }
+        return bytes.toByteArray();
+    }
+
+    private boolean isLast() {
+        return records.size() == recordCount - 1;
+    }
+}
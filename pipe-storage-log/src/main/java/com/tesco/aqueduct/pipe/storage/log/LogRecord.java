@@ -0,0 +1,241 @@
+package com.tesco.aqueduct.pipe.storage.log;
+
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import com.tesco.aqueduct.pipe.api.Message;
+import com.tesco.aqueduct.pipe.api.OffsetEntity;
+import com.tesco.aqueduct.pipe.api.OffsetName;
+import com.tesco.aqueduct.pipe.api.PipeState;
+import lombok.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+
+/**
+ * Record of the log: a message, an offset or the pipe state.
+ *
+ * On disk a record is its body length, the CRC32 of its body, then the body: kind, flags and the fields of the kind.
+ * The last record of each write is flagged as committing it, records after the last commit are dropped on recovery.
+ */
+@Value
+class LogRecord {
+
+    static final byte MESSAGE = 1;
+    static final byte OFFSET = 2;
+    static final byte PIPE_STATE = 3;
+
+    static final int HEADER_LENGTH = 8;
+
+    private static final byte COMMIT_FLAG = 1;
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    byte kind;
+    boolean commit;
+    // set for messages, as SQLiteStorage reads them back: created in UTC to the millisecond, sized by their JSON
+    Message message;
+    OffsetName offsetName;
+    long offsetValue;
+    PipeState pipeState;
+    // bytes taken by the record including its header
+    int length;
+
+    boolean isMessage() {
+        return kind == MESSAGE;
+    }
+
+    /**
+     * Encodes the record for a message into the stream
+     *
+     * @return the record as it is read back
+     */
+    static LogRecord writeMessage(final Message message, final boolean commit, final DataOutputStream out) {
+        final long created = message.getCreated().toInstant().toEpochMilli();
+        return writeStoredMessage(readBack(message, created, eventSize(message)), commit, out);
+    }
+
+    /**
+     * Encodes the record for a message read back from the log, keeping its size
+     */
+    static LogRecord writeStoredMessage(final Message message, final boolean commit, final DataOutputStream out) {
+        return write(out, MESSAGE, commit, body -> {
+            body.writeLong(message.getOffset());
+            body.writeLong(message.getCreated().toInstant().toEpochMilli());
+            body.writeLong(message.getSize());
+            writeString(body, message.getType());
+            writeString(body, message.getKey());
+            writeString(body, message.getContentType());
+            writeString(body, message.getData());
+        }, length -> new LogRecord(MESSAGE, commit, message, null, 0, null, length));
+    }
+
+    static LogRecord writeOffset(final OffsetEntity offset, final boolean commit, final DataOutputStream out) {
+        final OffsetName name = offset.getName();
+        final long value = offset.getValue().getAsLong();
+
+        return write(out, OFFSET, commit, body -> {
+            writeString(body, name.name());
+            body.writeLong(value);
+        }, length -> new LogRecord(OFFSET, commit, null, name, value, null, length));
+    }
+
+    static LogRecord writePipeState(final PipeState pipeState, final boolean commit, final DataOutputStream out) {
+        final String state = pipeState.name();
+
+        return write(out, PIPE_STATE, commit, body -> writeString(body, state),
+            length -> new LogRecord(PIPE_STATE, commit, null, null, 0, pipeState, length));
+    }
+
+    /**
+     * Decodes the record at the position of the buffer
+     *
+     * @return the record, or null when there is none at the position or its bytes fail their checksum
+     */
+    static LogRecord read(final ByteBuffer buffer, final int position) {
+        if (position + HEADER_LENGTH > buffer.capacity()) {
+            return null;
+        }
+
+        final int bodyLength = buffer.getInt(position);
+        final int start = position + HEADER_LENGTH;
+        if (bodyLength < 2 || bodyLength > buffer.capacity() - start) {
+            return null;
+        }
+
+        final ByteBuffer body = buffer.duplicate();
+        body.limit(start + bodyLength).position(start);
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            return null;
+        }
+
+        body.position(start);
+        try {
+            return readBody(body.slice(), HEADER_LENGTH + bodyLength);
+        } catch (RuntimeException exception) {
+            // checksum matched bytes not written as a record
+            return null;
+        }
+    }
+
+    /**
+     * @return true when nothing was written at the position
+     */
+    static boolean isEnd(final ByteBuffer buffer, final int position) {
+        return position + HEADER_LENGTH > buffer.capacity() || buffer.getInt(position) == 0;
+    }
+
+    private static LogRecord readBody(final ByteBuffer body, final int length) {
+        final byte kind = body.get();
+        final boolean commit = (body.get() & COMMIT_FLAG) != 0;
+
+        switch (kind) {
+            case MESSAGE:
+                final long offset = body.getLong();
+                final long created = body.getLong();
+                final long eventSize = body.getLong();
+                final Message message = new Message(
+                    readString(body),
+                    readString(body),
+                    readString(body),
+                    offset,
+                    Instant.ofEpochMilli(created).atZone(UTC),
+                    readString(body),
+                    eventSize
+                );
+                return new LogRecord(MESSAGE, commit, message, null, 0, null, length);
+            case OFFSET:
+                final OffsetName name = OffsetName.valueOf(readString(body));
+                return new LogRecord(OFFSET, commit, null, name, body.getLong(), null, length);
+            case PIPE_STATE:
+                return new LogRecord(PIPE_STATE, commit, null, null, 0, PipeState.valueOf(readString(body)), length);
+            default:
+                throw new IllegalStateException("Unknown record kind " + kind);
+        }
+    }
+
+    private static LogRecord write(
+        final DataOutputStream out,
+        final byte kind,
+        final boolean commit,
+        final BodyWriter bodyWriter,
+        final RecordFactory recordFactory
+    ) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream body = new DataOutputStream(bytes);
+            body.writeByte(kind);
+            body.writeByte(commit ? COMMIT_FLAG : 0);
+            bodyWriter.write(body);
+
+            final byte[] encoded = bytes.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(encoded);
+
+            out.writeInt(encoded.length);
+            out.writeInt((int) crc.getValue());
+            out.write(encoded);
+
+            return recordFactory.create(HEADER_LENGTH + encoded.length);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private static Message readBack(final Message message, final long created, final long eventSize) {
+        return new Message(
+            message.getType(),
+            message.getKey(),
+            message.getContentType(),
+            message.getOffset(),
+            Instant.ofEpochMilli(created).atZone(UTC),
+            message.getData(),
+            eventSize
+        );
+    }
+
+    private static long eventSize(final Message message) {
+        try {
+            return JsonHelper.toJson(message).length();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalStateException("String of " + length + " bytes is longer than the record");
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private interface BodyWriter {
+        void write(DataOutputStream body) throws IOException;
+    }
+
+    private interface RecordFactory {
+        LogRecord create(int length);
+    }
+}
@@ -0,0 +1,210 @@
+package com.tesco.aqueduct.pipe.storage.log;
+
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * File of the log, memory mapped to its full capacity when created.
+ *
+ * Records are appended from the start of the file, the bytes after them stay zero. Only the last segment of the log
+ * is appended to, writes never span two segments.
+ *
+ * The mapping is released when the segment is closed rather than when its buffer is garbage collected, a mapped file
+ * cannot be deleted or renamed on Windows. A closed segment cannot be read or written.
+ */
+final class LogSegment implements Closeable {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(LogSegment.class));
+
+    private static final int ZEROS_LENGTH = 64 * 1024;
+
+    private final long sequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private Path path;
+    private int size;
+    private boolean closed;
+
+    private LogSegment(final Path path, final long sequence, final FileChannel channel, final MappedByteBuffer buffer) {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static LogSegment create(final Path path, final long sequence, final int capacity) throws IOException {
+        final FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+        return new LogSegment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+    }
+
+    /**
+     * Opens an existing segment, its size is only known once it is {@link #recover recovered}
+     */
+    static LogSegment open(final Path path, final long sequence) throws IOException {
+        final FileChannel channel = FileChannel.open(path, READ, WRITE);
+        return new LogSegment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean fits(final int length) {
+        return length <= buffer.capacity() - size;
+    }
+
+    /**
+     * @return view of the segment for reads, records are read up to {@link #size()}
+     */
+    ByteBuffer view() {
+        checkOpen();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    void append(final byte[] bytes) {
+        checkOpen();
+        final ByteBuffer view = buffer.duplicate();
+        view.position(size);
+        view.put(bytes);
+        size += bytes.length;
+    }
+
+    void force() {
+        checkOpen();
+        buffer.force();
+    }
+
+    /**
+     * Passes committed records to the consumer in order, then drops what follows the last of them: records of a write
+     * that did not complete, or bytes that fail their checksum.
+     *
+     * @return true when there was nothing to drop
+     */
+    boolean recover(final RecordConsumer consumer) {
+        checkOpen();
+        final List<LogRecord> pending = new ArrayList<>();
+        int position = 0;
+        int committed = 0;
+
+        LogRecord record;
+        while ((record = LogRecord.read(buffer, position)) != null) {
+            pending.add(record);
+            position += record.getLength();
+
+            if (record.isCommit()) {
+                int recordPosition = committed;
+                for (final LogRecord pendingRecord : pending) {
+                    consumer.accept(pendingRecord, this, recordPosition);
+                    recordPosition += pendingRecord.getLength();
+                }
+                pending.clear();
+                committed = position;
+            }
+        }
+
+        size = committed;
+        if (position == committed && LogRecord.isEnd(buffer, position)) {
+            return true;
+        }
+
+        zeroFrom(committed);
+        force();
+        return false;
+    }
+
+    /**
+     * Closes the segment and moves its file
+     *
+     * @return the segment opened again at the target, to be {@link #recover recovered}
+     */
+    LogSegment moveTo(final Path target) throws IOException {
+        close();
+        Files.move(path, target);
+        return open(target, sequence);
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            closed = true;
+            unmap(buffer);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Segment " + path + " is closed");
+        }
+    }
+
+    // there is no public API to release a mapping, the cleaner of the buffer is run the way the JDK runs it
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+
+            try {
+                // Java 9 and later
+                unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException java8) {
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException exception) {
+            LOG.error("unmap", "segment stays mapped until it is garbage collected", exception);
+        }
+    }
+
+    private void zeroFrom(final int position) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        final byte[] zeros = new byte[ZEROS_LENGTH];
+        while (view.hasRemaining()) {
+            view.put(zeros, 0, Math.min(zeros.length, view.remaining()));
+        }
+    }
+
+    interface RecordConsumer {
+        void accept(LogRecord record, LogSegment segment, int position);
+    }
+}
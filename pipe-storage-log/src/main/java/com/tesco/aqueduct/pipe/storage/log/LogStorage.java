@@ -0,0 +1,655 @@
+package com.tesco.aqueduct.pipe.storage.log;
+
+import com.tesco.aqueduct.pipe.api.*;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Distributed storage kept as an append-only log of segment files, read and written the way {@link DistributedStorage}
+ * is over SQLite without B-tree pages to rewrite, vacuum or checkpoint.
+ *
+ * Each write appends its records, messages then offsets then pipe state, to the last segment in one go, and is
+ * committed by its last record. Segments are memory mapped, messages are found from a sparse index of their offsets.
+ * Offsets, pipe state and the latest offset of each type are held in memory, replayed from the log on start up.
+ * Messages have to be written in offset order.
+ *
+ * On start up a write that did not complete, or bytes failing their CRC, are truncated away, with the segments after
+ * them. Compaction writes the messages it keeps into new segments that replace the old ones once complete, so a crash
+ * while compacting leaves either the old or the new segments.
+ */
+public class LogStorage implements DistributedStorage, Closeable {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(LogStorage.class));
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_INDEX_INTERVAL = 4 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTED_SUFFIX = ".compacted";
+    private static final String COMPACTION_MARKER = "compaction";
+
+    private final Path directory;
+    private final int limit;
+    private final int retryAfterMs;
+    private final long maxBatchSize;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private final List<LogSegment> segments = new ArrayList<>();
+    private final NavigableMap<Long, Position> index = new TreeMap<>();
+    private final Map<OffsetName, Long> offsets = new EnumMap<>(OffsetName.class);
+    private final Map<String, Long> maxOffsetByType = new HashMap<>();
+    private PipeState pipeState;
+    private long lastOffset;
+    private long nextSequence;
+    private Position lastIndexed;
+
+    public LogStorage(
+        final Path directory,
+        final int limit,
+        final int retryAfterMs,
+        final long maxBatchSize
+    ) {
+        this(directory, limit, retryAfterMs, maxBatchSize, DEFAULT_SEGMENT_SIZE, DEFAULT_INDEX_INTERVAL);
+    }
+
+    /**
+     * @param segmentSize bytes a segment is created with, a write larger than that gets a segment of its own size
+     * @param indexInterval bytes of the log between two messages in the sparse offset index
+     */
+    public LogStorage(
+        final Path directory,
+        final int limit,
+        final int retryAfterMs,
+        final long maxBatchSize,
+        final int segmentSize,
+        final int indexInterval
+    ) {
+        this.directory = directory;
+        this.limit = limit;
+        this.retryAfterMs = retryAfterMs;
+        this.maxBatchSize = maxBatchSize + (((long) Message.MAX_OVERHEAD_SIZE) * limit);
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+
+        try {
+            open();
+        } catch (IOException exception) {
+            LOG.error("open", "failed to open log in " + directory, exception);
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    public MessageResults read(final List<String> types, final long offset, final String locationUuid) {
+        final Set<String> typeSet = types == null || types.isEmpty() ? null : new HashSet<>(types);
+        final List<Message> messages = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            final long[] runningSize = {0};
+            forEachRecord(startOf(offset), record -> {
+                if (!record.isMessage()) {
+                    return true;
+                }
+                final Message message = record.getMessage();
+                if (message.getOffset() < offset || (typeSet != null && !typeSet.contains(message.getType()))) {
+                    return true;
+                }
+
+                runningSize[0] += message.getSize();
+                if (runningSize[0] >= maxBatchSize) {
+                    return false;
+                }
+                messages.add(message);
+                return messages.size() < limit;
+            });
+
+            return new MessageResults(
+                messages,
+                messages.isEmpty() ? retryAfterMs : 0,
+                offsetOf(OffsetName.GLOBAL_LATEST_OFFSET),
+                pipeState == null ? PipeState.UNKNOWN : pipeState
+            );
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong getOffset(final OffsetName offsetName) {
+        if (offsetName == OffsetName.MAX_OFFSET_PREVIOUS_HOUR) {
+            return OptionalLong.of(getMaxOffsetCreatedUpTo(
+                ZonedDateTime.now(ZoneId.of("UTC")).truncatedTo(ChronoUnit.HOURS)
+            ));
+        }
+
+        lock.readLock().lock();
+        try {
+            return offsetOf(offsetName);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public PipeState getPipeState() {
+        lock.readLock().lock();
+        try {
+            return pipeState == null ? PipeState.UNKNOWN : pipeState;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sums the latest offset of each key and type up to the given offset, leaving out keys and types deleted by then
+     */
+    @Override
+    public long getOffsetConsistencySum(final long offset, final List<String> targetUuids) {
+        final Map<List<String>, Long> latestByKeyAndType = new HashMap<>();
+
+        lock.readLock().lock();
+        try {
+            forEachMessage(message -> {
+                if (message.getOffset() <= offset) {
+                    latestByKeyAndType.put(
+                        Arrays.asList(message.getKey(), message.getType()),
+                        message.getData() == null ? null : message.getOffset()
+                    );
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return latestByKeyAndType.values().stream().filter(Objects::nonNull).mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Checks the CRC of every record in the log
+     */
+    @Override
+    public void runVisibilityCheck() {
+        lock.readLock().lock();
+        try {
+            forEachRecord(startOf(0), record -> true);
+        } catch (IllegalStateException exception) {
+            LOG.error("integrity check", "integrity check failed", exception);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Long getMaxOffsetForConsumers(final List<String> types) {
+        lock.readLock().lock();
+        try {
+            return types.stream()
+                .map(maxOffsetByType::get)
+                .filter(Objects::nonNull)
+                .max(Long::compare)
+                .orElse(0L);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void write(final Iterable<Message> messages) {
+        final List<Message> messageList = new ArrayList<>();
+        messages.forEach(messageList::add);
+        if (messageList.isEmpty()) {
+            return;
+        }
+
+        final LogBatch batch = new LogBatch(messageList.size());
+        messageList.forEach(batch::message);
+        append(batch);
+    }
+
+    @Override
+    public void write(final PipeEntity pipeEntity) {
+        if (pipeEntity == null || nothingToWriteIn(pipeEntity)) {
+            throw new IllegalArgumentException("Pipe entity data cannot be null.");
+        }
+
+        final List<Message> messages = pipeEntity.getMessages() == null ? Collections.emptyList() : pipeEntity.getMessages();
+        final List<OffsetEntity> offsetEntities = pipeEntity.getOffsets() == null ? Collections.emptyList() : pipeEntity.getOffsets();
+
+        final LogBatch batch = new LogBatch(messages.size() + offsetEntities.size() + (pipeEntity.getPipeState() == null ? 0 : 1));
+        messages.forEach(batch::message);
+        offsetEntities.forEach(batch::offset);
+        if (pipeEntity.getPipeState() != null) {
+            batch.pipeState(pipeEntity.getPipeState());
+        }
+        append(batch);
+    }
+
+    @Override
+    public void write(final Message message) {
+        append(new LogBatch(1).message(message));
+    }
+
+    @Override
+    public void write(final OffsetEntity offset) {
+        append(new LogBatch(1).offset(offset));
+    }
+
+    @Override
+    public void write(final PipeState pipeState) {
+        append(new LogBatch(1).pipeState(pipeState));
+    }
+
+    @Override
+    public void deleteAll() {
+        lock.writeLock().lock();
+        try {
+            for (final LogSegment segment : segments) {
+                segment.delete();
+            }
+            LOG.info("deleteAll", "deleted " + segments.size() + " segments");
+            segments.clear();
+            clearState();
+            roll(segmentSize);
+        } catch (IOException exception) {
+            LOG.error("deleteAll", "failed to delete segments", exception);
+            throw new UncheckedIOException(exception);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops messages created up to the compaction threshold unless they are the latest of their key and type, and if
+     * compacting deletions, deletions created up to the deletion compaction threshold. Kept messages are rewritten
+     * into new segments.
+     */
+    public void compactUpTo(
+        final ZonedDateTime compactionThreshold,
+        final ZonedDateTime deletionCompactionThreshold,
+        final boolean compactDeletions
+    ) {
+        final long threshold = compactionThreshold.toInstant().toEpochMilli();
+        final long deletionThreshold = deletionCompactionThreshold.toInstant().toEpochMilli();
+
+        lock.writeLock().lock();
+        try {
+            final Map<List<String>, Long> latestByKeyAndType = new HashMap<>();
+            forEachMessage(message -> {
+                if (createdMillis(message) <= threshold) {
+                    latestByKeyAndType.put(Arrays.asList(message.getKey(), message.getType()), message.getOffset());
+                }
+            });
+
+            final Predicate<Message> compacted = message -> {
+                final long created = createdMillis(message);
+                return (created <= threshold
+                    && !message.getOffset().equals(latestByKeyAndType.get(Arrays.asList(message.getKey(), message.getType()))))
+                    || (compactDeletions && created <= deletionThreshold && message.getData() == null);
+            };
+
+            final long[] compactedCount = {0};
+            forEachMessage(message -> {
+                if (compacted.test(message)) {
+                    compactedCount[0]++;
+                }
+            });
+
+            if (compactedCount[0] > 0) {
+                rewrite(compacted.negate());
+            }
+            LOG.info("compaction", "compacted " + compactedCount[0] + " records");
+        } catch (IOException exception) {
+            LOG.error("compaction", "failed to compact log", exception);
+            throw new UncheckedIOException(exception);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (final LogSegment segment : segments) {
+                segment.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        completeCompaction();
+
+        for (final Path path : segmentFiles(SEGMENT_SUFFIX)) {
+            segments.add(LogSegment.open(path, sequenceOf(path)));
+        }
+        replay();
+
+        if (segments.isEmpty()) {
+            roll(segmentSize);
+        } else {
+            nextSequence = segments.get(segments.size() - 1).sequence() + 1;
+        }
+    }
+
+    // rebuilds offsets, pipe state and index from the segments, truncating the log after the last valid record
+    private void replay() throws IOException {
+        clearState();
+
+        for (int i = 0; i < segments.size(); i++) {
+            final LogSegment segment = segments.get(i);
+            if (segment.recover(this::apply)) {
+                continue;
+            }
+
+            if (i == segments.size() - 1) {
+                LOG.info("recovery", "truncated incomplete write at " + segment.size() + " in " + segment.path());
+            } else {
+                final List<LogSegment> dropped = new ArrayList<>(segments.subList(i + 1, segments.size()));
+                LOG.error("recovery", "truncated " + segment.path() + " at " + segment.size(),
+                    "records failed their CRC, dropping " + dropped.size() + " segments after it");
+                for (final LogSegment droppedSegment : dropped) {
+                    droppedSegment.delete();
+                }
+                segments.removeAll(dropped);
+            }
+            return;
+        }
+    }
+
+    private void apply(final LogRecord record, final LogSegment segment, final int position) {
+        switch (record.getKind()) {
+            case LogRecord.MESSAGE:
+                final Message message = record.getMessage();
+                if (lastIndexed == null || lastIndexed.segment != segment || position - lastIndexed.position >= indexInterval) {
+                    lastIndexed = new Position(segment, position);
+                    index.put(message.getOffset(), lastIndexed);
+                }
+                lastOffset = Math.max(lastOffset, message.getOffset());
+                maxOffsetByType.merge(message.getType(), message.getOffset(), Math::max);
+                break;
+            case LogRecord.OFFSET:
+                offsets.put(record.getOffsetName(), record.getOffsetValue());
+                break;
+            case LogRecord.PIPE_STATE:
+                pipeState = record.getPipeState();
+                break;
+            default:
+                throw new IllegalStateException("Unknown record kind " + record.getKind());
+        }
+    }
+
+    private void append(final LogBatch batch) {
+        final byte[] bytes = batch.toByteArray();
+
+        lock.writeLock().lock();
+        try {
+            long previousOffset = lastOffset;
+            for (final LogRecord record : batch.records()) {
+                if (record.isMessage()) {
+                    final long offset = record.getMessage().getOffset();
+                    if (offset <= previousOffset) {
+                        throw new IllegalArgumentException(
+                            "Message offset " + offset + " is not after offset " + previousOffset + " already written"
+                        );
+                    }
+                    previousOffset = offset;
+                }
+            }
+
+            LogSegment segment = segments.get(segments.size() - 1);
+            if (!segment.fits(bytes.length)) {
+                segment = roll(Math.max(segmentSize, bytes.length));
+            }
+
+            int position = segment.size();
+            segment.append(bytes);
+            segment.force();
+
+            for (final LogRecord record : batch.records()) {
+                apply(record, segment, position);
+                position += record.getLength();
+            }
+        } catch (IOException exception) {
+            LOG.error("write", "failed to append to log", exception);
+            throw new UncheckedIOException(exception);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private LogSegment roll(final int capacity) throws IOException {
+        final long sequence = nextSequence++;
+        final LogSegment segment = LogSegment.create(segmentPath(sequence, SEGMENT_SUFFIX), sequence, capacity);
+        segments.add(segment);
+        return segment;
+    }
+
+    private void rewrite(final Predicate<Message> keep) throws IOException {
+        final long firstSequence = nextSequence;
+        final List<LogSegment> compacted = new ArrayList<>();
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            final IOException[] failure = {null};
+
+            forEachMessage(message -> {
+                if (keep.test(message) && failure[0] == null) {
+                    LogRecord.writeStoredMessage(message, true, out);
+                    try {
+                        appendCompacted(compacted, bytes.toByteArray());
+                    } catch (IOException exception) {
+                        failure[0] = exception;
+                    }
+                    bytes.reset();
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+
+            for (final Map.Entry<OffsetName, Long> offset : offsets.entrySet()) {
+                LogRecord.writeOffset(new OffsetEntity(offset.getKey(), OptionalLong.of(offset.getValue())), true, out);
+            }
+            if (pipeState != null) {
+                LogRecord.writePipeState(pipeState, true, out);
+            }
+            if (bytes.size() > 0) {
+                appendCompacted(compacted, bytes.toByteArray());
+            }
+            for (final LogSegment segment : compacted) {
+                segment.force();
+            }
+        } catch (IOException | RuntimeException exception) {
+            for (final LogSegment segment : compacted) {
+                segment.delete();
+            }
+            nextSequence = firstSequence;
+            throw exception;
+        }
+
+        // from here on a restart completes the swap
+        final Path marker = directory.resolve(COMPACTION_MARKER);
+        final Path markerTemp = directory.resolve(COMPACTION_MARKER + ".tmp");
+        Files.write(markerTemp, Long.toString(firstSequence).getBytes(StandardCharsets.UTF_8));
+        Files.move(markerTemp, marker, StandardCopyOption.ATOMIC_MOVE);
+
+        for (final LogSegment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        for (final LogSegment segment : compacted) {
+            segments.add(segment.moveTo(segmentPath(segment.sequence(), SEGMENT_SUFFIX)));
+        }
+        Files.delete(marker);
+
+        replay();
+        if (segments.isEmpty()) {
+            roll(segmentSize);
+        }
+    }
+
+    private void appendCompacted(final List<LogSegment> compacted, final byte[] bytes) throws IOException {
+        LogSegment segment = compacted.isEmpty() ? null : compacted.get(compacted.size() - 1);
+        if (segment == null || !segment.fits(bytes.length)) {
+            final long sequence = nextSequence++;
+            segment = LogSegment.create(segmentPath(sequence, COMPACTED_SUFFIX), sequence, Math.max(segmentSize, bytes.length));
+            compacted.add(segment);
+        }
+        segment.append(bytes);
+    }
+
+    // finishes a compaction interrupted after its segments were complete, or drops the segments of one interrupted before
+    private void completeCompaction() throws IOException {
+        final Path marker = directory.resolve(COMPACTION_MARKER);
+        if (!Files.exists(marker)) {
+            for (final Path path : segmentFiles(COMPACTED_SUFFIX)) {
+                Files.delete(path);
+            }
+            return;
+        }
+
+        final long firstSequence = Long.parseLong(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim());
+        for (final Path path : segmentFiles(SEGMENT_SUFFIX)) {
+            if (sequenceOf(path) < firstSequence) {
+                Files.delete(path);
+            }
+        }
+        for (final Path path : segmentFiles(COMPACTED_SUFFIX)) {
+            Files.move(path, segmentPath(sequenceOf(path), SEGMENT_SUFFIX));
+        }
+        Files.delete(marker);
+        LOG.info("recovery", "completed compaction from segment " + firstSequence);
+    }
+
+    private long getMaxOffsetCreatedUpTo(final ZonedDateTime threshold) {
+        final long thresholdMillis = threshold.toInstant().toEpochMilli();
+        final long[] maxOffset = {0};
+
+        lock.readLock().lock();
+        try {
+            forEachMessage(message -> {
+                if (createdMillis(message) <= thresholdMillis) {
+                    maxOffset[0] = message.getOffset();
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return maxOffset[0];
+    }
+
+    private Position startOf(final long offset) {
+        final Map.Entry<Long, Position> indexed = index.floorEntry(offset);
+        return indexed == null ? new Position(segments.get(0), 0) : indexed.getValue();
+    }
+
+    private void forEachMessage(final Consumer<Message> consumer) {
+        forEachRecord(startOf(0), record -> {
+            if (record.isMessage()) {
+                consumer.accept(record.getMessage());
+            }
+            return true;
+        });
+    }
+
+    // visits records from the position in log order while the visitor returns true
+    private void forEachRecord(final Position start, final Predicate<LogRecord> visitor) {
+        for (int i = segments.indexOf(start.segment); i < segments.size(); i++) {
+            final LogSegment segment = segments.get(i);
+            final ByteBuffer view = segment.view();
+            int position = segment == start.segment ? start.position : 0;
+
+            while (position < segment.size()) {
+                final LogRecord record = LogRecord.read(view, position);
+                if (record == null) {
+                    throw new IllegalStateException("Record at " + position + " of " + segment.path() + " failed its CRC");
+                }
+                if (!visitor.test(record)) {
+                    return;
+                }
+                position += record.getLength();
+            }
+        }
+    }
+
+    private OptionalLong offsetOf(final OffsetName offsetName) {
+        final Long value = offsets.get(offsetName);
+        return value == null ? OptionalLong.empty() : OptionalLong.of(value);
+    }
+
+    private void clearState() {
+        index.clear();
+        offsets.clear();
+        maxOffsetByType.clear();
+        pipeState = null;
+        lastOffset = -1;
+        lastIndexed = null;
+    }
+
+    private boolean nothingToWriteIn(final PipeEntity pipeEntity) {
+        return pipeEntity.getPipeState() == null
+            && (pipeEntity.getOffsets() == null || pipeEntity.getOffsets().isEmpty())
+            && (pipeEntity.getMessages() == null || pipeEntity.getMessages().isEmpty());
+    }
+
+    private List<Path> segmentFiles(final String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().endsWith(suffix))
+                .sorted(Comparator.comparingLong(this::sequenceOf))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(final long sequence, final String suffix) {
+        return directory.resolve(String.format("%020d%s", sequence, suffix));
+    }
+
+    private long sequenceOf(final Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+
+    private static long createdMillis(final Message message) {
+        return message.getCreated().toInstant().toEpochMilli();
+    }
+
+    private static final class Position {
+        private final LogSegment segment;
+        private final int position;
+
+        private Position(final LogSegment segment, final int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.tesco.aqueduct.pipe.storage.log
+
+import com.tesco.aqueduct.pipe.api.JsonHelper
+import com.tesco.aqueduct.pipe.api.Message
+import com.tesco.aqueduct.pipe.api.OffsetEntity
+import com.tesco.aqueduct.pipe.api.PipeState
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+import java.time.ZoneId
+import java.time.ZonedDateTime
+
+import static com.tesco.aqueduct.pipe.api.OffsetName.GLOBAL_LATEST_OFFSET
+
+class LogRecordSpec extends Specification {
+
+    def bytes = new ByteArrayOutputStream()
+    def out = new DataOutputStream(bytes)
+
+    @Unroll
+    def "message record is read back as it was written"() {
+        given:
+        def message = new Message("type", "key", contentType, 10, ZonedDateTime.parse("2020-01-01T10:00:00.123456+01:00"), data)
+
+        when:
+        def written = LogRecord.writeMessage(message, true, out)
+        def read = LogRecord.read(buffer(), 0)
+
+        then:
+        read == written
+        read.commit
+        read.length == bytes.size()
+        read.message == new Message(
+            "type", "key", contentType, 10, ZonedDateTime.of(2020, 1, 1, 9, 0, 0, 123_000_000, ZoneId.of("UTC")), data,
+            JsonHelper.toJson(message).length()
+        )
+
+        where:
+        contentType  | data
+        "text/plain" | "data"
+        "text/plain" | null
+        null         | "ünïcödé"
+    }
+
+    def "offset and pipe state records are read back as they were written"() {
+        given:
+        def offset = LogRecord.writeOffset(new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(12)), false, out)
+        def pipeState = LogRecord.writePipeState(PipeState.UP_TO_DATE, true, out)
+
+        expect:
+        LogRecord.read(buffer(), 0) == offset
+        !offset.commit
+        offset.offsetName == GLOBAL_LATEST_OFFSET
+        offset.offsetValue == 12
+
+        and:
+        LogRecord.read(buffer(), offset.length) == pipeState
+        pipeState.pipeState == PipeState.UP_TO_DATE
+    }
+
+    def "record failing its CRC is not read"() {
+        given:
+        LogRecord.writePipeState(PipeState.UP_TO_DATE, true, out)
+        def corrupted = bytes.toByteArray()
+        corrupted[LogRecord.HEADER_LENGTH + 3] = (byte) (corrupted[LogRecord.HEADER_LENGTH + 3] ^ 1)
+
+        expect:
+        LogRecord.read(ByteBuffer.wrap(corrupted), 0) == null
+        !LogRecord.isEnd(ByteBuffer.wrap(corrupted), 0)
+    }
+
+    def "record cut short is not read"() {
+        given:
+        LogRecord.writePipeState(PipeState.UP_TO_DATE, true, out)
+        def written = bytes.toByteArray()
+
+        expect:
+        LogRecord.read(ByteBuffer.wrap(written, 0, written.length - 1).slice(), 0) == null
+    }
+
+    def "end of the records is where nothing was written"() {
+        given:
+        def record = LogRecord.writePipeState(PipeState.UP_TO_DATE, true, out)
+        out.write(new byte[16])
+
+        expect:
+        LogRecord.read(buffer(), record.length) == null
+        LogRecord.isEnd(buffer(), record.length)
+        LogRecord.isEnd(buffer(), bytes.size() - 4)
+    }
+
+    private ByteBuffer buffer() {
+        ByteBuffer.wrap(bytes.toByteArray())
+    }
+}
@@ -0,0 +1,132 @@
+package com.tesco.aqueduct.pipe.storage.log
+
+import com.tesco.aqueduct.pipe.api.Message
+import com.tesco.aqueduct.pipe.api.PipeState
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.ZonedDateTime
+
+class LogSegmentSpec extends Specification {
+
+    Path directory = Files.createTempDirectory("aqueduct-pipe-log")
+    Path path = directory.resolve("00000000000000000000.log")
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def "records appended are recovered in order with their positions"() {
+        given:
+        def segment = LogSegment.create(path, 0, 1024)
+        def first = batch(1, 2)
+        def second = batch(3)
+        segment.append(first.toByteArray())
+        segment.append(second.toByteArray())
+        segment.close()
+
+        when:
+        def recovered = []
+        def reopened = LogSegment.open(path, 0)
+        def clean = reopened.recover { record, recoveredSegment, position -> recovered << [record.message.offset, position] }
+
+        then:
+        clean
+        recovered == [
+            [1L, 0],
+            [2L, first.records()[0].length],
+            [3L, first.records()*.length.sum()]
+        ]
+        reopened.size() == first.records()*.length.sum() + second.records()*.length.sum()
+    }
+
+    def "records of a write that was not committed are dropped"() {
+        given:
+        def segment = LogSegment.create(path, 0, 1024)
+        def committed = batch(1)
+        segment.append(committed.toByteArray())
+
+        and: 'a write cut before its last record'
+        def cut = batch(2, 3)
+        segment.append(cut.toByteArray()[0..<cut.records()[0].length] as byte[])
+        segment.close()
+
+        when:
+        def recovered = []
+        def reopened = LogSegment.open(path, 0)
+        def clean = reopened.recover { record, recoveredSegment, position -> recovered << record.message.offset }
+
+        then:
+        !clean
+        recovered == [1L]
+        reopened.size() == committed.records()[0].length
+
+        and: 'the dropped bytes are cleared, so the segment recovers clean next time'
+        LogRecord.isEnd(reopened.view(), reopened.size())
+        reopened.close()
+        LogSegment.open(path, 0).recover { record, recoveredSegment, position -> }
+    }
+
+    def "segment fits records up to its capacity"() {
+        given:
+        def segment = LogSegment.create(path, 0, 100)
+
+        expect:
+        segment.fits(100)
+        !segment.fits(101)
+
+        when:
+        segment.append(new LogBatch(1).pipeState(PipeState.UP_TO_DATE).toByteArray())
+
+        then:
+        !segment.fits(100)
+
+        cleanup:
+        segment.close()
+    }
+
+    def "deleted segment is unmapped and cannot be read any more"() {
+        given:
+        def segment = LogSegment.create(path, 0, 1024)
+        segment.append(batch(1).toByteArray())
+
+        when:
+        segment.delete()
+
+        then:
+        !Files.exists(path)
+
+        when:
+        segment.view()
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "moved segment is read from its new file"() {
+        given:
+        def segment = LogSegment.create(path, 0, 1024)
+        segment.append(batch(1).toByteArray())
+        def target = directory.resolve("00000000000000000001.log")
+
+        when:
+        def moved = segment.moveTo(target)
+        def recovered = []
+        moved.recover { record, recoveredSegment, position -> recovered << record.message.offset }
+
+        then:
+        !Files.exists(path)
+        recovered == [1L]
+        moved.path() == target
+
+        cleanup:
+        moved.close()
+    }
+
+    private static LogBatch batch(long... offsets) {
+        def batch = new LogBatch(offsets.length)
+        offsets.each { batch.message(new Message("type", "key", "text/plain", it, ZonedDateTime.now(), "data")) }
+        batch
+    }
+}
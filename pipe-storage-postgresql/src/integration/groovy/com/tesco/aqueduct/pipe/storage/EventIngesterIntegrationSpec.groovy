@@ -0,0 +1,195 @@
+package com.tesco.aqueduct.pipe.storage
+
+import com.opentable.db.postgres.junit.EmbeddedPostgresRules
+import com.opentable.db.postgres.junit.SingleInstancePostgresRule
+import groovy.sql.Sql
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.ClassRule
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import javax.sql.DataSource
+import java.sql.DriverManager
+import java.sql.Timestamp
+import java.time.LocalDateTime
+
+class EventIngesterIntegrationSpec extends Specification {
+
+    @Shared @ClassRule
+    SingleInstancePostgresRule pg = EmbeddedPostgresRules.singleInstance()
+
+    @AutoCleanup
+    Sql sql
+    DataSource dataSource
+    SimpleMeterRegistry meterRegistry
+
+    def setup() {
+        sql = new Sql(pg.embeddedPostgres.postgresDatabase.connection)
+
+        dataSource = Mock()
+        dataSource.connection >> {
+            DriverManager.getConnection(pg.embeddedPostgres.getJdbcUrl("postgres", "postgres"))
+        }
+        meterRegistry = new SimpleMeterRegistry()
+
+        sql.execute("""
+        DROP TABLE IF EXISTS EVENTS;
+        DROP TABLE IF EXISTS EVENTS_BUFFER;
+        DROP TABLE IF EXISTS OFFSETS;
+
+        CREATE TABLE EVENTS(
+            msg_offset BIGSERIAL PRIMARY KEY NOT NULL,
+            msg_key varchar NOT NULL,
+            content_type varchar NOT NULL,
+            type varchar NOT NULL,
+            created_utc timestamp NOT NULL,
+            data text NULL,
+            event_size int NOT NULL,
+            cluster_id BIGINT NOT NULL DEFAULT 1,
+            routing_id BIGINT,
+            time_to_live TIMESTAMP NULL
+        );
+
+        CREATE TABLE EVENTS_BUFFER(
+            msg_offset BIGSERIAL PRIMARY KEY NOT NULL,
+            msg_key VARCHAR NOT NULL,
+            content_type VARCHAR NOT NULL,
+            type VARCHAR NOT NULL,
+            created_utc TIMESTAMP NOT NULL,
+            data TEXT NULL,
+            event_size INT NOT NULL,
+            cluster_id BIGINT NOT NULL DEFAULT 1,
+            time_to_live TIMESTAMP NULL
+        );
+
+        CREATE TABLE OFFSETS(
+            name VARCHAR PRIMARY KEY NOT NULL,
+            value BIGINT NOT NULL
+        );
+        """)
+    }
+
+    def "buffered events are moved into events in the order they were buffered"() {
+        given: "events in the buffer"
+        def ttl = LocalDateTime.now().plusDays(1).withNano(0)
+        buffer("A", 1, "data A")
+        buffer("B", 2, null, ttl)
+        buffer("C", 1, "data C")
+
+        when:
+        def ingested = new EventIngester(dataSource, 10, 10, meterRegistry).ingest()
+
+        then: "they are in events routed to their cluster"
+        ingested == 3
+        sql.rows("SELECT msg_offset, msg_key, data, cluster_id, routing_id, time_to_live FROM events ORDER BY msg_offset").collect {
+            [it.msg_offset, it.msg_key, it.data, it.cluster_id, it.routing_id, it.time_to_live?.toLocalDateTime()]
+        } == [
+            [1L, "A", "data A", 1L, 1L, null],
+            [2L, "B", null, 2L, 2L, ttl],
+            [3L, "C", "data C", 1L, 1L, null]
+        ]
+
+        and: "the buffer is drained and the global latest offset advanced"
+        sql.firstRow("SELECT count(*) FROM events_buffer").count == 0
+        globalLatestOffset() == 3
+    }
+
+    def "buffer is drained in batches up to max batches per run"() {
+        given:
+        7.times { buffer("$it", 1) }
+        def ingester = new EventIngester(dataSource, 2, 3, meterRegistry)
+
+        when:
+        def firstRun = ingester.ingest()
+
+        then:
+        firstRun == 6
+        globalLatestOffset() == 6
+        sql.firstRow("SELECT count(*) FROM events_buffer").count == 1
+
+        when:
+        def secondRun = ingester.ingest()
+
+        then:
+        secondRun == 1
+        globalLatestOffset() == 7
+        sql.rows("SELECT msg_key FROM events ORDER BY msg_offset")*.msg_key == (0..6)*.toString()
+
+        and: "metrics are recorded"
+        meterRegistry.counter("pipe.ingestion.events").count() == 7
+        meterRegistry.summary("pipe.ingestion.batchSize").count() == 4
+        meterRegistry.summary("pipe.ingestion.batchSize").max() == 2
+        meterRegistry.get("pipe.ingestion.lag").gauge().value() >= 0
+    }
+
+    def "empty buffer leaves the global latest offset as it is"() {
+        given:
+        sql.execute("INSERT INTO offsets (name, value) VALUES ('global_latest_offset', 5)")
+
+        when:
+        def ingested = new EventIngester(dataSource, 10, 10, meterRegistry).ingest()
+
+        then:
+        ingested == 0
+        globalLatestOffset() == 5
+    }
+
+    def "run is skipped while another instance is draining"() {
+        given: "another instance holding the ingestion lock"
+        buffer("A", 1)
+        def other = DriverManager.getConnection(pg.embeddedPostgres.getJdbcUrl("postgres", "postgres"))
+        other.autoCommit = false
+        other.createStatement().execute("SELECT pg_advisory_xact_lock(hashtext('events_ingestion'))")
+
+        when:
+        def ingested = new EventIngester(dataSource, 10, 10, meterRegistry).ingest()
+
+        then:
+        ingested == 0
+        sql.firstRow("SELECT count(*) FROM events_buffer").count == 1
+
+        cleanup:
+        other.rollback()
+        other.close()
+    }
+
+    def "events are ingested while compaction holds its connection and the maintenance lock"() {
+        given: "compaction deleting events in a transaction it has not committed"
+        sql.execute("""
+        DROP TABLE IF EXISTS LOCKS;
+        CREATE TABLE LOCKS(name VARCHAR PRIMARY KEY NOT NULL);
+        INSERT INTO LOCKS (name) VALUES ('maintenance_lock');
+        """)
+        def compaction = DriverManager.getConnection(pg.embeddedPostgres.getJdbcUrl("postgres", "postgres"))
+        compaction.autoCommit = false
+        compaction.createStatement().execute("SELECT * FROM locks WHERE name='maintenance_lock' FOR UPDATE NOWAIT")
+        compaction.createStatement().execute("DELETE FROM events WHERE time_to_live <= CURRENT_TIMESTAMP")
+
+        and:
+        buffer("A", 1)
+        buffer("B", 2)
+
+        when:
+        def ingested = new EventIngester(dataSource, 10, 10, meterRegistry).ingest()
+
+        then:
+        ingested == 2
+        globalLatestOffset() == 2
+
+        cleanup:
+        compaction.rollback()
+        compaction.close()
+    }
+
+    void buffer(String key, long clusterId, String data = "data", LocalDateTime ttl = null) {
+        sql.execute(
+            "INSERT INTO EVENTS_BUFFER(msg_key, content_type, type, created_utc, data, event_size, cluster_id, time_to_live) VALUES(?,?,?,?,?,?,?,?);",
+            key, "content-type", "type", Timestamp.valueOf(LocalDateTime.now()), data, 1, clusterId, ttl == null ? null : Timestamp.valueOf(ttl)
+        )
+    }
+
+    long globalLatestOffset() {
+        sql.firstRow("SELECT value FROM offsets WHERE name='global_latest_offset'").value
+    }
+}
@@ -6,6 +6,9 @@ import com.tesco.aqueduct.pipe.api.Message
 import com.tesco.aqueduct.pipe.api.MessageResults
 import com.tesco.aqueduct.pipe.api.OffsetName
 import com.tesco.aqueduct.pipe.api.PipeState
+import com.tesco.aqueduct.pipe.api.PrecompressedMessageResults
+import com.tesco.aqueduct.pipe.api.SegmentFileMessageResults
+import com.tesco.aqueduct.pipe.api.StoredMessageResults
 import groovy.sql.Sql
 import groovy.transform.NamedVariant
 import org.junit.ClassRule
@@ -16,7 +19,9 @@ import spock.lang.Unroll
 import spock.util.concurrent.PollingConditions
 
 import javax.sql.DataSource
+import java.nio.file.Files
 import java.sql.*
+import java.time.Duration
 import java.time.LocalDateTime
 import java.time.ZoneId
 import java.time.ZoneOffset
@@ -61,6 +66,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         DROP TABLE IF EXISTS NODE_REQUESTS;
         DROP TABLE IF EXISTS OFFSETS;
         DROP TABLE IF EXISTS LOCKS;
+        DROP TABLE IF EXISTS EVENT_BLOCKS;
 
         CREATE TABLE EVENTS(
             msg_offset BIGSERIAL PRIMARY KEY NOT NULL,
@@ -72,7 +78,8 @@ class PostgresqlStorageIntegrationSpec extends Specification {
             event_size int NOT NULL,
             cluster_id BIGINT NOT NULL DEFAULT 1,
             routing_id BIGINT,
-            time_to_live TIMESTAMP NULL
+            time_to_live TIMESTAMP NULL,
+            wire_json BYTEA NULL
         );        
         
         CREATE TABLE EVENTS_BUFFER(
@@ -113,6 +120,20 @@ class PostgresqlStorageIntegrationSpec extends Specification {
             name VARCHAR PRIMARY KEY
         );
 
+        CREATE TABLE EVENT_BLOCKS(
+            routing_id BIGINT NOT NULL,
+            types VARCHAR NOT NULL,
+            start_offset BIGINT NOT NULL,
+            end_offset BIGINT NOT NULL,
+            message_count INT NOT NULL,
+            first_created_utc TIMESTAMP NOT NULL,
+            cluster_change BOOLEAN NOT NULL,
+            crc BIGINT NOT NULL,
+            size BIGINT NOT NULL,
+            deflated BYTEA NOT NULL,
+            PRIMARY KEY (routing_id, types, start_offset)
+        );
+
         INSERT INTO LOCKS (name) VALUES ('maintenance_lock');
         INSERT INTO CLUSTERS (cluster_uuid) VALUES ('NONE');        
         """)
@@ -121,7 +142,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
             getClusterCacheEntry("locationUuid", _ as Connection) >> cacheEntry("locationUuid", [1L])
         }
 
-        storage = new PostgresqlStorage(dataSource, dataSource, LIMIT, retryAfter, BATCH_SIZE, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage)
+        storage = storageBuilder().build()
     }
 
     @Unroll
@@ -158,7 +179,12 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         given: "there is postgres storage"
         def limit = 1
         def dataSourceWithMockedConnection = Mock(DataSource)
-        def postgresStorage = new PostgresqlStorage(dataSourceWithMockedConnection, dataSourceWithMockedConnection, limit, 0, BATCH_SIZE, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage)
+        def postgresStorage = storageBuilder()
+            .pipeDataSource(dataSourceWithMockedConnection)
+            .compactionDataSource(dataSourceWithMockedConnection)
+            .limit(limit)
+            .retryAfter(0)
+            .build()
 
         and: "a mock connection is provided when requested"
         def connection = Mock(Connection)
@@ -393,7 +419,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
     def "transaction is rolled back and compaction is not run when delete compactions fails"() {
         given:
         def compactionDataSource = Mock(DataSource)
-        storage = new PostgresqlStorage(dataSource, compactionDataSource, LIMIT, retryAfter, BATCH_SIZE, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage)
+        storage = storageBuilder().compactionDataSource(compactionDataSource).build()
 
         and:
         def connection = Mock(Connection)
@@ -428,7 +454,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
     def "transaction is rolled back when delete compactions succeeds but compaction fails"() {
         given:
         def compactionDataSource = Mock(DataSource)
-        storage = new PostgresqlStorage(dataSource, compactionDataSource, LIMIT, retryAfter, BATCH_SIZE, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage)
+        storage = storageBuilder().compactionDataSource(compactionDataSource).build()
 
         and:
         def connection = Mock(Connection)
@@ -635,7 +661,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
     def "pipe should return messages if available from the given offset instead of empty set"() {
         given: "there is postgres storage"
         def limit = 3
-        storage = new PostgresqlStorage(dataSource, dataSource, limit, retryAfter, BATCH_SIZE, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage)
+        storage = storageBuilder().limit(limit).build()
 
         and: "an existing data store with two different types of messages"
         insert(message(1, "type1", "A", "content-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "data"))
@@ -670,7 +696,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
     def "getMessageCountByType should return the count of messages by type"() {
         given: "there is postgres storage"
         def limit = 3
-        storage = new PostgresqlStorage(dataSource, dataSource, limit, retryAfter, BATCH_SIZE, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage)
+        storage = storageBuilder().limit(limit).build()
 
         and: "an existing data store with two different types of messages"
         insert(message(1, "type1", "A", "content-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "data"))
@@ -696,7 +722,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
     def "messages are returned when location uuid is contained and valid in the cluster cache"() {
         given:
         def globalLatestOffsetCache = new GlobalLatestOffsetCache()
-        storage = new PostgresqlStorage(dataSource, dataSource, LIMIT, retryAfter, BATCH_SIZE, globalLatestOffsetCache, 1, 1, 4, clusterStorage)
+        storage = storageBuilder().globalLatestOffsetCache(globalLatestOffsetCache).build()
 
         clusterStorage.getClusterCacheEntry("someLocationUuid", _ as Connection) >> cacheEntry("someLocationUuid", [2L, 3L])
         insert(message(1, "type1", "A", "content-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "data"), 2L)
@@ -725,7 +751,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         and:
         def someLocationUuid = "someLocationUuid"
         def globalLatestOffsetCache = new GlobalLatestOffsetCache()
-        storage = new PostgresqlStorage(dataSource, dataSource, LIMIT, retryAfter, BATCH_SIZE, globalLatestOffsetCache, 1, 1, 4, clusterStorage)
+        storage = storageBuilder().globalLatestOffsetCache(globalLatestOffsetCache).build()
 
         insert(message(1, "type1", "A", "content-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "data"), 2L)
         insert(message(2, "type1", "B", "content-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "data"), 3L)
@@ -776,7 +802,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         given:
         def someLocationUuid = "someLocationUuid"
         def globalLatestOffsetCache = new GlobalLatestOffsetCache()
-        storage = new PostgresqlStorage(dataSource, dataSource, LIMIT, retryAfter, BATCH_SIZE, globalLatestOffsetCache, 1, 1, 4, clusterStorage)
+        storage = storageBuilder().globalLatestOffsetCache(globalLatestOffsetCache).build()
         def firstCacheRead = cacheEntry(someLocationUuid, [1L], LocalDateTime.now().minusMinutes(1))
         def secondCacheRead = cacheEntry(someLocationUuid, [1L], LocalDateTime.now().plusMinutes(1), false)
 
@@ -811,7 +837,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         given:
         def someLocationUuid = "someLocationUuid"
         def globalLatestOffsetCache = new GlobalLatestOffsetCache()
-        storage = new PostgresqlStorage(dataSource, dataSource, LIMIT, retryAfter, BATCH_SIZE, globalLatestOffsetCache, 1, 1, 4, clusterStorage)
+        storage = storageBuilder().globalLatestOffsetCache(globalLatestOffsetCache).build()
         def cacheRead = cacheEntry(someLocationUuid, [2L, 3L], LocalDateTime.now().minusMinutes(1))
 
         insert(message(1, "type1", "A", "content-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "data"), 2L)
@@ -840,7 +866,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         given:
         def someLocationUuid = "someLocationUuid"
         def globalLatestOffsetCache = new GlobalLatestOffsetCache()
-        storage = new PostgresqlStorage(dataSource, dataSource, LIMIT, retryAfter, BATCH_SIZE, globalLatestOffsetCache, 1, 1, 4, clusterStorage)
+        storage = storageBuilder().globalLatestOffsetCache(globalLatestOffsetCache).build()
         def cacheRead = cacheEntry(someLocationUuid, [2L, 3L], LocalDateTime.now().minusMinutes(1))
 
         insert(message(1, "type1", "A", "content-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "data"), 2L)
@@ -958,9 +984,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         }
 
         and:
-        def storage = new PostgresqlStorage(
-            mockedDataSource, dataSource, LIMIT, retryAfter, BATCH_SIZE, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage
-        )
+        def storage = storageBuilder().pipeDataSource(mockedDataSource).build()
 
         when: "messages are read"
         def messageResults = storage.read([], 0L, "locationUuid")
@@ -1004,9 +1028,7 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         clusterStorage.updateAndGetClusterIds(locationUuid, _, _, _) >> Optional.of([1L])
 
         and:
-        def storage = new PostgresqlStorage(
-            mockedDataSource, dataSource, LIMIT, retryAfter, BATCH_SIZE, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage
-        )
+        def storage = storageBuilder().pipeDataSource(mockedDataSource).build()
 
         when: "messages are read"
         def messageResults = storage.read([], 0L, "locationUuid")
@@ -1029,6 +1051,289 @@ class PostgresqlStorageIntegrationSpec extends Specification {
         messages.size() == LIMIT
     }
 
+    def "historical pages are served from blocks once they are materialised"() {
+        given: "storage keeping blocks of two messages"
+        storage = blockStorage(2)
+
+        and: "historical messages"
+        5.times { insert(message(key: "$it", created: TIME.minusDays(7))) }
+
+        and: "the first page has been read"
+        def firstRead = storage.read(null, 1, "locationUuid")
+
+        when: "blocks are materialised"
+        def built = storage.materialiseBlocks(10)
+
+        then: "blocks are built for the page read and the following full pages"
+        built == 2
+
+        when: "the pages are read again"
+        def pages = [1, 3, 5].collect { storage.read(null, it, "locationUuid") }
+
+        then: "full pages are served from blocks"
+        pages[0] instanceof PrecompressedMessageResults
+        pages[1] instanceof PrecompressedMessageResults
+        !(pages[2] instanceof PrecompressedMessageResults)
+
+        and: "they hold the same messages as reading events"
+        pages[0].messages*.offset == firstRead.messages*.offset
+        pages[0].messages*.key == firstRead.messages*.key
+        pages[1].messages*.offset == [3L, 4L]
+        pages[2].messages*.offset == [5L]
+    }
+
+    def "blocks are not built for recent messages"() {
+        given:
+        storage = blockStorage(2)
+        5.times { insert(message(key: "$it")) }
+
+        when:
+        storage.read(null, 1, "locationUuid")
+
+        then:
+        storage.materialiseBlocks(10) == 0
+        !(storage.read(null, 1, "locationUuid") instanceof PrecompressedMessageResults)
+    }
+
+    def "blocks are materialised while compaction holds its connection"() {
+        given: "storage whose compaction pool has no connection to spare"
+        DataSource compactionDataSource = Mock()
+        compactionDataSource.connection >> { throw new SQLException("compaction pool exhausted") }
+        storage = storageBuilder()
+            .compactionDataSource(compactionDataSource)
+            .limit(2)
+            .blockStore(new EventBlockStore(Duration.ofHours(6), 100))
+            .build()
+
+        and:
+        4.times { insert(message(key: "$it", created: TIME.minusDays(7))) }
+        storage.read(null, 1, "locationUuid")
+
+        expect:
+        storage.materialiseBlocks(10) == 2
+    }
+
+    def "blocks are dropped when compaction deletes messages"() {
+        given: "materialised blocks"
+        storage = blockStorage(2)
+        4.times { insert(message(key: "$it", created: TIME.minusDays(7))) }
+        storage.read(null, 1, "locationUuid")
+        storage.materialiseBlocks(10)
+
+        and: "a message to compact"
+        insertWithClusterAndTTL(5, "A", 1, LocalDateTime.now().minusMinutes(1))
+
+        when:
+        storage.compactAndMaintain(COMPACT_DELETIONS_THRESHOLD, false)
+
+        then:
+        sql.firstRow("SELECT count(*) FROM event_blocks").count == 0
+        !(storage.read(null, 1, "locationUuid") instanceof PrecompressedMessageResults)
+    }
+
+    def "historical pages are served from the segment cache once read"() {
+        given: "storage caching pages of two messages"
+        def cache = pageCache()
+        storage = cachingStorage(cache, 2)
+
+        and: "historical messages"
+        5.times { insert(message(key: "$it", created: TIME.minusDays(7))) }
+
+        when: "pages are read twice"
+        def firstReads = [1, 3, 5].collect { storage.read(null, it, "locationUuid") }
+        def secondReads = [1, 3, 5].collect { storage.read(null, it, "locationUuid") }
+
+        then: "full pages are served from the cache the second time"
+        secondReads[0] instanceof SegmentFileMessageResults
+        secondReads[1] instanceof SegmentFileMessageResults
+        !(secondReads[2] instanceof SegmentFileMessageResults)
+
+        and: "they hold the same messages"
+        secondReads*.messages*.offset == firstReads*.messages*.offset
+        secondReads*.messages*.key == firstReads*.messages*.key
+
+        cleanup:
+        cache.close()
+    }
+
+    def "recent pages are not cached"() {
+        given:
+        def cache = pageCache()
+        storage = cachingStorage(cache, 2)
+        5.times { insert(message(key: "$it")) }
+
+        when:
+        storage.read(null, 1, "locationUuid")
+
+        then:
+        cache.pageCount() == 0
+
+        cleanup:
+        cache.close()
+    }
+
+    def "cached pages are dropped when compaction deletes messages"() {
+        given: "a cached page"
+        def cache = pageCache()
+        storage = cachingStorage(cache, 2)
+        2.times { insert(message(key: "$it", created: TIME.minusDays(7))) }
+        storage.read(null, 1, "locationUuid")
+
+        and: "a message to compact"
+        insertWithClusterAndTTL(3, "A", 1, LocalDateTime.now().minusMinutes(1))
+
+        when:
+        storage.compactAndMaintain(COMPACT_DELETIONS_THRESHOLD, false)
+
+        then:
+        cache.pageCount() == 0
+        sql.firstRow("SELECT value FROM offsets WHERE name='compaction_epoch'").value == 1
+
+        cleanup:
+        cache.close()
+    }
+
+    def "cached pages are dropped once compaction of another instance is seen"() {
+        given: "a cached page"
+        def cache = pageCache()
+        storage = cachingStorage(cache, 2)
+        2.times { insert(message(key: "$it", created: TIME.minusDays(7))) }
+        storage.read(null, 1, "locationUuid")
+
+        when: "another instance compacted"
+        sql.execute("INSERT INTO offsets (name, value) VALUES ('compaction_epoch', 1)")
+        storage.refreshPageCache()
+
+        then:
+        cache.pageCount() == 0
+
+        cleanup:
+        cache.close()
+    }
+
+    def "reads of the tail are served from memory once filled"() {
+        given: "storage keeping the tail of the pipe"
+        storage = tailStorage(new EventTailBuffer(100, 1024 * 1024, 1000))
+        insert(message(key: "before"))
+        storage.fillTail()
+
+        and: "events committed after the tail started"
+        insert(message(key: "A", type: "type1"), 1L, 10)
+        insert(message(key: "B", type: "type2"), 2L, 10)
+        insert(message(key: "C", type: "type1"), 1L, 10)
+        def fromDatabase = [storage.read(null, 2, "locationUuid"), storage.read(["type1"], 2, "locationUuid")]
+        storage.fillTail()
+
+        when: "the events are deleted from the database"
+        sql.execute("DELETE FROM events WHERE msg_offset > 1")
+
+        then: "reads from the start of the tail still return them"
+        storage.read(null, 2, "locationUuid").messages == fromDatabase[0].messages
+        storage.read(["type1"], 2, "locationUuid").messages == fromDatabase[1].messages
+        storage.read(null, 5, "locationUuid").messages.isEmpty()
+
+        and: "reads from before the tail are read from the database"
+        storage.read(null, 1, "locationUuid").messages*.key == ["before"]
+    }
+
+    def "tail is dropped when compaction deletes messages"() {
+        given: "a filled tail"
+        storage = tailStorage(new EventTailBuffer(100, 1024 * 1024, 1000))
+        storage.fillTail()
+        insert(message(key: "A"))
+        storage.fillTail()
+
+        and: "a message to compact in the tail"
+        insertWithClusterAndTTL(2, "B", 1, LocalDateTime.now().minusMinutes(1))
+        storage.fillTail()
+
+        when:
+        storage.compactAndMaintain(COMPACT_DELETIONS_THRESHOLD, false)
+        sql.execute("DELETE FROM events")
+
+        then: "reads of the dropped tail go to the database"
+        storage.read(null, 1, "locationUuid").messages.isEmpty()
+    }
+
+    def "pages read with the wire JSON of events are written as pages serialised from events"() {
+        given: "storage keeping the wire JSON of events"
+        storage = wireJsonStorage(new EventWireJson(2))
+
+        and: "events, some of them needing escaping"
+        insert(message(key: "A", data: '{"a":[1,"b"]}'))
+        insert(message(key: "B", data: 'q"b\\\n😀'))
+        insert(message(key: "C", created: TIME.minusDays(7).withNano(123_456_000)))
+        insert(message(key: "D", type: "other"))
+        insertWithCluster(5, "E", 1, LocalDateTime.now(), null)
+
+        and: "the pages serialised from events"
+        def serialised = [null, ["type"]].collect { (storage.read(it, 1, "locationUuid") as StoredMessageResults).toJson() }
+
+        when: "the wire JSON of events is rendered"
+        def rendered = [storage.fillWireJson(), storage.fillWireJson(), storage.fillWireJson(), storage.fillWireJson()]
+
+        then: "all events are rendered a few at a time"
+        rendered == [2, 2, 1, 0]
+        sql.firstRow("SELECT count(*) FROM events WHERE wire_json IS NULL").count == 0
+
+        when:
+        def pages = [null, ["type"]].collect { storage.read(it, 1, "locationUuid") as StoredMessageResults }
+
+        then: "pages are spliced from it byte for byte as they were serialised"
+        pages*.storedMessages.flatten().every { it.wireJson != null }
+        pages*.toJson() == serialised
+    }
+
+    def "wire JSON of events is not read when it is switched off"() {
+        given: "events rendered by another instance"
+        insert(message(key: "A"))
+        wireJsonStorage(new EventWireJson(10)).fillWireJson()
+        sql.execute("UPDATE events SET wire_json = convert_to('{}', 'UTF8')")
+
+        when:
+        def page = storage.read(null, 1, "locationUuid") as StoredMessageResults
+
+        then:
+        page.storedMessages*.wireJson == [null]
+        page.messages*.key == ["A"]
+    }
+
+    def "wire JSON of events is rendered while compaction holds its connection"() {
+        given: "storage whose compaction pool has no connection to spare"
+        DataSource compactionDataSource = Mock()
+        compactionDataSource.connection >> { throw new SQLException("compaction pool exhausted") }
+        storage = storageBuilder().compactionDataSource(compactionDataSource).wireJson(new EventWireJson(10)).build()
+
+        and:
+        insert(message(key: "A"))
+        insert(message(key: "B"))
+
+        expect:
+        storage.fillWireJson() == 2
+    }
+
+    PostgresqlStorage wireJsonStorage(EventWireJson wireJson) {
+        storageBuilder().wireJson(wireJson).build()
+    }
+
+    PostgresqlStorage tailStorage(EventTailBuffer tail) {
+        storageBuilder().tail(tail).build()
+    }
+
+    PageSegmentCache pageCache() {
+        new PageSegmentCache(Files.createTempDirectory("pipe-segments"), 1024 * 1024, 10 * 1024 * 1024, Duration.ofHours(6))
+    }
+
+    PostgresqlStorage cachingStorage(PageSegmentCache cache, int limit) {
+        def cachingStorage = storageBuilder().limit(limit).pageCache(cache).build()
+        cachingStorage.refreshPageCache()
+        cachingStorage
+    }
+
+    PostgresqlStorage blockStorage(int limit) {
+        storageBuilder().limit(limit).blockStore(new EventBlockStore(Duration.ofHours(6), 100)).build()
+    }
+
     void insert(
         Message msg,
         Long clusterId = 1L,
@@ -1103,4 +1408,18 @@ class PostgresqlStorageIntegrationSpec extends Specification {
     Optional<ClusterCacheEntry> cacheEntry(String location, List<Long> clusterIds, LocalDateTime expiry = LocalDateTime.now().plusHours(1), boolean valid = true) {
         Optional.of(new ClusterCacheEntry(location, clusterIds, expiry, valid))
     }
+
+    PostgresqlStorage.PostgresqlStorageBuilder storageBuilder() {
+        PostgresqlStorage.builder()
+            .pipeDataSource(dataSource)
+            .compactionDataSource(dataSource)
+            .limit(LIMIT)
+            .retryAfter(retryAfter)
+            .maxBatchSize(BATCH_SIZE)
+            .globalLatestOffsetCache(new GlobalLatestOffsetCache())
+            .nodeCount(1)
+            .clusterDBPoolSize(1)
+            .workMemMb(4)
+            .clusterStorage(clusterStorage)
+    }
 }
@@ -0,0 +1,103 @@
+package com.tesco.aqueduct.pipe.storage;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events moved from events_buffer into events per second, each invocation drains a second of events published at
+ * 50k events/s. Scores below 50k events/s mean ingestion falls behind such publishers.
+ */
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 10, time = 10)
+public class EventIngestionBenchmark {
+
+    static final int EVENTS_PER_SECOND = 50_000;
+
+    @State(Scope.Benchmark)
+    public static class PostgresDatabaseState {
+
+        @Param({"1000", "10000"})
+        public int batchSize;
+
+        private EmbeddedPostgres pg;
+        private DataSource dataSource;
+        private EventIngester ingester;
+
+        @Setup(Level.Trial)
+        public void doSetup() throws SQLException, IOException {
+            pg = EmbeddedPostgres.start();
+            dataSource = pg.getPostgresDatabase();
+
+            try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE EVENTS(" +
+                    "    msg_offset BIGSERIAL PRIMARY KEY NOT NULL," +
+                    "    msg_key varchar NOT NULL," +
+                    "    content_type varchar NOT NULL," +
+                    "    type varchar NOT NULL," +
+                    "    created_utc timestamp NOT NULL," +
+                    "    data text NULL," +
+                    "    event_size int NOT NULL," +
+                    "    cluster_id BIGINT NOT NULL DEFAULT 1," +
+                    "    routing_id BIGINT," +
+                    "    time_to_live TIMESTAMP NULL" +
+                    ");" +
+                    "CREATE INDEX events_routing_idx ON EVENTS (routing_id, msg_offset);" +
+                    "CREATE TABLE EVENTS_BUFFER(" +
+                    "    msg_offset BIGSERIAL PRIMARY KEY NOT NULL," +
+                    "    msg_key VARCHAR NOT NULL," +
+                    "    content_type VARCHAR NOT NULL," +
+                    "    type VARCHAR NOT NULL," +
+                    "    created_utc TIMESTAMP NOT NULL," +
+                    "    data TEXT NULL," +
+                    "    event_size INT NOT NULL," +
+                    "    cluster_id BIGINT NOT NULL DEFAULT 1," +
+                    "    time_to_live TIMESTAMP NULL" +
+                    ");" +
+                    "CREATE TABLE OFFSETS(" +
+                    "    name VARCHAR PRIMARY KEY NOT NULL," +
+                    "    value BIGINT NOT NULL" +
+                    ");"
+                );
+            }
+
+            ingester = new EventIngester(dataSource, batchSize, Integer.MAX_VALUE, new SimpleMeterRegistry());
+        }
+
+        // a second of events of 100 clusters, published outside the measured time
+        @Setup(Level.Invocation)
+        public void publish() throws SQLException {
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO EVENTS_BUFFER(msg_key, content_type, type, created_utc, data, event_size, cluster_id) " +
+                     "SELECT 'key_' || i, 'application/json', 'type_' || (i % 10), now() AT TIME ZONE 'UTC', " +
+                     "repeat('{\"field\":\"value\"}', 25), 425, 1 + i % 100 FROM generate_series(1, ?) AS i;"
+                 )) {
+                statement.setInt(1, EVENTS_PER_SECOND);
+                statement.executeUpdate();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() throws IOException {
+            pg.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(EVENTS_PER_SECOND)
+    public long ingest(PostgresDatabaseState state) {
+        return state.ingester.ingest();
+    }
+}
@@ -129,7 +129,17 @@ public class ReadEventsQueryBenchmark {
                 "CREATE INDEX cluster_uuid_idx ON CLUSTERS (cluster_uuid);"
             );
 
-            storage = new PostgresqlStorage(dataSource, dataSource, limit, retryAfter, batchSize, 0, 1, 1, 4);
+            storage = PostgresqlStorage.builder()
+                .pipeDataSource(dataSource)
+                .compactionDataSource(dataSource)
+                .limit(limit)
+                .retryAfter(retryAfter)
+                .maxBatchSize(batchSize)
+                .globalLatestOffsetCache(new GlobalLatestOffsetCache())
+                .nodeCount(1)
+                .clusterDBPoolSize(1)
+                .workMemMb(4)
+                .build();
         }
 
         void insertWithCluster(Message msg, Long clusterId) throws SQLException {
@@ -0,0 +1,174 @@
+package com.tesco.aqueduct.pipe.storage;
+
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Derives the retry after and the fast lane (bootstrap / cluster change) capacity from live signals of the
+ * pipe connection pool instead of static configuration only.
+ *
+ * Signals are measured at the pool boundary: time spent waiting in getConnection, connections currently checked
+ * out by reads and an exponentially weighted moving average of the latency of each storage endpoint.
+ */
+public class AdmissionController {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(AdmissionController.class));
+
+    public static final String READ_ENDPOINT = "read";
+
+    private final int nodeCount;
+    private final long poolSize;
+    private final double maxFastLaneCapacity;
+    private final double minFastLaneCapacity;
+    private final double smoothingFactor;
+    private final long connectionWaitThresholdMs;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicInteger activeConnections = new AtomicInteger(0);
+    private final Ewma connectionWaitMs;
+    private final Map<String, Ewma> latencyMsByEndpoint = new ConcurrentHashMap<>();
+
+    private volatile long lastRetryAfterMs;
+    private volatile double fastLaneCapacity;
+
+    public AdmissionController(
+        final int nodeCount,
+        final long poolSize,
+        final double maxFastLaneCapacity,
+        final double minFastLaneCapacity,
+        final double smoothingFactor,
+        final long connectionWaitThresholdMs,
+        final MeterRegistry meterRegistry
+    ) {
+        this.nodeCount = nodeCount;
+        this.poolSize = poolSize;
+        this.maxFastLaneCapacity = maxFastLaneCapacity;
+        this.minFastLaneCapacity = minFastLaneCapacity;
+        this.smoothingFactor = smoothingFactor;
+        this.connectionWaitThresholdMs = connectionWaitThresholdMs;
+        this.meterRegistry = meterRegistry;
+        this.connectionWaitMs = new Ewma(smoothingFactor);
+        this.fastLaneCapacity = maxFastLaneCapacity;
+
+        meterRegistry.gauge("pipe.admission.activeConnections", activeConnections);
+        Gauge.builder("pipe.admission.connectionWait", connectionWaitMs, Ewma::get).register(meterRegistry);
+        Gauge.builder("pipe.admission.utilisation", this, AdmissionController::utilisation).register(meterRegistry);
+        Gauge.builder("pipe.admission.retryAfter", this, controller -> controller.lastRetryAfterMs).register(meterRegistry);
+        Gauge.builder("pipe.admission.fastLaneCapacity", this, AdmissionController::fastLaneCapacity).register(meterRegistry);
+    }
+
+    public void recordConnectionWait(final long waitMs) {
+        connectionWaitMs.update(waitMs);
+    }
+
+    public void connectionAcquired() {
+        activeConnections.incrementAndGet();
+    }
+
+    public void connectionReleased() {
+        activeConnections.decrementAndGet();
+    }
+
+    public void recordLatency(final String endpoint, final long latencyMs) {
+        latencyMsByEndpoint.computeIfAbsent(endpoint, this::registerLatencyGauge).update(latencyMs);
+    }
+
+    /**
+     * retry after = readers / (connections / time a read holds a reader slot), where the time includes queueing
+     * for a connection, capped by the configured maximum
+     */
+    public long calculateRetryAfter(final String endpoint, final long maxRetryAfterMs) {
+        final double serviceTimeMs = latency(endpoint) + connectionWaitMs.get();
+
+        if (serviceTimeMs == 0) {
+            lastRetryAfterMs = 1;
+            return 1;
+        }
+
+        final double dbThreshold = poolSize / serviceTimeMs;
+        final long calculatedRetryAfter = (long) Math.ceil(nodeCount / dbThreshold);
+
+        lastRetryAfterMs = Math.min(calculatedRetryAfter, maxRetryAfterMs);
+
+        LOG.info("AdmissionController:calculateRetryAfter:serviceTime", String.valueOf(serviceTimeMs));
+        LOG.info("AdmissionController:calculateRetryAfter:calculatedRetryAfter", String.valueOf(lastRetryAfterMs));
+
+        return lastRetryAfterMs;
+    }
+
+    /**
+     * Fast lane capacity shrinks linearly with pool utilisation and is halved while reads queue for connections
+     * longer than the configured threshold.
+     */
+    public double calculateFastLaneCapacity() {
+        double capacity = maxFastLaneCapacity * (1 - utilisation());
+
+        if (connectionWaitMs.get() > connectionWaitThresholdMs) {
+            capacity = capacity / 2;
+        }
+
+        fastLaneCapacity = Math.max(minFastLaneCapacity, capacity);
+        return fastLaneCapacity;
+    }
+
+    public double fastLaneCapacity() {
+        return fastLaneCapacity;
+    }
+
+    public double utilisation() {
+        if (poolSize == 0) {
+            return 1;
+        }
+        return Math.min(1, activeConnections.get() / (double) poolSize);
+    }
+
+    public double latency(final String endpoint) {
+        final Ewma ewma = latencyMsByEndpoint.get(endpoint);
+        return ewma == null ? 0 : ewma.get();
+    }
+
+    public double connectionWait() {
+        return connectionWaitMs.get();
+    }
+
+    public int activeConnections() {
+        return activeConnections.get();
+    }
+
+    private Ewma registerLatencyGauge(final String endpoint) {
+        final Ewma ewma = new Ewma(smoothingFactor);
+        Gauge.builder("pipe.admission.latency", ewma, Ewma::get)
+            .tag("endpoint", endpoint)
+            .register(meterRegistry);
+        return ewma;
+    }
+
+    static class Ewma {
+        private final double alpha;
+        private double value;
+        private boolean initialised;
+
+        Ewma(final double alpha) {
+            this.alpha = alpha;
+        }
+
+        synchronized void update(final double sample) {
+            if (initialised) {
+                value = alpha * sample + (1 - alpha) * value;
+            } else {
+                value = sample;
+                initialised = true;
+            }
+        }
+
+        synchronized double get() {
+            return value;
+        }
+    }
+}
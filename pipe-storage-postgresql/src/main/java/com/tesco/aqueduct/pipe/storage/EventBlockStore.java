@@ -0,0 +1,195 @@
+package com.tesco.aqueduct.pipe.storage;
+
+import com.tesco.aqueduct.pipe.api.DeflatedSegment;
+import com.tesco.aqueduct.pipe.api.PrecompressedMessageResults;
+import com.tesco.aqueduct.pipe.api.StoredMessage;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import lombok.Value;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+/**
+ * Pages of historical events compressed ahead of time, kept in the event_blocks table.
+ *
+ * A block is the page a read of one routing id, types and start offset returns, so it can only be kept once no later
+ * event can change it: the page is full and its events are older than min age. Blocks of a routing id and types tile
+ * its events, the next block starts after the last offset of the previous one, so a node reading from the start of
+ * a block keeps reading blocks.
+ *
+ * Blocks are built for pages that have been read, reads of historical pages without a block are requested here and
+ * picked up by {@link PostgresqlStorage#materialiseBlocks(int)}. Compaction deleting events drops all blocks.
+ *
+ * <pre>
+ * CREATE TABLE EVENT_BLOCKS(
+ *     routing_id BIGINT NOT NULL,
+ *     types VARCHAR NOT NULL,
+ *     start_offset BIGINT NOT NULL,
+ *     end_offset BIGINT NOT NULL,
+ *     message_count INT NOT NULL,
+ *     first_created_utc TIMESTAMP NOT NULL,
+ *     cluster_change BOOLEAN NOT NULL,
+ *     crc BIGINT NOT NULL,
+ *     size BIGINT NOT NULL,
+ *     deflated BYTEA NOT NULL,
+ *     PRIMARY KEY (routing_id, types, start_offset)
+ * );
+ * </pre>
+ */
+public class EventBlockStore {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(EventBlockStore.class));
+
+    private final Duration minAge;
+    private final int maxRequested;
+    private final Queue<BlockKey> requested = new ConcurrentLinkedQueue<>();
+    private final Set<BlockKey> requestedKeys = ConcurrentHashMap.newKeySet();
+
+    public EventBlockStore(final Duration minAge, final int maxRequested) {
+        this.minAge = minAge;
+        this.maxRequested = maxRequested;
+    }
+
+    Optional<EventBlock> find(final Connection connection, final BlockKey key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(getBlockQuery())) {
+            statement.setLong(1, key.getRoutingId());
+            statement.setString(2, key.getTypes());
+            statement.setLong(3, key.getStartOffset());
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new EventBlock(
+                    key,
+                    resultSet.getLong("end_offset"),
+                    resultSet.getInt("message_count"),
+                    ZonedDateTime.of(resultSet.getTimestamp("first_created_utc").toLocalDateTime(), ZoneId.of("UTC")),
+                    resultSet.getBoolean("cluster_change"),
+                    new DeflatedSegment(resultSet.getBytes("deflated"), resultSet.getLong("crc"), resultSet.getLong("size"))
+                ));
+            }
+        }
+    }
+
+    void save(final Connection connection, final EventBlock block) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(getInsertBlockQuery())) {
+            statement.setLong(1, block.getKey().getRoutingId());
+            statement.setString(2, block.getKey().getTypes());
+            statement.setLong(3, block.getKey().getStartOffset());
+            statement.setLong(4, block.getEndOffset());
+            statement.setInt(5, block.getMessageCount());
+            statement.setTimestamp(6, Timestamp.valueOf(block.getFirstCreated().withZoneSameInstant(ZoneId.of("UTC")).toLocalDateTime()));
+            statement.setBoolean(7, block.isClusterChange());
+            statement.setLong(8, block.getMessagesJson().getCrc());
+            statement.setLong(9, block.getMessagesJson().getLength());
+            statement.setBytes(10, block.getMessagesJson().getDeflated());
+            statement.executeUpdate();
+        }
+    }
+
+    int invalidateAll(final Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(getDeleteBlocksQuery())) {
+            final int deleted = statement.executeUpdate();
+            LOG.info("event blocks", "invalidated " + deleted + " blocks");
+            return deleted;
+        }
+    }
+
+    /**
+     * Requests the block starting at the given key to be built, when the page read from it is historical
+     */
+    void requestIfHistorical(final BlockKey key, final List<StoredMessage> messages) {
+        if (!messages.isEmpty() && messages.get(0).isCreatedBefore(agedBefore())) {
+            request(key);
+        }
+    }
+
+    void request(final BlockKey key) {
+        if (requestedKeys.size() < maxRequested && requestedKeys.add(key)) {
+            requested.add(key);
+        }
+    }
+
+    BlockKey nextRequested() {
+        final BlockKey key = requested.poll();
+        if (key != null) {
+            requestedKeys.remove(key);
+        }
+        return key;
+    }
+
+    ZonedDateTime agedBefore() {
+        return ZonedDateTime.now().minus(minAge);
+    }
+
+    /**
+     * @param messages page read from the start of the block, in offset order
+     */
+    static EventBlock toBlock(final BlockKey key, final List<StoredMessage> messages) {
+        return new EventBlock(
+            key,
+            messages.get(messages.size() - 1).getOffset(),
+            messages.size(),
+            messages.get(0).getCreated(),
+            StoredMessage.isClusterChange(messages),
+            PrecompressedMessageResults.deflateJson(messages, Deflater.BEST_COMPRESSION)
+        );
+    }
+
+    private static String getBlockQuery() {
+        return
+            "SELECT end_offset, message_count, first_created_utc, cluster_change, crc, size, deflated FROM event_blocks " +
+            "WHERE routing_id = ? AND types = ? AND start_offset = ?;";
+    }
+
+    private static String getInsertBlockQuery() {
+        return
+            "INSERT INTO event_blocks " +
+                "(routing_id, types, start_offset, end_offset, message_count, first_created_utc, cluster_change, crc, size, deflated) " +
+            "VALUES (?,?,?,?,?,?,?,?,?,?) ON CONFLICT DO NOTHING;";
+    }
+
+    private static String getDeleteBlocksQuery() {
+        return "DELETE FROM event_blocks;";
+    }
+
+    @Value
+    static class BlockKey {
+        long routingId;
+        // sorted and comma separated, empty for all types
+        String types;
+        long startOffset;
+
+        static BlockKey of(final long routingId, final List<String> types, final long startOffset) {
+            final String typesKey = types == null ? "" : types.stream().distinct().sorted().collect(Collectors.joining(","));
+            return new BlockKey(routingId, typesKey, startOffset);
+        }
+
+        List<String> typesList() {
+            return types.isEmpty() ? Collections.emptyList() : Arrays.asList(types.split(","));
+        }
+
+        BlockKey following(final long endOffset) {
+            return new BlockKey(routingId, types, endOffset + 1);
+        }
+    }
+
+    @Value
+    static class EventBlock {
+        BlockKey key;
+        long endOffset;
+        int messageCount;
+        ZonedDateTime firstCreated;
+        boolean clusterChange;
+        DeflatedSegment messagesJson;
+    }
+}
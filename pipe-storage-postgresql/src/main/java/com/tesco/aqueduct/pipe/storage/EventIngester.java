@@ -0,0 +1,154 @@
+package com.tesco.aqueduct.pipe.storage;
+
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Moves events published to the events_buffer table into events, where nodes read them from.
+ *
+ * Each batch is drained in a single transaction that deletes the oldest buffered events, inserts them into events
+ * routed to their own cluster and advances the global latest offset to the last of them, so readers see all events of
+ * a batch or none. Events are given their offset in events when drained, in the order they were buffered. Batches are
+ * drained one at a time across instances, an instance finding another one draining skips its run, so no offset is
+ * made visible before an offset lower than it.
+ *
+ * A run drains batches until the buffer holds less than a batch or max batches per run were drained.
+ */
+public class EventIngester {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(EventIngester.class));
+
+    private final DataSource dataSource;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final DistributionSummary batchSizes;
+    private final Counter ingestedEvents;
+
+    // time the oldest event of the last batch waited since it was created, events moved per second by the last run
+    private volatile long lagMs;
+    private volatile double eventsPerSecond;
+
+    /**
+     * @param batchSize most events drained in one transaction
+     * @param maxBatchesPerRun most batches drained by one run
+     */
+    public EventIngester(
+        final DataSource dataSource,
+        final int batchSize,
+        final int maxBatchesPerRun,
+        final MeterRegistry meterRegistry
+    ) {
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.batchSizes = meterRegistry.summary("pipe.ingestion.batchSize");
+        this.ingestedEvents = meterRegistry.counter("pipe.ingestion.events");
+
+        Gauge.builder("pipe.ingestion.lag", this, ingester -> ingester.lagMs).register(meterRegistry);
+        Gauge.builder("pipe.ingestion.eventsPerSecond", this, ingester -> ingester.eventsPerSecond).register(meterRegistry);
+    }
+
+    /**
+     * @return number of events moved into events
+     */
+    public long ingest() {
+        final long start = System.nanoTime();
+        long ingested = 0;
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            for (int batches = 0; batches < maxBatchesPerRun; batches++) {
+                final int drained = drainBatch(connection);
+                if (drained < 0) {
+                    LOG.info("ingest", "didn't obtain lock");
+                    break;
+                }
+                ingested += drained;
+                if (drained < batchSize) {
+                    break;
+                }
+            }
+        } catch (SQLException exception) {
+            LOG.error("event ingester", "ingest", exception);
+            throw new RuntimeException(exception);
+        } finally {
+            final long elapsedNanos = System.nanoTime() - start;
+            eventsPerSecond = elapsedNanos > 0 ? ingested * 1_000_000_000.0 / elapsedNanos : 0;
+        }
+
+        LOG.info("ingest", "ingested " + ingested + " events");
+        return ingested;
+    }
+
+    // -1 when another instance is draining
+    private int drainBatch(final Connection connection) throws SQLException {
+        try {
+            if (!attemptToLock(connection)) {
+                connection.rollback();
+                return -1;
+            }
+
+            final int drained;
+            try (PreparedStatement statement = connection.prepareStatement(getDrainBatchQuery())) {
+                statement.setInt(1, batchSize);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    drained = resultSet.getInt("event_count");
+                    if (drained > 0) {
+                        lagMs = resultSet.getLong("lag_ms");
+                    }
+                }
+            }
+            connection.commit();
+
+            batchSizes.record(drained);
+            ingestedEvents.increment(drained);
+            return drained;
+        } catch (SQLException exception) {
+            connection.rollback();
+            throw exception;
+        }
+    }
+
+    private static boolean attemptToLock(final Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(getLockingQuery());
+             ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() && resultSet.getBoolean(1);
+        }
+    }
+
+    // lock released when the transaction ends
+    private static String getLockingQuery() {
+        return "SELECT pg_try_advisory_xact_lock(hashtext('events_ingestion'));";
+    }
+
+    private static String getDrainBatchQuery() {
+        return
+            "WITH drained AS (" +
+                "DELETE FROM events_buffer WHERE msg_offset IN (" +
+                    "SELECT msg_offset FROM events_buffer ORDER BY msg_offset LIMIT ?" +
+                ") RETURNING msg_offset, msg_key, content_type, type, created_utc, data, event_size, cluster_id, time_to_live" +
+            "), ingested AS (" +
+                "INSERT INTO events (msg_key, content_type, type, created_utc, data, event_size, cluster_id, routing_id, time_to_live) " +
+                "SELECT msg_key, content_type, type, created_utc, data, event_size, cluster_id, cluster_id, time_to_live " +
+                "FROM drained ORDER BY msg_offset " +
+                "RETURNING msg_offset, created_utc" +
+            "), batch AS (" +
+                "SELECT count(*) AS event_count, max(msg_offset) AS last_offset, min(created_utc) AS first_created FROM ingested" +
+            "), latest AS (" +
+                "INSERT INTO offsets (name, value) SELECT 'global_latest_offset', last_offset FROM batch WHERE last_offset IS NOT NULL " +
+                "ON CONFLICT (name) DO UPDATE SET value = GREATEST(offsets.value, EXCLUDED.value)" +
+            ") " +
+            "SELECT event_count, CAST(EXTRACT(EPOCH FROM (now() AT TIME ZONE 'UTC') - first_created) * 1000 AS BIGINT) AS lag_ms FROM batch;";
+    }
+}
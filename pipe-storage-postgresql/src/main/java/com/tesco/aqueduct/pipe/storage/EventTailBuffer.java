@@ -0,0 +1,288 @@
+package com.tesco.aqueduct.pipe.storage;
+
+import com.tesco.aqueduct.pipe.api.Message;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import lombok.Value;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Most recent events of each routing id kept in memory, so nodes reading the tail of the pipe do not hit the database.
+ *
+ * Events are appended in offset order by {@link PostgresqlStorage#fillTail()}, which fetches the events committed
+ * since the last fill once per instance. Each routing id keeps a ring of up to max messages and max bytes of its
+ * latest events, older ones are dropped as new ones come. A read is served from memory only when the rings of all its
+ * routing ids hold every event from its start offset, and the tail is filled up to the global latest offset it reads
+ * up to.
+ *
+ * Compaction deleting events drops all events held, on the instance running it straight away and on others once
+ * they see the compaction epoch change. Events fetched before the tail was invalidated are not appended.
+ */
+public class EventTailBuffer {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(EventTailBuffer.class));
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final int maxEventsPerFill;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private final Map<Long, Ring> rings = new HashMap<>();
+    private long startedAfter = -1;
+    private long filledUpTo = -1;
+    private long generation;
+    private long compactionEpoch = -1;
+
+    /**
+     * @param maxMessages events kept per routing id
+     * @param maxBytes event size kept per routing id, the latest event is kept whatever its size
+     * @param maxEventsPerFill events fetched by a single fill
+     */
+    public EventTailBuffer(final int maxMessages, final long maxBytes, final int maxEventsPerFill) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.maxEventsPerFill = maxEventsPerFill;
+    }
+
+    int maxEventsPerFill() {
+        return maxEventsPerFill;
+    }
+
+    /**
+     * @return offset events are held up to, -1 until the tail is started
+     */
+    long filledUpTo() {
+        lock.readLock().lock();
+        try {
+            return filledUpTo;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return generation to pass to {@link #append}, read before the events are fetched
+     */
+    long generation() {
+        lock.readLock().lock();
+        try {
+            return generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Starts holding events committed after the given offset, events before it are always read from the database
+     */
+    void start(final long offset) {
+        lock.writeLock().lock();
+        try {
+            if (filledUpTo < 0) {
+                startedAfter = offset;
+                filledUpTo = offset;
+                LOG.info("event tail", "started after offset " + offset);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param events events committed after {@link #filledUpTo()} up to the given offset, in offset order
+     * @param upTo offset the tail is filled up to once the events are appended
+     */
+    void append(final List<TailEvent> events, final long upTo, final long readGeneration) {
+        lock.writeLock().lock();
+        try {
+            if (filledUpTo < 0 || readGeneration != generation || upTo <= filledUpTo) {
+                return;
+            }
+
+            for (final TailEvent event : events) {
+                if (event.getMessage().getOffset() > filledUpTo) {
+                    rings.computeIfAbsent(event.getMessage().getRoutingId(), routingId -> new Ring(startedAfter)).add(event);
+                }
+            }
+            filledUpTo = upTo;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops all events when compaction has run since the epoch last seen
+     */
+    void compactionEpoch(final long epoch) {
+        lock.writeLock().lock();
+        try {
+            if (compactionEpoch >= 0 && epoch != compactionEpoch) {
+                LOG.info("event tail", "compaction epoch changed to " + epoch);
+                invalidateAll();
+            }
+            compactionEpoch = epoch;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            generation++;
+            rings.clear();
+            startedAfter = filledUpTo;
+            LOG.info("event tail", "invalidated all events up to offset " + filledUpTo);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the page the database would return for the same read: up to limit events of each routing id from the
+     * start offset, the first limit of them in offset order, cut once their running size goes over max batch size.
+     *
+     * @return the page, or empty when the tail does not hold all events of the page
+     */
+    Optional<List<Message>> read(
+        final List<Long> routingIds,
+        final List<String> types,
+        final long startOffset,
+        final long endOffset,
+        final int limit,
+        final long maxBatchSize
+    ) {
+        final Set<String> typeSet = types == null || types.isEmpty() ? null : new HashSet<>(types);
+        final List<TailEvent> selected = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            if (filledUpTo < 0 || endOffset > filledUpTo) {
+                return Optional.empty();
+            }
+
+            for (final Long routingId : new LinkedHashSet<>(routingIds)) {
+                final Ring ring = rings.get(routingId);
+                if (startOffset <= (ring == null ? startedAfter : ring.evictedUpTo)) {
+                    return Optional.empty();
+                }
+                if (ring != null) {
+                    ring.select(typeSet, startOffset, endOffset, limit, selected);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        selected.sort(Comparator.comparingLong(event -> event.getMessage().getOffset()));
+
+        final List<Message> messages = new ArrayList<>(Math.min(selected.size(), limit));
+        long runningSize = 0;
+        for (final TailEvent event : selected) {
+            runningSize += event.getSize();
+            if (messages.size() == limit || runningSize > maxBatchSize) {
+                break;
+            }
+            messages.add(event.getMessage());
+        }
+        return Optional.of(messages);
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return rings.values().stream().mapToInt(ring -> ring.count).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Value
+    static class TailEvent {
+        Message message;
+        // event_size of the event, as summed up against max batch size
+        long size;
+    }
+
+    // events of a routing id in offset order, growing up to max messages before the oldest are overwritten
+    private final class Ring {
+        private TailEvent[] events = new TailEvent[Math.min(16, maxMessages)];
+        private int first;
+        private int count;
+        private long bytes;
+        private long evictedUpTo;
+
+        private Ring(final long evictedUpTo) {
+            this.evictedUpTo = evictedUpTo;
+        }
+
+        private void add(final TailEvent event) {
+            while (count > 0 && (count == maxMessages || bytes + event.getSize() > maxBytes)) {
+                final TailEvent evicted = get(0);
+                events[first] = null;
+                first = (first + 1) % events.length;
+                count--;
+                bytes -= evicted.getSize();
+                evictedUpTo = evicted.getMessage().getOffset();
+            }
+            if (count == events.length) {
+                grow();
+            }
+            events[(first + count) % events.length] = event;
+            count++;
+            bytes += event.getSize();
+        }
+
+        private void select(
+            final Set<String> types,
+            final long startOffset,
+            final long endOffset,
+            final int limit,
+            final List<TailEvent> selected
+        ) {
+            int taken = 0;
+            for (int i = indexOf(startOffset); i < count && taken < limit; i++) {
+                final TailEvent event = get(i);
+                if (event.getMessage().getOffset() > endOffset) {
+                    break;
+                }
+                if (types == null || types.contains(event.getMessage().getType())) {
+                    selected.add(event);
+                    taken++;
+                }
+            }
+        }
+
+        // index of the first event at or after the offset
+        private int indexOf(final long offset) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (get(middle).getMessage().getOffset() < offset) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private TailEvent get(final int index) {
+            return events[(first + index) % events.length];
+        }
+
+        private void grow() {
+            final TailEvent[] grown = new TailEvent[Math.min(events.length * 2, maxMessages)];
+            for (int i = 0; i < count; i++) {
+                grown[i] = get(i);
+            }
+            events = grown;
+            first = 0;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.tesco.aqueduct.pipe.storage;
+
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import com.tesco.aqueduct.pipe.api.StoredMessage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON of events as written to the wire, kept in the wire_json column of events.
+ *
+ * Events do not change once in events, so the JSON {@link JsonHelper} writes for each of them is rendered once and
+ * reads splice it into pages instead of serialising the event every time. Events committed since the last fill are
+ * rendered in offset order by {@link PostgresqlStorage#fillWireJson()}, events read before they are rendered are
+ * serialised as before. The column has to be set back to null when the JSON messages are written as changes.
+ *
+ * <pre>
+ * ALTER TABLE EVENTS ADD COLUMN wire_json BYTEA NULL;
+ * </pre>
+ */
+public class EventWireJson {
+
+    private final int maxEventsPerFill;
+    private volatile long filledUpTo;
+
+    /**
+     * @param maxEventsPerFill events rendered by a single fill
+     */
+    public EventWireJson(final int maxEventsPerFill) {
+        this.maxEventsPerFill = maxEventsPerFill;
+    }
+
+    /**
+     * Renders the JSON of events without it, from the offset the last fill stopped at up to the global latest offset.
+     *
+     * Starts from the first event, events rendered by another instance in the meantime are skipped.
+     *
+     * @return number of events rendered
+     */
+    int fill(final Connection connection, final long globalLatestOffset) throws SQLException {
+        final long from = filledUpTo;
+        if (globalLatestOffset <= from) {
+            return 0;
+        }
+
+        final List<StoredMessage> messages = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(getEventsWithoutWireJsonQuery())) {
+            statement.setLong(1, from);
+            statement.setLong(2, globalLatestOffset);
+            statement.setInt(3, maxEventsPerFill);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    messages.add(PostgresqlStorage.toStoredMessage(resultSet, false));
+                }
+            }
+        }
+
+        if (!messages.isEmpty()) {
+            try (PreparedStatement statement = connection.prepareStatement(getUpdateWireJsonQuery())) {
+                for (final StoredMessage message : messages) {
+                    statement.setBytes(1, JsonHelper.toJsonBytes(message));
+                    statement.setLong(2, message.getOffset());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+
+        // a fill cut short by max events carries on from its last event next time
+        filledUpTo = messages.size() < maxEventsPerFill
+            ? globalLatestOffset
+            : messages.get(messages.size() - 1).getOffset();
+        return messages.size();
+    }
+
+    long filledUpTo() {
+        return filledUpTo;
+    }
+
+    private static String getEventsWithoutWireJsonQuery() {
+        return
+            "SELECT type, msg_key, content_type, msg_offset, created_utc, data, cluster_id, routing_id FROM events " +
+            "WHERE msg_offset > ? AND msg_offset <= ? AND wire_json IS NULL " +
+            "ORDER BY msg_offset LIMIT ?;";
+    }
+
+    private static String getUpdateWireJsonQuery() {
+        return "UPDATE events SET wire_json = ? WHERE msg_offset = ? AND wire_json IS NULL;";
+    }
+}
@@ -0,0 +1,249 @@
+package com.tesco.aqueduct.pipe.storage;
+
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import lombok.Value;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Encoded historical pages kept in local segment files, so reading them again does not hit the database.
+ *
+ * Pages are gzip JSON arrays appended to the current segment, a new segment is started once it reaches segment size.
+ * The index of pages is only kept in memory, segments left by a previous run are deleted on start. Once segments take
+ * more than max size, the least recently read segment is deleted with all its pages.
+ *
+ * Pages are keyed by the routing ids of the location, types and start offset. Compaction deleting events invalidates
+ * all pages, on the instance running it straight away and on others once they see the compaction epoch change. Pages
+ * are only cached once the epoch is known, and not when the cache was invalidated while they were read.
+ */
+public class PageSegmentCache implements AutoCloseable {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(PageSegmentCache.class));
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxSize;
+    private final Duration minAge;
+    private final AtomicLong generation = new AtomicLong();
+
+    // guarded by this
+    private final Map<PageKey, CachedPage> pages = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment current;
+    private long size;
+    private long nextSegmentId;
+    private long readTick;
+    private long compactionEpoch = -1;
+
+    public PageSegmentCache(final Path directory, final long segmentSize, final long maxSize, final Duration minAge) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.minAge = minAge;
+
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                for (final Path leftover : leftovers) {
+                    Files.delete(leftover);
+                }
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot prepare page segment directory " + directory, exception);
+        }
+    }
+
+    /**
+     * @return generation to pass to {@link #put}, read before the transaction the page is read in starts
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    ZonedDateTime agedBefore() {
+        return ZonedDateTime.now().minus(minAge);
+    }
+
+    /**
+     * @return the page, its segment file is only opened once the page is sent or decoded so nothing is left open when
+     * it never is
+     */
+    synchronized Optional<CachedPage> find(final PageKey key) {
+        final CachedPage page = pages.get(key);
+        if (page == null) {
+            return Optional.empty();
+        }
+
+        if (!Files.exists(page.segment.path)) {
+            LOG.error("page segment cache", "find page", "segment missing " + page.segment.path);
+            delete(page.segment);
+            return Optional.empty();
+        }
+
+        page.segment.lastRead = ++readTick;
+        return Optional.of(page);
+    }
+
+    synchronized void put(
+        final PageKey key,
+        final long readGeneration,
+        final byte[] gzipJson,
+        final int messageCount,
+        final ZonedDateTime firstCreated,
+        final boolean clusterChange
+    ) {
+        if (compactionEpoch < 0 || readGeneration != generation.get() || pages.containsKey(key)) {
+            return;
+        }
+
+        try {
+            if (current == null || (current.size > 0 && current.size + gzipJson.length > segmentSize)) {
+                startSegment();
+            }
+
+            final long position = current.size;
+            final ByteBuffer buffer = ByteBuffer.wrap(gzipJson);
+            while (buffer.hasRemaining()) {
+                current.channel.write(buffer, position + buffer.position());
+            }
+
+            current.size += gzipJson.length;
+            current.keys.add(key);
+            current.lastRead = ++readTick;
+            size += gzipJson.length;
+            pages.put(key, new CachedPage(current, position, gzipJson.length, messageCount, firstCreated, clusterChange));
+        } catch (IOException exception) {
+            LOG.error("page segment cache", "append to segment", exception);
+            if (current != null) {
+                delete(current);
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * Invalidates all pages when compaction has run since the epoch last seen
+     */
+    synchronized void compactionEpoch(final long epoch) {
+        if (compactionEpoch >= 0 && epoch != compactionEpoch) {
+            LOG.info("page segment cache", "compaction epoch changed to " + epoch);
+            invalidateAll();
+        }
+        compactionEpoch = epoch;
+    }
+
+    synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        new ArrayList<>(segments).forEach(this::delete);
+        LOG.info("page segment cache", "invalidated all pages");
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    synchronized int pageCount() {
+        return pages.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        new ArrayList<>(segments).forEach(this::delete);
+    }
+
+    private void startSegment() throws IOException {
+        if (current != null) {
+            current.channel.close();
+        }
+        final Path path = directory.resolve((nextSegmentId++) + SEGMENT_SUFFIX);
+        current = new Segment(path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        segments.add(current);
+    }
+
+    // whole segments go, pages are never rewritten
+    private void evict() {
+        while (size > maxSize && !segments.isEmpty()) {
+            final Segment leastRecentlyRead = segments.stream()
+                .filter(segment -> segment != current || segments.size() == 1)
+                .min(Comparator.comparingLong(segment -> segment.lastRead))
+                .orElse(current);
+            delete(leastRecentlyRead);
+        }
+    }
+
+    private void delete(final Segment segment) {
+        segments.remove(segment);
+        segment.keys.forEach(pages::remove);
+        size -= segment.size;
+        if (segment == current) {
+            current = null;
+        }
+
+        try {
+            segment.channel.close();
+            // pages already being sent keep reading the file until their channel is closed, later ones fail to open it
+            Files.deleteIfExists(segment.path);
+        } catch (IOException exception) {
+            LOG.error("page segment cache", "delete segment " + segment.path, exception);
+        }
+    }
+
+    @Value
+    static class PageKey {
+        // sorted and comma separated
+        String routingIds;
+        // sorted and comma separated, empty for all types
+        String types;
+        long startOffset;
+
+        static PageKey of(final List<Long> routingIds, final List<String> types, final long startOffset) {
+            return new PageKey(
+                routingIds.stream().distinct().sorted().map(String::valueOf).collect(Collectors.joining(",")),
+                types == null ? "" : types.stream().distinct().sorted().collect(Collectors.joining(",")),
+                startOffset
+            );
+        }
+    }
+
+    @Value
+    static class CachedPage {
+        Segment segment;
+        long position;
+        long length;
+        int messageCount;
+        ZonedDateTime firstCreated;
+        boolean clusterChange;
+
+        Path getPath() {
+            return segment.path;
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final Set<PageKey> keys = new HashSet<>();
+        private long size;
+        private long lastRead;
+
+        private Segment(final Path path, final FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
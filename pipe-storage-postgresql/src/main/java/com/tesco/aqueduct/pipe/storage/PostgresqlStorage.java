@@ -2,14 +2,15 @@ package com.tesco.aqueduct.pipe.storage;
 
 import com.tesco.aqueduct.pipe.api.*;
 import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import lombok.Builder;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.*;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.zip.Deflater;
 
 public class PostgresqlStorage implements CentralStorage {
 
@@ -25,8 +26,18 @@ public class PostgresqlStorage implements CentralStorage {
     private final long clusterDBPoolSize;
     private final int workMemMb;
     private ClusterStorage clusterStorage;
-
-    public PostgresqlStorage(
+    private final AdmissionController admissionController;
+    private final EventBlockStore blockStore;
+    private final PageSegmentCache pageCache;
+    private final EventTailBuffer tail;
+    private final EventWireJson wireJson;
+
+    /**
+     * Built with {@link #builder()}, the admission controller, block store, page cache, tail and wire JSON are optional
+     * and left out when not set.
+     */
+    @Builder
+    private PostgresqlStorage(
         final DataSource pipeDataSource,
         final DataSource compactionDataSource,
         final int limit,
@@ -36,7 +47,12 @@ public class PostgresqlStorage implements CentralStorage {
         int nodeCount,
         long clusterDBPoolSize,
         int workMemMb,
-        ClusterStorage clusterStorage
+        ClusterStorage clusterStorage,
+        AdmissionController admissionController,
+        EventBlockStore blockStore,
+        PageSegmentCache pageCache,
+        EventTailBuffer tail,
+        EventWireJson wireJson
     ) {
         this.retryAfter = retryAfter;
         this.limit = limit;
@@ -48,6 +64,11 @@ public class PostgresqlStorage implements CentralStorage {
         this.maxBatchSize = maxBatchSize + (((long)Message.MAX_OVERHEAD_SIZE) * limit);
         this.workMemMb = workMemMb;
         this.clusterStorage = clusterStorage;
+        this.admissionController = admissionController;
+        this.blockStore = blockStore;
+        this.pageCache = pageCache;
+        this.tail = tail;
+        this.wireJson = wireJson;
 
         //initialise connection pool eagerly
         try (Connection connection = this.pipeDataSource.getConnection()) {
@@ -64,6 +85,8 @@ public class PostgresqlStorage implements CentralStorage {
         final String locationUuid
     ) {
         long start = System.currentTimeMillis();
+        // taken before the transaction, pages read before compaction are not cached once it invalidated the cache
+        final long cacheGeneration = pageCache != null ? pageCache.generation() : 0;
         Connection connection = null;
         try {
             connection = getConnectionAndStartTransaction();
@@ -71,7 +94,7 @@ public class PostgresqlStorage implements CentralStorage {
             final Optional<ClusterCacheEntry> entry = clusterStorage.getClusterCacheEntry(locationUuid, connection);
 
             if (isValidAndUnexpired(entry)) {
-                return readMessages(types, start, startOffset, entry.get().getClusterIds(), connection);
+                return readMessages(types, start, startOffset, entry.get().getClusterIds(), cacheGeneration, connection);
             } else {
                 commit(connection);
                 close(connection);
@@ -83,7 +106,7 @@ public class PostgresqlStorage implements CentralStorage {
                 final Optional<List<Long>> newClusterIds = clusterStorage.updateAndGetClusterIds(locationUuid, clusterUuids, entry, connection);
 
                 if (newClusterIds.isPresent()) {
-                    return readMessages(types, start, startOffset, newClusterIds.get(), connection);
+                    return readMessages(types, start, startOffset, newClusterIds.get(), cacheGeneration, connection);
                 } else {
                     LOG.info("postgresql storage", "Recursive read due to Cluster Cache invalidation race condition");
                     return read(types, startOffset, locationUuid);
@@ -91,7 +114,9 @@ public class PostgresqlStorage implements CentralStorage {
             }
         } catch (SQLException exception) {
             LOG.error("postgresql storage", "read", exception);
-            close(connection);
+            if (connection != null) {
+                close(connection);
+            }
             throw new RuntimeException(exception);
         } finally {
             if (connection != null) {
@@ -99,6 +124,9 @@ public class PostgresqlStorage implements CentralStorage {
                 close(connection);
             }
             long end = System.currentTimeMillis();
+            if (admissionController != null) {
+                admissionController.recordLatency(AdmissionController.READ_ENDPOINT, end - start);
+            }
             LOG.info("read:time", Long.toString(end - start));
         }
     }
@@ -106,9 +134,23 @@ public class PostgresqlStorage implements CentralStorage {
     private Connection getConnectionAndStartTransaction() throws SQLException {
         long start = System.currentTimeMillis();
         Connection connection = pipeDataSource.getConnection();
-        connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
-        connection.setAutoCommit(false);
-        LOG.info("getConnection:time", Long.toString(System.currentTimeMillis() - start));
+        long connectionWaitTime = System.currentTimeMillis() - start;
+        if (admissionController != null) {
+            admissionController.recordConnectionWait(connectionWaitTime);
+        }
+        try {
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setAutoCommit(false);
+        } catch (SQLException exception) {
+            // not counted as in use yet, so returned to the pool without releasing it from the admission controller
+            connection.close();
+            throw exception;
+        }
+        // counted once set up, close() releases it
+        if (admissionController != null) {
+            admissionController.connectionAcquired();
+        }
+        LOG.info("getConnection:time", Long.toString(connectionWaitTime));
         return connection;
     }
 
@@ -121,30 +163,308 @@ public class PostgresqlStorage implements CentralStorage {
         long start,
         long startOffset,
         List<Long> clusterIds,
+        long cacheGeneration,
         Connection connection
     ) throws SQLException {
 
+        final long globalLatestOffset = globalLatestOffsetCache.get(connection);
+
+        final PageSegmentCache.PageKey pageKey = pageCache != null ? PageSegmentCache.PageKey.of(clusterIds, types, startOffset) : null;
+
+        if (pageKey != null) {
+            final Optional<PageSegmentCache.CachedPage> cached = pageCache.find(pageKey);
+            if (cached.isPresent()) {
+                return toResults(cached.get(), start, globalLatestOffset);
+            }
+        }
+
+        if (tail != null) {
+            final Optional<List<Message>> tailMessages =
+                tail.read(clusterIds, types, startOffset, globalLatestOffset, limit, maxBatchSize);
+            if (tailMessages.isPresent()) {
+                return toResults(tailMessages.get(), start, globalLatestOffset);
+            }
+        }
+
         setWorkMem(connection);
 
-        final long globalLatestOffset = globalLatestOffsetCache.get(connection);
+        // blocks are pages of a single routing id, pages of several are merged by offset
+        final EventBlockStore.BlockKey blockKey =
+            blockStore != null && clusterIds.size() == 1 ? EventBlockStore.BlockKey.of(clusterIds.get(0), types, startOffset) : null;
+
+        if (blockKey != null) {
+            final Optional<EventBlockStore.EventBlock> block = blockStore.find(connection, blockKey);
+            if (block.isPresent() && block.get().getEndOffset() <= globalLatestOffset) {
+                final EventBlockStore.EventBlock found = block.get();
+                if (pageKey != null) {
+                    pageCache.put(pageKey, cacheGeneration, PrecompressedMessageResults.toGzipJson(found.getMessagesJson()),
+                        found.getMessageCount(), found.getFirstCreated(), found.isClusterChange());
+                }
+                return toResults(found, start, globalLatestOffset);
+            }
+        }
 
         try(PreparedStatement getOffsetsQuery = getOffsetsStatement(connection, startOffset, globalLatestOffset, clusterIds, types)) {
             TreeSet<Long> offsets = runGetOffsetQuery(getOffsetsQuery);
 
-            List<Message> messages;
+            List<StoredMessage> messages;
             try(PreparedStatement getMessagesQuery = getMessagesStatement(connection, offsets)) {
                 messages = runMessagesQuery(getMessagesQuery);
             }
 
-            long end = System.currentTimeMillis();
+            if (blockKey != null) {
+                blockStore.requestIfHistorical(blockKey, messages);
+            }
 
-            final long retry = calculateRetryAfter(end - start, messages.size());
+            if (pageKey != null && isStable(offsets.size(), messages, pageCache.agedBefore())) {
+                pageCache.put(pageKey, cacheGeneration, PrecompressedMessageResults.toGzipJson(
+                    PrecompressedMessageResults.deflateJson(messages, Deflater.DEFAULT_COMPRESSION)
+                ), messages.size(), messages.get(0).getCreated(), StoredMessage.isClusterChange(messages));
+            }
 
-            LOG.info("PostgresSqlStorage:retry", String.valueOf(retry));
-            return new MessageResults(messages, retry, OptionalLong.of(globalLatestOffset), PipeState.UP_TO_DATE);
+            return toStoredResults(messages, start, globalLatestOffset);
         }
     }
 
+    private MessageResults toResults(final List<Message> messages, final long start, final long globalLatestOffset) {
+        long end = System.currentTimeMillis();
+
+        final long retry = calculateRetryAfter(end - start, messages.size());
+
+        LOG.info("PostgresSqlStorage:retry", String.valueOf(retry));
+        return new MessageResults(messages, retry, OptionalLong.of(globalLatestOffset), PipeState.UP_TO_DATE);
+    }
+
+    private MessageResults toStoredResults(final List<StoredMessage> messages, final long start, final long globalLatestOffset) {
+        long end = System.currentTimeMillis();
+
+        final long retry = calculateRetryAfter(end - start, messages.size());
+
+        LOG.info("PostgresSqlStorage:retry", String.valueOf(retry));
+        return new StoredMessageResults(messages, retry, OptionalLong.of(globalLatestOffset), PipeState.UP_TO_DATE);
+    }
+
+    private MessageResults toResults(final EventBlockStore.EventBlock block, final long start, final long globalLatestOffset) {
+        long end = System.currentTimeMillis();
+
+        final long retry = calculateRetryAfter(end - start, block.getMessageCount());
+
+        LOG.info("PostgresSqlStorage:retry", String.valueOf(retry));
+        return new PrecompressedMessageResults(
+            block.getMessagesJson(),
+            block.getMessageCount(),
+            block.getFirstCreated(),
+            block.isClusterChange(),
+            retry,
+            OptionalLong.of(globalLatestOffset),
+            PipeState.UP_TO_DATE
+        );
+    }
+
+    private MessageResults toResults(final PageSegmentCache.CachedPage page, final long start, final long globalLatestOffset) {
+        long end = System.currentTimeMillis();
+
+        final long retry = calculateRetryAfter(end - start, page.getMessageCount());
+
+        LOG.info("PostgresSqlStorage:retry", String.valueOf(retry));
+        return new SegmentFileMessageResults(
+            page.getPath(),
+            page.getPosition(),
+            page.getLength(),
+            page.getMessageCount(),
+            page.getFirstCreated(),
+            page.isClusterChange(),
+            retry,
+            OptionalLong.of(globalLatestOffset),
+            PipeState.UP_TO_DATE
+        );
+    }
+
+    /**
+     * Tells the page cache the compaction epoch, so pages cached before another instance compacted are dropped
+     */
+    public void refreshPageCache() {
+        if (pageCache == null) {
+            return;
+        }
+        try (Connection connection = pipeDataSource.getConnection()) {
+            pageCache.compactionEpoch(getCompactionEpoch(connection));
+        } catch (SQLException exception) {
+            LOG.error("postgresql storage", "refresh page cache", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private long getCompactionEpoch(final Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(getCompactionEpochQuery());
+             ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Appends events committed since the last fill to the tail, up to the global latest offset.
+     *
+     * Starts the tail at the global latest offset on the first fill, and drops it when the compaction epoch changed.
+     */
+    public void fillTail() {
+        if (tail == null) {
+            return;
+        }
+
+        final long generation = tail.generation();
+        try (Connection connection = pipeDataSource.getConnection()) {
+            tail.compactionEpoch(getCompactionEpoch(connection));
+
+            final long globalLatestOffset = globalLatestOffsetCache.get(connection);
+            final long filledUpTo = tail.filledUpTo();
+            if (filledUpTo < 0) {
+                tail.start(globalLatestOffset);
+                return;
+            }
+            if (globalLatestOffset <= filledUpTo) {
+                return;
+            }
+
+            final List<EventTailBuffer.TailEvent> events = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(getTailEventsQuery())) {
+                statement.setLong(1, filledUpTo);
+                statement.setLong(2, globalLatestOffset);
+                statement.setInt(3, tail.maxEventsPerFill());
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        events.add(new EventTailBuffer.TailEvent(toStoredMessage(resultSet, false).toMessage(), resultSet.getLong("event_size")));
+                    }
+                }
+            }
+
+            // a fill cut short by max events carries on from its last event next time
+            final long upTo = events.size() < tail.maxEventsPerFill()
+                ? globalLatestOffset
+                : events.get(events.size() - 1).getMessage().getOffset();
+            tail.append(events, upTo, generation);
+            LOG.info("fill tail", "appended " + events.size() + " events up to offset " + upTo);
+        } catch (SQLException exception) {
+            LOG.error("postgresql storage", "fill tail", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Renders the wire JSON of events committed since the last fill, up to the global latest offset.
+     *
+     * Runs on the pipe data source, the single connection of the compaction data source is kept for compaction.
+     *
+     * @return number of events rendered
+     */
+    public int fillWireJson() {
+        if (wireJson == null) {
+            return 0;
+        }
+
+        try (Connection connection = pipeDataSource.getConnection()) {
+            final long globalLatestOffset = globalLatestOffsetCache.get(connection);
+            final int rendered = wireJson.fill(connection, globalLatestOffset);
+            LOG.info("fill wire json", "rendered " + rendered + " events up to offset " + wireJson.filledUpTo());
+            return rendered;
+        } catch (SQLException exception) {
+            LOG.error("postgresql storage", "fill wire json", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Builds blocks requested by reads of historical pages, and the blocks following them.
+     *
+     * Runs on the pipe data source, the single connection of the compaction data source is kept for compaction. Shares
+     * the maintenance lock so compaction does not delete events of blocks being built, skipped while compaction holds it.
+     *
+     * @param maxBlocks most blocks looked up or built in one run
+     * @return number of blocks built
+     */
+    public int materialiseBlocks(final int maxBlocks) {
+        if (blockStore == null) {
+            return 0;
+        }
+
+        int built = 0;
+        try (Connection connection = pipeDataSource.getConnection()) {
+            try {
+                connection.setAutoCommit(false);
+                connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                if (!attemptToShareLock(connection)) {
+                    LOG.info("materialise blocks", "didn't obtain lock");
+                    connection.rollback();
+                    return 0;
+                }
+
+                final long globalLatestOffset = globalLatestOffsetCache.get(connection);
+                final ZonedDateTime agedBefore = blockStore.agedBefore();
+
+                EventBlockStore.BlockKey key;
+                for (int attempts = 0; attempts < maxBlocks && (key = blockStore.nextRequested()) != null; attempts++) {
+                    final Optional<EventBlockStore.EventBlock> existing = blockStore.find(connection, key);
+                    if (existing.isPresent()) {
+                        blockStore.request(key.following(existing.get().getEndOffset()));
+                        continue;
+                    }
+
+                    final Optional<EventBlockStore.EventBlock> block = buildBlock(connection, key, globalLatestOffset, agedBefore);
+                    if (block.isPresent()) {
+                        blockStore.save(connection, block.get());
+                        blockStore.request(key.following(block.get().getEndOffset()));
+                        built++;
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new RuntimeException(e);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        LOG.info("materialise blocks", "built " + built + " blocks");
+        return built;
+    }
+
+    // only pages no later event can change: full and older than min age
+    private Optional<EventBlockStore.EventBlock> buildBlock(
+        final Connection connection,
+        final EventBlockStore.BlockKey key,
+        final long globalLatestOffset,
+        final ZonedDateTime agedBefore
+    ) throws SQLException {
+        final List<Long> routingIds = Collections.singletonList(key.getRoutingId());
+
+        try(PreparedStatement getOffsetsQuery = getOffsetsStatement(connection, key.getStartOffset(), globalLatestOffset, routingIds, key.typesList())) {
+            final TreeSet<Long> offsets = runGetOffsetQuery(getOffsetsQuery);
+            if (offsets.isEmpty()) {
+                return Optional.empty();
+            }
+
+            final List<StoredMessage> messages;
+            try(PreparedStatement getMessagesQuery = getMessagesStatement(connection, offsets)) {
+                messages = runMessagesQuery(getMessagesQuery);
+            }
+
+            if (!isStable(offsets.size(), messages, agedBefore)) {
+                return Optional.empty();
+            }
+            return Optional.of(EventBlockStore.toBlock(key, messages));
+        }
+    }
+
+    // no later event can change a page that is full and older than the given time
+    private boolean isStable(final int offsetCount, final List<StoredMessage> messages, final ZonedDateTime agedBefore) {
+        final boolean full = offsetCount >= limit || messages.size() < Math.min(offsetCount, limit);
+        return full
+            && !messages.isEmpty()
+            && messages.stream().allMatch(message -> message.isCreatedBefore(agedBefore));
+    }
+
     private TreeSet<Long> runGetOffsetQuery(PreparedStatement query) throws SQLException {
         final TreeSet<Long> orderedOffset = new TreeSet<>();
         long start = System.currentTimeMillis();
@@ -198,6 +518,9 @@ public class PostgresqlStorage implements CentralStorage {
     private void close(Connection connection) {
         try {
             if (!connection.isClosed()) {
+                if (admissionController != null) {
+                    admissionController.connectionReleased();
+                }
                 connection.close();
             }
         } catch (SQLException exception) {
@@ -231,6 +554,10 @@ public class PostgresqlStorage implements CentralStorage {
             return retryAfterWithRandomJitter();
         }
 
+        if (admissionController != null) {
+            return admissionController.calculateRetryAfter(AdmissionController.READ_ENDPOINT, retryAfter);
+        }
+
         if (queryTimeMs == 0) {
             return 1;
         }
@@ -316,22 +643,13 @@ public class PostgresqlStorage implements CentralStorage {
         return messageCountByType;
     }
 
-    private List<Message> runMessagesQuery(final PreparedStatement query) throws SQLException {
-        final List<Message> messages = new ArrayList<>();
+    private List<StoredMessage> runMessagesQuery(final PreparedStatement query) throws SQLException {
+        final List<StoredMessage> messages = new ArrayList<>();
         long start = System.currentTimeMillis();
 
         try (ResultSet rs = query.executeQuery()) {
             while (rs.next()) {
-                final String type = rs.getString("type");
-                final String key = rs.getString("msg_key");
-                final String contentType = rs.getString("content_type");
-                final Long offset = rs.getLong("msg_offset");
-                final ZonedDateTime created = ZonedDateTime.of(rs.getTimestamp("created_utc").toLocalDateTime(), ZoneId.of("UTC"));
-                final String data = rs.getString("data");
-                final Long clusterId = rs.getLong("cluster_id");
-                final Long routingId = rs.getLong("routing_id");
-
-                messages.add(new Message(type, key, contentType, offset, created, data, 0L, clusterId, routingId));
+                messages.add(toStoredMessage(rs, wireJson != null));
             }
         } finally {
             long end = System.currentTimeMillis();
@@ -340,6 +658,21 @@ public class PostgresqlStorage implements CentralStorage {
         return messages;
     }
 
+    // data is kept as the UTF-8 bytes the driver received, created as epoch micros
+    static StoredMessage toStoredMessage(final ResultSet rs, final boolean withWireJson) throws SQLException {
+        final String type = rs.getString("type");
+        final String key = rs.getString("msg_key");
+        final String contentType = rs.getString("content_type");
+        final long offset = rs.getLong("msg_offset");
+        final long createdMicros = StoredMessage.toEpochMicros(rs.getObject("created_utc", LocalDateTime.class));
+        final byte[] data = rs.getBytes("data");
+        final long clusterId = rs.getLong("cluster_id");
+        final long routingId = rs.getLong("routing_id");
+        final byte[] wireJson = withWireJson ? rs.getBytes("wire_json") : null;
+
+        return new StoredMessage(type, key, contentType, offset, createdMicros, data, 0L, clusterId, routingId, wireJson);
+    }
+
     private PreparedStatement getMessagesStatement(
             Connection connection,
         final TreeSet<Long> sortedOffsets) {
@@ -370,13 +703,20 @@ public class PostgresqlStorage implements CentralStorage {
                 if (attemptToLock(connection)) {
                     compacted = true;
                     LOG.info("compact and maintain", "obtained lock, compacting");
-                    compact(connection, compactDeletionsThreshold, compactDeletions);
+                    final int messagesCompacted = compact(connection, compactDeletionsThreshold, compactDeletions);
                     runVisibilityCheck(connection);
 
                     //start a new transaction for vacuuming
                     connection.commit();
                     connection.setAutoCommit(true);
 
+                    if (pageCache != null && messagesCompacted > 0) {
+                        pageCache.invalidateAll();
+                    }
+                    if (tail != null && messagesCompacted > 0) {
+                        tail.invalidateAll();
+                    }
+
                     vacuumAnalyseEvents(connection);
                 } else {
                     LOG.info("compact and maintain", "didn't obtain lock");
@@ -391,13 +731,29 @@ public class PostgresqlStorage implements CentralStorage {
         return compacted;
     }
 
-    private void compact(Connection connection, LocalDateTime compactDeletionsThreshold, boolean compactDeletions) throws SQLException {
+    private int compact(Connection connection, LocalDateTime compactDeletionsThreshold, boolean compactDeletions) throws SQLException {
         if (compactDeletions) {
             setTimeToLiveForDeletions(connection, compactDeletionsThreshold);
         }
         int messageCompacted = compactMessages(connection);
 
         LOG.info("compaction", "compacted " + messageCompacted + " rows");
+
+        // blocks hold the events as they were read, any of them may have been deleted
+        if (messageCompacted > 0) {
+            if (blockStore != null) {
+                blockStore.invalidateAll(connection);
+            }
+            // pages cached by other instances are invalidated once they see the epoch change
+            incrementCompactionEpoch(connection);
+        }
+        return messageCompacted;
+    }
+
+    private void incrementCompactionEpoch(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(getIncrementCompactionEpochQuery())) {
+            statement.executeUpdate();
+        }
     }
 
     private void setTimeToLiveForDeletions(Connection connection, LocalDateTime compactDeletionsThreshold) throws SQLException {
@@ -426,6 +782,19 @@ public class PostgresqlStorage implements CentralStorage {
         }
     }
 
+    private boolean attemptToShareLock(Connection connection) {
+        try (PreparedStatement statement = connection.prepareStatement(getSharedLockingQuery())) {
+            return statement.execute();
+        } catch (SQLException e) {
+            if(e.getSQLState().equals("55P03")) {
+                //lock was not available
+                return false;
+            } else {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     private void vacuumAnalyseEvents(Connection connection) {
         try (PreparedStatement statement = connection.prepareStatement(getVacuumAnalyseQuery())) {
             statement.executeUpdate();
@@ -436,13 +805,21 @@ public class PostgresqlStorage implements CentralStorage {
     }
 
     private String getMessagesByOffset(long maxBatchSize) {
+        final String columns = "type, msg_key, content_type, msg_offset, created_utc, data, cluster_id, routing_id" + (wireJson != null ? ", wire_json" : "");
         return
-            "SELECT type, msg_key, content_type, msg_offset, created_utc, data, cluster_id, routing_id FROM ( " +
-                "SELECT type, msg_key, content_type, msg_offset, created_utc, data, cluster_id, routing_id, SUM(event_size) OVER (ORDER BY msg_offset ASC) AS running_size " +
+            "SELECT " + columns + " FROM ( " +
+                "SELECT " + columns + ", SUM(event_size) OVER (ORDER BY msg_offset ASC) AS running_size " +
                 "FROM EVENTS WHERE msg_offset=ANY(?)) " +
             " aggregatedEvents WHERE running_size <= " + maxBatchSize;
     }
 
+    private static String getTailEventsQuery() {
+        return
+            "SELECT type, msg_key, content_type, msg_offset, created_utc, data, cluster_id, routing_id, event_size FROM events " +
+            "WHERE msg_offset > ? AND msg_offset <= ? " +
+            "ORDER BY msg_offset LIMIT ?;";
+    }
+
     private String getOffsetsWithoutTypes() {
         return
             "SELECT msg_offset FROM unnest(?) as cid, lateral( " +
@@ -504,6 +881,20 @@ public class PostgresqlStorage implements CentralStorage {
         return "SELECT * from locks where name='maintenance_lock' FOR UPDATE NOWAIT;";
     }
 
+    private static String getCompactionEpochQuery() {
+        return "SELECT value FROM offsets WHERE name='compaction_epoch';";
+    }
+
+    private static String getIncrementCompactionEpochQuery() {
+        return
+            "INSERT INTO offsets (name, value) VALUES ('compaction_epoch', 1) " +
+            "ON CONFLICT (name) DO UPDATE SET value = offsets.value + 1;";
+    }
+
+    private String getSharedLockingQuery() {
+        return "SELECT * from locks where name='maintenance_lock' FOR SHARE NOWAIT;";
+    }
+
     private static String getMessageCountByTypeQuery() {
         return "SELECT type, COUNT(type) FROM events GROUP BY type;";
     }
@@ -0,0 +1,96 @@
+package com.tesco.aqueduct.pipe.storage
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class AdmissionControllerSpec extends Specification {
+
+    def meterRegistry = new SimpleMeterRegistry()
+
+    @Unroll
+    def "retry after is #result when read latency is #latencyMs and connection wait is #waitMs"() {
+        given:
+        def controller = new AdmissionController(3000, 60, 80, 1, 1, 100, meterRegistry)
+
+        and:
+        controller.recordLatency(AdmissionController.READ_ENDPOINT, latencyMs)
+        controller.recordConnectionWait(waitMs)
+
+        expect:
+        controller.calculateRetryAfter(AdmissionController.READ_ENDPOINT, 10000) == result
+
+        where:
+        latencyMs | waitMs | result
+        100       | 0      | 5000
+        50        | 50     | 5000
+        10        | 0      | 500
+        0         | 0      | 1
+        300       | 0      | 10000
+    }
+
+    def "latency is smoothed per endpoint"() {
+        given:
+        def controller = new AdmissionController(3000, 60, 80, 1, 0.5, 100, meterRegistry)
+
+        when:
+        controller.recordLatency("read", 100)
+        controller.recordLatency("read", 200)
+        controller.recordLatency("other", 10)
+
+        then:
+        controller.latency("read") == 150
+        controller.latency("other") == 10
+        controller.latency("unknown") == 0
+    }
+
+    def "fast lane capacity shrinks with pool utilisation"() {
+        given:
+        def controller = new AdmissionController(3000, 10, 80, 1, 1, 100, meterRegistry)
+
+        when:
+        5.times { controller.connectionAcquired() }
+
+        then:
+        controller.calculateFastLaneCapacity() == 40
+
+        when:
+        5.times { controller.connectionAcquired() }
+
+        then:
+        controller.calculateFastLaneCapacity() == 1
+
+        when:
+        10.times { controller.connectionReleased() }
+
+        then:
+        controller.calculateFastLaneCapacity() == 80
+    }
+
+    def "fast lane capacity is halved while reads queue for connections"() {
+        given:
+        def controller = new AdmissionController(3000, 10, 80, 1, 1, 100, meterRegistry)
+
+        when:
+        controller.recordConnectionWait(500)
+
+        then:
+        controller.calculateFastLaneCapacity() == 40
+    }
+
+    def "controller state is exposed as metrics"() {
+        given:
+        def controller = new AdmissionController(3000, 10, 80, 1, 1, 100, meterRegistry)
+
+        when:
+        controller.connectionAcquired()
+        controller.recordConnectionWait(20)
+        controller.recordLatency(AdmissionController.READ_ENDPOINT, 30)
+
+        then:
+        meterRegistry.get("pipe.admission.activeConnections").gauge().value() == 1
+        meterRegistry.get("pipe.admission.connectionWait").gauge().value() == 20
+        meterRegistry.get("pipe.admission.latency").tag("endpoint", "read").gauge().value() == 30
+        meterRegistry.get("pipe.admission.utilisation").gauge().value() == 0.1
+    }
+}
@@ -0,0 +1,157 @@
+package com.tesco.aqueduct.pipe.storage
+
+import com.tesco.aqueduct.pipe.api.Message
+import spock.lang.Specification
+
+import java.time.ZonedDateTime
+
+class EventTailBufferSpec extends Specification {
+
+    static final long MAX_BATCH_SIZE = 1000
+
+    def created = ZonedDateTime.now()
+
+    EventTailBuffer tail
+
+    def setup() {
+        tail = new EventTailBuffer(3, 100, 1000)
+        tail.compactionEpoch(0)
+        tail.start(10)
+    }
+
+    def "events of the read routing ids are returned in offset order"() {
+        given:
+        append([event(11, 1), event(12, 2), event(13, 1), event(14, 3)], 14)
+
+        expect:
+        offsets(tail.read([1L, 2L], null, 11, 14, 10, MAX_BATCH_SIZE)) == [11L, 12L, 13L]
+        offsets(tail.read([1L, 2L], null, 13, 14, 10, MAX_BATCH_SIZE)) == [13L]
+    }
+
+    def "events are filtered by type"() {
+        given:
+        append([event(11, 1, "a"), event(12, 1, "b"), event(13, 1, "c")], 13)
+
+        expect:
+        offsets(tail.read([1L], ["a", "c"], 11, 13, 10, MAX_BATCH_SIZE)) == [11L, 13L]
+        offsets(tail.read([1L], [], 11, 13, 10, MAX_BATCH_SIZE)) == [11L, 12L, 13L]
+    }
+
+    def "events are read up to the end offset"() {
+        given:
+        append([event(11, 1), event(12, 1)], 12)
+
+        expect:
+        offsets(tail.read([1L], null, 11, 11, 10, MAX_BATCH_SIZE)) == [11L]
+    }
+
+    def "page is cut at the limit and once its running size goes over max batch size"() {
+        given:
+        append([event(11, 1, "type", 40), event(12, 2, "type", 40), event(13, 1, "type", 40)], 13)
+
+        expect:
+        offsets(tail.read([1L, 2L], null, 11, 13, 2, MAX_BATCH_SIZE)) == [11L, 12L]
+        offsets(tail.read([1L, 2L], null, 11, 13, 10, 80)) == [11L, 12L]
+        offsets(tail.read([1L, 2L], null, 11, 13, 10, 79)) == [11L]
+    }
+
+    def "reads from before the start of the tail are not served"() {
+        given:
+        append([event(11, 1)], 11)
+
+        expect:
+        !tail.read([1L], null, 10, 11, 10, MAX_BATCH_SIZE).isPresent()
+        tail.read([1L], null, 11, 11, 10, MAX_BATCH_SIZE).isPresent()
+    }
+
+    def "reads beyond what the tail is filled up to are not served"() {
+        given:
+        append([event(11, 1)], 12)
+
+        expect:
+        offsets(tail.read([1L], null, 11, 12, 10, MAX_BATCH_SIZE)) == [11L]
+        !tail.read([1L], null, 11, 13, 10, MAX_BATCH_SIZE).isPresent()
+    }
+
+    def "routing ids without events in the tail read an empty page"() {
+        given:
+        append([event(11, 1)], 11)
+
+        expect:
+        tail.read([2L], null, 11, 11, 10, MAX_BATCH_SIZE).get().isEmpty()
+    }
+
+    def "oldest events of a routing id are dropped beyond max messages"() {
+        given:
+        append((11..15).collect { event(it, 1) } + [event(16, 2)], 16)
+
+        expect: "reads from dropped events are not served"
+        !tail.read([1L], null, 12, 16, 10, MAX_BATCH_SIZE).isPresent()
+        offsets(tail.read([1L], null, 13, 16, 10, MAX_BATCH_SIZE)) == [13L, 14L, 15L]
+
+        and: "other routing ids keep their events"
+        offsets(tail.read([2L], null, 11, 16, 10, MAX_BATCH_SIZE)) == [16L]
+    }
+
+    def "oldest events of a routing id are dropped beyond max bytes"() {
+        given:
+        append([event(11, 1, "type", 60), event(12, 1, "type", 60)], 12)
+
+        expect:
+        !tail.read([1L], null, 11, 12, 10, MAX_BATCH_SIZE).isPresent()
+        offsets(tail.read([1L], null, 12, 12, 10, MAX_BATCH_SIZE)) == [12L]
+    }
+
+    def "events fetched before the tail was invalidated are not appended"() {
+        given:
+        def generation = tail.generation()
+
+        when:
+        tail.invalidateAll()
+        tail.append([event(11, 1)], 11, generation)
+
+        then:
+        tail.size() == 0
+        tail.filledUpTo() == 10
+    }
+
+    def "events are dropped when the compaction epoch changes"() {
+        given:
+        append([event(11, 1)], 11)
+
+        when:
+        tail.compactionEpoch(0)
+
+        then:
+        tail.size() == 1
+
+        when:
+        tail.compactionEpoch(1)
+
+        then:
+        tail.size() == 0
+        !tail.read([1L], null, 11, 11, 10, MAX_BATCH_SIZE).isPresent()
+        tail.read([1L], null, 12, 11, 10, MAX_BATCH_SIZE).get().isEmpty()
+    }
+
+    def "nothing is served until the tail is started"() {
+        given:
+        def notStarted = new EventTailBuffer(3, 100, 1000)
+
+        expect:
+        notStarted.filledUpTo() == -1
+        !notStarted.read([1L], null, 0, 0, 10, MAX_BATCH_SIZE).isPresent()
+    }
+
+    private void append(List<EventTailBuffer.TailEvent> events, long upTo) {
+        tail.append(events, upTo, tail.generation())
+    }
+
+    private EventTailBuffer.TailEvent event(long offset, long routingId, String type = "type", long size = 1) {
+        new EventTailBuffer.TailEvent(new Message(type, "key", "contentType", offset, created, "data", 0L, routingId, routingId), size)
+    }
+
+    private static List<Long> offsets(Optional<List<Message>> page) {
+        page.get()*.offset
+    }
+}
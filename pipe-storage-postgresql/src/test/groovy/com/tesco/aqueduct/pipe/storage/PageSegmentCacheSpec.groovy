@@ -0,0 +1,184 @@
+package com.tesco.aqueduct.pipe.storage
+
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.time.Duration
+import java.time.ZonedDateTime
+
+class PageSegmentCacheSpec extends Specification {
+
+    def created = ZonedDateTime.now().minusDays(1)
+
+    Path directory
+    PageSegmentCache cache
+
+    def setup() {
+        directory = Files.createTempDirectory("pipe-segments")
+        cache = new PageSegmentCache(directory, 100, 250, Duration.ofHours(6))
+        cache.compactionEpoch(0)
+    }
+
+    def cleanup() {
+        cache.close()
+        directory.toFile().deleteDir()
+    }
+
+    def "cached page is read back from its segment"() {
+        given:
+        put(key(0), "first page".bytes)
+        put(key(10), "second page".bytes)
+
+        expect:
+        read(key(0)) == "first page".bytes
+        read(key(10)) == "second page".bytes
+        !cache.find(key(20)).isPresent()
+    }
+
+    def "pages are appended to segments of up to segment size"() {
+        when:
+        4.times { put(key(it), new byte[40]) }
+
+        then:
+        segmentFiles().size() == 2
+        cache.size() == 160
+    }
+
+    def "least recently read segment is evicted beyond max size"() {
+        given: "two full segments"
+        4.times { put(key(it), new byte[50]) }
+
+        and: "pages of the first segment are read"
+        cache.find(key(0))
+
+        when: "a third segment goes beyond max size"
+        put(key(4), new byte[60])
+
+        then: "the second segment is evicted"
+        cache.find(key(0)).isPresent()
+        !cache.find(key(2)).isPresent()
+        !cache.find(key(3)).isPresent()
+        cache.find(key(4)).isPresent()
+        cache.size() == 160
+        segmentFiles().size() == 2
+    }
+
+    def "pages read before the cache was invalidated are not cached"() {
+        given:
+        def generation = cache.generation()
+
+        when:
+        cache.invalidateAll()
+        cache.put(key(0), generation, "page".bytes, 1, created, false)
+
+        then:
+        cache.pageCount() == 0
+    }
+
+    def "pages are only cached once the compaction epoch is known"() {
+        given:
+        def cache = new PageSegmentCache(Files.createTempDirectory("pipe-segments"), 100, 250, Duration.ofHours(6))
+
+        when:
+        cache.put(key(0), cache.generation(), "page".bytes, 1, created, false)
+
+        then:
+        cache.pageCount() == 0
+
+        cleanup:
+        cache.close()
+    }
+
+    def "pages are dropped when the compaction epoch changes"() {
+        given:
+        put(key(0), "page".bytes)
+
+        when:
+        cache.compactionEpoch(0)
+
+        then:
+        cache.pageCount() == 1
+
+        when:
+        cache.compactionEpoch(1)
+
+        then:
+        cache.pageCount() == 0
+        segmentFiles().isEmpty()
+    }
+
+    def "a page being sent when its segment is evicted keeps being readable"() {
+        given:
+        put(key(0), "page".bytes)
+        def page = cache.find(key(0)).get()
+        def channel = FileChannel.open(page.path, StandardOpenOption.READ)
+
+        when:
+        cache.invalidateAll()
+
+        then:
+        readFully(channel, page) == "page".bytes
+        !Files.exists(page.path)
+    }
+
+    def "pages whose segment file is missing are not found"() {
+        given:
+        put(key(0), "page".bytes)
+        put(key(1), "page".bytes)
+        Files.delete(cache.find(key(0)).get().path)
+
+        expect:
+        !cache.find(key(0)).isPresent()
+        !cache.find(key(1)).isPresent()
+        cache.pageCount() == 0
+        cache.size() == 0
+    }
+
+    def "segments left by a previous run are deleted on start"() {
+        given:
+        put(key(0), "page".bytes)
+
+        when:
+        new PageSegmentCache(directory, 100, 250, Duration.ofHours(6))
+
+        then:
+        segmentFiles().isEmpty()
+    }
+
+    def "keys do not depend on the order of routing ids and types"() {
+        expect:
+        PageSegmentCache.PageKey.of([2L, 1L], ["b", "a"], 5) == PageSegmentCache.PageKey.of([1L, 2L], ["a", "b"], 5)
+        PageSegmentCache.PageKey.of([1L], null, 5) == PageSegmentCache.PageKey.of([1L], [], 5)
+    }
+
+    private static PageSegmentCache.PageKey key(long offset) {
+        PageSegmentCache.PageKey.of([1L], ["type"], offset)
+    }
+
+    private void put(PageSegmentCache.PageKey key, byte[] page) {
+        cache.put(key, cache.generation(), page, 1, created, false)
+    }
+
+    private byte[] read(PageSegmentCache.PageKey key) {
+        def page = cache.find(key).get()
+        readFully(FileChannel.open(page.path, StandardOpenOption.READ), page)
+    }
+
+    private static byte[] readFully(FileChannel opened, PageSegmentCache.CachedPage page) {
+        def buffer = ByteBuffer.allocate((int) page.length)
+        opened.withCloseable { channel ->
+            while (buffer.hasRemaining()) {
+                channel.read(buffer, page.position + buffer.position())
+            }
+        }
+        buffer.array()
+    }
+
+    private List<Path> segmentFiles() {
+        Files.list(directory).withCloseable { it.toList() }
+    }
+}
@@ -21,7 +21,7 @@ class PostgresqlStorageSpec extends Specification {
         def clusterDBPoolSize = 60
 
         and:
-        def storage = new PostgresqlStorage(Mock(DataSource), Mock(DataSource), 20, retryAfter, 2, new GlobalLatestOffsetCache(), readersNodeCount, clusterDBPoolSize, 4, clusterStorage)
+        def storage = storageBuilder().nodeCount(readersNodeCount).clusterDBPoolSize(clusterDBPoolSize).build()
 
         expect:
         storage.calculateRetryAfter(timeOfQueryMs, noOfMessages) == result
@@ -43,7 +43,7 @@ class PostgresqlStorageSpec extends Specification {
         def clusterDBPoolSize = 60
 
         and:
-        def storage = new PostgresqlStorage(Mock(DataSource), Mock(DataSource), 20, retryAfter, 2, new GlobalLatestOffsetCache(), readersNodeCount, clusterDBPoolSize, 4, clusterStorage)
+        def storage = storageBuilder().nodeCount(readersNodeCount).clusterDBPoolSize(clusterDBPoolSize).build()
 
         expect:
         storage.calculateRetryAfter(timeOfQueryMs, noOfMessages) >= result
@@ -56,10 +56,32 @@ class PostgresqlStorageSpec extends Specification {
         1000          | 10000        | retryAfter
     }
 
+    def "connections failing to start a transaction are closed and not counted as in use"() {
+        given:
+        def dataSource = Mock(DataSource)
+        def admissionController = Mock(AdmissionController)
+        def storage = storageBuilder(dataSource).admissionController(admissionController).build()
+
+        and:
+        def connection = Mock(Connection)
+        dataSource.getConnection() >> connection
+        connection.setTransactionIsolation(_) >> { throw new SQLException() }
+
+        when:
+        storage.read([], 0, "someLocationUuid")
+
+        then:
+        def exception = thrown(RuntimeException)
+        exception.getCause() instanceof SQLException
+        1 * connection.close()
+        0 * admissionController.connectionAcquired()
+        0 * admissionController.connectionReleased()
+    }
+
     def "Exception thrown during connection close is propagated upstream"() {
         given:
         def dataSource = Mock(DataSource)
-        def storage = new PostgresqlStorage(dataSource, Mock(DataSource), 20, retryAfter, 2, new GlobalLatestOffsetCache(), 1000, 4, 4, clusterStorage)
+        def storage = storageBuilder(dataSource).build()
 
         and:
         def connection = Mock(Connection)
@@ -78,4 +100,18 @@ class PostgresqlStorageSpec extends Specification {
         def exception = thrown(RuntimeException)
         exception.getCause() instanceof SQLException
     }
+
+    PostgresqlStorage.PostgresqlStorageBuilder storageBuilder(DataSource dataSource = Mock(DataSource)) {
+        PostgresqlStorage.builder()
+            .pipeDataSource(dataSource)
+            .compactionDataSource(Mock(DataSource))
+            .limit(20)
+            .retryAfter(retryAfter)
+            .maxBatchSize(2)
+            .globalLatestOffsetCache(new GlobalLatestOffsetCache())
+            .nodeCount(1000)
+            .clusterDBPoolSize(4)
+            .workMemMb(4)
+            .clusterStorage(clusterStorage)
+    }
 }
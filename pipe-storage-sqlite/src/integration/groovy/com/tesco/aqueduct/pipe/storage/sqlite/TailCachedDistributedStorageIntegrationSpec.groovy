@@ -0,0 +1,60 @@
+package com.tesco.aqueduct.pipe.storage.sqlite
+
+import com.tesco.aqueduct.pipe.api.*
+import groovy.sql.Sql
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.sqlite.SQLiteDataSource
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+
+import static com.tesco.aqueduct.pipe.api.OffsetName.GLOBAL_LATEST_OFFSET
+
+class TailCachedDistributedStorageIntegrationSpec extends Specification {
+    static final def CONNECTION_URL = "jdbc:sqlite:aqueduct-pipe.db"
+    static final def LIMIT = 3
+    static final long BATCH_SIZE = 1000
+
+    SQLiteStorage sqliteStorage
+    TailCachedDistributedStorage cached
+
+    def setup() {
+        def sql = Sql.newInstance(CONNECTION_URL)
+        sql.execute("DROP TABLE IF EXISTS EVENT;")
+        sql.execute("DROP TABLE IF EXISTS OFFSET;")
+        sql.execute("DROP TABLE IF EXISTS PIPE_STATE;")
+
+        def dataSource = new SQLiteDataSource()
+        dataSource.setUrl(CONNECTION_URL)
+        sqliteStorage = new SQLiteStorage(dataSource, LIMIT, 10, BATCH_SIZE)
+        cached = new TailCachedDistributedStorage(sqliteStorage, LIMIT, 10, BATCH_SIZE, 100, new SimpleMeterRegistry())
+    }
+
+    @Unroll
+    def "pages answered from memory are the pages read from SQLite"() {
+        given: "messages written through the cache"
+        cached.write(new PipeEntity(
+            (1..8).collect { message(it, it % 2 ? "odd" : "even", "x" * (it * 100)) },
+            [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(8))],
+            PipeState.UP_TO_DATE
+        ))
+
+        expect:
+        cached.read(types, offset, "locationUuid") == sqliteStorage.read(types, offset, "locationUuid")
+
+        where:
+        types     | offset
+        null      | 1
+        null      | 5
+        ["odd"]   | 2
+        ["even"]  | 1
+        ["other"] | 1
+        null      | 9
+    }
+
+    def message(long offset, String type, String data) {
+        new Message(type, "key", "text/plain", offset, ZonedDateTime.now(ZoneOffset.ofHours(2)), data)
+    }
+}
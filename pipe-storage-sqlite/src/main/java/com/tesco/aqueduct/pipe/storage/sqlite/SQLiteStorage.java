@@ -88,13 +88,13 @@ public class SQLiteStorage implements DistributedStorage {
 
             OptionalLong globalLatestOffset = getOffset(connection, GLOBAL_LATEST_OFFSET);
             PipeState pipeState = getPipeState(connection);
-            List<Message> retrievedMessages = getMessages(connection, types, offset);
+            List<StoredMessage> retrievedMessages = getMessages(connection, types, offset);
 
             if (retrievedMessages.isEmpty() && pipeState.equals(PipeState.UP_TO_DATE) && globalLatestOffset.isPresent()) {
                 DEBUG_LOGGER.info("Read from: " + offset + ", Global Latest Offset: " + globalLatestOffset.getAsLong() + ", PipeState: UP_TO_DATE, Messages: [ ]");
             }
 
-            return new MessageResults(retrievedMessages, calculateRetryAfter(retrievedMessages.size()), globalLatestOffset, pipeState);
+            return new StoredMessageResults(retrievedMessages, calculateRetryAfter(retrievedMessages.size()), globalLatestOffset, pipeState);
         });
     }
 
@@ -352,8 +352,8 @@ public class SQLiteStorage implements DistributedStorage {
         corrupt=true;
     }
 
-    private List<Message> getMessages(Connection connection, List<String> types, long offset) throws SQLException {
-        List<Message> retrievedMessages = new ArrayList<>();
+    private List<StoredMessage> getMessages(Connection connection, List<String> types, long offset) throws SQLException {
+        List<StoredMessage> retrievedMessages = new ArrayList<>();
         int typesCount = types == null ? 0 : types.size();
 
         try (PreparedStatement statement = connection
@@ -392,24 +392,19 @@ public class SQLiteStorage implements DistributedStorage {
         return messageCount > 0 ? 0 : retryAfterMs;
     }
 
-    private Message mapRetrievedMessageFromResultSet(final ResultSet resultSet) throws SQLException {
-        Message retrievedMessage;
-        final ZonedDateTime time = ZonedDateTime.of(
-                resultSet.getTimestamp("created_utc").toLocalDateTime(),
-                ZoneId.of("UTC")
-        );
-
-        retrievedMessage = new Message(
+    // data is kept as the UTF-8 bytes of the column, created as epoch micros
+    private StoredMessage mapRetrievedMessageFromResultSet(final ResultSet resultSet) throws SQLException {
+        return new StoredMessage(
                 resultSet.getString("type"),
                 resultSet.getString("msg_key"),
                 resultSet.getString("content_type"),
                 resultSet.getLong("msg_offset"),
-                time,
-                resultSet.getString("data"),
-                resultSet.getLong("event_size")
+                StoredMessage.toEpochMicros(resultSet.getTimestamp("created_utc").toLocalDateTime()),
+                resultSet.getBytes("data"),
+                resultSet.getLong("event_size"),
+                null,
+                null
         );
-
-        return retrievedMessage;
     }
 
     private OptionalLong getOffset(Connection connection, OffsetName offsetName) throws SQLException {
@@ -0,0 +1,276 @@
+package com.tesco.aqueduct.pipe.storage.sqlite;
+
+import com.tesco.aqueduct.pipe.api.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the last messages written to the storage in memory, so children polling a till for the latest messages are
+ * answered without querying SQLite.
+ *
+ * Messages are cached once the storage has written them, in offset order, in a ring of up to capacity messages. As all
+ * writes go through here, the ring holds every stored message from the offset after the last one dropped. Reads from
+ * within that window are answered from memory, paged like {@link SQLiteStorage} pages them with the same limit,
+ * retry after and max batch size. Other reads go to the storage.
+ *
+ * Compaction of the storage outside of this class has to be followed by {@link #invalidate()}.
+ */
+public class TailCachedDistributedStorage implements DistributedStorage {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private final DistributedStorage storage;
+    private final int limit;
+    private final int retryAfterMs;
+    private final long maxBatchSize;
+    private final Message[] ring;
+    private final Counter hits;
+    private final Counter misses;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private int first;
+    private int count;
+    // offset before the first one cached, -1 until a message is written
+    private long evictedUpTo = -1;
+    private long writtenUpTo = -1;
+    // as last written, read back by the storage once
+    private OptionalLong globalLatestOffset;
+    private PipeState pipeState;
+
+    public TailCachedDistributedStorage(
+        final DistributedStorage storage,
+        final int limit,
+        final int retryAfterMs,
+        final long maxBatchSize,
+        final int capacity,
+        final MeterRegistry meterRegistry
+    ) {
+        this.storage = storage;
+        this.limit = limit;
+        this.retryAfterMs = retryAfterMs;
+        this.maxBatchSize = maxBatchSize + (((long) Message.MAX_OVERHEAD_SIZE) * limit);
+        this.ring = new Message[capacity];
+        hits = meterRegistry.counter("pipe.storage.tailCache.hit");
+        misses = meterRegistry.counter("pipe.storage.tailCache.miss");
+        meterRegistry.gauge("pipe.storage.tailCache.hitRatio", this, TailCachedDistributedStorage::hitRatio);
+
+        globalLatestOffset = storage.getOffset(OffsetName.GLOBAL_LATEST_OFFSET);
+        pipeState = storage.getPipeState();
+    }
+
+    @Override
+    public MessageResults read(final List<String> types, final long offset, final String locationUuid) {
+        final Optional<MessageResults> cached = readCached(types, offset);
+        if (cached.isPresent()) {
+            hits.increment();
+            return cached.get();
+        }
+
+        misses.increment();
+        return storage.read(types, offset, locationUuid);
+    }
+
+    @Override
+    public OptionalLong getOffset(final OffsetName offsetName) {
+        return storage.getOffset(offsetName);
+    }
+
+    @Override
+    public PipeState getPipeState() {
+        return storage.getPipeState();
+    }
+
+    @Override
+    public long getOffsetConsistencySum(final long offset, final List<String> targetUuids) {
+        return storage.getOffsetConsistencySum(offset, targetUuids);
+    }
+
+    @Override
+    public void runVisibilityCheck() {
+        storage.runVisibilityCheck();
+    }
+
+    @Override
+    public Long getMaxOffsetForConsumers(final List<String> types) {
+        return storage.getMaxOffsetForConsumers(types);
+    }
+
+    @Override
+    public void write(final Iterable<Message> messages) {
+        storage.write(messages);
+        update(messages, null, null);
+    }
+
+    @Override
+    public void write(final PipeEntity pipeEntity) {
+        storage.write(pipeEntity);
+        update(pipeEntity.getMessages(), pipeEntity.getOffsets(), pipeEntity.getPipeState());
+    }
+
+    @Override
+    public void write(final Message message) {
+        storage.write(message);
+        update(Collections.singletonList(message), null, null);
+    }
+
+    @Override
+    public void write(final OffsetEntity offset) {
+        storage.write(offset);
+        update(null, Collections.singletonList(offset), null);
+    }
+
+    @Override
+    public void write(final PipeState pipeState) {
+        storage.write(pipeState);
+        update(null, null, pipeState);
+    }
+
+    @Override
+    public void deleteAll() {
+        lock.writeLock().lock();
+        try {
+            storage.deleteAll();
+            clear();
+            evictedUpTo = -1;
+            writtenUpTo = -1;
+            globalLatestOffset = OptionalLong.empty();
+            pipeState = PipeState.UNKNOWN;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops cached messages, reads are answered from memory again from the next message written
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            clear();
+            evictedUpTo = writtenUpTo;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Optional<MessageResults> readCached(final List<String> types, final long offset) {
+        lock.readLock().lock();
+        try {
+            if (writtenUpTo < 0 || offset <= evictedUpTo) {
+                return Optional.empty();
+            }
+
+            final Set<String> typeSet = types == null || types.isEmpty() ? null : new HashSet<>(types);
+            final List<Message> messages = new ArrayList<>();
+            long runningSize = 0;
+            for (int i = indexOf(offset); i < count && messages.size() < limit; i++) {
+                final Message message = get(i);
+                if (typeSet == null || typeSet.contains(message.getType())) {
+                    runningSize += message.getSize();
+                    if (runningSize >= maxBatchSize) {
+                        break;
+                    }
+                    messages.add(message);
+                }
+            }
+
+            return Optional.of(new MessageResults(
+                messages, messages.isEmpty() ? retryAfterMs : 0, globalLatestOffset, pipeState
+            ));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void update(final Iterable<Message> messages, final List<OffsetEntity> offsets, final PipeState state) {
+        lock.writeLock().lock();
+        try {
+            if (messages != null) {
+                messages.forEach(this::append);
+            }
+            if (offsets != null) {
+                offsets.stream()
+                    .filter(offset -> offset.getName() == OffsetName.GLOBAL_LATEST_OFFSET)
+                    .forEach(offset -> globalLatestOffset = offset.getValue());
+            }
+            if (state != null) {
+                pipeState = state;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(final Message message) {
+        if (writtenUpTo < 0) {
+            // storage holds no message after the ones before the first written here
+            evictedUpTo = message.getOffset() - 1;
+        }
+
+        if (count == ring.length) {
+            evictedUpTo = get(0).getOffset();
+            ring[first] = null;
+            first = (first + 1) % ring.length;
+            count--;
+        }
+        ring[(first + count) % ring.length] = asStored(message);
+        count++;
+        writtenUpTo = message.getOffset();
+    }
+
+    // the message as SQLiteStorage reads it back: created in UTC to the millisecond, sized by its JSON
+    private static Message asStored(final Message message) {
+        try {
+            return new Message(
+                message.getType(),
+                message.getKey(),
+                message.getContentType(),
+                message.getOffset(),
+                message.getCreated().withZoneSameInstant(UTC).truncatedTo(ChronoUnit.MILLIS),
+                message.getData(),
+                (long) JsonHelper.toJson(message).length()
+            );
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    // index of the first cached message at or after the offset
+    private int indexOf(final long offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (get(middle).getOffset() < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private Message get(final int index) {
+        return ring[(first + index) % ring.length];
+    }
+
+    private void clear() {
+        Arrays.fill(ring, null);
+        first = 0;
+        count = 0;
+    }
+
+    private double hitRatio() {
+        final double reads = hits.count() + misses.count();
+        return reads == 0 ? 0 : hits.count() / reads;
+    }
+}
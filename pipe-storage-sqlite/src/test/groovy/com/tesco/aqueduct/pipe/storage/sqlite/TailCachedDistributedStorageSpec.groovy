@@ -0,0 +1,174 @@
+package com.tesco.aqueduct.pipe.storage.sqlite
+
+import com.tesco.aqueduct.pipe.api.*
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+import java.time.ZoneId
+import java.time.ZonedDateTime
+
+import static com.tesco.aqueduct.pipe.api.OffsetName.GLOBAL_LATEST_OFFSET
+
+class TailCachedDistributedStorageSpec extends Specification {
+
+    private static final String LOCATION_UUID = "locationUuid"
+    private static final int RETRY_AFTER = 10
+
+    def storage = Mock(DistributedStorage) {
+        getOffset(GLOBAL_LATEST_OFFSET) >> OptionalLong.of(5)
+        getPipeState() >> PipeState.UP_TO_DATE
+    }
+    def meterRegistry = new SimpleMeterRegistry()
+
+    def "reads within the cached window are answered from memory"() {
+        given:
+        def cached = tailCache(10)
+        cached.write(pipeEntity([message(6), message(7), message(8)], 8, PipeState.UP_TO_DATE))
+
+        when:
+        def results = cached.read(null, 7, LOCATION_UUID)
+
+        then:
+        results.messages*.offset == [7L, 8L]
+        results.globalLatestOffset == OptionalLong.of(8)
+        results.pipeState == PipeState.UP_TO_DATE
+        results.retryAfterMs == 0
+        0 * storage.read(*_)
+    }
+
+    def "read past the last message written is an empty page"() {
+        given:
+        def cached = tailCache(10)
+        cached.write(pipeEntity([message(6)], 6, PipeState.UP_TO_DATE))
+
+        when:
+        def results = cached.read(null, 7, LOCATION_UUID)
+
+        then:
+        results.messages.isEmpty()
+        results.retryAfterMs == RETRY_AFTER
+        0 * storage.read(*_)
+    }
+
+    def "reads from before the cached window go to the storage"() {
+        given:
+        def cached = tailCache(2)
+        cached.write(pipeEntity([message(6), message(7), message(8)], 8, PipeState.UP_TO_DATE))
+        def fromStorage = new MessageResults([], 0, OptionalLong.of(8), PipeState.UP_TO_DATE)
+
+        when:
+        def results = cached.read(null, 6, LOCATION_UUID)
+
+        then:
+        1 * storage.read(null, 6, LOCATION_UUID) >> fromStorage
+        results == fromStorage
+
+        when:
+        results = cached.read(null, 7, LOCATION_UUID)
+
+        then:
+        0 * storage.read(*_)
+        results.messages*.offset == [7L, 8L]
+    }
+
+    def "reads go to the storage until a message is written"() {
+        given:
+        def cached = tailCache(10)
+
+        when:
+        cached.read(null, 1, LOCATION_UUID)
+
+        then:
+        1 * storage.read(null, 1, LOCATION_UUID)
+    }
+
+    def "messages are filtered by type and paged by limit"() {
+        given:
+        def cached = tailCache(10, 2)
+        cached.write(pipeEntity([message(6, "a"), message(7, "b"), message(8, "a"), message(9, "a")], 9, PipeState.UP_TO_DATE))
+
+        expect:
+        cached.read(["a"], 6, LOCATION_UUID).messages*.offset == [6L, 8L]
+        cached.read([], 7, LOCATION_UUID).messages*.offset == [7L, 8L]
+    }
+
+    def "messages are returned as the storage reads them back"() {
+        given:
+        def cached = tailCache(10)
+        def written = new Message("type", "key", "text/plain", 6, ZonedDateTime.parse("2020-01-01T10:00:00.123456+01:00"), "data")
+        cached.write(pipeEntity([written], 6, PipeState.UP_TO_DATE))
+
+        when:
+        def read = cached.read(null, 6, LOCATION_UUID).messages[0]
+
+        then:
+        read.created == ZonedDateTime.of(2020, 1, 1, 9, 0, 0, 123_000_000, ZoneId.of("UTC"))
+        read.size == JsonHelper.toJson(written).length()
+    }
+
+    def "messages are not cached when the storage fails to write them"() {
+        given:
+        def cached = tailCache(10)
+        storage.write(_ as PipeEntity) >> { throw new RuntimeException() }
+
+        when:
+        cached.write(pipeEntity([message(6)], 6, PipeState.UP_TO_DATE))
+
+        then:
+        thrown(RuntimeException)
+
+        when:
+        cached.read(null, 6, LOCATION_UUID)
+
+        then:
+        1 * storage.read(null, 6, LOCATION_UUID)
+    }
+
+    def "invalidated cache answers again from the next message written"() {
+        given:
+        def cached = tailCache(10)
+        cached.write(pipeEntity([message(6)], 6, PipeState.UP_TO_DATE))
+
+        when:
+        cached.invalidate()
+        cached.read(null, 6, LOCATION_UUID)
+
+        then:
+        1 * storage.read(null, 6, LOCATION_UUID)
+
+        when:
+        cached.write(pipeEntity([message(7)], 7, PipeState.UP_TO_DATE))
+
+        then:
+        cached.read(null, 7, LOCATION_UUID).messages*.offset == [7L]
+    }
+
+    def "hits and misses are counted"() {
+        given:
+        def cached = tailCache(10)
+        cached.write(pipeEntity([message(6)], 6, PipeState.UP_TO_DATE))
+
+        when:
+        cached.read(null, 6, LOCATION_UUID)
+        cached.read(null, 6, LOCATION_UUID)
+        cached.read(null, 6, LOCATION_UUID)
+        cached.read(null, 1, LOCATION_UUID)
+
+        then:
+        meterRegistry.counter("pipe.storage.tailCache.hit").count() == 3
+        meterRegistry.counter("pipe.storage.tailCache.miss").count() == 1
+        meterRegistry.find("pipe.storage.tailCache.hitRatio").gauge().value() == 0.75
+    }
+
+    private TailCachedDistributedStorage tailCache(int capacity, int limit = 1000) {
+        new TailCachedDistributedStorage(storage, limit, RETRY_AFTER, 1000, capacity, meterRegistry)
+    }
+
+    private static PipeEntity pipeEntity(List<Message> messages, long globalLatestOffset, PipeState pipeState) {
+        new PipeEntity(messages, [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(globalLatestOffset))], pipeState)
+    }
+
+    private static Message message(long offset, String type = "type") {
+        new Message(type, "key", "text/plain", offset, ZonedDateTime.now(ZoneId.of("UTC")), "data")
+    }
+}
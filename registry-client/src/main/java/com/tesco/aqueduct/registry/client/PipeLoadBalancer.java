@@ -1,41 +1,180 @@
 package com.tesco.aqueduct.registry.client;
 
 import com.tesco.aqueduct.registry.utils.RegistryLogger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micronaut.context.annotation.Property;
 import io.micronaut.core.annotation.Nullable;
 import io.micronaut.core.async.publisher.Publishers;
 import io.micronaut.discovery.ServiceInstance;
 import io.micronaut.http.client.LoadBalancer;
 import io.reactivex.Flowable;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.slf4j.LoggerFactory;
 import org.reactivestreams.Publisher;
 
+import java.net.URI;
 import java.net.URL;
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+/**
+ * Selects the upstream pipe to read from.
+ *
+ * In first-up mode it is the first instance that is up, in the order the registry asked to follow them. In latency mode
+ * a later instance is only preferred when it is healthier by more than the hysteresis, and the selected instance is
+ * only left for one healthier by more than the hysteresis, so close scores do not make it flap.
+ */
 @Singleton
 public class PipeLoadBalancer implements LoadBalancer {
+    public static final String FIRST_UP = "first-up";
+    public static final String LATENCY = "latency";
+
     private final ServiceList services;
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(PipeLoadBalancer.class));
 
+    private final boolean latencyMode;
+    private final double hysteresis;
+    private final MeterRegistry meterRegistry;
+    private final Set<String> meteredUpstreams = ConcurrentHashMap.newKeySet();
+    private volatile PipeServiceInstance selected;
+
     PipeLoadBalancer(final ServiceList services) {
+        this(services, FIRST_UP, 0.2, null);
+    }
+
+    @Inject
+    public PipeLoadBalancer(
+        final ServiceList services,
+        @Property(name = "pipe.http.client.load-balancer.mode", defaultValue = FIRST_UP) final String mode,
+        @Property(name = "pipe.http.client.load-balancer.hysteresis", defaultValue = "0.2") final double hysteresis,
+        @Nullable final MeterRegistry meterRegistry
+    ) {
         this.services = services;
+        this.latencyMode = LATENCY.equals(mode);
+        this.hysteresis = hysteresis;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
     public Publisher<ServiceInstance> select(@Nullable final Object discriminator) {
+        final PipeServiceInstance service = latencyMode ? selectHealthiest() : selectFirstUp();
+        if (service == null) {
+            return Flowable.error(new RuntimeException("No accessible service to call."));
+        }
+
+        if (service != selected) {
+            LOG.debug("PipeLoadBalancer", "Connected Service URL:" + service.getUrl());
+            selected = service;
+        }
+        registerMetrics(service);
+        return Publishers.just(service);
+    }
+
+    private PipeServiceInstance selectFirstUp() {
         return services.stream()
             .filter(PipeServiceInstance::isUp)
             .findFirst()
-            .map(service-> {
-                LOG.debug("PipeLoadBalancer", "Connected Service URL:" + service.getUrl());
-                return service;
-            })
-            .map(ServiceInstance.class::cast)
-            .map(Publishers::just)
-            .orElse(Flowable.error(new RuntimeException("No accessible service to call.")));
+            .orElse(null);
+    }
+
+    private PipeServiceInstance selectHealthiest() {
+        final List<PipeServiceInstance> candidates = services.stream()
+            .filter(PipeServiceInstance::isUp)
+            .collect(Collectors.toList());
+
+        PipeServiceInstance healthiest = null;
+        for (final PipeServiceInstance candidate : candidates) {
+            if (healthiest == null || candidate.getHealth().isHealthierThan(healthiest.getHealth(), hysteresis)) {
+                healthiest = candidate;
+            }
+        }
+
+        final PipeServiceInstance current = selected;
+        if (healthiest == null || current == null || current == healthiest
+            || candidates.stream().noneMatch(candidate -> candidate == current)) {
+            return healthiest;
+        }
+        if (healthiest.getHealth().isHealthierThan(current.getHealth(), hysteresis)) {
+            LOG.info("PipeLoadBalancer", "switching from " + current.getUrl() + " to healthier " + healthiest.getUrl());
+            return healthiest;
+        }
+        return current;
+    }
+
+    /**
+     * Records a read answered by the instance the request was resolved to
+     *
+     * @param requestUri resolved URI of the read, reads of instances no longer in the service list are not recorded
+     */
+    public void recordRead(final URI requestUri, final long latencyNanos) {
+        servedBy(requestUri).ifPresent(instance -> {
+            instance.getHealth().recordRead(latencyNanos);
+            if (meterRegistry != null) {
+                meterRegistry.timer("pipe.upstream.read", tagsOf(instance)).record(latencyNanos, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    /**
+     * Records a read that failed of the instance the request was resolved to
+     *
+     * @param requestUri resolved URI of the read, reads of instances no longer in the service list are not recorded
+     */
+    public void recordReadError(final URI requestUri) {
+        servedBy(requestUri).ifPresent(instance -> {
+            instance.getHealth().recordError();
+            if (meterRegistry != null) {
+                meterRegistry.counter("pipe.upstream.read.error", tagsOf(instance)).increment();
+            }
+        });
+    }
+
+    // the selected instance may have changed since the request was resolved, so it is looked up by the request URI
+    private Optional<PipeServiceInstance> servedBy(final URI requestUri) {
+        return services.stream()
+            .filter(instance -> serves(instance.getURI(), requestUri))
+            .findFirst();
+    }
+
+    private static boolean serves(final URI instanceUri, final URI requestUri) {
+        return Objects.equals(instanceUri.getScheme(), requestUri.getScheme())
+            && Objects.equals(instanceUri.getHost(), requestUri.getHost())
+            && portOf(instanceUri) == portOf(requestUri)
+            && pathOf(requestUri).startsWith(pathOf(instanceUri));
+    }
+
+    private static String pathOf(final URI uri) {
+        return uri.getPath() == null ? "" : uri.getPath();
+    }
+
+    private static int portOf(final URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equals(uri.getScheme()) ? 443 : 80;
+    }
+
+    // gauges only hold weak references, instances dropped from the service list stop reporting
+    private void registerMetrics(final PipeServiceInstance service) {
+        if (meterRegistry == null || !meteredUpstreams.add(service.getUrl().toString())) {
+            return;
+        }
+        final Tags tags = tagsOf(service);
+        meterRegistry.gauge("pipe.upstream.latency", tags, service, instance -> instance.getHealth().getProbeLatencyMs());
+        meterRegistry.gauge("pipe.upstream.read.latency", tags, service, instance -> instance.getHealth().getReadLatencyMs());
+        meterRegistry.gauge("pipe.upstream.error.rate", tags, service, instance -> instance.getHealth().getErrorRate());
+    }
+
+    private static Tags tagsOf(final PipeServiceInstance service) {
+        return Tags.of("upstream", service.getUrl().toString());
     }
 
     public List<URL> getFollowing() {
@@ -19,10 +19,13 @@ public class PipeLoadBalancerHealthCheckTask {
         this.services = services;
     }
 
+    // waits for the check on the scheduler thread only, so the interval is the delay between the end of a check
+    // and the start of the next one
     @Scheduled(fixedDelay = "${pipe.http.client.healthcheck.interval}")
     public void checkState() {
         try {
             services.updateState();
+            services.stateChecked().blockingAwait();
         } catch (Throwable t) {
             LOG.error("healthcheck","unexpected error", t);
         }
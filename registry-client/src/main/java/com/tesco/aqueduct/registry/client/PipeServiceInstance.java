@@ -20,13 +20,16 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 public class PipeServiceInstance implements ServiceInstance {
 
     private final HttpClient httpClient;
     private final URL url;
-    private boolean up = true;
+    private volatile boolean up = true;
+    private final UpstreamHealth health = new UpstreamHealth();
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(PipeServiceInstance.class));
 
     private static final String DEFAULT_STATUS_VERSION = "0.0.0";
@@ -49,6 +52,10 @@ public class PipeServiceInstance implements ServiceInstance {
         return url;
     }
 
+    public UpstreamHealth getHealth() {
+        return health;
+    }
+
     @Override
     public String getId() {
         return "pipe";
@@ -76,9 +83,23 @@ public class PipeServiceInstance implements ServiceInstance {
     }
 
     Completable updateState() {
-        return Single.defer(() -> Single.just(withStatusUrlFromBaseUri())).
-            flatMap(uri -> Single.fromPublisher(httpClient.exchange(uri)))
-            .map(this::verifyHttpResponse)
+        return updateState(null);
+    }
+
+    /**
+     * @param timeout of each attempt, none when null
+     */
+    Completable updateState(final Duration timeout) {
+        return Single.defer(() -> {
+                final long start = System.nanoTime();
+                final Single<Boolean> check = Single.just(withStatusUrlFromBaseUri())
+                    .flatMap(uri -> Single.fromPublisher(httpClient.exchange(uri)))
+                    .map(this::verifyHttpResponse);
+                return (timeout == null ? check : check.timeout(timeout.toMillis(), TimeUnit.MILLISECONDS))
+                    // every attempt counts towards the health of the instance
+                    .doOnSuccess(b -> health.recordProbe(System.nanoTime() - start))
+                    .doOnError(throwable -> health.recordError());
+            })
             // log result
             .doOnSuccess(b -> LOG.debug("healthcheck.success", url.toString()))
             .doOnError(this::logError)
@@ -86,11 +107,18 @@ public class PipeServiceInstance implements ServiceInstance {
             // change exception to "false"
             .onErrorResumeNext(Single.just(false))
             // set the status of the instance
-            .doOnSuccess(this::isUp)
+            .doOnSuccess(this::changeState)
             // return as completable, close client and ignore any errors
             .ignoreElement(); // returns completable
     }
 
+    private void changeState(final boolean isServiceUp) {
+        if (up != isServiceUp) {
+            LOG.info("healthcheck", url + (isServiceUp ? " is up" : " is down"));
+        }
+        isUp(isServiceUp);
+    }
+
     private void logError(Throwable throwable) {
         LOG.error("healthcheck.failed", url + " failed with error " + throwable.getMessage(), "");
     }
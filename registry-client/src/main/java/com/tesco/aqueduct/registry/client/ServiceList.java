@@ -2,6 +2,7 @@ package com.tesco.aqueduct.registry.client;
 
 import com.tesco.aqueduct.registry.utils.RegistryLogger;
 import io.micronaut.http.client.HttpClient;
+import io.reactivex.Completable;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
@@ -10,31 +11,58 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static io.reactivex.Flowable.fromIterable;
 
+/**
+ * Pipe instances to follow, in the order the registry asked to follow them.
+ *
+ * The list is immutable and swapped atomically on every update, so readers always see a consistent snapshot. Health
+ * checks run asynchronously and concurrently, each attempt bounded by the health check timeout, so neither a
+ * registration updating the list nor the load balancer ever waits on an unresponsive instance. An update during a
+ * health check starts another check once it completes. Instances already in the list keep their status, new ones
+ * are not up until their first check finds them up.
+ */
 public class ServiceList {
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(ServiceList.class));
+    static final Duration DEFAULT_HEALTH_CHECK_TIMEOUT = Duration.ofSeconds(5);
+
     private final HttpClient httpClient;
-    List<PipeServiceInstance> services;
+    private final AtomicReference<List<PipeServiceInstance>> services = new AtomicReference<>(Collections.emptyList());
     private final PipeServiceInstance cloudInstance;
     private final File file;
-    private ZonedDateTime lastUpdatedTime;
+    private final Duration healthCheckTimeout;
+    private volatile ZonedDateTime lastUpdatedTime;
+
+    private Completable lastCheck = Completable.complete();
+    private boolean checking;
+    private boolean recheck;
 
     public ServiceList(
         HttpClient httpClient,
         final PipeServiceInstance pipeServiceInstance,
         File file
+    ) throws IOException {
+        this(httpClient, pipeServiceInstance, file, DEFAULT_HEALTH_CHECK_TIMEOUT);
+    }
+
+    public ServiceList(
+        HttpClient httpClient,
+        final PipeServiceInstance pipeServiceInstance,
+        File file,
+        final Duration healthCheckTimeout
     ) throws IOException {
         this.httpClient = httpClient;
         this.cloudInstance = pipeServiceInstance;
-        services = new ArrayList<>();
         lastUpdatedTime = null;
         this.file = file;
+        this.healthCheckTimeout = healthCheckTimeout;
         readServicesProperties(file);
     }
 
@@ -114,7 +142,7 @@ public class ServiceList {
             defaultToCloud();
             return;
         }
-        services = urls.stream()
+        final List<PipeServiceInstance> services = urls.stream()
             .map(this::getServiceInstance)
             .collect(Collectors.toList());
         //This code is added to handle envoy proxy backward compatibility to support both https and http pipe urls.
@@ -124,6 +152,7 @@ public class ServiceList {
             services.remove(index);
             services.add(this.cloudInstance);
         }
+        this.services.set(Collections.unmodifiableList(services));
         updateState();
     }
 
@@ -150,14 +179,16 @@ public class ServiceList {
 
     private void defaultToCloud() {
         LOG.info("ServiceList.defaultToCloud", "Defaulting to follow the Cloud Pipe server.");
-        List<PipeServiceInstance> justCloud = new ArrayList<>();
-        justCloud.add(this.cloudInstance);
-        this.services = justCloud;
+        this.services.set(Collections.singletonList(this.cloudInstance));
     }
 
     private PipeServiceInstance getServiceInstance(final URL url) {
         return findPreviousInstance(url)
-            .orElseGet(() -> new PipeServiceInstance(httpClient, url));
+            .orElseGet(() -> {
+                final PipeServiceInstance instance = new PipeServiceInstance(httpClient, url);
+                instance.isUp(false);
+                return instance;
+            });
     }
 
     private Optional<PipeServiceInstance> findPreviousInstance(final URL url) {
@@ -165,7 +196,7 @@ public class ServiceList {
             // We have to use URIs for this comparison as URLs are converted to IPs under the hood, which causes issues
             // for local testing
             final URI uri = url.toURI();
-            return services.stream()
+            return services.get().stream()
                 .filter(oldInstance -> uri.equals(oldInstance.getURI()))
                 .findFirst();
         } catch (URISyntaxException exception) {
@@ -174,14 +205,67 @@ public class ServiceList {
         }
     }
 
+    /**
+     * Starts checking the health of the current services without waiting for it
+     */
     public void updateState() {
-        fromIterable(services)
-            .flatMapCompletable(PipeServiceInstance::updateState)
-            .blockingAwait();
+        synchronized (this) {
+            if (checking) {
+                recheck = true;
+                return;
+            }
+            checking = true;
+        }
+        startCheck();
+    }
+
+    private void startCheck() {
+        final Completable check = checkState()
+            .doOnError(throwable -> LOG.error("healthcheck", "unexpected error", throwable))
+            .onErrorComplete()
+            .doFinally(this::checkFinished)
+            .cache();
+
+        synchronized (this) {
+            lastCheck = check;
+        }
+        check.subscribe();
+    }
+
+    private void checkFinished() {
+        synchronized (this) {
+            if (!recheck) {
+                checking = false;
+                return;
+            }
+            recheck = false;
+        }
+        startCheck();
+    }
+
+    /**
+     * Checks the health of the services in the snapshot current at subscription, concurrently
+     */
+    public Completable checkState() {
+        return Completable.defer(() ->
+            fromIterable(services.get())
+                .flatMapCompletable(service -> service.updateState(healthCheckTimeout))
+        );
+    }
+
+    /**
+     * @return completes when the health check started last is done
+     */
+    public synchronized Completable stateChecked() {
+        return lastCheck;
+    }
+
+    public List<PipeServiceInstance> getServices() {
+        return services.get();
     }
 
     public Stream<PipeServiceInstance> stream() {
-        return services.stream();
+        return services.get().stream();
     }
 
     public ZonedDateTime getLastUpdatedTime() {
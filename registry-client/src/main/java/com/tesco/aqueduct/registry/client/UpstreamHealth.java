@@ -0,0 +1,76 @@
+package com.tesco.aqueduct.registry.client;
+
+/**
+ * Exponentially weighted moving averages of the latency and error rate of an upstream pipe.
+ *
+ * Health checks hit the same status endpoint on every upstream, so their latency is what upstreams are compared by.
+ * Reads only go to the selected upstream and are much slower than a health check, they are tracked separately and
+ * only fall back as the latency of upstreams never checked. Failures of either count towards the error rate.
+ */
+public class UpstreamHealth {
+    static final double DEFAULT_ALPHA = 0.2;
+
+    // an upstream failing every call scores as if it was this many times slower
+    private static final double ERROR_WEIGHT = 10;
+
+    private final double alpha;
+
+    private double probeLatencyMs = Double.NaN;
+    private double readLatencyMs = Double.NaN;
+    private double errorRate = 0;
+
+    public UpstreamHealth() {
+        this(DEFAULT_ALPHA);
+    }
+
+    public UpstreamHealth(final double alpha) {
+        this.alpha = alpha;
+    }
+
+    public synchronized void recordProbe(final long latencyNanos) {
+        probeLatencyMs = average(probeLatencyMs, latencyNanos / 1_000_000d);
+        errorRate = average(errorRate, 0);
+    }
+
+    public synchronized void recordRead(final long latencyNanos) {
+        readLatencyMs = average(readLatencyMs, latencyNanos / 1_000_000d);
+        errorRate = average(errorRate, 0);
+    }
+
+    public synchronized void recordError() {
+        errorRate = average(errorRate, 1);
+    }
+
+    public synchronized double getProbeLatencyMs() {
+        return probeLatencyMs;
+    }
+
+    public synchronized double getReadLatencyMs() {
+        return readLatencyMs;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * @return lower is healthier, NaN while nothing has been recorded
+     */
+    public synchronized double score() {
+        final double latency = Double.isNaN(probeLatencyMs) ? readLatencyMs : probeLatencyMs;
+        return latency * (1 + ERROR_WEIGHT * errorRate);
+    }
+
+    /**
+     * @return whether this upstream scores better than the other by more than the given fraction of its score
+     */
+    public boolean isHealthierThan(final UpstreamHealth other, final double hysteresis) {
+        final double score = score();
+        final double otherScore = other.score();
+        return !Double.isNaN(score) && !Double.isNaN(otherScore) && score < otherScore * (1 - hysteresis);
+    }
+
+    private double average(final double current, final double sample) {
+        return Double.isNaN(current) ? sample : current + alpha * (sample - current);
+    }
+}
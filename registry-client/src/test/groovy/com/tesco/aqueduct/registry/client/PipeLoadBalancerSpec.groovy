@@ -1,12 +1,15 @@
 package com.tesco.aqueduct.registry.client
 
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import io.micronaut.http.client.DefaultHttpClientConfiguration
 import io.micronaut.http.client.netty.DefaultHttpClient
 import org.junit.Rule
 import org.junit.rules.TemporaryFolder
 import spock.lang.Specification
 
+import java.util.concurrent.TimeUnit
+
 import static io.reactivex.Single.fromPublisher
 
 @Newify(URL)
@@ -24,9 +27,13 @@ class PipeLoadBalancerSpec extends Specification {
 
     def setup() {
         def config = new DefaultHttpClientConfiguration()
+        def checked = Collections.newSetFromMap(new IdentityHashMap())
         serviceList = new ServiceList(new DefaultHttpClient(), new PipeServiceInstance(new DefaultHttpClient(), URL_1), folder.newFile()) {
+            // the first check finds a new service up, afterwards it keeps the status a test gives it
             @Override
-            public void updateState() {}
+            public void updateState() {
+                services.findAll { checked.add(it) }.each { it.isUp(true) }
+            }
         }
         loadBalancer = new PipeLoadBalancer(serviceList)
     }
@@ -116,6 +123,114 @@ class PipeLoadBalancerSpec extends Specification {
         serviceInstance.URI.toString() == "http://a2"
     }
 
+    def "In latency mode a later service is selected when it is healthier by more than the hysteresis"() {
+        given: "a load balancer ranking services by latency"
+        def loadBalancer = new PipeLoadBalancer(serviceList, PipeLoadBalancer.LATENCY, 0.2, null)
+        serviceList.update([URL_1, URL_2, URL_3])
+        def services = serviceList.stream().collect()
+
+        and: "the first service is slightly slower than the second and much slower than the third"
+        services[0].health.recordProbe(millis(100))
+        services[1].health.recordProbe(millis(90))
+        services[2].health.recordProbe(millis(10))
+
+        when:
+        def serviceInstance = fromPublisher(loadBalancer.select()).blockingGet()
+
+        then:
+        serviceInstance.URI == URL_3.toURI()
+    }
+
+    def "In latency mode the selected service is kept until another is healthier by more than the hysteresis"() {
+        given:
+        def loadBalancer = new PipeLoadBalancer(serviceList, PipeLoadBalancer.LATENCY, 0.2, null)
+        serviceList.update([URL_1, URL_2])
+        def services = serviceList.stream().collect()
+        services[0].health.recordProbe(millis(10))
+        services[1].health.recordProbe(millis(50))
+
+        and: "the first service is selected"
+        def selected = fromPublisher(loadBalancer.select()).blockingGet()
+
+        when: "the selected service gets a little slower than the other"
+        services[0].health.recordProbe(millis(260))
+
+        then: "it is kept"
+        selected.URI == URL_1.toURI()
+        services[0].health.score() > services[1].health.score()
+        fromPublisher(loadBalancer.select()).blockingGet().URI == URL_1.toURI()
+
+        when: "reads of the selected service start failing"
+        loadBalancer.recordReadError(read(URL_1))
+        loadBalancer.recordReadError(read(URL_1))
+
+        then: "the other service is selected"
+        fromPublisher(loadBalancer.select()).blockingGet().URI == URL_2.toURI()
+    }
+
+    def "In latency mode services never checked are ranked in the order they are followed"() {
+        given:
+        def loadBalancer = new PipeLoadBalancer(serviceList, PipeLoadBalancer.LATENCY, 0.2, null)
+        serviceList.update([URL_1, URL_2])
+        serviceList.stream().collect()[1].health.recordProbe(millis(10))
+
+        expect:
+        fromPublisher(loadBalancer.select()).blockingGet().URI == URL_1.toURI()
+    }
+
+    def "Upstream latency and error rate are exposed as metrics"() {
+        given:
+        def meterRegistry = new SimpleMeterRegistry()
+        def loadBalancer = new PipeLoadBalancer(serviceList, PipeLoadBalancer.FIRST_UP, 0.2, meterRegistry)
+        serviceList.update([URL_1])
+        serviceList.stream().findFirst().get().health.recordProbe(millis(20))
+
+        when:
+        fromPublisher(loadBalancer.select()).blockingGet()
+        loadBalancer.recordRead(read(URL_1), millis(100))
+
+        then:
+        meterRegistry.get("pipe.upstream.latency").tag("upstream", "http://a1").gauge().value() == 20
+        meterRegistry.get("pipe.upstream.read.latency").tag("upstream", "http://a1").gauge().value() == 100
+        meterRegistry.get("pipe.upstream.error.rate").tag("upstream", "http://a1").gauge().value() == 0
+        meterRegistry.get("pipe.upstream.read").tag("upstream", "http://a1").timer().count() == 1
+    }
+
+    def "Reads are charged to the service they were resolved to rather than the one selected since"() {
+        given:
+        def loadBalancer = new PipeLoadBalancer(serviceList, PipeLoadBalancer.LATENCY, 0.2, null)
+        serviceList.update([URL_1, URL_2])
+        def services = serviceList.stream().collect()
+
+        and: "the first service is selected"
+        fromPublisher(loadBalancer.select()).blockingGet()
+
+        when: "a read resolved to the second service earlier completes"
+        loadBalancer.recordRead(read(URL_2), millis(300))
+        loadBalancer.recordReadError(read(URL_2))
+
+        then:
+        services[1].health.readLatencyMs == 300
+        services[1].health.errorRate > 0
+        services[0].health.readLatencyMs.isNaN()
+        services[0].health.errorRate == 0
+    }
+
+    def "Reads of services no longer followed are not recorded"() {
+        given:
+        def meterRegistry = new SimpleMeterRegistry()
+        def loadBalancer = new PipeLoadBalancer(serviceList, PipeLoadBalancer.FIRST_UP, 0.2, meterRegistry)
+        serviceList.update([URL_1])
+
+        when:
+        loadBalancer.recordRead(read(URL_3), millis(100))
+        loadBalancer.recordReadError(read(URL_3))
+
+        then:
+        meterRegistry.find("pipe.upstream.read").timer() == null
+        meterRegistry.find("pipe.upstream.read.error").counter() == null
+    }
+
     def "returns last updated time"() {
         when: "a list of urls"
         serviceList.update([URL_1, URL_2, URL_3])
@@ -123,4 +238,13 @@ class PipeLoadBalancerSpec extends Specification {
         then: "get last updated time"
         loadBalancer.getLastUpdatedTime() != null
     }
+
+    // resolved URI of a page read from the service
+    static URI read(URL service) {
+        service.toURI().resolve("/pipe/0?location=location")
+    }
+
+    static long millis(long millis) {
+        TimeUnit.MILLISECONDS.toNanos(millis)
+    }
 }
@@ -1,11 +1,16 @@
 package com.tesco.aqueduct.registry.client
 
 import io.micronaut.http.client.DefaultHttpClientConfiguration
+import io.reactivex.Completable
+import io.reactivex.subjects.CompletableSubject
 import io.micronaut.http.client.netty.DefaultHttpClient
 import org.junit.Rule
 import org.junit.rules.TemporaryFolder
 import spock.lang.Specification
 
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
 @Newify(URL)
 class ServiceListSpec extends Specification {
 
@@ -111,8 +116,25 @@ class ServiceListSpec extends Specification {
         then: "list returned matches updated list"
         serviceList.stream().map({ p -> p.getUrl()}).collect() == list
 
-        and: "service statuses have not been altered"
-        serviceList.stream().map({p -> p.isUp()}).collect() == [true, false, true]
+        and: "service statuses have not been altered and the new service is not up before it is checked"
+        serviceList.stream().map({p -> p.isUp()}).collect() == [true, false, false]
+    }
+
+    def "new services are not up until their first health check completes"() {
+        given: "a service list with health checks that do not complete"
+        def healthCheck = CompletableSubject.create()
+        ServiceList serviceList = new ServiceList(new DefaultHttpClient(), serviceInstance, existingPropertiesFile) {
+            @Override
+            Completable checkState() {
+                healthCheck
+            }
+        }
+
+        when: "services are updated"
+        serviceList.update([URL_1, URL_2])
+
+        then: "the known service is up and the new one is not"
+        serviceList.stream().map({p -> p.isUp()}).collect() == [true, false]
     }
 
     def "service list always contains at least the cloud url"() {
@@ -221,6 +243,58 @@ class ServiceListSpec extends Specification {
         serviceList2.stream().map({m -> m.getUrl()}).collect() == [URL_2, URL_3]
     }
 
+    def "updating services does not wait for their health checks"() {
+        given: "a service list with a first health check that does not complete"
+        def healthCheck = CompletableSubject.create()
+        def checks = new AtomicInteger()
+        ServiceList serviceList = new ServiceList(new DefaultHttpClient(), serviceInstance, existingPropertiesFile) {
+            @Override
+            Completable checkState() {
+                checks.incrementAndGet() == 1 ? healthCheck : Completable.complete()
+            }
+        }
+
+        when: "services are updated"
+        serviceList.update([URL_2, URL_3])
+
+        then: "the update returns while the health check is running"
+        serviceList.stream().map({ p -> p.getUrl()}).collect() == [URL_2, URL_3]
+        !serviceList.stateChecked().blockingAwait(10, TimeUnit.MILLISECONDS)
+
+        when: "services are updated again during the health check"
+        serviceList.update([URL_3])
+
+        and: "the health check completes"
+        healthCheck.onComplete()
+
+        then: "the services are checked again"
+        serviceList.stateChecked().blockingAwait(1, TimeUnit.SECONDS)
+        checks.get() == 2
+    }
+
+    def "a snapshot of services is not changed by an update"() {
+        given: "a service list"
+        ServiceList serviceList = new ServiceList(new DefaultHttpClient(), serviceInstance, existingPropertiesFile) {
+            @Override
+            public void updateState() {}
+        }
+        serviceList.update([URL_1, URL_2])
+
+        when: "the services are taken and then updated"
+        def snapshot = serviceList.services
+        serviceList.update([URL_3])
+
+        then: "the snapshot keeps the services it was taken with"
+        snapshot*.url == [URL_1, URL_2]
+        serviceList.services*.url == [URL_3]
+
+        when: "the snapshot is modified"
+        snapshot.add(serviceInstance)
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
     def "service list contains last updated time"() {
         given: "a service list"
         ServiceList serviceList = new ServiceList(new DefaultHttpClient(), serviceInstance, existingPropertiesFile)
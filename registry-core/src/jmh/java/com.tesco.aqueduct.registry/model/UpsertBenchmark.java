@@ -85,4 +85,64 @@ public class UpsertBenchmark {
         state.nodeGroup.upsert(state.node3, state.cloud);
     }
 
+
+    /**
+     * Registration against groups of increasing size: a heartbeat that keeps the node in place, and a status change
+     * that moves it within the follow tree
+     */
+    @State(Scope.Thread)
+    public static class GroupState {
+        @Param({"10", "100", "1000"})
+        public int groupSize;
+
+        URL cloud;
+        NodeGroup nodeGroup;
+        Node[] heartbeats;
+        Node[] statusChanges;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void doSetup() throws MalformedURLException {
+            cloud = new URL("http://some.cloud.url");
+            nodeGroup = new NodeGroup();
+            heartbeats = new Node[groupSize];
+            statusChanges = new Node[groupSize];
+
+            for (int i = 0; i < groupSize; i++) {
+                final Node node = Node.builder()
+                    .group("group1")
+                    .localUrl(new URL("http://node" + i))
+                    .status(Status.FOLLOWING)
+                    .following(Lists.newArrayList(cloud))
+                    .pipe(Maps.of("v", "1.0"))
+                    .build();
+                nodeGroup.upsert(node, cloud);
+                heartbeats[i] = node.toBuilder().offset(i).build();
+                statusChanges[i] = node.toBuilder().status(Status.INITIALISING).build();
+            }
+            nodeGroup.processNodes(ZonedDateTime.now().minusDays(1), ZonedDateTime.now().minusDays(2), cloud);
+        }
+
+        int nextIndex() {
+            next = (next + 1) % groupSize;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Node heartbeat(GroupState state) {
+        final Node node = state.nodeGroup.upsert(state.heartbeats[state.nextIndex()], state.cloud);
+        state.nodeGroup.processNodes(ZonedDateTime.now().minusDays(1), ZonedDateTime.now().minusDays(2), state.cloud);
+        return node;
+    }
+
+    @Benchmark
+    public Node statusChange(GroupState state) {
+        final int index = state.nextIndex();
+        state.nodeGroup.upsert(state.statusChanges[index], state.cloud);
+        state.nodeGroup.processNodes(ZonedDateTime.now().minusDays(1), ZonedDateTime.now().minusDays(2), state.cloud);
+        final Node node = state.nodeGroup.upsert(state.heartbeats[index], state.cloud);
+        state.nodeGroup.processNodes(ZonedDateTime.now().minusDays(1), ZonedDateTime.now().minusDays(2), state.cloud);
+        return node;
+    }
 }
\ No newline at end of file
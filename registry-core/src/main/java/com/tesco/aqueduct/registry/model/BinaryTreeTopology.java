@@ -0,0 +1,33 @@
+package com.tesco.aqueduct.registry.model;
+
+import java.util.List;
+
+/**
+ * Nodes laid out as an array backed binary tree: the node at index i follows the node at ((i + 1) / 2) - 1, the
+ * first node follows the cloud. Parents only depend on positions, so {@link SubNodeGroup} maintains this tree
+ * incrementally.
+ */
+public final class BinaryTreeTopology implements TopologyStrategy {
+    public static final BinaryTreeTopology INSTANCE = new BinaryTreeTopology();
+
+    static final int NUMBER_OF_CHILDREN_PER_NODE = 2;
+
+    private BinaryTreeTopology() { }
+
+    static int parentOf(int index) {
+        return ((index + 1) / NUMBER_OF_CHILDREN_PER_NODE) - 1;
+    }
+
+    static int firstChildOf(int index) {
+        return index * NUMBER_OF_CHILDREN_PER_NODE + 1;
+    }
+
+    @Override
+    public int[] parents(List<Node> nodes) {
+        final int[] parents = new int[nodes.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = parentOf(i);
+        }
+        return parents;
+    }
+}
@@ -0,0 +1,134 @@
+package com.tesco.aqueduct.registry.model;
+
+import com.tesco.aqueduct.pipe.api.PipeState;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING;
+import static com.tesco.aqueduct.registry.model.Status.OK;
+
+/**
+ * Builds the follow tree from what nodes report instead of their positions alone.
+ *
+ * Only relays serve other nodes: nodes that are following, strategic, not out of date and at most max lag behind the
+ * most recent offset of the sub group. Relays are placed breadth first, the cloud serves as few of them as its
+ * capacity allows and every relay serves up to its capacity, so the tree stays shallow. All other nodes are leaves
+ * hung below the shallowest relay with spare capacity. Relays keep their follow tree order, so offsets moving
+ * within max lag do not reshape the tree.
+ */
+public class LoadAwareTopology implements TopologyStrategy {
+    /**
+     * Pipe property a node can report to serve a different number of followers than the default capacity
+     */
+    public static final String CAPACITY_PROPERTY = "capacity";
+
+    private final int defaultCapacity;
+    private final int cloudCapacity;
+    private final long maxLag;
+
+    public LoadAwareTopology(final int defaultCapacity, final int cloudCapacity, final long maxLag) {
+        if (cloudCapacity < 1) {
+            throw new IllegalArgumentException("Cloud capacity has to be at least 1");
+        }
+        this.defaultCapacity = defaultCapacity;
+        this.cloudCapacity = cloudCapacity;
+        this.maxLag = maxLag;
+    }
+
+    @Override
+    public int[] parents(final List<Node> nodes) {
+        final int[] parents = new int[nodes.size()];
+        final int[] followers = new int[nodes.size()];
+        final long latestOffset = nodes.stream().filter(node -> !node.isOffline()).mapToLong(Node::getOffset).max().orElse(0);
+
+        final List<Integer> relays = new ArrayList<>();
+        final List<Integer> leaves = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            (canRelay(nodes.get(i), latestOffset) ? relays : leaves).add(i);
+        }
+        // somebody has to follow the cloud for the others
+        if (relays.isEmpty() && !leaves.isEmpty()) {
+            relays.add(leaves.remove(0));
+        }
+
+        final Deque<Slot> openSlots = new ArrayDeque<>();
+        openSlots.add(new Slot(CLOUD, cloudCapacity));
+        final List<Integer> placedRelays = new ArrayList<>();
+
+        for (final int relay : relays) {
+            parents[relay] = place(openSlots, placedRelays, followers);
+            placedRelays.add(relay);
+
+            final int capacity = capacityOf(nodes.get(relay));
+            if (capacity > 0) {
+                openSlots.add(new Slot(relay, capacity));
+            }
+        }
+        for (final int leaf : leaves) {
+            parents[leaf] = place(openSlots, placedRelays, followers);
+        }
+        return parents;
+    }
+
+    // shallowest open slot first, once all are full the least followed relay takes the node
+    private int place(final Deque<Slot> openSlots, final List<Integer> placedRelays, final int[] followers) {
+        while (!openSlots.isEmpty() && openSlots.peek().remaining == 0) {
+            openSlots.poll();
+        }
+
+        final int parent;
+        if (!openSlots.isEmpty()) {
+            final Slot slot = openSlots.peek();
+            slot.remaining--;
+            parent = slot.parent;
+        } else if (placedRelays.isEmpty()) {
+            parent = CLOUD;
+        } else {
+            int leastFollowed = placedRelays.get(0);
+            for (final int relay : placedRelays) {
+                if (followers[relay] < followers[leastFollowed]) {
+                    leastFollowed = relay;
+                }
+            }
+            parent = leastFollowed;
+        }
+
+        if (parent != CLOUD) {
+            followers[parent]++;
+        }
+        return parent;
+    }
+
+    private boolean canRelay(final Node node, final long latestOffset) {
+        return (node.getStatus() == FOLLOWING || node.getStatus() == OK)
+            && node.getGeneration() == Generation.STRATEGIC
+            && (node.getPipe() == null || node.getPipeState() != PipeState.OUT_OF_DATE)
+            && latestOffset - node.getOffset() <= maxLag
+            && capacityOf(node) > 0;
+    }
+
+    private int capacityOf(final Node node) {
+        final String capacity = node.getPipe() == null ? null : node.getPipe().get(CAPACITY_PROPERTY);
+        if (capacity == null) {
+            return defaultCapacity;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(capacity));
+        } catch (NumberFormatException exception) {
+            return defaultCapacity;
+        }
+    }
+
+    private static class Slot {
+        private final int parent;
+        private int remaining;
+
+        private Slot(final int parent, final int remaining) {
+            this.parent = parent;
+            this.remaining = remaining;
+        }
+    }
+}
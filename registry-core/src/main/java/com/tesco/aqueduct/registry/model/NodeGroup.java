@@ -7,10 +7,12 @@ import java.net.URL;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class NodeGroup {
     public final List<SubNodeGroup> subGroups = new ArrayList<>();
+    private TopologyStrategy topology = BinaryTreeTopology.INSTANCE;
 
     public NodeGroup() {
         this(new ArrayList<>());
@@ -33,10 +35,19 @@ public class NodeGroup {
 
     private Node newSubGroupNodeFor(Node node) {
         SubNodeGroup subNodeGroup = new SubNodeGroup(node.getSubGroupId());
+        subNodeGroup.useTopology(topology);
         subGroups.add(subNodeGroup);
         return subNodeGroup.add(node);
     }
 
+    /**
+     * @param topology decides who follows whom in every sub group, follow urls are recalculated on the next update
+     */
+    public void useTopology(final TopologyStrategy topology) {
+        this.topology = topology;
+        subGroups.forEach(subGroup -> subGroup.useTopology(topology));
+    }
+
     public boolean isEmpty() {
         return subGroups.isEmpty();
     }
@@ -76,6 +87,45 @@ public class NodeGroup {
             });
     }
 
+    /**
+     * Updates a node that is already registered in its sub group with the same url and status, as such a
+     * registration leaves the follow tree untouched.
+     * @return empty when the registration would add, move or reorder the node, in which case nothing is updated
+     */
+    public Optional<Node> updateIfFollowTreeUnchanged(final Node nodeToRegister) {
+        if (!isFollowTreeUnchangedBy(nodeToRegister)) {
+            return Optional.empty();
+        }
+        return findSubGroupFor(nodeToRegister).flatMap(subGroup -> subGroup.findAndUpdate(nodeToRegister));
+    }
+
+    public boolean isFollowTreeUnchangedBy(final Node nodeToRegister) {
+        return findSubGroupFor(nodeToRegister)
+            .flatMap(subGroup -> subGroup.getByHost(nodeToRegister.getHost()))
+            .map(node -> node.getStatus() == nodeToRegister.getStatus()
+                && node.getLocalUrl().toString().equals(nodeToRegister.getLocalUrl().toString()))
+            .orElse(false);
+    }
+
+    private Optional<SubNodeGroup> findSubGroupFor(final Node node) {
+        return subGroups.stream()
+            .filter(subGroup -> subGroup.isFor(node))
+            .findAny();
+    }
+
+    /**
+     * Takes over the nodes of the given group that were seen more recently than their counterpart in this group.
+     * Nodes not present in this group are ignored.
+     */
+    public void mergeMoreRecentlySeen(final NodeGroup other) {
+        other.getNodes().forEach(node ->
+            subGroups.stream()
+                .filter(subGroup -> subGroup.isFor(node))
+                .findAny()
+                .ifPresent(subGroup -> subGroup.replaceIfSeenMoreRecently(node))
+        );
+    }
+
     private void removeNodeIfSwitchingSubgroup(final Node nodeToRegister) {
         subGroups.stream()
             .filter(subNodeGroup -> subNodeGroup.getByHost(nodeToRegister.getHost())
@@ -92,6 +142,7 @@ public class NodeGroup {
             .findAny()
             .orElseGet(() -> {
                 SubNodeGroup subNodeGroup = new SubNodeGroup(nodeToRegister.getSubGroupId());
+                subNodeGroup.useTopology(topology);
                 subGroups.add(subNodeGroup);
                 return subNodeGroup;
             });
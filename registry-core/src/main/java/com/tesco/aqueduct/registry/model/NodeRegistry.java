@@ -1,7 +1,13 @@
 package com.tesco.aqueduct.registry.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public interface NodeRegistry {
     /**
@@ -10,6 +16,14 @@ public interface NodeRegistry {
      */
     Node register(Node node);
 
+    /**
+     * @param nodes Nodes to register, registrations of the same group may be applied together
+     * @return Nodes registered, in the order given
+     */
+    default List<Node> registerAll(List<Node> nodes) {
+        return nodes.stream().map(this::register).collect(Collectors.toList());
+    }
+
     /**
      * @param offset Latest offset of root
      * @param status Status of root
@@ -18,7 +32,35 @@ public interface NodeRegistry {
      */
     StateSummary getSummary(long offset, Status status, List<String> groups);
 
+    /**
+     * Writes the summary to the generator, registries able to read groups one at a time do so without holding all
+     * nodes in memory
+     * @param offset Latest offset of root
+     * @param status Status of root
+     * @param groups List of groups to write, all if empty or null
+     * @param generator Generator the summary is written to as a JSON object
+     */
+    default void writeSummary(long offset, Status status, List<String> groups, JsonGenerator generator) throws IOException {
+        generator.writeObject(getSummary(offset, status, groups));
+    }
+
+    /**
+     * @param groups List of groups, all if empty or null
+     * @return Opaque version of each stored group that changes whenever the group is written, empty if this
+     * registry does not keep versions
+     */
+    default Optional<Map<String, String>> getGroupVersions(List<String> groups) {
+        return Optional.empty();
+    }
+
     boolean deleteNode(String group, String host);
 
     Set<String> getNodeHostsForGroups(List<String> groupIds);
+
+    /**
+     * Writes back state that is only held in memory, no-op for registries that write through on every call
+     */
+    default void flush() {
+        // null op
+    }
 }
@@ -1,8 +1,25 @@
 package com.tesco.aqueduct.registry.model;
 
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public interface NodeRequestStorage {
     void save(NodeRequest nodeRequest) throws SQLException;
     BootstrapType requiresBootstrap(Node node) throws SQLException;
+
+    /**
+     * @return pending bootstrap types by host, hosts without a pending bootstrap are absent
+     */
+    default Map<String, BootstrapType> requiresBootstrap(List<Node> nodes) throws SQLException {
+        final Map<String, BootstrapType> bootstrapTypes = new HashMap<>();
+        for (final Node node : nodes) {
+            final BootstrapType bootstrapType = requiresBootstrap(node);
+            if (bootstrapType != BootstrapType.NONE) {
+                bootstrapTypes.put(node.getHost(), bootstrapType);
+            }
+        }
+        return bootstrapTypes;
+    }
 }
@@ -4,27 +4,45 @@ import lombok.EqualsAndHashCode;
 
 import java.net.URL;
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.*;
 
 import static com.tesco.aqueduct.registry.model.Status.OFFLINE;
 import static java.util.Comparator.comparing;
 
-@EqualsAndHashCode
+/**
+ * Nodes of a sub group in follow tree order, each following the node chosen by the topology strategy. By default
+ * they are laid out as an array backed binary tree, see {@link BinaryTreeTopology}.
+ *
+ * Nodes are indexed by host, so registering a known node is constant time. For the binary tree follow urls are only
+ * recalculated for positions whose node changed and for the subtrees below them when their follow urls change as a
+ * result. Other strategies recalculate the whole sub group on every update.
+ */
+@EqualsAndHashCode(of = {"nodes", "subGroupId"})
 public class SubNodeGroup {
 
-    private static final int NUMBER_OF_CHILDREN_PER_NODE = 2;
+    // offline nodes last, then by generation and status, stable otherwise
+    private static final Comparator<Node> FOLLOW_TREE_ORDER =
+        comparing(Node::isOffline)
+            .thenComparing(Node::getGeneration)
+            .thenComparing(Node::getStatus);
 
-    public final List<Node> nodes;
+    private final List<Node> tree = new ArrayList<>();
+
+    public final List<Node> nodes = Collections.unmodifiableList(tree);
 
     public final String subGroupId; //this is version for now
 
+    private final Map<String, Integer> indexByHost = new HashMap<>();
+    private final BitSet staleFollowUrls = new BitSet();
+    private boolean sorted = true;
+    private TopologyStrategy topology = BinaryTreeTopology.INSTANCE;
+
+    // lower bounds of last seen, a scan for offline nodes is only needed once a threshold passes them
+    private ZonedDateTime oldestLastSeen;
+    private ZonedDateTime oldestOnlineLastSeen;
+    private boolean lastSeenUnknown;
+
     public SubNodeGroup(String subGroupId) {
-        this.nodes = new ArrayList<>();
         this.subGroupId = subGroupId;
     }
 
@@ -32,22 +50,45 @@ public class SubNodeGroup {
         return node.getSubGroupId().equals(subGroupId);
     }
 
+    /**
+     * Follow urls are recalculated on the next update
+     */
+    public void useTopology(TopologyStrategy topology) {
+        if (this.topology != topology) {
+            this.topology = topology;
+            staleFollowUrls.set(0, tree.size());
+        }
+    }
+
     public Node add(Node node, URL cloudUrl) {
-        final List<URL> followUrls = calculateFollowerUrls(cloudUrl, getNodeUrls().size());
+        if (!isBinaryTree()) {
+            append(node.buildWith(Collections.emptyList()));
+            sorted = false;
+            updateGetFollowing(cloudUrl);
+            return tree.get(tree.size() - 1);
+        }
+
+        final List<URL> followUrls = calculateFollowerUrls(cloudUrl, tree.size());
         final Node newNode = node.buildWith(followUrls);
-        nodes.add(newNode);
+        append(newNode);
+        sorted = false;
         return newNode;
     }
 
+    /**
+     * Adds a node as is, its position is checked on the next sort and its follow urls on the next update
+     */
     public Node add(Node newNode) {
-        nodes.add(newNode);
+        staleFollowUrls.set(tree.size());
+        append(newNode);
+        sorted = false;
         return newNode;
     }
 
-    private List<URL> getNodeUrls() {
-        return nodes.stream()
-            .map(Node::getLocalUrl)
-            .collect(Collectors.toList());
+    private void append(Node node) {
+        indexByHost.put(hostOf(node), tree.size());
+        tree.add(node);
+        trackLastSeen(node);
     }
 
     private List<URL> calculateFollowerUrls(final URL cloudUrl, int nodeIndex) {
@@ -56,96 +97,266 @@ public class SubNodeGroup {
         if (nodeIndex == 0) {
             followUrls.add(cloudUrl);
         } else {
-            int parentNodeIndex = ((nodeIndex + 1) / NUMBER_OF_CHILDREN_PER_NODE) - 1;
-            followUrls.add(nodes.get(parentNodeIndex).getLocalUrl());
-            followUrls.addAll(nodes.get(parentNodeIndex).getRequestedToFollow());
+            int parentNodeIndex = BinaryTreeTopology.parentOf(nodeIndex);
+            followUrls.add(tree.get(parentNodeIndex).getLocalUrl());
+            followUrls.addAll(tree.get(parentNodeIndex).getRequestedToFollow());
         }
 
         return followUrls;
     }
 
+    private boolean isBinaryTree() {
+        return topology instanceof BinaryTreeTopology;
+    }
+
+    /**
+     * Recalculates follow urls of the positions that changed since the last update, descending into a subtree only
+     * when the follow urls of its root changed.
+     */
     public void updateGetFollowing(URL cloudUrl) {
-        IntStream.range(0, nodes.size())
-            .forEach(i -> {
-                final Node updatedNode = nodes
-                    .get(i)
-                    .toBuilder()
-                    .requestedToFollow(calculateFollowerUrls(cloudUrl, i))
-                    .build();
+        if (!isBinaryTree()) {
+            applyTopology(cloudUrl);
+            staleFollowUrls.clear();
+            return;
+        }
+
+        for (int i = staleFollowUrls.nextSetBit(0); i >= 0 && i < tree.size(); i = staleFollowUrls.nextSetBit(i + 1)) {
+            final Node node = tree.get(i);
+            final List<URL> followUrls = calculateFollowerUrls(cloudUrl, i);
+
+            if (!sameUrls(node.getRequestedToFollow(), followUrls)) {
+                tree.set(i, node.toBuilder().requestedToFollow(followUrls).build());
+                markChildrenStale(i);
+            }
+        }
+        staleFollowUrls.clear();
+    }
+
+    private void applyTopology(URL cloudUrl) {
+        final int[] parents = topology.parents(tree);
+        final List<List<URL>> followUrls = new ArrayList<>(Collections.nCopies(tree.size(), null));
+
+        for (int i = 0; i < tree.size(); i++) {
+            final List<URL> urls = resolveFollowUrls(i, parents, followUrls, cloudUrl, 0);
+            final Node node = tree.get(i);
+            if (!sameUrls(node.getRequestedToFollow(), urls)) {
+                tree.set(i, node.toBuilder().requestedToFollow(urls).build());
+            }
+        }
+    }
+
+    // parents are resolved before their children, whatever their positions
+    private List<URL> resolveFollowUrls(int index, int[] parents, List<List<URL>> followUrls, URL cloudUrl, int depth) {
+        if (followUrls.get(index) != null) {
+            return followUrls.get(index);
+        }
+
+        final List<URL> urls = new ArrayList<>();
+        final int parent = parents[index];
+        if (parent == TopologyStrategy.CLOUD || parent == index || depth > tree.size()) {
+            urls.add(cloudUrl);
+        } else {
+            urls.add(tree.get(parent).getLocalUrl());
+            urls.addAll(resolveFollowUrls(parent, parents, followUrls, cloudUrl, depth + 1));
+        }
 
-                this.updateNodeByIndex(updatedNode, i);
-        });
+        followUrls.set(index, urls);
+        return urls;
     }
 
-    private void updateNodeByIndex(final Node updatedNode, int index) {
-        nodes.set(index, updatedNode);
+    private void nodeChangedAt(int index) {
+        staleFollowUrls.set(index);
+        markChildrenStale(index);
+    }
+
+    private void markChildrenStale(int index) {
+        final int firstChild = BinaryTreeTopology.firstChildOf(index);
+        final int lastChild = Math.min(firstChild + BinaryTreeTopology.NUMBER_OF_CHILDREN_PER_NODE, tree.size());
+        if (firstChild < lastChild) {
+            staleFollowUrls.set(firstChild, lastChild);
+        }
     }
 
     protected void handleOfflineNodes(ZonedDateTime markOfflineThreshold, ZonedDateTime removeOfflineThreshold) {
-        markNodesOfflineIfNotSeenSince(markOfflineThreshold);
-        removeOfflineNodesIfNotSeenSince(removeOfflineThreshold);
+        if (mayHaveNodesNotSeenSince(oldestOnlineLastSeen, markOfflineThreshold)) {
+            markNodesOfflineIfNotSeenSince(markOfflineThreshold);
+        }
+        if (mayHaveNodesNotSeenSince(oldestLastSeen, removeOfflineThreshold)) {
+            removeOfflineNodesIfNotSeenSince(removeOfflineThreshold);
+        }
+    }
+
+    private boolean mayHaveNodesNotSeenSince(ZonedDateTime oldest, ZonedDateTime threshold) {
+        return lastSeenUnknown || (oldest != null && oldest.compareTo(threshold) < 0);
     }
 
     private void markNodesOfflineIfNotSeenSince(ZonedDateTime threshold) {
-        IntStream.range(0, nodes.size())
-            .filter(i -> nodes.get(i).getLastSeen().compareTo(threshold) < 0)
-            .forEach(i -> updateNodeByIndex(nodes.get(i).toBuilder().status(OFFLINE).build(), i));
+        for (int i = 0; i < tree.size(); i++) {
+            final Node node = tree.get(i);
+            if (node.getLastSeen().compareTo(threshold) < 0 && !node.isOffline()) {
+                tree.set(i, node.toBuilder().status(OFFLINE).build());
+                sorted = false;
+            }
+        }
+        recalculateLastSeenBounds();
     }
 
     private void removeOfflineNodesIfNotSeenSince(ZonedDateTime threshold) {
-        nodes.removeIf(node -> node.getLastSeen().compareTo(threshold) < 0);
+        for (int i = tree.size() - 1; i >= 0; i--) {
+            if (tree.get(i).getLastSeen().compareTo(threshold) < 0) {
+                removeAt(i);
+            }
+        }
+        recalculateLastSeenBounds();
+    }
+
+    private void trackLastSeen(Node node) {
+        final ZonedDateTime lastSeen = node.getLastSeen();
+        if (lastSeen == null) {
+            lastSeenUnknown = true;
+            return;
+        }
+
+        oldestLastSeen = older(oldestLastSeen, lastSeen);
+        if (!node.isOffline()) {
+            oldestOnlineLastSeen = older(oldestOnlineLastSeen, lastSeen);
+        }
+    }
+
+    private void recalculateLastSeenBounds() {
+        oldestLastSeen = null;
+        oldestOnlineLastSeen = null;
+        lastSeenUnknown = false;
+        tree.forEach(this::trackLastSeen);
+    }
+
+    private static ZonedDateTime older(ZonedDateTime current, ZonedDateTime candidate) {
+        return current == null || candidate.compareTo(current) < 0 ? candidate : current;
     }
 
     public Optional<Node> getByHost(String host) {
-        return nodes
-            .stream()
-            .filter(n -> n.getHost().equals(host))
-            .findAny();
+        final Integer index = indexByHost.get(host);
+        return index == null ? Optional.empty() : Optional.of(tree.get(index));
     }
 
     public boolean isEmpty() {
-        return nodes.isEmpty();
+        return tree.isEmpty();
     }
 
     public boolean removeByHost(String host) {
-        return nodes.removeIf(node -> node.getHost().equals(host));
+        final Integer index = indexByHost.get(host);
+        if (index == null) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    // every node after the removed one moves up a position
+    private void removeAt(int index) {
+        final Node removed = tree.remove(index);
+        indexByHost.remove(hostOf(removed));
+
+        for (int i = index; i < tree.size(); i++) {
+            indexByHost.put(hostOf(tree.get(i)), i);
+        }
+        if (index < tree.size()) {
+            staleFollowUrls.set(index, tree.size());
+        }
     }
 
     public Node get(int index) {
-        return nodes.get(index);
+        return tree.get(index);
     }
 
     public void sortNodes(URL cloudUrl) {
-        nodes.sort(comparing(Node::getStatus));
-        nodes.sort(comparing(Node::getGeneration));
-        nodes.sort(onlineNodesFirst());
+        if (!sorted) {
+            if (!isInFollowTreeOrder()) {
+                reorder();
+            }
+            sorted = true;
+        }
         updateGetFollowing(cloudUrl);
     }
 
-    private Comparator<Node> onlineNodesFirst() {
-        return (n1,n2) -> {
-            if(n1.getStatus() == OFFLINE && n2.getStatus() == OFFLINE) {
-                return 0;
-            } else if (n1.getStatus() != OFFLINE && n2.getStatus() != OFFLINE) {
-                return 0;
-            // we only want to sort offline nodes here
-            } else if(n1.getStatus() == OFFLINE && n2.getStatus() != OFFLINE) {
-                return 1;
-            } else {
-                return -1;
+    private boolean isInFollowTreeOrder() {
+        for (int i = 1; i < tree.size(); i++) {
+            if (FOLLOW_TREE_ORDER.compare(tree.get(i - 1), tree.get(i)) > 0) {
+                return false;
             }
-        };
+        }
+        return true;
     }
 
-    public Optional<Node> findAndUpdate(Node nodeToRegister) {
-        for (int i=0; i<nodes.size(); i++) {
-            if(nodes.get(i).getHost().equals(nodeToRegister.getHost())) {
-                Node updatedNode = nodeToRegister.buildWith(nodes.get(i).getRequestedToFollow());
-                nodes.set(i, updatedNode);
-                return Optional.ofNullable(updatedNode);
+    private void reorder() {
+        final List<Node> previousOrder = new ArrayList<>(tree);
+        tree.sort(FOLLOW_TREE_ORDER);
+
+        for (int i = 0; i < tree.size(); i++) {
+            if (tree.get(i) != previousOrder.get(i)) {
+                indexByHost.put(hostOf(tree.get(i)), i);
+                nodeChangedAt(i);
             }
         }
+    }
+
+    public Optional<Node> findAndUpdate(Node nodeToRegister) {
+        final Integer index = indexByHost.get(nodeToRegister.getHost());
+        if (index == null) {
+            return Optional.empty();
+        }
+
+        final Node existing = tree.get(index);
+        final Node updatedNode = nodeToRegister.buildWith(existing.getRequestedToFollow());
+        replaceAt(index, existing, updatedNode);
+        return Optional.of(updatedNode);
+    }
+
+    public boolean replaceIfSeenMoreRecently(Node node) {
+        final Integer index = indexByHost.get(node.getHost());
+        if (index == null) {
+            return false;
+        }
+
+        final Node existing = tree.get(index);
+        if (existing.getLastSeen().isBefore(node.getLastSeen())) {
+            replaceAt(index, existing, node.toBuilder().requestedToFollow(existing.getRequestedToFollow()).build());
+            return true;
+        }
+        return false;
+    }
+
+    private void replaceAt(int index, Node existing, Node replacement) {
+        tree.set(index, replacement);
+        trackLastSeen(replacement);
+
+        if (!sameUrl(existing.getLocalUrl(), replacement.getLocalUrl())) {
+            markChildrenStale(index);
+        }
+        if (existing.getStatus() != replacement.getStatus()) {
+            staleFollowUrls.set(index);
+            sorted = false;
+        }
+    }
+
+    private static String hostOf(Node node) {
+        return node.getLocalUrl() == null ? null : node.getHost();
+    }
 
-        return Optional.empty();
+    // URL.equals resolves hosts, urls are compared by their string form
+    private static boolean sameUrl(URL url1, URL url2) {
+        return url1 == null ? url2 == null : url2 != null && url1.toString().equals(url2.toString());
+    }
+
+    private static boolean sameUrls(List<URL> urls1, List<URL> urls2) {
+        if (urls1 == null || urls2 == null || urls1.size() != urls2.size()) {
+            return false;
+        }
+        for (int i = 0; i < urls1.size(); i++) {
+            if (!sameUrl(urls1.get(i), urls2.get(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,16 @@
+package com.tesco.aqueduct.registry.model;
+
+import java.util.List;
+
+/**
+ * Decides which node each node of a sub group follows
+ */
+public interface TopologyStrategy {
+    int CLOUD = -1;
+
+    /**
+     * @param nodes nodes of a sub group in follow tree order
+     * @return for each node, the index of the node it follows or {@link #CLOUD}, the resulting graph has to be a tree
+     */
+    int[] parents(List<Node> nodes);
+}
@@ -0,0 +1,105 @@
+package com.tesco.aqueduct.registry.model
+
+import com.tesco.aqueduct.pipe.api.PipeState
+import spock.lang.Specification
+
+import static com.tesco.aqueduct.registry.model.Status.*
+import static com.tesco.aqueduct.registry.model.TopologyStrategy.CLOUD
+
+class LoadAwareTopologySpec extends Specification {
+
+    def topology = new LoadAwareTopology(2, 1, 100)
+
+    def "relays are placed breadth first below the cloud"() {
+        given:
+        def nodes = (1..7).collect { node("http://node-$it") }
+
+        expect:
+        topology.parents(nodes) as List == [CLOUD, 0, 0, 1, 1, 2, 2]
+    }
+
+    def "nodes that cannot relay are hung below relays only"() {
+        given:
+        def nodes = [
+            node("http://POS-1"),
+            node("http://node-1"),
+            node("http://lagging", 1000 - 101),
+            node("http://node-2"),
+            node("http://initialising", 1000, INITIALISING),
+            node("http://out-of-date", 1000, FOLLOWING, ["pipeState": PipeState.OUT_OF_DATE.toString()])
+        ]
+
+        when:
+        def parents = topology.parents(nodes) as List
+
+        then: "only strategic, following and up to date nodes serve others"
+        parents[1] == CLOUD
+        parents[3] == 1
+        [0, 2, 4, 5].every { parents[it] in [1, 3] }
+    }
+
+    def "a node serves as many followers as its reported capacity"() {
+        given:
+        def nodes = [
+            node("http://wide", 1000, FOLLOWING, [(LoadAwareTopology.CAPACITY_PROPERTY): "4"]),
+            node("http://no-relay", 1000, FOLLOWING, [(LoadAwareTopology.CAPACITY_PROPERTY): "0"]),
+            node("http://node-1"),
+            node("http://node-2"),
+            node("http://node-3"),
+            node("http://node-4")
+        ]
+
+        expect: "the relay with no capacity is hung below the first free slot"
+        topology.parents(nodes) as List == [CLOUD, 2, 0, 0, 0, 0]
+    }
+
+    def "the first node follows the cloud when no node can relay"() {
+        given:
+        def nodes = [node("http://POS-1"), node("http://POS-2"), node("http://POS-3")]
+
+        expect:
+        topology.parents(nodes) as List == [CLOUD, 0, 0]
+    }
+
+    def "relays take more followers than their capacity once every slot is used"() {
+        given:
+        def topology = new LoadAwareTopology(1, 1, 100)
+        def nodes = [node("http://node-1"), node("http://POS-1"), node("http://POS-2"), node("http://POS-3")]
+
+        expect:
+        topology.parents(nodes) as List == [CLOUD, 0, 0, 0]
+    }
+
+    def "cloud capacity has to be at least one"() {
+        when:
+        new LoadAwareTopology(2, 0, 100)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "sub group follow urls are calculated by the topology"() {
+        given:
+        def cloudUrl = new URL("http://cloud")
+        def subGroup = new SubNodeGroup("subGroupId")
+        subGroup.useTopology(topology)
+
+        when:
+        subGroup.add(node("http://POS-1"), cloudUrl)
+        subGroup.add(node("http://node-1"), cloudUrl)
+
+        then: "the legacy node follows the strategic one"
+        subGroup.getByHost("node-1").get().requestedToFollow == [cloudUrl]
+        subGroup.getByHost("POS-1").get().requestedToFollow == [new URL("http://node-1"), cloudUrl]
+    }
+
+    def node(String url, long offset = 1000, Status status = FOLLOWING, Map<String, String> pipe = [:]) {
+        Node.builder()
+            .group("group")
+            .localUrl(new URL(url))
+            .offset(offset)
+            .status(status)
+            .pipe(pipe)
+            .build()
+    }
+}
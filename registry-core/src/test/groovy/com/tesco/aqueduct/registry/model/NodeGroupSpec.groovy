@@ -702,6 +702,68 @@ class NodeGroupSpec extends Specification {
     }
 
 
+    def "heartbeat of a known node with unchanged status updates the node in place"() {
+        given: "a group with two nodes"
+        def url1 = new URL("http://1.1.1.1")
+        def url2 = new URL("http://2.2.2.2")
+        def group = new NodeGroup([
+            createNode("group", url1, 0, FOLLOWING, [], ZonedDateTime.now().minusMinutes(1), ["v":"1.0"], [CLOUD_URL]),
+            createNode("group", url2, 0, FOLLOWING, [], ZonedDateTime.now().minusMinutes(1), ["v":"1.0"], [url1, CLOUD_URL])
+        ])
+
+        when: "the second node sends a heartbeat with the same status"
+        def result = group.updateIfFollowTreeUnchanged(createNode("group", url2, 100, FOLLOWING))
+
+        then: "the node is updated and keeps its position in the follow tree"
+        result.isPresent()
+        result.get().offset == 100
+        result.get().requestedToFollow == [url1, CLOUD_URL]
+        group.getNodes()*.localUrl == [url1, url2]
+        group.getNodes().get(1).offset == 100
+    }
+
+    def "registration that changes the follow tree is not applied in place"() {
+        given: "a group with one node"
+        def url1 = new URL("http://1.1.1.1")
+        def group = new NodeGroup([createNode("group", url1, 0, FOLLOWING, [], ZonedDateTime.now(), ["v":"1.0"], [CLOUD_URL])])
+
+        expect: "nothing is updated"
+        !group.updateIfFollowTreeUnchanged(node).isPresent()
+        group.getNodes().get(0).offset == 0
+
+        where:
+        node << [
+            createNode("group", new URL("http://1.1.1.1"), 100, OFFLINE),
+            createNode("group", new URL("http://1.1.1.1:8080"), 100, FOLLOWING),
+            createNode("group", new URL("http://2.2.2.2"), 100, FOLLOWING)
+        ]
+    }
+
+    def "merging takes nodes seen more recently and keeps the follow tree of the target group"() {
+        given: "a group read from storage"
+        def url1 = new URL("http://1.1.1.1")
+        def url2 = new URL("http://2.2.2.2")
+        def stored = new NodeGroup([
+            createNode("group", url1, 0, FOLLOWING, [], ZonedDateTime.now().minusMinutes(5), ["v":"1.0"], [CLOUD_URL]),
+            createNode("group", url2, 0, FOLLOWING, [], ZonedDateTime.now().minusMinutes(5), ["v":"1.0"], [url1, CLOUD_URL])
+        ])
+
+        and: "a cached copy with a more recent heartbeat of one node, an older one of another and an unknown node"
+        def cached = new NodeGroup([
+            createNode("group", url2, 100, FOLLOWING, [], ZonedDateTime.now(), ["v":"1.0"], [CLOUD_URL]),
+            createNode("group", url1, 50, FOLLOWING, [], ZonedDateTime.now().minusMinutes(10), ["v":"1.0"], [CLOUD_URL]),
+            createNode("group", new URL("http://3.3.3.3"), 100, FOLLOWING, [], ZonedDateTime.now(), ["v":"1.0"], [CLOUD_URL])
+        ])
+
+        when:
+        stored.mergeMoreRecentlySeen(cached)
+
+        then: "only the more recent heartbeat is taken"
+        stored.getNodes()*.localUrl == [url1, url2]
+        stored.getNodes()*.offset == [0, 100]
+        stored.getNodes().get(1).requestedToFollow == [url1, CLOUD_URL]
+    }
+
     def createNode(
         String group,
         URL url,
@@ -2,6 +2,12 @@ package com.tesco.aqueduct.registry.model
 
 import spock.lang.Specification
 
+import java.time.ZonedDateTime
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING
+import static com.tesco.aqueduct.registry.model.Status.INITIALISING
+import static com.tesco.aqueduct.registry.model.Status.OFFLINE
+
 class SubNodeGroupSpec extends Specification {
 
     SubNodeGroup subNodeGroup;
@@ -80,4 +86,106 @@ class SubNodeGroupSpec extends Specification {
         then: "null is returned"
         result == Optional.empty()
     }
+
+    def "heartbeat of a known node leaves the other nodes untouched"() {
+        given: "a sorted sub group of three nodes"
+        def cloudUrl = new URL("http://some-cloud-url")
+        (1..3).each { subNodeGroup.add(node("http://node-$it", FOLLOWING), cloudUrl) }
+        subNodeGroup.sortNodes(cloudUrl)
+        def before = new ArrayList(subNodeGroup.nodes)
+
+        when: "the last node sends a heartbeat and the sub group is sorted"
+        def updated = subNodeGroup.findAndUpdate(node("http://node-3", FOLLOWING, 100))
+        subNodeGroup.sortNodes(cloudUrl)
+
+        then: "the node keeps its follow urls"
+        updated.get().requestedToFollow == [new URL("http://node-1"), cloudUrl]
+        subNodeGroup.nodes.get(2).offset == 100
+
+        and: "the other nodes are the same instances"
+        subNodeGroup.nodes.get(0).is(before.get(0))
+        subNodeGroup.nodes.get(1).is(before.get(1))
+    }
+
+    def "removing a node recalculates the follow urls of the nodes moving up"() {
+        given: "a sub group of four nodes"
+        def cloudUrl = new URL("http://some-cloud-url")
+        (1..4).each { subNodeGroup.add(node("http://node-$it", FOLLOWING), cloudUrl) }
+
+        when: "the second node is removed"
+        subNodeGroup.removeByHost("node-2")
+        subNodeGroup.updateGetFollowing(cloudUrl)
+
+        then: "the remaining nodes follow their new parent"
+        subNodeGroup.nodes*.localUrl == [new URL("http://node-1"), new URL("http://node-3"), new URL("http://node-4")]
+        subNodeGroup.nodes*.requestedToFollow == [
+            [cloudUrl],
+            [new URL("http://node-1"), cloudUrl],
+            [new URL("http://node-1"), cloudUrl]
+        ]
+
+        and: "the removed host is not found any more"
+        !subNodeGroup.getByHost("node-2").isPresent()
+        subNodeGroup.getByHost("node-4").get().localUrl == new URL("http://node-4")
+    }
+
+    def "status change moves the node and recalculates the affected subtrees"() {
+        given: "a sub group with an initialising root"
+        def cloudUrl = new URL("http://some-cloud-url")
+        subNodeGroup.add(node("http://node-1", INITIALISING), cloudUrl)
+        subNodeGroup.add(node("http://node-2", INITIALISING), cloudUrl)
+        subNodeGroup.add(node("http://node-3", INITIALISING), cloudUrl)
+        subNodeGroup.add(node("http://node-4", INITIALISING), cloudUrl)
+
+        when: "the last node starts following"
+        subNodeGroup.findAndUpdate(node("http://node-4", FOLLOWING))
+        subNodeGroup.sortNodes(cloudUrl)
+
+        then: "it becomes the root and its former parent follows it"
+        subNodeGroup.nodes*.localUrl == [new URL("http://node-4"), new URL("http://node-1"), new URL("http://node-2"), new URL("http://node-3")]
+        subNodeGroup.nodes*.requestedToFollow == [
+            [cloudUrl],
+            [new URL("http://node-4"), cloudUrl],
+            [new URL("http://node-4"), cloudUrl],
+            [new URL("http://node-1"), new URL("http://node-4"), cloudUrl]
+        ]
+        subNodeGroup.getByHost("node-4").get().status == FOLLOWING
+    }
+
+    def "nodes are only scanned for being offline once a threshold passes their last seen"() {
+        given: "a sub group of nodes seen an hour ago and now"
+        def cloudUrl = new URL("http://some-cloud-url")
+        subNodeGroup.add(node("http://node-1", FOLLOWING, 0, ZonedDateTime.now().minusHours(1)))
+        subNodeGroup.add(node("http://node-2", FOLLOWING, 0, ZonedDateTime.now()))
+
+        when: "offline nodes are handled with thresholds before both"
+        subNodeGroup.handleOfflineNodes(ZonedDateTime.now().minusHours(2), ZonedDateTime.now().minusDays(1))
+
+        then: "nothing changes"
+        subNodeGroup.nodes*.status == [FOLLOWING, FOLLOWING]
+
+        when: "the mark offline threshold passes the first node"
+        subNodeGroup.handleOfflineNodes(ZonedDateTime.now().minusMinutes(30), ZonedDateTime.now().minusDays(1))
+        subNodeGroup.sortNodes(cloudUrl)
+
+        then: "it is marked offline and moved to the bottom"
+        subNodeGroup.nodes*.localUrl == [new URL("http://node-2"), new URL("http://node-1")]
+        subNodeGroup.nodes*.status == [FOLLOWING, OFFLINE]
+
+        when: "the remove threshold passes the first node"
+        subNodeGroup.handleOfflineNodes(ZonedDateTime.now().minusMinutes(30), ZonedDateTime.now().minusMinutes(30))
+
+        then: "it is removed"
+        subNodeGroup.nodes*.localUrl == [new URL("http://node-2")]
+    }
+
+    private static Node node(String url, Status status, long offset = 0, ZonedDateTime lastSeen = null) {
+        Node.builder()
+            .localUrl(new URL(url))
+            .status(status)
+            .offset(offset)
+            .lastSeen(lastSeen)
+            .pipe(["v":"1.0"])
+            .build()
+    }
 }
@@ -0,0 +1,81 @@
+package com.tesco.aqueduct.registry.model
+
+import java.time.ZonedDateTime
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING
+
+/**
+ * Replays heartbeats of a group of nodes through a node group, the way the registry does, and measures the follow
+ * tree it ends up with.
+ */
+class TopologySimulation {
+    static final URL CLOUD_URL = new URL("http://cloud")
+
+    final NodeGroup group = new NodeGroup()
+    final long maxLag
+
+    long latestOffset = 0
+
+    TopologySimulation(TopologyStrategy topology, long maxLag) {
+        group.useTopology(topology)
+        this.maxLag = maxLag
+    }
+
+    /**
+     * One heartbeat from every node given, lagging nodes report offsets more than max lag behind, nodes left out
+     * stop heartbeating and are marked offline.
+     */
+    void round(List<String> hosts, Set<String> lagging = [] as Set) {
+        final ZonedDateTime roundStart = ZonedDateTime.now()
+        sleep(2)
+
+        latestOffset += 100
+        hosts.each { host ->
+            final long offset = lagging.contains(host) ? latestOffset - maxLag - 1 : latestOffset
+            group.upsert(node(host, offset), CLOUD_URL)
+        }
+        group.processNodes(roundStart, roundStart.minusYears(1), CLOUD_URL)
+    }
+
+    /**
+     * Largest number of hops between a node and the cloud
+     */
+    int maxDepth() {
+        group.nodes*.requestedToFollow*.size().max() ?: 0
+    }
+
+    /**
+     * Online nodes reading from the cloud, as nothing online is between them and the cloud
+     */
+    int cloudEgress() {
+        final Map<String, Node> nodesByUrl = group.nodes.collectEntries { [(it.localUrl.toString()): it] }
+        group.nodes.findAll { !it.offline }.count { node ->
+            final URL upstream = node.requestedToFollow.find { url ->
+                url.toString() == CLOUD_URL.toString() || !nodesByUrl[url.toString()]?.offline
+            }
+            upstream.toString() == CLOUD_URL.toString()
+        } as int
+    }
+
+    /**
+     * Nodes serving followers while being legacy, offline or lagging more than max lag
+     */
+    int weakRelays() {
+        final Set<String> relays = group.nodes.collect { it.requestedToFollow.first().toString() } as Set
+        group.nodes.count { node ->
+            relays.contains(node.localUrl.toString())
+                && (node.generation == Generation.LEGACY || node.offline || latestOffset - node.offset > maxLag)
+        } as int
+    }
+
+    private static Node node(String host, long offset) {
+        Node.builder()
+            .group("group")
+            .localUrl(new URL("http://" + host))
+            .offset(offset)
+            .status(FOLLOWING)
+            .following([CLOUD_URL])
+            .pipe([:])
+            .build()
+    }
+}
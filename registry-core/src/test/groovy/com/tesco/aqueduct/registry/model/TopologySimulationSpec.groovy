@@ -0,0 +1,46 @@
+package com.tesco.aqueduct.registry.model
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class TopologySimulationSpec extends Specification {
+
+    static final long MAX_LAG = 1000
+
+    // legacy tills registering first, a few lagging and a few stopping to heartbeat halfway
+    def hosts = (1..10).collect { "POS-$it" } + (1..30).collect { "node-$it" }
+    def lagging = (1..5).collect { "node-$it" } as Set
+    def stopped = (6..8).collect { "node-$it" }
+
+    @Unroll
+    def "#name topology keeps lagging, legacy and offline nodes out of the way"() {
+        given:
+        def simulation = new TopologySimulation(topology, MAX_LAG)
+
+        when:
+        5.times { simulation.round(hosts) }
+        5.times { simulation.round(hosts - stopped, lagging) }
+
+        then:
+        simulation.maxDepth() <= maxDepth
+        simulation.cloudEgress() == cloudEgress
+        simulation.weakRelays() == weakRelays
+
+        where:
+        name         | topology                                  || maxDepth | cloudEgress | weakRelays
+        "load-aware" | new LoadAwareTopology(2, 1, MAX_LAG)      || 6        | 1           | 0
+        "wide"       | new LoadAwareTopology(4, 2, MAX_LAG)      || 4        | 2           | 0
+    }
+
+    def "binary tree lets lagging nodes serve followers"() {
+        given:
+        def simulation = new TopologySimulation(BinaryTreeTopology.INSTANCE, MAX_LAG)
+
+        when:
+        5.times { simulation.round(hosts) }
+        5.times { simulation.round(hosts - stopped, lagging) }
+
+        then:
+        simulation.weakRelays() > 0
+    }
+}
@@ -0,0 +1,156 @@
+package com.tesco.aqueduct.registry.postgres
+
+import com.opentable.db.postgres.junit.EmbeddedPostgresRules
+import com.opentable.db.postgres.junit.SingleInstancePostgresRule
+import com.tesco.aqueduct.registry.model.Bootstrap
+import com.tesco.aqueduct.registry.model.BootstrapType
+import com.tesco.aqueduct.registry.model.Node
+import com.tesco.aqueduct.registry.model.NodeRequest
+import groovy.sql.Sql
+import org.junit.ClassRule
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.sql.DataSource
+import java.sql.Connection
+import java.sql.DriverManager
+import java.time.Duration
+import java.time.LocalDateTime
+
+class PendingBootstrapIndexIntegrationSpec extends Specification {
+
+    @ClassRule @Shared
+    SingleInstancePostgresRule pg = EmbeddedPostgresRules.singleInstance()
+
+    @AutoCleanup
+    Sql sql
+    DataSource dataSource
+    String jdbcUrl
+    List<Connection> pooledConnections
+
+    @AutoCleanup
+    PendingBootstrapIndex index1
+    @AutoCleanup
+    PendingBootstrapIndex index2
+
+    PostgreSQLNodeRequestStorage storage1
+    PostgreSQLNodeRequestStorage storage2
+
+    PollingConditions conditions = new PollingConditions(timeout: 5)
+
+    def setup() {
+        sql = new Sql(pg.embeddedPostgres.postgresDatabase.connection)
+
+        jdbcUrl = pg.embeddedPostgres.getJdbcUrl("postgres", "postgres")
+        pooledConnections = [].asSynchronized()
+        dataSource = Mock()
+
+        dataSource.connection >> {
+            def connection = DriverManager.getConnection(jdbcUrl)
+            pooledConnections << connection
+            connection
+        }
+
+        sql.execute("""
+            DROP TABLE IF EXISTS node_requests;
+
+            CREATE TABLE node_requests(
+                host_id VARCHAR PRIMARY KEY NOT NULL,
+                bootstrap_requested timestamp NOT NULL,
+                bootstrap_type VARCHAR NOT NULL,
+                bootstrap_received timestamp
+            );
+        """)
+
+        sql.execute("INSERT INTO node_requests VALUES ('pending-host', now(), 'PROVIDER', null), ('received-host', now(), 'PROVIDER', now());")
+
+        // two instances sharing the database
+        index1 = new PendingBootstrapIndex(dataSource, jdbcUrl, "postgres", "postgres", Duration.ofMinutes(1), Duration.ofMillis(50))
+        index2 = new PendingBootstrapIndex(dataSource, jdbcUrl, "postgres", "postgres", Duration.ofMinutes(1), Duration.ofMillis(50))
+        storage1 = new PostgreSQLNodeRequestStorage(dataSource, index1)
+        storage2 = new PostgreSQLNodeRequestStorage(dataSource, index2)
+    }
+
+    def "every host counts as pending until the index is loaded"() {
+        expect:
+        index1.isPending("any-host")
+    }
+
+    def "index is loaded with hosts whose bootstrap has not been received"() {
+        when:
+        index1.start()
+
+        then:
+        conditions.eventually {
+            assert !index1.isPending("received-host")
+            assert index1.isPending("pending-host")
+        }
+    }
+
+    def "listening does not hold a connection of the pool"() {
+        when:
+        index1.start()
+
+        then: "the connections the index was loaded with are back in the pool while it listens"
+        conditions.eventually {
+            assert !index1.isPending("received-host")
+            assert !pooledConnections.isEmpty()
+            assert pooledConnections.every { it.isClosed() }
+        }
+    }
+
+    def "heartbeats of hosts without a pending request do not query node requests"() {
+        given: "a loaded index"
+        index1.start()
+        conditions.eventually {
+            assert !index1.isPending("received-host")
+        }
+
+        and: "node requests cannot be read anymore"
+        sql.execute("ALTER TABLE node_requests RENAME TO node_requests_unavailable;")
+
+        when:
+        def bootstrapType = storage1.requiresBootstrap(node("other-host"))
+        def bootstrapTypes = storage1.requiresBootstrap([node("other-host"), node("received-host")])
+
+        then:
+        bootstrapType == BootstrapType.NONE
+        bootstrapTypes.isEmpty()
+
+        cleanup:
+        sql.execute("ALTER TABLE node_requests_unavailable RENAME TO node_requests;")
+    }
+
+    def "a request saved by one instance is delivered once by another"() {
+        given: "both instances loaded"
+        index1.start()
+        index2.start()
+        conditions.eventually {
+            assert !index1.isPending("host-id")
+            assert !index2.isPending("host-id")
+        }
+
+        when: "the first instance saves a bootstrap request"
+        storage1.save(new NodeRequest("host-id", new Bootstrap(BootstrapType.PIPE_AND_PROVIDER, LocalDateTime.now())))
+
+        then: "the second instance is notified"
+        conditions.eventually {
+            assert index2.isPending("host-id")
+        }
+
+        and: "the bootstrap is delivered once"
+        storage2.requiresBootstrap(node("host-id")) == BootstrapType.PIPE_AND_PROVIDER
+        storage1.requiresBootstrap(node("host-id")) == BootstrapType.NONE
+        storage2.requiresBootstrap(node("host-id")) == BootstrapType.NONE
+
+        and: "both indexes dropped the host"
+        !index1.isPending("host-id")
+        !index2.isPending("host-id")
+    }
+
+    def node(String host) {
+        Node.builder().localUrl(new URL("http://" + host)).build()
+    }
+}
@@ -2,9 +2,11 @@ package com.tesco.aqueduct.registry.postgres
 
 import com.opentable.db.postgres.junit.EmbeddedPostgresRules
 import com.opentable.db.postgres.junit.SingleInstancePostgresRule
+import com.tesco.aqueduct.pipe.api.JsonHelper
 import com.tesco.aqueduct.registry.model.Node
 import com.tesco.aqueduct.registry.model.NodeRegistry
 import com.tesco.aqueduct.registry.model.Status
+import groovy.json.JsonSlurper
 import groovy.sql.Sql
 import org.junit.ClassRule
 import spock.lang.AutoCleanup
@@ -240,6 +242,29 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
         []                   | ["http://a1", "http://a2", "http://b1", "http://b2", "http://c1"]
     }
 
+    @Unroll
+    def "streamed summary has the same followers as the summary for groups #filterGroups"() {
+        given: "A registry with a few nodes in different groups"
+        registerNode("groupA", "http://a1", 123, FOLLOWING, [cloudURL])
+        registerNode("groupB", "http://b1", 123, FOLLOWING, [cloudURL])
+        registerNode("groupA", "http://a2", 123, INITIALISING, [cloudURL])
+
+        when: "the summary is written to a generator"
+        def out = new ByteArrayOutputStream()
+        def generator = JsonHelper.MAPPER.getFactory().createGenerator(out)
+        registry.writeSummary(1111, FOLLOWING, filterGroups, generator)
+        generator.close()
+
+        then:
+        def streamed = new JsonSlurper().parse(out.toByteArray())
+        def expected = new JsonSlurper().parseText(JsonHelper.toJson(registry.getSummary(1111, FOLLOWING, filterGroups)))
+        streamed.followers == expected.followers
+        streamed.root.offset == expected.root.offset
+
+        where:
+        filterGroups << [[], ["groupA"], ["groupA", "groupB"], ["groupC"]]
+    }
+
     def "the first node in the group to register gets assigned to the cloud"() {
         when: "Nodes are registered in different groups"
         def followA = registerNode("groupA", "http://a")
@@ -780,6 +805,91 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
         followers[5].requestedToFollow == [url5, url3, cloudURL]
     }
 
+    def "cached registry keeps heartbeats that do not change the follow tree in memory until flushed"() {
+        given: "a registry with a node group cache"
+        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2), new NodeGroupCache())
+
+        and: "a registered node"
+        registerNode("group", "http://1.1.1.1", 100, FOLLOWING)
+        def storedVersion = sql.firstRow("SELECT version FROM registry WHERE group_id = 'group'").version
+
+        when: "the node sends a heartbeat with a new offset"
+        def node = registerNode("group", "http://1.1.1.1", 200, FOLLOWING)
+
+        then: "it is still told to follow the cloud"
+        node.requestedToFollow == [cloudURL]
+
+        and: "the stored group is untouched"
+        sql.firstRow("SELECT version FROM registry WHERE group_id = 'group'").version == storedVersion
+        registry.getSummary(0, FOLLOWING, ["group"]).followers[0].offset == 100
+
+        when: "the registry is flushed"
+        registry.flush()
+
+        then: "the heartbeat is persisted"
+        sql.firstRow("SELECT version FROM registry WHERE group_id = 'group'").version == storedVersion + 1
+        registry.getSummary(0, FOLLOWING, ["group"]).followers[0].offset == 200
+    }
+
+    def "cached registry writes through when the follow tree changes"() {
+        given: "a registry with a node group cache"
+        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2), new NodeGroupCache())
+
+        and: "a registered node with a heartbeat kept in memory"
+        registerNode("group", "http://1.1.1.1", 100, FOLLOWING)
+        registerNode("group", "http://1.1.1.1", 200, FOLLOWING)
+
+        when: "a new node joins the group"
+        def node = registerNode("group", "http://2.2.2.2", 50, INITIALISING)
+
+        then: "it is told to follow the first node"
+        node.requestedToFollow == [new URL("http://1.1.1.1"), cloudURL]
+
+        and: "the pending heartbeat is persisted with it"
+        def followers = registry.getSummary(0, FOLLOWING, ["group"]).followers
+        followers*.offset == [200, 50]
+    }
+
+    def "cached registry does not overwrite groups changed by another instance"() {
+        given: "two registries sharing the database, one with a node group cache"
+        def cachedRegistry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2), new NodeGroupCache())
+
+        and: "a node registered through the cached registry"
+        cachedRegistry.register(createNode("group", new URL("http://1.1.1.1"), 100, FOLLOWING))
+
+        and: "a node registered through the other registry"
+        registry.register(createNode("group", new URL("http://2.2.2.2"), 50, FOLLOWING))
+
+        when: "the first node sends a heartbeat to the cached registry and it is flushed"
+        cachedRegistry.register(createNode("group", new URL("http://1.1.1.1"), 200, FOLLOWING))
+        cachedRegistry.flush()
+
+        then: "both nodes are stored"
+        def followers = registry.getSummary(0, FOLLOWING, ["group"]).followers
+        followers*.localUrl == [new URL("http://1.1.1.1"), new URL("http://2.2.2.2")]
+        followers*.offset == [200, 50]
+    }
+
+    def "cached registry drops the group of a deleted node"() {
+        given: "two registries sharing the database, one with a node group cache"
+        def cachedRegistry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2), new NodeGroupCache())
+
+        and: "the only node of a group deleted through the cached registry"
+        cachedRegistry.register(createNode("group", new URL("http://1.1.1.1"), 100, FOLLOWING))
+        cachedRegistry.deleteNode("group", "1.1.1.1")
+
+        and: "the group created again with another node through the other registry"
+        registry.register(createNode("group", new URL("http://2.2.2.2"), 50, FOLLOWING))
+
+        when: "the deleted node registers again with the cached registry and it is flushed"
+        cachedRegistry.register(createNode("group", new URL("http://1.1.1.1"), 200, FOLLOWING))
+        cachedRegistry.flush()
+
+        then: "both nodes are stored"
+        def followers = registry.getSummary(0, FOLLOWING, ["group"]).followers
+        followers*.localUrl as Set == [new URL("http://1.1.1.1"), new URL("http://2.2.2.2")] as Set
+    }
+
     // provided hierarchy, vs expected hierarchy
     // update last seen date
 
@@ -0,0 +1,209 @@
+package com.tesco.aqueduct.registry.postgres
+
+import com.opentable.db.postgres.junit.EmbeddedPostgresRules
+import com.opentable.db.postgres.junit.SingleInstancePostgresRule
+import com.tesco.aqueduct.registry.model.Node
+import com.tesco.aqueduct.registry.model.Status
+import groovy.sql.Sql
+import org.junit.ClassRule
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import javax.sql.DataSource
+import java.sql.DriverManager
+import java.time.Duration
+import java.time.ZonedDateTime
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING
+import static com.tesco.aqueduct.registry.model.Status.INITIALISING
+import static com.tesco.aqueduct.registry.model.Status.OFFLINE
+
+class PostgreSQLNodeRowRegistryIntegrationSpec extends Specification {
+
+    @ClassRule @Shared
+    SingleInstancePostgresRule pg = EmbeddedPostgresRules.singleInstance()
+
+    @AutoCleanup
+    Sql sql
+    URL cloudURL = new URL("http://cloud.pipe:8080")
+    DataSource dataSource
+    PostgreSQLNodeRowRegistry registry
+
+    def setup() {
+        sql = new Sql(pg.embeddedPostgres.postgresDatabase.connection)
+
+        dataSource = Mock()
+
+        dataSource.connection >> {
+            DriverManager.getConnection(pg.embeddedPostgres.getJdbcUrl("postgres", "postgres"))
+        }
+
+        sql.execute("""
+            DROP TABLE IF EXISTS registry;
+            DROP TABLE IF EXISTS registry_node;
+
+            CREATE TABLE registry(
+            group_id VARCHAR PRIMARY KEY NOT NULL,
+            entry JSON NOT NULL,
+            version integer NOT NULL
+            );
+
+            CREATE TABLE registry_node(
+            group_id VARCHAR NOT NULL,
+            host VARCHAR NOT NULL,
+            local_url VARCHAR NOT NULL,
+            position integer NOT NULL,
+            status VARCHAR NOT NULL,
+            last_seen TIMESTAMP WITH TIME ZONE NOT NULL,
+            requested_to_follow JSON NOT NULL,
+            entry JSON NOT NULL,
+            PRIMARY KEY (group_id, host)
+            );
+            CREATE INDEX registry_node_last_seen_idx ON registry_node (last_seen);
+            CREATE INDEX registry_node_status_idx ON registry_node (status);
+        """)
+
+        registry = new PostgreSQLNodeRowRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2))
+    }
+
+    def "nodes joining a group are placed in the follow tree"() {
+        when: "three nodes register"
+        def node1 = registry.register(createNode("group", new URL("http://1.1.1.1"), 100, FOLLOWING))
+        def node2 = registry.register(createNode("group", new URL("http://2.2.2.2"), 100, FOLLOWING))
+        def node3 = registry.register(createNode("group", new URL("http://3.3.3.3"), 100, FOLLOWING))
+
+        then: "they are told to follow their parent"
+        node1.requestedToFollow == [cloudURL]
+        node2.requestedToFollow == [new URL("http://1.1.1.1"), cloudURL]
+        node3.requestedToFollow == [new URL("http://1.1.1.1"), cloudURL]
+
+        and: "there is one row per node"
+        sql.rows("SELECT host, position FROM registry_node ORDER BY position")*.host == ["1.1.1.1", "2.2.2.2", "3.3.3.3"]
+    }
+
+    def "heartbeat of a known node only updates its own row"() {
+        given: "two registered nodes"
+        registry.register(createNode("group", new URL("http://1.1.1.1"), 100, FOLLOWING))
+        registry.register(createNode("group", new URL("http://2.2.2.2"), 100, FOLLOWING))
+        def firstNodeLastSeen = sql.firstRow("SELECT last_seen FROM registry_node WHERE host = '1.1.1.1'").last_seen
+
+        when: "the second node sends a heartbeat"
+        def node = registry.register(createNode("group", new URL("http://2.2.2.2"), 200, FOLLOWING))
+
+        then: "its follow urls are returned"
+        node.requestedToFollow == [new URL("http://1.1.1.1"), cloudURL]
+
+        and: "the heartbeat is stored"
+        registry.getSummary(0, FOLLOWING, ["group"]).followers*.offset == [100, 200]
+
+        and: "the other row is untouched"
+        sql.firstRow("SELECT last_seen FROM registry_node WHERE host = '1.1.1.1'").last_seen == firstNodeLastSeen
+    }
+
+    def "status change reorganises the follow tree"() {
+        given: "two registered nodes"
+        registry.register(createNode("group", new URL("http://1.1.1.1"), 100, INITIALISING))
+        registry.register(createNode("group", new URL("http://2.2.2.2"), 100, FOLLOWING))
+
+        expect: "the following node is moved to the top of the tree"
+        def followers = registry.getSummary(0, FOLLOWING, ["group"]).followers
+        followers*.localUrl == [new URL("http://2.2.2.2"), new URL("http://1.1.1.1")]
+        followers[1].requestedToFollow == [new URL("http://2.2.2.2"), cloudURL]
+    }
+
+    def "flush marks nodes not seen in time offline"() {
+        given: "a registry with a short offline delta"
+        registry = new PostgreSQLNodeRowRegistry(dataSource, cloudURL, Duration.ofSeconds(5), Duration.ofDays(1))
+
+        and: "two registered nodes"
+        registry.register(createNode("group", new URL("http://1.1.1.1"), 100, FOLLOWING))
+        registry.register(createNode("group", new URL("http://2.2.2.2"), 100, FOLLOWING))
+
+        and: "the first node has not been seen for a while"
+        sql.execute("UPDATE registry_node SET last_seen = now() - interval '1 minute' WHERE host = '1.1.1.1'")
+
+        when:
+        registry.flush()
+
+        then: "it is marked offline and moved to the bottom of the tree"
+        def rows = sql.rows("SELECT host, status, position FROM registry_node ORDER BY position")
+        rows*.host == ["2.2.2.2", "1.1.1.1"]
+        rows*.status == [FOLLOWING.name(), OFFLINE.name()]
+    }
+
+    def "deleting a node reorganises the follow tree"() {
+        given: "two registered nodes"
+        registry.register(createNode("group", new URL("http://1.1.1.1"), 100, FOLLOWING))
+        registry.register(createNode("group", new URL("http://2.2.2.2"), 100, FOLLOWING))
+
+        when:
+        def deleted = registry.deleteNode("group", "1.1.1.1")
+
+        then:
+        deleted
+        def followers = registry.getSummary(0, FOLLOWING, ["group"]).followers
+        followers*.localUrl == [new URL("http://2.2.2.2")]
+        followers[0].requestedToFollow == [cloudURL]
+    }
+
+    def "groups stored as a JSON entry are migrated to node rows"() {
+        given: "a group stored by the group registry"
+        def groupRegistry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2))
+        groupRegistry.register(createNode("group", new URL("http://1.1.1.1"), 100, FOLLOWING))
+        groupRegistry.register(createNode("group", new URL("http://2.2.2.2"), 200, FOLLOWING))
+
+        when: "it is migrated twice"
+        def migrated = registry.migrateFromGroupEntries()
+        def migratedAgain = registry.migrateFromGroupEntries()
+
+        then: "nodes are copied once"
+        migrated == 2
+        migratedAgain == 0
+
+        and: "the follow tree is kept"
+        def followers = registry.getSummary(0, FOLLOWING, ["group"]).followers
+        followers*.offset == [100, 200]
+        followers[1].requestedToFollow == [new URL("http://1.1.1.1"), cloudURL]
+    }
+
+    def "nodes deleted after the migration are not migrated again"() {
+        given: "a group migrated from the group registry"
+        def groupRegistry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2))
+        groupRegistry.register(createNode("group", new URL("http://1.1.1.1"), 100, FOLLOWING))
+        groupRegistry.register(createNode("group", new URL("http://2.2.2.2"), 200, FOLLOWING))
+        registry.migrateFromGroupEntries()
+
+        and: "one of its nodes deleted"
+        registry.deleteNode("group", "2.2.2.2")
+
+        when:
+        def migratedAgain = registry.migrateFromGroupEntries()
+
+        then: "the node stays gone"
+        migratedAgain == 0
+        registry.getSummary(0, FOLLOWING, ["group"]).followers*.localUrl == [new URL("http://1.1.1.1")]
+    }
+
+    def createNode(
+        String group,
+        URL url,
+        long offset=0,
+        Status status=INITIALISING,
+        List<URL> following=[],
+        ZonedDateTime created=null,
+        Map<String, String> pipeProperties=["v":"1.0"],
+        List<URL> requestedToFollow=[]
+    ) {
+        return Node.builder()
+            .localUrl(url)
+            .group(group)
+            .status(status)
+            .offset(offset)
+            .following(following)
+            .lastSeen(created)
+            .requestedToFollow(requestedToFollow)
+            .pipe(pipeProperties)
+            .build()
+    }
+}
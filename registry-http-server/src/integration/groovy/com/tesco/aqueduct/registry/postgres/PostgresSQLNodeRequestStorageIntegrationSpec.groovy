@@ -135,4 +135,22 @@ class PostgresSQLNodeRequestStorageIntegrationSpec extends Specification {
         then: "bootstrap is not returned"
         response == BootstrapType.NONE
     }
+
+    def "pending bootstrap requests of many nodes are read and consumed together"() {
+        given: "bootstrap requests for two of three hosts"
+        LocalDateTime now = LocalDateTime.now()
+        nodeRequestStorage.save(new NodeRequest("host-1", new Bootstrap(BootstrapType.PROVIDER, now)))
+        nodeRequestStorage.save(new NodeRequest("host-2", new Bootstrap(BootstrapType.PIPE_AND_PROVIDER, now)))
+        def nodes = ["host-1", "host-2", "host-3"].collect { Node.builder().localUrl(new URL("http://$it")).build() }
+
+        when: "bootstrap is required for the three nodes"
+        def firstResponse = nodeRequestStorage.requiresBootstrap(nodes)
+
+        and: "for a second time"
+        def secondResponse = nodeRequestStorage.requiresBootstrap(nodes)
+
+        then: "pending requests are returned once"
+        firstResponse == ["host-1": BootstrapType.PROVIDER, "host-2": BootstrapType.PIPE_AND_PROVIDER]
+        secondResponse == [:]
+    }
 }
@@ -0,0 +1,120 @@
+package com.tesco.aqueduct.registry.postgres;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import com.tesco.aqueduct.registry.model.Node;
+import com.tesco.aqueduct.registry.model.NodeRegistry;
+import com.tesco.aqueduct.registry.model.Status;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Heartbeat throughput of the JSON entry per group registry against the row per node registry, with every store
+ * of a group sending heartbeats concurrently.
+ */
+@Fork(value = 1)
+@Threads(8)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode(Mode.Throughput)
+public class HeartbeatBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class RegistryState {
+
+        @Param({"group", "node"})
+        public String storage;
+
+        @Param({"50"})
+        public int nodesPerGroup;
+
+        @Param({"20"})
+        public int groups;
+
+        private EmbeddedPostgres pg;
+        NodeRegistry registry;
+        URL cloudUrl;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException, SQLException {
+            pg = EmbeddedPostgres.start();
+            final DataSource dataSource = pg.getPostgresDatabase();
+            createTables(dataSource);
+
+            cloudUrl = new URL("http://cloud.pipe:8080");
+            registry = "node".equals(storage)
+                ? new PostgreSQLNodeRowRegistry(dataSource, cloudUrl, Duration.ofDays(1), Duration.ofDays(2))
+                : new PostgreSQLNodeRegistry(dataSource, cloudUrl, Duration.ofDays(1), Duration.ofDays(2));
+
+            for (int group = 0; group < groups; group++) {
+                for (int node = 0; node < nodesPerGroup; node++) {
+                    registry.register(node(group, node, 0));
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            pg.close();
+        }
+
+        Node randomHeartbeat() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            return node(random.nextInt(groups), random.nextInt(nodesPerGroup), random.nextInt(1_000_000));
+        }
+
+        private Node node(final int group, final int node, final long offset) {
+            try {
+                return Node.builder()
+                    .group("group-" + group)
+                    .localUrl(new URL("http://10.0." + group + "." + node + ":8080"))
+                    .offset(offset)
+                    .status(Status.FOLLOWING)
+                    .following(Collections.singletonList(cloudUrl))
+                    .pipe(Collections.singletonMap("v", "1.0"))
+                    .build();
+            } catch (MalformedURLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static void createTables(final DataSource dataSource) throws SQLException {
+            try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE registry(" +
+                        "group_id VARCHAR PRIMARY KEY NOT NULL, " +
+                        "entry JSON NOT NULL, " +
+                        "version integer NOT NULL" +
+                    ");" +
+                    "CREATE TABLE registry_node(" +
+                        "group_id VARCHAR NOT NULL, " +
+                        "host VARCHAR NOT NULL, " +
+                        "local_url VARCHAR NOT NULL, " +
+                        "position integer NOT NULL, " +
+                        "status VARCHAR NOT NULL, " +
+                        "last_seen TIMESTAMP WITH TIME ZONE NOT NULL, " +
+                        "requested_to_follow JSON NOT NULL, " +
+                        "entry JSON NOT NULL, " +
+                        "PRIMARY KEY (group_id, host)" +
+                    ");" +
+                    "CREATE INDEX registry_node_last_seen_idx ON registry_node (last_seen);" +
+                    "CREATE INDEX registry_node_status_idx ON registry_node (status);"
+                );
+            }
+        }
+    }
+
+    @Benchmark
+    public Node heartbeat(final RegistryState state) {
+        return state.registry.register(state.randomHeartbeat());
+    }
+}
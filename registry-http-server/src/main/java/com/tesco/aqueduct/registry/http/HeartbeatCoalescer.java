@@ -0,0 +1,128 @@
+package com.tesco.aqueduct.registry.http;
+
+import com.tesco.aqueduct.registry.model.BootstrapType;
+import com.tesco.aqueduct.registry.model.Node;
+import com.tesco.aqueduct.registry.model.NodeRegistry;
+import com.tesco.aqueduct.registry.model.NodeRequestStorage;
+import com.tesco.aqueduct.registry.model.RegistryResponse;
+import com.tesco.aqueduct.registry.utils.RegistryLogger;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.TaskExecutors;
+import io.micronaut.scheduling.TaskScheduler;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+/**
+ * Collects heartbeats of the same group arriving within a short window and registers them together: one locked
+ * read-modify-write of the group and one lookup of pending bootstrap requests for all hosts of the batch.
+ * Every caller still gets its own response.
+ */
+@Singleton
+@Requires(property = "registry.heartbeat.coalescing.enabled", value = "true")
+public class HeartbeatCoalescer {
+    private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(HeartbeatCoalescer.class));
+
+    private final NodeRegistry registry;
+    private final NodeRequestStorage nodeRequestStorage;
+    private final TaskScheduler scheduler;
+    private final ExecutorService executor;
+    private final Duration window;
+    private final int maxBatchSize;
+
+    private final Map<String, Batch> pendingBatches = new ConcurrentHashMap<>();
+
+    public HeartbeatCoalescer(
+        final NodeRegistry registry,
+        final NodeRequestStorage nodeRequestStorage,
+        @Named(TaskExecutors.SCHEDULED) final TaskScheduler scheduler,
+        @Named(TaskExecutors.IO) final ExecutorService executor,
+        @Property(name = "registry.heartbeat.coalescing.window") final Duration window,
+        @Property(name = "registry.heartbeat.coalescing.max-batch-size") final int maxBatchSize
+    ) {
+        this.registry = registry;
+        this.nodeRequestStorage = nodeRequestStorage;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public CompletableFuture<RegistryResponse> register(final Node node) {
+        final Heartbeat heartbeat = new Heartbeat(node);
+        final Batch[] opened = new Batch[1];
+        final Batch[] full = new Batch[1];
+
+        pendingBatches.compute(node.getGroup(), (group, batch) -> {
+            if (batch == null) {
+                batch = new Batch();
+                opened[0] = batch;
+            }
+            batch.heartbeats.add(heartbeat);
+
+            if (batch.heartbeats.size() >= maxBatchSize) {
+                full[0] = batch;
+                return null;
+            }
+            return batch;
+        });
+
+        if (full[0] != null) {
+            executor.execute(() -> apply(full[0].heartbeats));
+        } else if (opened[0] != null) {
+            final Batch batch = opened[0];
+            scheduler.schedule(window, () -> flush(node.getGroup(), batch));
+        }
+
+        return heartbeat.response;
+    }
+
+    private void flush(final String group, final Batch batch) {
+        if (pendingBatches.remove(group, batch)) {
+            executor.execute(() -> apply(batch.heartbeats));
+        }
+    }
+
+    void apply(final List<Heartbeat> heartbeats) {
+        try {
+            final List<Node> nodes = heartbeats.stream().map(heartbeat -> heartbeat.node).collect(Collectors.toList());
+            final List<Node> registeredNodes = registry.registerAll(nodes);
+            final Map<String, BootstrapType> bootstrapTypes = new HashMap<>(nodeRequestStorage.requiresBootstrap(nodes));
+
+            for (int i = 0; i < heartbeats.size(); i++) {
+                // a pending bootstrap is handed to one heartbeat only, as if they had been registered one by one
+                final BootstrapType bootstrapType = bootstrapTypes.remove(nodes.get(i).getHost());
+                heartbeats.get(i).response.complete(new RegistryResponse(
+                    registeredNodes.get(i).getRequestedToFollow(),
+                    bootstrapType == null ? BootstrapType.NONE : bootstrapType
+                ));
+            }
+            LOG.debug("heartbeat coalescer", "registered batch of " + heartbeats.size());
+        } catch (Exception exception) {
+            LOG.error("heartbeat coalescer", "register batch", exception);
+            heartbeats.forEach(heartbeat -> heartbeat.response.completeExceptionally(exception));
+        }
+    }
+
+    // identity matters, a timer only flushes the batch it was scheduled for
+    private static class Batch {
+        private final List<Heartbeat> heartbeats = new ArrayList<>();
+    }
+
+    static class Heartbeat {
+        private final Node node;
+        private final CompletableFuture<RegistryResponse> response = new CompletableFuture<>();
+
+        Heartbeat(final Node node) {
+            this.node = node;
+        }
+    }
+}
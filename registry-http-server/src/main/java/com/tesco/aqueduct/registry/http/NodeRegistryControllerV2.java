@@ -1,11 +1,9 @@
 package com.tesco.aqueduct.registry.http;
 
-import com.tesco.aqueduct.pipe.api.JsonHelper;
 import com.tesco.aqueduct.pipe.api.OffsetName;
 import com.tesco.aqueduct.pipe.api.Reader;
 import com.tesco.aqueduct.pipe.codec.GzipCodec;
 import com.tesco.aqueduct.pipe.metrics.Measure;
-import com.tesco.aqueduct.registry.model.Status;
 import com.tesco.aqueduct.registry.model.*;
 import com.tesco.aqueduct.registry.utils.RegistryLogger;
 import io.micronaut.context.annotation.Property;
@@ -13,16 +11,23 @@ import io.micronaut.core.annotation.Nullable;
 import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpResponse;
 import io.micronaut.http.annotation.Error;
 import io.micronaut.http.annotation.*;
 import io.micronaut.http.hateoas.JsonError;
+import io.micronaut.scheduling.TaskExecutors;
+import io.micronaut.scheduling.annotation.ExecuteOn;
 import io.micronaut.security.annotation.Secured;
 import io.micronaut.security.rules.SecurityRule;
 import jakarta.inject.Inject;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 @Measure
 @Controller("/v2/registry")
@@ -37,43 +42,104 @@ public class NodeRegistryControllerV2 {
     private final Reader pipe;
     private final int compressionThreshold;
     private final GzipCodec gzip;
+    private final HeartbeatCoalescer heartbeatCoalescer;
+    private final RegistrySummaryCache summaryCache;
 
-    @Inject
     public NodeRegistryControllerV2(
         final NodeRegistry registry,
         final NodeRequestStorage nodeRequestStorage,
         final Reader pipe,
         @Property(name = "compression.threshold-in-bytes") int compressionThreshold,
         GzipCodec gzip
+    ) {
+        this(registry, nodeRequestStorage, pipe, compressionThreshold, gzip, null);
+    }
+
+    public NodeRegistryControllerV2(
+        final NodeRegistry registry,
+        final NodeRequestStorage nodeRequestStorage,
+        final Reader pipe,
+        @Property(name = "compression.threshold-in-bytes") int compressionThreshold,
+        GzipCodec gzip,
+        @Nullable final HeartbeatCoalescer heartbeatCoalescer
+    ) {
+        this(registry, nodeRequestStorage, pipe, compressionThreshold, gzip, heartbeatCoalescer, new RegistrySummaryCache(registry, Duration.ZERO));
+    }
+
+    @Inject
+    public NodeRegistryControllerV2(
+        final NodeRegistry registry,
+        final NodeRequestStorage nodeRequestStorage,
+        final Reader pipe,
+        @Property(name = "compression.threshold-in-bytes") int compressionThreshold,
+        GzipCodec gzip,
+        @Nullable final HeartbeatCoalescer heartbeatCoalescer,
+        final RegistrySummaryCache summaryCache
     ) {
         this.registry = registry;
         this.nodeRequestStorage = nodeRequestStorage;
         this.pipe = pipe;
         this.compressionThreshold = compressionThreshold;
         this.gzip = gzip;
+        this.heartbeatCoalescer = heartbeatCoalescer;
+        this.summaryCache = summaryCache;
     }
 
+    /**
+     * @param since version of a summary returned earlier (its ETag), to only get the nodes changed since then
+     * @param ifNoneMatch ETag of a summary returned earlier, it does not cover the offset of the root so a not modified
+     * summary keeps the offset it was returned with
+     */
     @Secured(SecurityRule.IS_AUTHENTICATED)
     @Get
-    public HttpResponse<byte[]> getSummary(@Nullable final List<String> groups) {
-        StateSummary stateSummary = registry.getSummary(pipe.getOffset(OffsetName.GLOBAL_LATEST_OFFSET).getAsLong(), Status.OK, groups);
+    public HttpResponse<?> getSummary(
+        @Nullable final List<String> groups,
+        @Nullable @QueryValue final String since,
+        @Nullable @Header(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch
+    ) {
+        final long offset = pipe.getOffset(OffsetName.GLOBAL_LATEST_OFFSET).getAsLong();
+
+        if (summaryCache.isStreaming() && since == null && ifNoneMatch == null) {
+            // size is not known up front, so it is always compressed
+            return HttpResponse.ok(summaryCache.streamSummary(offset, groups))
+                .contentType(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
 
-        return compressResponseIfNeeded(stateSummary);
+        final RegistrySummaryCache.Summary summary = summaryCache.getSummary(offset, groups);
+        final String etag = summary.etag();
+
+        if (summary.matches(ifNoneMatch)) {
+            return HttpResponse.<byte[]>status(HttpStatus.NOT_MODIFIED).header(HttpHeaders.ETAG, etag);
+        }
+
+        final MutableHttpResponse<byte[]> response = since == null
+            ? compressResponseIfNeeded(summary.encode(offset), () -> summary.encode(offset, gzip::encode))
+            : compressResponseIfNeeded(summaryCache.encodeDelta(summary, offset, since));
+
+        return response.header(HttpHeaders.ETAG, etag);
     }
 
+    // returns a future but registers on the calling thread when heartbeats are not coalesced, so it is kept off the event loop
     @Secured(REGISTRY_WRITE)
     @Post
-    public RegistryResponse registerNode(@Body final Node node) throws SQLException, SubGroupIdNotAvailableException {
+    @ExecuteOn(TaskExecutors.IO)
+    public CompletableFuture<RegistryResponse> registerNode(@Body final Node node) throws SQLException, SubGroupIdNotAvailableException {
         if (node.getSubGroupId() == null) {
             throw new SubGroupIdNotAvailableException(
                 String.format("Sub group id needs to be available for %s", node.getHost())
             );
         }
         LOG.withNode(node).info("register node: ", "node registered");
+
+        if (heartbeatCoalescer != null) {
+            return heartbeatCoalescer.register(node);
+        }
+
         final Node nodeRegistered = registry.register(node);
         final BootstrapType bootstrapType = nodeRequestStorage.requiresBootstrap(node);
         LOG.withNode(nodeRegistered).info("requested to follow", "node registration complete");
-        return new RegistryResponse(nodeRegistered.getRequestedToFollow(), bootstrapType);
+        return CompletableFuture.completedFuture(new RegistryResponse(nodeRegistered.getRequestedToFollow(), bootstrapType));
     }
 
     @Secured(REGISTRY_DELETE)
@@ -101,10 +167,13 @@ public class NodeRegistryControllerV2 {
         return HttpResponse.<JsonError>status(HttpStatus.UNPROCESSABLE_ENTITY).body(error);
     }
 
-    private HttpResponse<byte[]> compressResponseIfNeeded(StateSummary stateSummary) {
-        byte[] stateSummaryInBytes = JsonHelper.toJsonBytes(stateSummary);
+    private MutableHttpResponse<byte[]> compressResponseIfNeeded(byte[] stateSummaryInBytes) {
+        return compressResponseIfNeeded(stateSummaryInBytes, () -> gzip.encode(stateSummaryInBytes));
+    }
+
+    private MutableHttpResponse<byte[]> compressResponseIfNeeded(byte[] stateSummaryInBytes, Supplier<byte[]> compressed) {
         if (stateSummaryInBytes.length > compressionThreshold) {
-            return HttpResponse.ok(gzip.encode(stateSummaryInBytes))
+            return HttpResponse.ok(compressed.get())
                 .header(HttpHeaders.CONTENT_ENCODING, "gzip");
         } else {
             return HttpResponse.ok(stateSummaryInBytes);
@@ -0,0 +1,548 @@
+package com.tesco.aqueduct.registry.http;
+
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import com.tesco.aqueduct.registry.model.Node;
+import com.tesco.aqueduct.registry.model.NodeRegistry;
+import com.tesco.aqueduct.registry.model.StateSummary;
+import com.tesco.aqueduct.registry.model.Status;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.scheduling.TaskExecutors;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.schedulers.Schedulers;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Registry summaries encoded once per change instead of on every request.
+ *
+ * Every node is tracked with the change sequence it last changed in, which lets a summary be returned as a delta of
+ * the nodes changed and removed since an earlier version. Delta versions are only meaningful to the instance that
+ * issued them, any other version gets the full summary.
+ *
+ * ETags are derived from the stored group versions and the hosts and statuses of the nodes after offline processing,
+ * so every instance gives the same summary the same ETag. They leave out the offset of the root, which moves on
+ * every write to the pipe.
+ *
+ * Stored group versions are compared before the groups are read. Registries without versions are read on every
+ * request, their summaries keep their version while nothing changes. Offline nodes are processed when a summary is
+ * read, so it is also rebuilt once older than the max age.
+ */
+@Singleton
+public class RegistrySummaryCache {
+    private static final int MAX_CACHED_SUMMARIES = 100;
+    private static final int MAX_REMOVALS = 10_000;
+    private static final int MAX_ETAGS = 1_000;
+    private static final int STREAM_CHUNK_SIZE = 32 * 1024;
+
+    private final NodeRegistry registry;
+    private final Duration maxAge;
+    private final String instanceId = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+
+    // by requested groups
+    private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private final Map<String, TrackedGroup> trackedGroups = new HashMap<>();
+    private final LinkedHashMap<String, Removal> removals = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> sequencesByEtag = new LinkedHashMap<>();
+    private long sequence;
+    private long oldestDeltaSequence;
+
+    private final boolean streaming;
+    private final Executor streamingExecutor;
+
+    public RegistrySummaryCache(final NodeRegistry registry, final Duration maxAge) {
+        this(registry, maxAge, false, null);
+    }
+
+    /**
+     * @param streaming full summaries are written straight from the registry in gzipped chunks instead of cached,
+     * so the uncompressed summary is never held in memory, versions and deltas are still served from the cache
+     * @param streamingExecutor runs the registry reads of streamed summaries, off the event loop
+     */
+    @Inject
+    public RegistrySummaryCache(
+        final NodeRegistry registry,
+        @Value("${registry.summary.max-age:30s}") final Duration maxAge,
+        @Value("${registry.summary.streaming:false}") final boolean streaming,
+        @Named(TaskExecutors.IO) final Executor streamingExecutor
+    ) {
+        this.registry = registry;
+        this.maxAge = maxAge;
+        this.streaming = streaming;
+        this.streamingExecutor = streamingExecutor;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Writes the current summary gzipped, without caching it. Groups are read on the streaming executor once
+     * subscribed and every chunk is emitted as soon as it is filled. Chunks only queue up while the client reads
+     * slower than the groups are read, reading stops when the response is cancelled.
+     */
+    public Flowable<byte[]> streamSummary(final long offset, final List<String> groups) {
+        return Flowable.<byte[]>create(emitter -> {
+            try (OutputStream out = new GZIPOutputStream(new ChunkOutputStream(emitter), STREAM_CHUNK_SIZE)) {
+                final JsonGenerator generator = JsonHelper.MAPPER.getFactory().createGenerator(out);
+                // the stream is closed after the generator has flushed into it
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                try (JsonGenerator summaryGenerator = generator) {
+                    registry.writeSummary(offset, Status.OK, groups, summaryGenerator);
+                }
+            } catch (IOException | RuntimeException exception) {
+                if (!emitter.isCancelled()) {
+                    emitter.tryOnError(exception);
+                }
+                return;
+            }
+            emitter.onComplete();
+        }, BackpressureStrategy.BUFFER)
+            .subscribeOn(Schedulers.from(streamingExecutor));
+    }
+
+    public Summary getSummary(final long offset, final List<String> groups) {
+        final String key = groups == null ? "" : String.join(",", new TreeSet<>(groups));
+        final Optional<Map<String, String>> versions = registry.getGroupVersions(groups);
+
+        final Summary cached = summaries.get(key);
+        if (cached != null && cached.isCurrent(versions, maxAge)) {
+            return cached;
+        }
+
+        final Summary summary = rebuild(offset, groups, versions);
+        if (summaries.size() >= MAX_CACHED_SUMMARIES) {
+            summaries.clear();
+        }
+        summaries.put(key, summary);
+        return summary;
+    }
+
+    /**
+     * @param since version of a summary returned earlier, an ETag or the version of a delta
+     * @return nodes of the summary changed and removed since then, or all of them with full set when the version is
+     * not known by this instance
+     */
+    public byte[] encodeDelta(final Summary summary, final long offset, final String since) {
+        final long sinceSequence;
+        final boolean full;
+        final List<Removal> removed = new ArrayList<>();
+
+        synchronized (this) {
+            sinceSequence = sequenceOf(since);
+            full = sinceSequence < oldestDeltaSequence || sinceSequence > summary.sequence;
+            if (!full) {
+                removals.values().stream()
+                    .filter(removal -> removal.sequence > sinceSequence && removal.sequence <= summary.sequence)
+                    .filter(removal -> summary.groups == null || summary.groups.contains(removal.group))
+                    .forEach(removed::add);
+            }
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "{\"version\":\"" + summary.version() + "\",\"full\":" + full + ",\"root\":");
+        write(out, JsonHelper.toJsonBytes(summary.root(offset)));
+
+        final List<byte[]> followers = new ArrayList<>();
+        for (final TrackedNode node : summary.followers) {
+            if (full || node.changedAt > sinceSequence) {
+                followers.add(node.json);
+            }
+        }
+        writeArray(out, "followers", followers);
+
+        if (!removed.isEmpty()) {
+            write(out, ",\"removed\":");
+            write(out, JsonHelper.toJsonBytes(removed));
+        }
+        write(out, "}");
+        return out.toByteArray();
+    }
+
+    // guarded by this
+    private long sequenceOf(final String version) {
+        final String tag = version.replace("W/", "").replace("\"", "").trim();
+        final Long etagSequence = sequencesByEtag.get(tag);
+        if (etagSequence != null) {
+            return etagSequence;
+        }
+
+        final String[] parts = tag.split("-");
+        if (parts.length < 2 || !parts[0].equals(instanceId)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(parts[1]);
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+
+    private synchronized Summary rebuild(final long offset, final List<String> groups, final Optional<Map<String, String>> versions) {
+        final StateSummary stateSummary = registry.getSummary(offset, Status.OK, groups);
+        final boolean allGroups = groups == null || groups.isEmpty();
+        final long changeSequence = sequence + 1;
+
+        final Map<String, Map<String, TrackedNode>> nodesByGroup = new LinkedHashMap<>();
+        final List<TrackedNode> followers = new ArrayList<>();
+
+        for (final Node node : stateSummary.getFollowers()) {
+            final TrackedGroup trackedGroup = trackedGroups.get(node.getGroup());
+            final TrackedNode previous = trackedGroup == null ? null : trackedGroup.nodes.get(node.getHost());
+            final byte[] json = JsonHelper.toJsonBytes(node);
+
+            final TrackedNode trackedNode = previous != null && Arrays.equals(previous.json, json)
+                ? previous
+                : new TrackedNode(json, changeSequence);
+
+            nodesByGroup.computeIfAbsent(node.getGroup(), group -> new LinkedHashMap<>()).put(node.getHost(), trackedNode);
+            followers.add(trackedNode);
+        }
+
+        final Set<String> scope = new LinkedHashSet<>(allGroups ? trackedGroups.keySet() : groups);
+        scope.addAll(nodesByGroup.keySet());
+
+        boolean changed = false;
+        for (final String group : scope) {
+            final Map<String, TrackedNode> nodes = nodesByGroup.getOrDefault(group, Collections.emptyMap());
+            final TrackedGroup trackedGroup = trackedGroups.computeIfAbsent(group, id -> new TrackedGroup());
+
+            boolean groupChanged = false;
+            for (final Map.Entry<String, TrackedNode> node : nodes.entrySet()) {
+                if (node.getValue().changedAt == changeSequence) {
+                    removals.remove(removalKey(group, node.getKey()));
+                    groupChanged = true;
+                }
+            }
+            for (final String host : trackedGroup.nodes.keySet()) {
+                if (!nodes.containsKey(host)) {
+                    addRemoval(new Removal(group, host, changeSequence));
+                    groupChanged = true;
+                }
+            }
+
+            trackedGroup.nodes = nodes;
+            if (groupChanged) {
+                trackedGroup.lastChanged = changeSequence;
+                changed = true;
+            }
+            if (nodes.isEmpty() && trackedGroup.lastChanged == 0) {
+                trackedGroups.remove(group);
+            }
+        }
+
+        if (changed) {
+            sequence = changeSequence;
+        }
+
+        final long summarySequence = allGroups ? sequence : groups.stream()
+            .map(trackedGroups::get)
+            .filter(Objects::nonNull)
+            .mapToLong(group -> group.lastChanged)
+            .max()
+            .orElse(0);
+
+        final String etag = etagOf(versions, stateSummary.getFollowers(), followers);
+        // the latest sequence a summary had this content at, deltas since it are the same for a client holding it
+        sequencesByEtag.remove(etag);
+        sequencesByEtag.put(etag, summarySequence);
+        if (sequencesByEtag.size() > MAX_ETAGS) {
+            final Iterator<Long> oldest = sequencesByEtag.values().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+
+        return new Summary(
+            allGroups ? null : new HashSet<>(groups),
+            versions.orElse(null),
+            System.currentTimeMillis(),
+            summarySequence,
+            etag,
+            stateSummary.getRoot(),
+            followers
+        );
+    }
+
+    /**
+     * Hash of the stored group versions and the host and status of every node, statuses change when nodes are
+     * processed as offline on read without a write to their group. Registries without versions hash the nodes.
+     */
+    private static String etagOf(
+        final Optional<Map<String, String>> versions,
+        final List<Node> nodes,
+        final List<TrackedNode> trackedNodes
+    ) {
+        final MessageDigest digest = sha256();
+
+        if (versions.isPresent()) {
+            new TreeMap<>(versions.get()).forEach((group, version) -> update(digest, group + "=" + version + "\n"));
+            for (final Node node : nodes) {
+                update(digest, node.getGroup() + "/" + node.getHost() + ":" + node.getStatus() + "\n");
+            }
+        } else {
+            trackedNodes.forEach(node -> digest.update(node.json));
+        }
+
+        final StringBuilder etag = new StringBuilder();
+        final byte[] hash = digest.digest();
+        for (int i = 0; i < 16; i++) {
+            etag.append(String.format("%02x", hash[i]));
+        }
+        return etag.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static void update(final MessageDigest digest, final String text) {
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void addRemoval(final Removal removal) {
+        removals.put(removalKey(removal.group, removal.host), removal);
+
+        if (removals.size() > MAX_REMOVALS) {
+            final Iterator<Removal> oldest = removals.values().iterator();
+            oldestDeltaSequence = Math.max(oldestDeltaSequence, oldest.next().sequence);
+            oldest.remove();
+        }
+    }
+
+    private static String removalKey(final String group, final String host) {
+        return group + "/" + host;
+    }
+
+    private static void writeArray(final ByteArrayOutputStream out, final String field, final List<byte[]> elements) {
+        // empty fields are left out, like everything encoded by JsonHelper
+        if (elements.isEmpty()) {
+            return;
+        }
+        write(out, ",\"" + field + "\":[");
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            write(out, elements.get(i));
+        }
+        write(out, "]");
+    }
+
+    private static void write(final ByteArrayOutputStream out, final String text) {
+        write(out, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(final ByteArrayOutputStream out, final byte[] bytes) {
+        try {
+            out.write(bytes);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    public class Summary {
+        private final Set<String> groups;
+        private final Map<String, String> groupVersions;
+        private final long builtAt;
+        private final long sequence;
+        private final String etag;
+        private final Node root;
+        private final List<TrackedNode> followers;
+
+        private volatile Encoded encoded;
+
+        private Summary(
+            final Set<String> groups,
+            final Map<String, String> groupVersions,
+            final long builtAt,
+            final long sequence,
+            final String etag,
+            final Node root,
+            final List<TrackedNode> followers
+        ) {
+            this.groups = groups;
+            this.groupVersions = groupVersions;
+            this.builtAt = builtAt;
+            this.sequence = sequence;
+            this.etag = etag;
+            this.root = root;
+            this.followers = followers;
+        }
+
+        private boolean isCurrent(final Optional<Map<String, String>> versions, final Duration maxAge) {
+            return groupVersions != null
+                && versions.map(groupVersions::equals).orElse(false)
+                && System.currentTimeMillis() - builtAt < maxAge.toMillis();
+        }
+
+        public String version() {
+            return instanceId + "-" + sequence;
+        }
+
+        public String etag() {
+            return "\"" + etag + "\"";
+        }
+
+        public boolean matches(final String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            final String etag = etag();
+            return Arrays.stream(ifNoneMatch.split(","))
+                .map(tag -> tag.trim().replace("W/", ""))
+                .anyMatch(tag -> tag.equals("*") || tag.equals(etag));
+        }
+
+        private Node root(final long offset) {
+            return root.toBuilder().offset(offset).lastSeen(ZonedDateTime.now()).build();
+        }
+
+        /**
+         * @return the summary as JSON, encoded once per offset
+         */
+        public byte[] encode(final long offset) {
+            return encoded(offset).json;
+        }
+
+        /**
+         * @return the encoded summary compressed, compressed once per offset
+         */
+        public byte[] encode(final long offset, final UnaryOperator<byte[]> compression) {
+            final Encoded current = encoded(offset);
+            if (current.compressed == null) {
+                current.compressed = compression.apply(current.json);
+            }
+            return current.compressed;
+        }
+
+        private Encoded encoded(final long offset) {
+            final Encoded current = encoded;
+            if (current != null && current.offset == offset) {
+                return current;
+            }
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            write(out, "{\"root\":");
+            write(out, JsonHelper.toJsonBytes(root(offset)));
+            final List<byte[]> nodes = new ArrayList<>(followers.size());
+            followers.forEach(node -> nodes.add(node.json));
+            writeArray(out, "followers", nodes);
+            write(out, "}");
+
+            final Encoded updated = new Encoded(offset, out.toByteArray());
+            encoded = updated;
+            return updated;
+        }
+    }
+
+    private static class ChunkOutputStream extends OutputStream {
+        private final FlowableEmitter<byte[]> emitter;
+        private final byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+        private int size;
+
+        private ChunkOutputStream(final FlowableEmitter<byte[]> emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (size == chunk.length) {
+                emit();
+            }
+            chunk[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            int written = 0;
+            while (written < length) {
+                if (size == chunk.length) {
+                    emit();
+                }
+                final int copied = Math.min(length - written, chunk.length - size);
+                System.arraycopy(bytes, offset + written, chunk, size, copied);
+                size += copied;
+                written += copied;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (size > 0) {
+                emit();
+            }
+        }
+
+        private void emit() throws IOException {
+            if (emitter.isCancelled()) {
+                throw new IOException("Summary response was cancelled");
+            }
+            emitter.onNext(Arrays.copyOf(chunk, size));
+            size = 0;
+        }
+    }
+
+    private static class Encoded {
+        private final long offset;
+        private final byte[] json;
+        private volatile byte[] compressed;
+
+        private Encoded(final long offset, final byte[] json) {
+            this.offset = offset;
+            this.json = json;
+        }
+    }
+
+    private static class TrackedGroup {
+        private Map<String, TrackedNode> nodes = Collections.emptyMap();
+        private long lastChanged;
+    }
+
+    private static class TrackedNode {
+        private final byte[] json;
+        private final long changedAt;
+
+        private TrackedNode(final byte[] json, final long changedAt) {
+            this.json = json;
+            this.changedAt = changedAt;
+        }
+    }
+
+    static class Removal {
+        @Getter private final String group;
+        @Getter private final String host;
+        private final long sequence;
+
+        Removal(final String group, final String host, final long sequence) {
+            this.group = group;
+            this.host = host;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.tesco.aqueduct.registry.postgres;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Node groups as last read or written by this instance.
+ *
+ * A cached group is only trusted while its version matches the stored version, so changes persisted by other
+ * instances are never overwritten. Heartbeats that leave the follow tree untouched are applied to the cached group
+ * and marked dirty, they are written back on flush or with the next change of the follow tree.
+ *
+ * Entries are used as the lock for their group, all access to an entry has to be synchronized on it.
+ */
+public class NodeGroupCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    Entry entryFor(final String groupId) {
+        return entries.computeIfAbsent(groupId, id -> new Entry());
+    }
+
+    void forEach(final BiConsumer<String, Entry> consumer) {
+        entries.forEach(consumer);
+    }
+
+    static class Entry {
+        private PostgresNodeGroup group;
+        private boolean dirty;
+
+        PostgresNodeGroup getGroup() {
+            return group;
+        }
+
+        boolean isDirty() {
+            return dirty;
+        }
+
+        void markDirty() {
+            dirty = true;
+        }
+
+        void persisted(final PostgresNodeGroup group) {
+            this.group = group;
+            this.dirty = false;
+        }
+
+        void invalidate() {
+            this.group = null;
+            this.dirty = false;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.tesco.aqueduct.registry.postgres;
+
+import com.tesco.aqueduct.registry.utils.RegistryLogger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts with a bootstrap request not received yet, so heartbeats of all other hosts do not need to query
+ * node_requests.
+ *
+ * New requests are published with NOTIFY by the instance saving them and picked up by every instance listening on
+ * the channel. Listening holds a connection of its own, opened from the JDBC URL rather than taken from the pool, so
+ * it does not keep a pooled connection from registry calls. The index is also reloaded from the table periodically and
+ * after the listening connection is lost, until it has been loaded every host counts as pending. Hosts may stay in the index after another instance delivered
+ * their bootstrap, the next heartbeat then finds nothing in the table and removes them.
+ */
+public class PendingBootstrapIndex implements AutoCloseable {
+    private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(PendingBootstrapIndex.class));
+
+    static final String CHANNEL = "node_requests";
+
+    private static final String QUERY_PENDING_HOSTS = "SELECT host_id FROM node_requests WHERE bootstrap_received IS null;";
+    private static final String QUERY_LISTEN = "LISTEN " + CHANNEL + ";";
+
+    private final DataSource dataSource;
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+    private final Duration refreshInterval;
+    private final Duration pollInterval;
+
+    // host to the generation it was last seen pending in, so a reload does not drop hosts notified while it ran
+    private final Map<String, Long> pendingHosts = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean loaded;
+    private volatile boolean running;
+    private Thread listener;
+
+    /**
+     * @param dataSource pool the index is reloaded with
+     * @param jdbcUrl database the listening connection is opened to, with username and password
+     */
+    public PendingBootstrapIndex(
+        final DataSource dataSource,
+        final String jdbcUrl,
+        final String username,
+        final String password,
+        final Duration refreshInterval,
+        final Duration pollInterval
+    ) {
+        this.dataSource = dataSource;
+        this.jdbcUrl = jdbcUrl;
+        this.username = username;
+        this.password = password;
+        this.refreshInterval = refreshInterval;
+        this.pollInterval = pollInterval;
+    }
+
+    public void start() {
+        running = true;
+        listener = new Thread(this::listen, "pending-bootstrap-index");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    public boolean isPending(final String host) {
+        return !loaded || pendingHosts.containsKey(host);
+    }
+
+    public void add(final String host) {
+        pendingHosts.put(host, generation.get());
+    }
+
+    public void remove(final String host) {
+        pendingHosts.remove(host);
+    }
+
+    void refresh() throws SQLException {
+        final long refreshGeneration = generation.incrementAndGet();
+        final Set<String> hosts = new HashSet<>();
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(QUERY_PENDING_HOSTS);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                hosts.add(resultSet.getString("host_id"));
+            }
+        }
+
+        hosts.forEach(host -> pendingHosts.put(host, refreshGeneration));
+        pendingHosts.entrySet().removeIf(entry -> entry.getValue() < refreshGeneration && !hosts.contains(entry.getKey()));
+        loaded = true;
+
+        LOG.info("pending bootstrap index", "loaded hosts " + hosts.size());
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(jdbcUrl, username, password)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(QUERY_LISTEN);
+                }
+                final PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+                refresh();
+                long nextRefresh = System.currentTimeMillis() + refreshInterval.toMillis();
+
+                while (running) {
+                    final PGNotification[] notifications = pgConnection.getNotifications((int) pollInterval.toMillis());
+                    if (notifications != null) {
+                        for (final PGNotification notification : notifications) {
+                            add(notification.getParameter());
+                        }
+                    }
+
+                    if (System.currentTimeMillis() >= nextRefresh) {
+                        refresh();
+                        nextRefresh = System.currentTimeMillis() + refreshInterval.toMillis();
+                    }
+                }
+            } catch (SQLException exception) {
+                loaded = false;
+                LOG.error("pending bootstrap index", "listening for node requests", exception);
+                pause();
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(pollInterval.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.tesco.aqueduct.registry.postgres;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.tesco.aqueduct.registry.model.*;
 import com.tesco.aqueduct.registry.utils.RegistryLogger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +24,7 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
     private final Duration removeNodeOfflineDelta;
     private final DataSource dataSource;
     private final PostgresNodeGroupStorage nodeGroupStorage;
+    private final NodeGroupCache nodeGroupCache;
 
     public PostgreSQLNodeRegistry(
         final DataSource dataSource,
@@ -30,7 +32,35 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         final Duration markNodeOfflineDelta,
         final Duration removeNodeOfflineDelta
     ) {
-        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, new PostgresNodeGroupStorage());
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, (NodeGroupCache) null);
+    }
+
+    /**
+     * @param nodeGroupCache when given, heartbeats that do not change the follow tree are kept in memory and only
+     *                       written back on {@link #flush()}, null to write through on every registration
+     */
+    public PostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        final NodeGroupCache nodeGroupCache
+    ) {
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, nodeGroupCache, null);
+    }
+
+    /**
+     * @param topology decides who follows whom within a group, null for the default binary tree
+     */
+    public PostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        final NodeGroupCache nodeGroupCache,
+        final TopologyStrategy topology
+    ) {
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, new PostgresNodeGroupStorage(topology), nodeGroupCache);
     }
 
     PostgreSQLNodeRegistry(
@@ -39,12 +69,24 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         final Duration markNodeOfflineDelta,
         final Duration removeNodeOfflineDelta,
         PostgresNodeGroupStorage nodeGroupStorage
+    ) {
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, nodeGroupStorage, null);
+    }
+
+    PostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        PostgresNodeGroupStorage nodeGroupStorage,
+        NodeGroupCache nodeGroupCache
     ) {
         this.cloudUrl = cloudUrl;
         this.markNodeOfflineDelta = markNodeOfflineDelta;
         this.removeNodeOfflineDelta = removeNodeOfflineDelta;
         this.dataSource = dataSource;
         this.nodeGroupStorage = nodeGroupStorage;
+        this.nodeGroupCache = nodeGroupCache;
 
         //initialise connection pool eagerly
         try (Connection connection = this.dataSource.getConnection()) {
@@ -56,16 +98,88 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
 
     @Override
     public Node register(final Node nodeToRegister) {
+        return registerGroup(nodeToRegister.getGroup(), Collections.singletonList(nodeToRegister)).get(0);
+    }
+
+    /**
+     * Registrations of the same group are applied in a single locked read-modify-write of the group
+     */
+    @Override
+    public List<Node> registerAll(final List<Node> nodesToRegister) {
+        final Map<String, List<Node>> nodesByGroup = new LinkedHashMap<>();
+        nodesToRegister.forEach(node -> nodesByGroup.computeIfAbsent(node.getGroup(), group -> new ArrayList<>()).add(node));
+
+        final Map<Node, Node> registeredNodes = new IdentityHashMap<>();
+        nodesByGroup.forEach((groupId, nodes) -> {
+            final List<Node> registered = registerGroup(groupId, nodes);
+            for (int i = 0; i < nodes.size(); i++) {
+                registeredNodes.put(nodes.get(i), registered.get(i));
+            }
+        });
+
+        return nodesToRegister.stream().map(registeredNodes::get).collect(Collectors.toList());
+    }
+
+    private List<Node> registerGroup(final String groupId, final List<Node> nodesToRegister) {
+        if (nodeGroupCache == null) {
+            return registerAndPersist(groupId, nodesToRegister, null);
+        }
+
+        final NodeGroupCache.Entry entry = nodeGroupCache.entryFor(groupId);
+        synchronized (entry) {
+            return registerInCache(nodesToRegister, entry)
+                .orElseGet(() -> registerAndPersist(groupId, nodesToRegister, entry));
+        }
+    }
+
+    /**
+     * Applies heartbeats to the cached group if the cached group is up to date and none of them changes the follow
+     * tree, only the version of the group is read from the database in that case.
+     */
+    private Optional<List<Node>> registerInCache(final List<Node> nodesToRegister, final NodeGroupCache.Entry entry) {
+        final PostgresNodeGroup cachedGroup = entry.getGroup();
+        if (cachedGroup == null || !nodesToRegister.stream().allMatch(cachedGroup::isFollowTreeUnchangedBy)) {
+            return Optional.empty();
+        }
+
+        try (Connection connection = getConnection()) {
+            final Optional<Integer> storedVersion = nodeGroupStorage.readVersion(connection, cachedGroup.getGroupId());
+
+            if (!storedVersion.filter(version -> version == cachedGroup.getVersion()).isPresent()) {
+                LOG.info("node group cache", "stale group " + cachedGroup.getGroupId());
+                return Optional.empty();
+            }
+        } catch (SQLException exception) {
+            LOG.error("Postgresql node registry", "read group version", exception);
+            throw new RuntimeException(exception);
+        }
+
+        final List<Node> nodes = new ArrayList<>();
+        for (final Node nodeToRegister : nodesToRegister) {
+            cachedGroup.updateIfFollowTreeUnchanged(nodeToRegister).ifPresent(nodes::add);
+        }
+        entry.markDirty();
+        return Optional.of(nodes);
+    }
+
+    private List<Node> registerAndPersist(final String groupId, final List<Node> nodesToRegister, final NodeGroupCache.Entry entry) {
         long start = System.currentTimeMillis();
 
         try (Connection connection = getConnection()) {
             LOG.info("get connection", Long.toString(System.currentTimeMillis() - start));
             connection.setAutoCommit(false);
 
-            final PostgresNodeGroup group = nodeGroupStorage.getNodeGroup(connection, nodeToRegister.getGroup());
+            final PostgresNodeGroup group = nodeGroupStorage.getNodeGroup(connection, groupId);
             LOG.info("get node group", Long.toString(System.currentTimeMillis() - start));
 
-            Node node = group.upsert(nodeToRegister, cloudUrl);
+            if (entry != null && entry.isDirty()) {
+                group.mergeMoreRecentlySeen(entry.getGroup());
+            }
+
+            final List<Node> nodes = new ArrayList<>();
+            for (final Node nodeToRegister : nodesToRegister) {
+                nodes.add(group.upsert(nodeToRegister, cloudUrl));
+            }
             LOG.info("upsert", Long.toString(System.currentTimeMillis() - start));
 
             group.processNodes(ZonedDateTime.now().minus(markNodeOfflineDelta), ZonedDateTime.now().minus(removeNodeOfflineDelta), cloudUrl);
@@ -77,13 +191,72 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
             connection.commit();
             LOG.info("commit", Long.toString(System.currentTimeMillis() - start));
 
-            return node;
+            if (entry != null) {
+                entry.persisted(group);
+            }
+
+            return nodes;
         } catch (SQLException | IOException exception) {
             LOG.error("Postgresql node registry", "register node", exception);
             throw new RuntimeException(exception);
         }
     }
 
+    /**
+     * Writes back cached groups with heartbeats not persisted yet. Offline nodes are handled the same way as on
+     * registration, the write is conditional on the cached version and falls back to a locked merge on conflict.
+     */
+    @Override
+    public void flush() {
+        if (nodeGroupCache == null) {
+            return;
+        }
+
+        nodeGroupCache.forEach((groupId, entry) -> {
+            synchronized (entry) {
+                if (entry.isDirty()) {
+                    flush(groupId, entry);
+                }
+            }
+        });
+    }
+
+    private void flush(final String groupId, final NodeGroupCache.Entry entry) {
+        final PostgresNodeGroup cachedGroup = entry.getGroup();
+
+        try (Connection connection = getConnection()) {
+            cachedGroup.processNodes(ZonedDateTime.now().minus(markNodeOfflineDelta), ZonedDateTime.now().minus(removeNodeOfflineDelta), cloudUrl);
+
+            if (cachedGroup.isEmpty()) {
+                entry.invalidate();
+                return;
+            }
+
+            if (cachedGroup.persistIfVersionUnchanged(connection)) {
+                entry.persisted(cachedGroup);
+                return;
+            }
+
+            connection.setAutoCommit(false);
+            final PostgresNodeGroup group = nodeGroupStorage.getNodeGroup(connection, groupId);
+
+            if (group.isEmpty()) {
+                connection.commit();
+                entry.invalidate();
+                return;
+            }
+
+            group.mergeMoreRecentlySeen(cachedGroup);
+            group.processNodes(ZonedDateTime.now().minus(markNodeOfflineDelta), ZonedDateTime.now().minus(removeNodeOfflineDelta), cloudUrl);
+            group.persist(connection);
+            connection.commit();
+
+            entry.persisted(group);
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node registry", "flush group " + groupId, exception);
+        }
+    }
+
     private Connection getConnection() throws SQLException {
         long start = System.currentTimeMillis();
         try {
@@ -108,6 +281,54 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         return new StateSummary(getCloudNode(offset, status), followers);
     }
 
+    @Override
+    public void writeSummary(
+        final long offset,
+        final Status status,
+        final List<String> groupIds,
+        final JsonGenerator generator
+    ) throws IOException {
+        final ZonedDateTime markTillOfflineThreshold = ZonedDateTime.now().minus(markNodeOfflineDelta);
+        final ZonedDateTime removeTillOfflineThreshold = ZonedDateTime.now().minus(removeNodeOfflineDelta);
+        final boolean[] hasFollowers = {false};
+
+        generator.writeStartObject();
+        generator.writeObjectField("root", getCloudNode(offset, status));
+
+        try (Connection connection = getConnection()) {
+            nodeGroupStorage.streamNodeGroups(connection, groupIds, group -> {
+                group.handleOfflineNodes(markTillOfflineThreshold, removeTillOfflineThreshold);
+
+                for (final Node node : group.getNodes()) {
+                    // written once the first node is seen, empty followers are left out like in getSummary
+                    if (!hasFollowers[0]) {
+                        generator.writeArrayFieldStart("followers");
+                        hasFollowers[0] = true;
+                    }
+                    generator.writeObject(node);
+                }
+            });
+        } catch (SQLException exception) {
+            LOG.error("Postgresql node registry", "write summary", exception);
+            throw new RuntimeException(exception);
+        }
+
+        if (hasFollowers[0]) {
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    @Override
+    public Optional<Map<String, String>> getGroupVersions(final List<String> groupIds) {
+        try (Connection connection = getConnection()) {
+            return Optional.of(nodeGroupStorage.readVersions(connection, groupIds));
+        } catch (SQLException exception) {
+            LOG.error("Postgresql node registry", "get group versions", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
     @Override
     public Set<String> getNodeHostsForGroups(List<String> groupIds) {
         return getPostgresNodeGroups(groupIds).stream()
@@ -137,8 +358,27 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
             .build();
     }
 
+    /**
+     * The cached group is dropped once the node is deleted, heartbeats it holds for other nodes are persisted with the
+     * deletion. Otherwise a recreated group reaching the cached version again would bring the deleted node back.
+     */
     @Override
     public boolean deleteNode(final String groupId, final String host) {
+        if (nodeGroupCache == null) {
+            return deleteNode(groupId, host, null);
+        }
+
+        final NodeGroupCache.Entry entry = nodeGroupCache.entryFor(groupId);
+        synchronized (entry) {
+            try {
+                return deleteNode(groupId, host, entry);
+            } finally {
+                entry.invalidate();
+            }
+        }
+    }
+
+    private boolean deleteNode(final String groupId, final String host, final NodeGroupCache.Entry entry) {
         try (Connection connection = getConnection()) {
             connection.setAutoCommit(false);
             final PostgresNodeGroup nodeGroup = nodeGroupStorage.getNodeGroup(connection, groupId);
@@ -146,6 +386,9 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
             if(nodeGroup.isEmpty()) {
                 return false;
             } else {
+                if (entry != null && entry.isDirty()) {
+                    nodeGroup.mergeMoreRecentlySeen(entry.getGroup());
+                }
                 return deleteExistingNode(connection, host, nodeGroup);
             }
         } catch (SQLException | IOException exception) {
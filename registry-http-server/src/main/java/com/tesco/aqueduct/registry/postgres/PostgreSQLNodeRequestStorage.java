@@ -11,10 +11,16 @@ import javax.sql.DataSource;
 import java.sql.*;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class PostgreSQLNodeRequestStorage implements NodeRequestStorage {
 
     private final DataSource dataSource;
+    private final PendingBootstrapIndex pendingBootstrapIndex;
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(PostgreSQLNodeRequestStorage.class));
     private static final String QUERY_INSERT_OR_UPDATE_NODE_REQUEST =
         "INSERT INTO node_requests (host_id, bootstrap_requested, bootstrap_type)" +
@@ -32,19 +38,40 @@ public class PostgreSQLNodeRequestStorage implements NodeRequestStorage {
         "SELECT bootstrap_type " +
         "FROM node_requests " +
         "WHERE host_id = ? AND bootstrap_received IS null;";
+    private static final String QUERY_READ_NODE_REQUESTS =
+        "SELECT host_id, bootstrap_type " +
+        "FROM node_requests " +
+        "WHERE host_id = ANY(?) AND bootstrap_received IS null;";
+    private static final String QUERY_UPDATE_NODE_REQUESTS_RECEIVED =
+        "UPDATE node_requests " +
+        "SET bootstrap_received = ? " +
+        "WHERE host_id = ANY(?);";
     private static final String QUERY_UPDATE_NODE_REQUEST_RECEIVED =
         "UPDATE node_requests " +
         "SET bootstrap_received = ? " +
         "WHERE host_id = ?;";
+    private static final String QUERY_NOTIFY_NODE_REQUEST = "SELECT pg_notify('" + PendingBootstrapIndex.CHANNEL + "', ?);";
 
     public PostgreSQLNodeRequestStorage(final DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    /**
+     * @param pendingBootstrapIndex when given, node_requests is only queried for hosts it has a pending request for
+     */
+    public PostgreSQLNodeRequestStorage(final DataSource dataSource, final PendingBootstrapIndex pendingBootstrapIndex) {
         this.dataSource = dataSource;
+        this.pendingBootstrapIndex = pendingBootstrapIndex;
     }
 
     @Override
     public void save(NodeRequest nodeRequest) throws SQLException {
          try (Connection connection = getConnection()) {
              insertOrUpdate(connection, nodeRequest);
+             if (pendingBootstrapIndex != null) {
+                 pendingBootstrapIndex.add(nodeRequest.getHostId());
+                 notifyPending(connection, nodeRequest.getHostId());
+             }
          } catch (SQLException exception) {
              LOG.error("save", "insert a node request", exception);
              throw exception;
@@ -53,6 +80,14 @@ public class PostgreSQLNodeRequestStorage implements NodeRequestStorage {
 
     @Override
     public BootstrapType requiresBootstrap(Node node) throws SQLException {
+        if (pendingBootstrapIndex != null) {
+            if (!pendingBootstrapIndex.isPending(node.getHost())) {
+                return BootstrapType.NONE;
+            }
+            // removed before reading, so a request saved meanwhile is added back rather than lost
+            pendingBootstrapIndex.remove(node.getHost());
+        }
+
         try (Connection connection = getConnection()) {
             BootstrapType bootstrapType = readBootstrapType(node.getHost(), connection);
             if (bootstrapType != BootstrapType.NONE) {
@@ -61,10 +96,87 @@ public class PostgreSQLNodeRequestStorage implements NodeRequestStorage {
             return bootstrapType;
         } catch (SQLException exception) {
             LOG.error("read", "read a node request", exception);
+            if (pendingBootstrapIndex != null) {
+                pendingBootstrapIndex.add(node.getHost());
+            }
+            throw exception;
+        }
+    }
+
+    @Override
+    public Map<String, BootstrapType> requiresBootstrap(List<Node> nodes) throws SQLException {
+        final List<String> hosts = nodes.stream()
+            .map(Node::getHost)
+            .distinct()
+            .filter(host -> pendingBootstrapIndex == null || pendingBootstrapIndex.isPending(host))
+            .collect(Collectors.toList());
+
+        if (hosts.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (pendingBootstrapIndex != null) {
+            hosts.forEach(pendingBootstrapIndex::remove);
+        }
+
+        try (Connection connection = getConnection()) {
+            final Array hostIds = connection.createArrayOf("varchar", hosts.toArray());
+            final Map<String, BootstrapType> bootstrapTypes = readBootstrapTypes(hostIds, connection);
+            if (!bootstrapTypes.isEmpty()) {
+                updateReceivedBootstraps(connection, connection.createArrayOf("varchar", bootstrapTypes.keySet().toArray()));
+            }
+            return bootstrapTypes;
+        } catch (SQLException exception) {
+            LOG.error("read", "read node requests", exception);
+            if (pendingBootstrapIndex != null) {
+                hosts.forEach(pendingBootstrapIndex::add);
+            }
             throw exception;
         }
     }
 
+    // delivered to the index of every instance listening, including this one
+    private void notifyPending(Connection connection, String hostId) throws SQLException {
+        long start = System.currentTimeMillis();
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_NOTIFY_NODE_REQUEST)) {
+            statement.setString(1, hostId);
+            statement.execute();
+        } finally {
+            long end = System.currentTimeMillis();
+            LOG.info("notify:time", Long.toString(end - start));
+        }
+    }
+
+    private Map<String, BootstrapType> readBootstrapTypes(Array hostIds, Connection connection) throws SQLException {
+        long start = System.currentTimeMillis();
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_NODE_REQUESTS)) {
+            statement.setArray(1, hostIds);
+
+            final Map<String, BootstrapType> bootstrapTypes = new HashMap<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    bootstrapTypes.put(resultSet.getString("host_id"), BootstrapType.valueOf(resultSet.getString("bootstrap_type")));
+                }
+            }
+            return bootstrapTypes;
+        } finally {
+            long end = System.currentTimeMillis();
+            LOG.info("readAll:time", Long.toString(end - start));
+        }
+    }
+
+    private void updateReceivedBootstraps(Connection connection, Array hostIds) throws SQLException {
+        long start = System.currentTimeMillis();
+        Timestamp timestamp = Timestamp.valueOf(ZonedDateTime.now(ZoneOffset.UTC).toLocalDateTime());
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_UPDATE_NODE_REQUESTS_RECEIVED)) {
+            statement.setTimestamp(1, timestamp);
+            statement.setArray(2, hostIds);
+            statement.execute();
+        } finally {
+            long end = System.currentTimeMillis();
+            LOG.info("updateReceivedAll:time", Long.toString(end - start));
+        }
+    }
+
     private BootstrapType readBootstrapType(String hostId, Connection connection) throws SQLException {
         long start = System.currentTimeMillis();
         try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_NODE_REQUEST)) {
@@ -0,0 +1,546 @@
+package com.tesco.aqueduct.registry.postgres;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import com.tesco.aqueduct.registry.model.*;
+import com.tesco.aqueduct.registry.utils.RegistryLogger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URL;
+import java.sql.*;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Registry storing one row per node rather than one JSON entry per group:
+ *
+ * <pre>
+ * CREATE TABLE registry_node(
+ *     group_id VARCHAR NOT NULL,
+ *     host VARCHAR NOT NULL,
+ *     local_url VARCHAR NOT NULL,
+ *     position integer NOT NULL,
+ *     status VARCHAR NOT NULL,
+ *     last_seen TIMESTAMP WITH TIME ZONE NOT NULL,
+ *     requested_to_follow JSON NOT NULL,
+ *     entry JSON NOT NULL,
+ *     PRIMARY KEY (group_id, host)
+ * );
+ * CREATE INDEX registry_node_last_seen_idx ON registry_node (last_seen);
+ * CREATE INDEX registry_node_status_idx ON registry_node (status);
+ * </pre>
+ *
+ * A heartbeat of a known node with unchanged url and status is a single row update. Positions in the follow tree
+ * are only recomputed when the membership or status of a group changes, in a transaction holding an advisory lock
+ * on the group and row locks on its nodes.
+ */
+public class PostgreSQLNodeRowRegistry implements NodeRegistry {
+    private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(PostgreSQLNodeRowRegistry.class));
+
+    private static final String NODE_COLUMNS = "group_id, host, position, status, last_seen, requested_to_follow, entry";
+
+    private static final String QUERY_HEARTBEAT =
+        "UPDATE registry_node SET " +
+            "entry = ?::JSON, " +
+            "last_seen = ? " +
+            "WHERE group_id = ? AND host = ? AND local_url = ? AND status = ? " +
+            "RETURNING requested_to_follow;";
+
+    private static final String QUERY_LOCK_GROUP = "SELECT pg_advisory_xact_lock(hashtext(?));";
+
+    private static final String QUERY_READ_GROUP_FOR_UPDATE =
+        "SELECT " + NODE_COLUMNS + " FROM registry_node WHERE group_id = ? ORDER BY position FOR UPDATE;";
+
+    private static final String QUERY_READ_GROUPS =
+        "SELECT " + NODE_COLUMNS + " FROM registry_node WHERE group_id = ANY(?) ORDER BY group_id, position;";
+
+    private static final String QUERY_READ_ALL_GROUPS =
+        "SELECT " + NODE_COLUMNS + " FROM registry_node ORDER BY group_id, position;";
+
+    private static final String QUERY_UPSERT_NODE =
+        "INSERT INTO registry_node (group_id, host, local_url, position, status, last_seen, requested_to_follow, entry) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?::JSON, ?::JSON) " +
+            "ON CONFLICT (group_id, host) DO UPDATE SET " +
+            "local_url = EXCLUDED.local_url, " +
+            "position = EXCLUDED.position, " +
+            "status = EXCLUDED.status, " +
+            "last_seen = EXCLUDED.last_seen, " +
+            "requested_to_follow = EXCLUDED.requested_to_follow, " +
+            "entry = EXCLUDED.entry;";
+
+    private static final String QUERY_INSERT_NODE_IF_ABSENT =
+        "INSERT INTO registry_node (group_id, host, local_url, position, status, last_seen, requested_to_follow, entry) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?::JSON, ?::JSON) " +
+            "ON CONFLICT DO NOTHING;";
+
+    private static final String QUERY_LOCK_MIGRATION = "SELECT pg_advisory_xact_lock(hashtext('registry_node_migration'));";
+
+    private static final String QUERY_ANY_NODE = "SELECT 1 FROM registry_node LIMIT 1;";
+
+    private static final String QUERY_UPDATE_POSITION =
+        "UPDATE registry_node SET position = ?, status = ?, requested_to_follow = ?::JSON WHERE group_id = ? AND host = ?;";
+
+    private static final String QUERY_DELETE_NODE = "DELETE FROM registry_node WHERE group_id = ? AND host = ?;";
+
+    // a write to any row moves the newest xmin, a delete changes the count
+    private static final String GROUP_VERSION = "count(*) || ':' || max(xmin::text::bigint) AS version";
+
+    private static final String QUERY_READ_GROUP_VERSIONS =
+        "SELECT group_id, " + GROUP_VERSION + " FROM registry_node WHERE group_id = ANY(?) GROUP BY group_id;";
+
+    private static final String QUERY_READ_ALL_GROUP_VERSIONS =
+        "SELECT group_id, " + GROUP_VERSION + " FROM registry_node GROUP BY group_id;";
+
+    private static final String QUERY_GROUPS_WITH_EXPIRED_NODES =
+        "SELECT DISTINCT group_id FROM registry_node " +
+            "WHERE (last_seen < ? AND status <> '" + Status.OFFLINE.name() + "') OR last_seen < ?;";
+
+    private static final JavaType URL_LIST_TYPE =
+        JsonHelper.MAPPER.getTypeFactory().constructCollectionType(List.class, URL.class);
+
+    private final URL cloudUrl;
+    private final Duration markNodeOfflineDelta;
+    private final Duration removeNodeOfflineDelta;
+    private final DataSource dataSource;
+    private final TopologyStrategy topology;
+
+    public PostgreSQLNodeRowRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta
+    ) {
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, null);
+    }
+
+    /**
+     * @param topology decides who follows whom within a group, null for the default binary tree
+     */
+    public PostgreSQLNodeRowRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        final TopologyStrategy topology
+    ) {
+        this.cloudUrl = cloudUrl;
+        this.topology = topology;
+        this.markNodeOfflineDelta = markNodeOfflineDelta;
+        this.removeNodeOfflineDelta = removeNodeOfflineDelta;
+        this.dataSource = dataSource;
+
+        //initialise connection pool eagerly
+        try (Connection connection = this.dataSource.getConnection()) {
+            LOG.debug("postgresql storage", "initialised connection pool");
+        } catch (SQLException e) {
+            LOG.error("postgresql storage", "Error initializing connection pool", e);
+        }
+    }
+
+    @Override
+    public Node register(final Node nodeToRegister) {
+        long start = System.currentTimeMillis();
+
+        try (Connection connection = dataSource.getConnection()) {
+            final Optional<Node> node = heartbeat(connection, nodeToRegister);
+            LOG.info("heartbeat", Long.toString(System.currentTimeMillis() - start));
+
+            if (node.isPresent()) {
+                return node.get();
+            }
+
+            connection.setAutoCommit(false);
+            final Map<String, NodeRow> storedNodes = lockGroup(connection, nodeToRegister.getGroup());
+            final NodeGroup group = toNodeGroup(storedNodes);
+
+            final Node registeredNode = group.upsert(nodeToRegister, cloudUrl);
+            group.processNodes(markOfflineThreshold(), removeOfflineThreshold(), cloudUrl);
+            writeChanges(connection, nodeToRegister.getGroup(), storedNodes, group, nodeToRegister.getHost());
+
+            connection.commit();
+            LOG.info("register", Long.toString(System.currentTimeMillis() - start));
+
+            return registeredNode;
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node row registry", "register node", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private Optional<Node> heartbeat(final Connection connection, final Node nodeToRegister) throws SQLException, IOException {
+        final ZonedDateTime now = ZonedDateTime.now();
+
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_HEARTBEAT)) {
+            statement.setString(1, JsonHelper.toJson(nodeToRegister));
+            statement.setTimestamp(2, Timestamp.from(now.toInstant()));
+            statement.setString(3, nodeToRegister.getGroup());
+            statement.setString(4, nodeToRegister.getHost());
+            statement.setString(5, nodeToRegister.getLocalUrl().toString());
+            statement.setString(6, nodeToRegister.getStatus().name());
+
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return Optional.empty();
+                }
+                return Optional.of(nodeToRegister.toBuilder()
+                    .requestedToFollow(readUrls(rs.getString("requested_to_follow")))
+                    .lastSeen(now)
+                    .build());
+            }
+        }
+    }
+
+    @Override
+    public StateSummary getSummary(final long offset, final Status status, final List<String> groupIds) {
+        final List<NodeGroup> groups = readNodeGroups(groupIds);
+
+        final ZonedDateTime markTillOfflineThreshold = markOfflineThreshold();
+        final ZonedDateTime removeTillOfflineThreshold = removeOfflineThreshold();
+        groups.forEach(group -> group.handleOfflineNodes(markTillOfflineThreshold, removeTillOfflineThreshold));
+
+        final List<Node> followers = groups.stream()
+            .flatMap(nodeGroup -> nodeGroup.getNodes().stream()).collect(Collectors.toList());
+
+        return new StateSummary(getCloudNode(offset, status), followers);
+    }
+
+    @Override
+    public Optional<Map<String, String>> getGroupVersions(final List<String> groupIds) {
+        final boolean allGroups = groupIds == null || groupIds.isEmpty();
+
+        try (
+            Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(allGroups ? QUERY_READ_ALL_GROUP_VERSIONS : QUERY_READ_GROUP_VERSIONS)
+        ) {
+            if (!allGroups) {
+                statement.setArray(1, connection.createArrayOf("varchar", groupIds.toArray()));
+            }
+
+            final Map<String, String> versions = new HashMap<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    versions.put(rs.getString("group_id"), rs.getString("version"));
+                }
+            }
+            return Optional.of(versions);
+        } catch (SQLException exception) {
+            LOG.error("Postgresql node row registry", "get group versions", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    @Override
+    public Set<String> getNodeHostsForGroups(final List<String> groupIds) {
+        return readNodeGroups(groupIds).stream()
+            .flatMap(nodeGroup -> nodeGroup.getNodes().stream())
+            .map(node -> node.getPipe().get("host"))
+            .collect(LinkedHashSet::new, HashSet::add, (s1, s2) -> {});
+    }
+
+    @Override
+    public boolean deleteNode(final String groupId, final String host) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            final Map<String, NodeRow> storedNodes = lockGroup(connection, groupId);
+            final NodeGroup group = toNodeGroup(storedNodes);
+
+            final boolean foundNode = group.removeByHost(host);
+            if (foundNode) {
+                group.updateGetFollowing(cloudUrl);
+                writeChanges(connection, groupId, storedNodes, group, null);
+            }
+            connection.commit();
+            return foundNode;
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node row registry", "deleteNode", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Heartbeats do not process offline nodes, groups with nodes due to be marked offline or removed are
+     * reorganised here instead.
+     */
+    @Override
+    public void flush() {
+        final ZonedDateTime markOfflineThreshold = markOfflineThreshold();
+        final ZonedDateTime removeOfflineThreshold = removeOfflineThreshold();
+
+        try (Connection connection = dataSource.getConnection()) {
+            for (final String groupId : readGroupsWithExpiredNodes(connection, markOfflineThreshold, removeOfflineThreshold)) {
+                connection.setAutoCommit(false);
+                final Map<String, NodeRow> storedNodes = lockGroup(connection, groupId);
+                final NodeGroup group = toNodeGroup(storedNodes);
+
+                group.processNodes(markOfflineThreshold, removeOfflineThreshold, cloudUrl);
+                writeChanges(connection, groupId, storedNodes, group, null);
+                connection.commit();
+            }
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node row registry", "flush", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Copies groups stored as a single JSON entry in the registry table into node rows. It is a one-shot step: once
+     * registry_node holds any node nothing is copied, so nodes deleted or removed as offline under this layout are
+     * not brought back from their stale JSON entry.
+     * @return number of nodes copied
+     */
+    public int migrateFromGroupEntries() {
+        final PostgresNodeGroupStorage nodeGroupStorage = new PostgresNodeGroupStorage();
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            int migrated = 0;
+
+            // instances starting together wait here, only the first one finds registry_node empty
+            try (PreparedStatement statement = connection.prepareStatement(QUERY_LOCK_MIGRATION)) {
+                statement.execute();
+            }
+
+            if (hasNodeRows(connection)) {
+                connection.commit();
+                LOG.info("registry migration", "registry_node is not empty, skipped");
+                return 0;
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(QUERY_INSERT_NODE_IF_ABSENT)) {
+                for (final PostgresNodeGroup group : nodeGroupStorage.readNodeGroups(connection, null)) {
+                    for (final SubNodeGroup subGroup : group.subGroups) {
+                        for (int position = 0; position < subGroup.nodes.size(); position++) {
+                            final Node node = subGroup.get(position);
+                            bindNodeRow(statement, group.getGroupId(), node, position);
+                            statement.addBatch();
+                        }
+                    }
+                }
+
+                for (final int inserted : statement.executeBatch()) {
+                    migrated += Math.max(inserted, 0);
+                }
+            }
+            connection.commit();
+
+            LOG.info("registry migration", "migrated nodes " + migrated);
+            return migrated;
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node row registry", "migrate group entries", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private boolean hasNodeRows(final Connection connection) throws SQLException {
+        try (
+            PreparedStatement statement = connection.prepareStatement(QUERY_ANY_NODE);
+            ResultSet rs = statement.executeQuery()
+        ) {
+            return rs.next();
+        }
+    }
+
+    private Map<String, NodeRow> lockGroup(final Connection connection, final String groupId) throws SQLException, IOException {
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_LOCK_GROUP)) {
+            statement.setString(1, groupId);
+            statement.execute();
+        }
+
+        final Map<String, NodeRow> nodes = new LinkedHashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_GROUP_FOR_UPDATE)) {
+            statement.setString(1, groupId);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    final NodeRow row = readNodeRow(rs);
+                    nodes.put(row.node.getHost(), row);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Writes the full row of the registered node and only position, status and follow urls of the other nodes
+     * when they changed, so concurrent reads see heartbeats of untouched nodes as they were.
+     */
+    private void writeChanges(
+        final Connection connection,
+        final String groupId,
+        final Map<String, NodeRow> storedNodes,
+        final NodeGroup group,
+        final String registeredHost
+    ) throws SQLException, IOException {
+        final Set<String> removedHosts = new HashSet<>(storedNodes.keySet());
+
+        try (
+            PreparedStatement upsert = connection.prepareStatement(QUERY_UPSERT_NODE);
+            PreparedStatement updatePosition = connection.prepareStatement(QUERY_UPDATE_POSITION);
+            PreparedStatement delete = connection.prepareStatement(QUERY_DELETE_NODE)
+        ) {
+            for (final SubNodeGroup subGroup : group.subGroups) {
+                for (int position = 0; position < subGroup.nodes.size(); position++) {
+                    final Node node = subGroup.get(position);
+                    final NodeRow stored = storedNodes.get(node.getHost());
+                    removedHosts.remove(node.getHost());
+
+                    if (stored == null || node.getHost().equals(registeredHost)) {
+                        bindNodeRow(upsert, groupId, node, position);
+                        upsert.addBatch();
+                    } else if (stored.isMovedTo(node, position)) {
+                        updatePosition.setInt(1, position);
+                        updatePosition.setString(2, node.getStatus().name());
+                        updatePosition.setString(3, JsonHelper.toJson(node.getRequestedToFollow()));
+                        updatePosition.setString(4, groupId);
+                        updatePosition.setString(5, node.getHost());
+                        updatePosition.addBatch();
+                    }
+                }
+            }
+
+            for (final String host : removedHosts) {
+                delete.setString(1, groupId);
+                delete.setString(2, host);
+                delete.addBatch();
+            }
+
+            upsert.executeBatch();
+            updatePosition.executeBatch();
+            delete.executeBatch();
+        }
+    }
+
+    private void bindNodeRow(
+        final PreparedStatement statement,
+        final String groupId,
+        final Node node,
+        final int position
+    ) throws SQLException, IOException {
+        statement.setString(1, groupId);
+        statement.setString(2, node.getHost());
+        statement.setString(3, node.getLocalUrl().toString());
+        statement.setInt(4, position);
+        statement.setString(5, node.getStatus().name());
+        statement.setTimestamp(6, Timestamp.from(node.getLastSeen().toInstant()));
+        statement.setString(7, JsonHelper.toJson(node.getRequestedToFollow()));
+        statement.setString(8, JsonHelper.toJson(node));
+    }
+
+    private List<NodeGroup> readNodeGroups(final List<String> groupIds) {
+        final boolean allGroups = groupIds == null || groupIds.isEmpty();
+
+        try (
+            Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(allGroups ? QUERY_READ_ALL_GROUPS : QUERY_READ_GROUPS)
+        ) {
+            if (!allGroups) {
+                statement.setArray(1, connection.createArrayOf("varchar", groupIds.toArray()));
+            }
+
+            final Map<String, List<Node>> nodesByGroup = new LinkedHashMap<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    nodesByGroup.computeIfAbsent(rs.getString("group_id"), id -> new ArrayList<>()).add(readNodeRow(rs).node);
+                }
+            }
+
+            return nodesByGroup.values().stream().map(this::withTopology).collect(Collectors.toList());
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node row registry", "read node groups", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private List<String> readGroupsWithExpiredNodes(
+        final Connection connection,
+        final ZonedDateTime markOfflineThreshold,
+        final ZonedDateTime removeOfflineThreshold
+    ) throws SQLException {
+        final List<String> groupIds = new ArrayList<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_GROUPS_WITH_EXPIRED_NODES)) {
+            statement.setTimestamp(1, Timestamp.from(markOfflineThreshold.toInstant()));
+            statement.setTimestamp(2, Timestamp.from(removeOfflineThreshold.toInstant()));
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    groupIds.add(rs.getString("group_id"));
+                }
+            }
+        }
+        return groupIds;
+    }
+
+    private NodeRow readNodeRow(final ResultSet rs) throws SQLException, IOException {
+        final Node node = JsonHelper.MAPPER.readValue(rs.getString("entry"), Node.class)
+            .toBuilder()
+            .status(Status.valueOf(rs.getString("status")))
+            .lastSeen(ZonedDateTime.ofInstant(rs.getTimestamp("last_seen").toInstant(), ZoneOffset.UTC))
+            .requestedToFollow(readUrls(rs.getString("requested_to_follow")))
+            .build();
+
+        return new NodeRow(node, rs.getInt("position"));
+    }
+
+    private static List<URL> readUrls(final String json) throws IOException {
+        return JsonHelper.MAPPER.readValue(json, URL_LIST_TYPE);
+    }
+
+    private NodeGroup toNodeGroup(final Map<String, NodeRow> storedNodes) {
+        return withTopology(storedNodes.values().stream().map(row -> row.node).collect(Collectors.toList()));
+    }
+
+    private NodeGroup withTopology(final List<Node> nodes) {
+        final NodeGroup group = new NodeGroup(nodes);
+        if (topology != null) {
+            group.useTopology(topology);
+        }
+        return group;
+    }
+
+    private ZonedDateTime markOfflineThreshold() {
+        return ZonedDateTime.now().minus(markNodeOfflineDelta);
+    }
+
+    private ZonedDateTime removeOfflineThreshold() {
+        return ZonedDateTime.now().minus(removeNodeOfflineDelta);
+    }
+
+    private Node getCloudNode(final long offset, final Status status) {
+        return Node.builder()
+            .localUrl(cloudUrl)
+            .offset(offset)
+            .status(status)
+            .following(Collections.emptyList())
+            .lastSeen(ZonedDateTime.now())
+            .build();
+    }
+
+    private static class NodeRow {
+        private final Node node;
+        private final int position;
+
+        NodeRow(final Node node, final int position) {
+            this.node = node;
+            this.position = position;
+        }
+
+        boolean isMovedTo(final Node updated, final int updatedPosition) {
+            return position != updatedPosition
+                || node.getStatus() != updated.getStatus()
+                || !urls(node).equals(urls(updated));
+        }
+
+        // URL.equals resolves hosts, compare the string form instead
+        private static List<String> urls(final Node node) {
+            return node.getRequestedToFollow() == null
+                ? Collections.emptyList()
+                : node.getRequestedToFollow().stream().map(URL::toString).collect(Collectors.toList());
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.tesco.aqueduct.registry.postgres;
 
-import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tesco.aqueduct.pipe.api.JsonHelper;
@@ -14,6 +16,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 public class PostgresNodeGroup extends NodeGroup {
@@ -37,25 +40,42 @@ public class PostgresNodeGroup extends NodeGroup {
                 "WHERE " +
                 "registry.group_id = ? " +
                 "; ";
+    private static final String QUERY_UPDATE_GROUP_IF_VERSION_UNCHANGED =
+        "UPDATE registry SET " +
+                "entry = ?::JSON , " +
+                "version = registry.version + 1 " +
+                "WHERE " +
+                "registry.group_id = ? " +
+                "AND registry.version = ? " +
+                "; ";
     private static final String QUERY_DELETE_GROUP =
         "DELETE from registry where group_id = ? and version = ? ;";
 
     public static PostgresNodeGroup createNodeGroup(final ResultSet rs) throws SQLException, IOException {
-        final String entry = rs.getString("entry");
         final int version = rs.getInt("version");
         final String groupId = rs.getString("group_id");
-        final List<Node> nodes = readGroupEntry(entry);
+        final List<Node> nodes = readGroupEntry(rs.getString("entry"));
         return new PostgresNodeGroup(groupId, version, nodes);
     }
 
+    // nodes are read one at a time from the parser instead of binding the whole entry to a list type
     private static List<Node> readGroupEntry(final String entry) throws IOException {
-        ObjectMapper jsonMapper = JsonHelper.MAPPER;
-        final JavaType type = jsonMapper.getTypeFactory().constructCollectionType(List.class, Node.class);
-        return jsonMapper.readValue(entry, type);
+        final ObjectMapper jsonMapper = JsonHelper.MAPPER;
+        final List<Node> nodes = new ArrayList<>();
+
+        try (JsonParser parser = jsonMapper.getFactory().createParser(entry)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Group entry is not an array of nodes");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                nodes.add(jsonMapper.readValue(parser, Node.class));
+            }
+        }
+        return nodes;
     }
 
     private final String groupId;
-    private final int version;
+    private int version;
 
     public PostgresNodeGroup(final String groupId) {
         super();
@@ -85,6 +105,8 @@ public class PostgresNodeGroup extends NodeGroup {
 
             if(statement.executeUpdate() == 0) {
                 LOG.info("Insert new PostgresNodeGroup", "conflict on insert");
+            } else {
+                version = 0;
             }
         } finally {
             long end = System.currentTimeMillis();
@@ -101,12 +123,49 @@ public class PostgresNodeGroup extends NodeGroup {
             if(statement.executeUpdate() == 0) {
                 throw new RuntimeException("Locking failed on update");
             }
+            version++;
         }finally {
             long end = System.currentTimeMillis();
             LOG.info("node group update:time", Long.toString(end - start));
         }
     }
 
+    /**
+     * Optimistic update of a group that was read without a row lock, succeeds only if nobody persisted the group
+     * since it was read.
+     * @return false when the stored version moved on, the group is left untouched in that case
+     */
+    public boolean persistIfVersionUnchanged(final Connection connection) throws IOException, SQLException {
+        if (version == UNPERSISTED_GROUP_VERSION) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_UPDATE_GROUP_IF_VERSION_UNCHANGED)) {
+            statement.setString(1, nodesToJson());
+            statement.setString(2, groupId);
+            statement.setInt(3, version);
+
+            if(statement.executeUpdate() == 0) {
+                LOG.info("Update PostgresNodeGroup", "version conflict on update");
+                return false;
+            }
+            version++;
+            return true;
+        } finally {
+            long end = System.currentTimeMillis();
+            LOG.info("node group conditional update:time", Long.toString(end - start));
+        }
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
     public void delete(final Connection connection) throws SQLException {
         long start = System.currentTimeMillis();
         try (PreparedStatement statement = connection.prepareStatement(QUERY_DELETE_GROUP)) {
@@ -1,19 +1,48 @@
 package com.tesco.aqueduct.registry.postgres;
 
+import com.tesco.aqueduct.registry.model.TopologyStrategy;
+
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 public class PostgresNodeGroupStorage {
     private static final String QUERY_GET_GROUP_BY_ID_FOR_UPDATE = "SELECT group_id, entry, version FROM registry where group_id = ? FOR UPDATE;";
     private static final String QUERY_READ_GROUP_BY_ID = "SELECT group_id, entry, version FROM registry where group_id = ?;";
+    private static final String QUERY_READ_GROUP_VERSION = "SELECT version FROM registry where group_id = ?;";
+    private static final String QUERY_READ_GROUPS = "SELECT group_id, entry, version FROM registry WHERE group_id = ANY(?) ORDER BY group_id";
     private static final String QUERY_READ_ALL_GROUPS = "SELECT group_id, entry, version FROM registry ORDER BY group_id";
+    private static final int STREAM_FETCH_SIZE = 100;
+    // xmin changes on every write, unlike version it does not restart when a group is deleted and created again
+    private static final String QUERY_READ_GROUP_VERSIONS = "SELECT group_id, version || ':' || xmin AS version FROM registry WHERE group_id = ANY(?);";
+    private static final String QUERY_READ_ALL_GROUP_VERSIONS = "SELECT group_id, version || ':' || xmin AS version FROM registry;";
+
+    private final TopologyStrategy topology;
+
+    PostgresNodeGroupStorage() {
+        this(null);
+    }
 
-    PostgresNodeGroupStorage() { }
+    /**
+     * @param topology used by every group read, null for the default binary tree
+     */
+    PostgresNodeGroupStorage(final TopologyStrategy topology) {
+        this.topology = topology;
+    }
+
+    private PostgresNodeGroup withTopology(final PostgresNodeGroup group) {
+        if (topology != null) {
+            group.useTopology(topology);
+        }
+        return group;
+    }
 
     PostgresNodeGroup getNodeGroup(final Connection connection, final String groupId) throws SQLException, IOException {
         try (PreparedStatement statement = connection.prepareStatement(QUERY_GET_GROUP_BY_ID_FOR_UPDATE)) {
@@ -21,9 +50,9 @@ public class PostgresNodeGroupStorage {
 
             try (ResultSet rs = statement.executeQuery()) {
                 if (rs.next()) {
-                    return PostgresNodeGroup.createNodeGroup(rs);
+                    return withTopology(PostgresNodeGroup.createNodeGroup(rs));
                 } else {
-                    return new PostgresNodeGroup(groupId);
+                    return withTopology(new PostgresNodeGroup(groupId));
                 }
             }
         }
@@ -35,33 +64,114 @@ public class PostgresNodeGroupStorage {
 
                 try (ResultSet rs = statement.executeQuery()) {
                     if (rs.next()) {
-                        return PostgresNodeGroup.createNodeGroup(rs);
+                        return withTopology(PostgresNodeGroup.createNodeGroup(rs));
                     } else {
-                        return new PostgresNodeGroup(groupId);
+                        return withTopology(new PostgresNodeGroup(groupId));
                     }
                 }
             }
     }
 
+    /**
+     * @return the stored version of the group without reading its entry, empty if the group is not persisted
+     */
+    Optional<Integer> readVersion(final Connection connection, final String groupId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_GROUP_VERSION)) {
+            statement.setString(1, groupId);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? Optional.of(rs.getInt("version")) : Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * @return versions of the stored groups without reading their entries, all groups if none are given
+     */
+    Map<String, String> readVersions(final Connection connection, final List<String> groupIds) throws SQLException {
+        final boolean allGroups = groupIds == null || groupIds.isEmpty();
+
+        try (PreparedStatement statement = connection.prepareStatement(allGroups ? QUERY_READ_ALL_GROUP_VERSIONS : QUERY_READ_GROUP_VERSIONS)) {
+            if (!allGroups) {
+                statement.setArray(1, connection.createArrayOf("varchar", groupIds.toArray()));
+            }
+
+            final Map<String, String> versions = new HashMap<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    versions.put(rs.getString("group_id"), rs.getString("version"));
+                }
+            }
+            return versions;
+        }
+    }
+
     List<PostgresNodeGroup> readNodeGroups(final Connection connection, final List<String> groupIds) throws SQLException, IOException {
         if (groupIds == null || groupIds.isEmpty()) {
             return readAllNodeGroups(connection);
         }
 
+        final Map<String, PostgresNodeGroup> storedGroups = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_GROUPS)) {
+            statement.setArray(1, connection.createArrayOf("varchar", groupIds.toArray()));
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    final PostgresNodeGroup group = withTopology(PostgresNodeGroup.createNodeGroup(rs));
+                    storedGroups.put(group.getGroupId(), group);
+                }
+            }
+        }
+
+        // in the order requested, groups not stored are empty
         final List<PostgresNodeGroup> list = new ArrayList<>();
         for (final String group : groupIds) {
-            list.add(readNodeGroup(connection, group));
+            final PostgresNodeGroup storedGroup = storedGroups.get(group);
+            list.add(storedGroup == null ? withTopology(new PostgresNodeGroup(group)) : storedGroup);
         }
         return list;
     }
 
+    /**
+     * Reads groups one at a time through a cursor, so only the group being handled is held in memory.
+     * Groups that are not stored are skipped. Commits the connection, which has to be otherwise unused.
+     */
+    void streamNodeGroups(
+        final Connection connection,
+        final List<String> groupIds,
+        final NodeGroupConsumer consumer
+    ) throws SQLException, IOException {
+        final boolean allGroups = groupIds == null || groupIds.isEmpty();
+        // the driver only fetches in batches inside a transaction, otherwise it reads the whole result
+        connection.setAutoCommit(false);
+
+        try (PreparedStatement statement = connection.prepareStatement(allGroups ? QUERY_READ_ALL_GROUPS : QUERY_READ_GROUPS)) {
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            if (!allGroups) {
+                statement.setArray(1, connection.createArrayOf("varchar", groupIds.toArray()));
+            }
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(withTopology(PostgresNodeGroup.createNodeGroup(rs)));
+                }
+            }
+        }
+        connection.commit();
+    }
+
+    @FunctionalInterface
+    interface NodeGroupConsumer {
+        void accept(PostgresNodeGroup group) throws IOException;
+    }
+
     private List<PostgresNodeGroup> readAllNodeGroups(final Connection connection) throws SQLException, IOException {
         List<PostgresNodeGroup> groups;
         try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_ALL_GROUPS)) {
             groups = new ArrayList<>();
             try (ResultSet rs = statement.executeQuery()) {
                 while (rs.next()) {
-                    groups.add(PostgresNodeGroup.createNodeGroup(rs));
+                    groups.add(withTopology(PostgresNodeGroup.createNodeGroup(rs)));
                 }
             }
         }
@@ -0,0 +1,91 @@
+package com.tesco.aqueduct.registry.http
+
+import com.tesco.aqueduct.registry.model.BootstrapType
+import com.tesco.aqueduct.registry.model.Node
+import com.tesco.aqueduct.registry.model.NodeRegistry
+import com.tesco.aqueduct.registry.model.NodeRequestStorage
+import io.micronaut.scheduling.TaskScheduler
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.ExecutorService
+
+class HeartbeatCoalescerSpec extends Specification {
+
+    def cloudUrl = new URL("http://cloud")
+    def registry = Mock(NodeRegistry)
+    def nodeRequestStorage = Mock(NodeRequestStorage)
+    def scheduler = Mock(TaskScheduler)
+    def executor = Mock(ExecutorService) {
+        execute(_ as Runnable) >> { Runnable runnable -> runnable.run() }
+    }
+
+    def "heartbeats of a group within the window are registered together"() {
+        given: "a coalescer"
+        def coalescer = new HeartbeatCoalescer(registry, nodeRequestStorage, scheduler, executor, Duration.ofMillis(50), 100)
+        Runnable flush = null
+
+        when: "two nodes of the same group send a heartbeat"
+        def first = coalescer.register(node("group", "http://node-1"))
+        def second = coalescer.register(node("group", "http://node-2"))
+
+        then: "a single flush is scheduled for the window"
+        1 * scheduler.schedule(Duration.ofMillis(50), _ as Runnable) >> { Duration delay, Runnable runnable -> flush = runnable; null }
+        !first.isDone()
+        !second.isDone()
+
+        when: "the window closes"
+        flush.run()
+
+        then: "both nodes are registered in one call"
+        1 * registry.registerAll({ it*.host == ["node-1", "node-2"] }) >> { List<Node> nodes ->
+            nodes.collect { it.toBuilder().requestedToFollow([cloudUrl]).build() }
+        }
+
+        and: "bootstrap requests are read in one call"
+        1 * nodeRequestStorage.requiresBootstrap({ it instanceof List && it.size() == 2 }) >> ["node-2": BootstrapType.PROVIDER]
+        0 * nodeRequestStorage.requiresBootstrap(_ as Node)
+
+        and: "each caller gets its own response"
+        first.get().requestedToFollow == [cloudUrl]
+        first.get().bootstrapType == BootstrapType.NONE
+        second.get().bootstrapType == BootstrapType.PROVIDER
+    }
+
+    def "a full batch is registered without waiting for the window"() {
+        given: "a coalescer with a batch size of two"
+        def coalescer = new HeartbeatCoalescer(registry, nodeRequestStorage, scheduler, executor, Duration.ofMillis(50), 2)
+        registry.registerAll(_) >> { List<Node> nodes -> nodes }
+        nodeRequestStorage.requiresBootstrap(_ as List) >> [:]
+
+        when: "two nodes of the same group send a heartbeat"
+        def first = coalescer.register(node("group", "http://node-1"))
+        def second = coalescer.register(node("group", "http://node-2"))
+
+        then: "both responses are complete"
+        first.isDone()
+        second.isDone()
+    }
+
+    def "failure to register completes every response of the batch exceptionally"() {
+        given: "a coalescer with a batch size of two"
+        def coalescer = new HeartbeatCoalescer(registry, nodeRequestStorage, scheduler, executor, Duration.ofMillis(50), 2)
+        registry.registerAll(_) >> { throw new RuntimeException("database down") }
+
+        when:
+        def first = coalescer.register(node("group", "http://node-1"))
+        def second = coalescer.register(node("group", "http://node-2"))
+
+        then:
+        first.isCompletedExceptionally()
+        second.isCompletedExceptionally()
+    }
+
+    private static Node node(String group, String url) {
+        Node.builder()
+            .group(group)
+            .localUrl(new URL(url))
+            .pipe(["v":"1.0"])
+            .build()
+    }
+}
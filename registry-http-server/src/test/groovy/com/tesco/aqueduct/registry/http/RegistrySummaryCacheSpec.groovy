@@ -0,0 +1,197 @@
+package com.tesco.aqueduct.registry.http
+
+import com.tesco.aqueduct.pipe.api.JsonHelper
+import com.tesco.aqueduct.registry.model.Node
+import com.tesco.aqueduct.registry.model.NodeRegistry
+import com.tesco.aqueduct.registry.model.StateSummary
+import com.tesco.aqueduct.registry.model.Status
+import groovy.json.JsonSlurper
+import spock.lang.Specification
+
+import java.time.Duration
+import java.time.ZonedDateTime
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.zip.GZIPInputStream
+
+class RegistrySummaryCacheSpec extends Specification {
+
+    def cloudUrl = new URL("http://cloud")
+    def lastSeen = ZonedDateTime.parse("2026-01-01T10:00:00Z")
+    def registry = Mock(NodeRegistry)
+    def cache = new RegistrySummaryCache(registry, Duration.ofMinutes(1))
+
+    def "summary is only read again when a group version changes"() {
+        given:
+        registry.getGroupVersions(null) >>> [Optional.of(["group": "1"]), Optional.of(["group": "1"]), Optional.of(["group": "2"])]
+
+        when: "the summary is requested twice with the same group versions"
+        def first = cache.getSummary(100, null)
+        def second = cache.getSummary(100, null)
+
+        then: "groups are read once"
+        1 * registry.getSummary(100, Status.OK, null) >> summary(node("group", "http://node-1", 1))
+        first.is(second)
+
+        when: "the group changes"
+        def third = cache.getSummary(100, null)
+
+        then: "it is read again"
+        1 * registry.getSummary(100, Status.OK, null) >> summary(node("group", "http://node-1", 2))
+        third.etag() != first.etag()
+    }
+
+    def "encoded summary is the same as the summary encoded by JsonHelper"() {
+        given:
+        registry.getGroupVersions(_) >> Optional.empty()
+        def stateSummary = summary(node("group", "http://node-1", 1), node("group", "http://node-2", 1))
+        registry.getSummary(100, Status.OK, null) >> stateSummary
+
+        when:
+        def encoded = new JsonSlurper().parse(cache.getSummary(100, null).encode(100))
+
+        then:
+        def expected = new JsonSlurper().parse(JsonHelper.toJsonBytes(stateSummary))
+        encoded.followers == expected.followers
+        encoded.root.localUrl == expected.root.localUrl
+        encoded.root.offset == expected.root.offset
+    }
+
+    def "summary keeps its version while nothing changes and is matched by If-None-Match"() {
+        given: "a registry without group versions"
+        registry.getGroupVersions(_) >> Optional.empty()
+        registry.getSummary(100, Status.OK, null) >> summary(node("group", "http://node-1", 1))
+
+        when:
+        def first = cache.getSummary(100, null)
+        def second = cache.getSummary(100, null)
+
+        then: "the summary is rebuilt with the same version"
+        !first.is(second)
+        second.etag() == first.etag()
+        second.matches(first.etag())
+        second.matches("W/" + first.etag())
+    }
+
+    def "ETag is the same on every instance and does not change with the offset"() {
+        given: "two instances reading the same stored groups"
+        def otherCache = new RegistrySummaryCache(registry, Duration.ofMinutes(1))
+        registry.getGroupVersions(null) >> Optional.of(["group": "1"])
+        registry.getSummary(_, Status.OK, null) >> summary(node("group", "http://node-1", 1))
+
+        expect:
+        cache.getSummary(100, null).etag() == otherCache.getSummary(101, null).etag()
+        otherCache.getSummary(102, null).matches(cache.getSummary(100, null).etag())
+    }
+
+    def "ETag changes when a node is marked offline without a write to its group"() {
+        given:
+        def expiringCache = new RegistrySummaryCache(registry, Duration.ZERO)
+        registry.getGroupVersions(null) >> Optional.of(["group": "1"])
+        registry.getSummary(100, Status.OK, null) >>> [
+            summary(node("group", "http://node-1", 1)),
+            summary(node("group", "http://node-1", 1).toBuilder().status(Status.OFFLINE).build())
+        ]
+
+        when:
+        def first = expiringCache.getSummary(100, null)
+        def second = expiringCache.getSummary(100, null)
+
+        then:
+        !second.matches(first.etag())
+    }
+
+    def "delta contains nodes changed and removed since a version"() {
+        given:
+        registry.getGroupVersions(_) >> Optional.empty()
+        registry.getSummary(100, Status.OK, null) >>> [
+            summary(node("group", "http://node-1", 1), node("group", "http://node-2", 1), node("group", "http://node-3", 1)),
+            summary(node("group", "http://node-1", 1), node("group", "http://node-2", 2))
+        ]
+
+        and: "a summary seen by the client"
+        def seen = cache.getSummary(100, null)
+
+        when:
+        def current = cache.getSummary(100, null)
+        def delta = new JsonSlurper().parse(cache.encodeDelta(current, 100, seen.etag()))
+
+        then:
+        !delta.full
+        delta.version == current.version()
+        delta.followers*.localUrl == ["http://node-2"]
+        delta.removed == [[group: "group", host: "node-3"]]
+    }
+
+    def "delta since a version unknown to this instance is the full summary"() {
+        given:
+        registry.getGroupVersions(_) >> Optional.empty()
+        registry.getSummary(100, Status.OK, null) >> summary(node("group", "http://node-1", 1), node("group", "http://node-2", 1))
+
+        when:
+        def current = cache.getSummary(100, null)
+        def delta = new JsonSlurper().parse(cache.encodeDelta(current, 100, '"other-5-100"'))
+
+        then:
+        delta.full
+        delta.followers*.localUrl == ["http://node-1", "http://node-2"]
+    }
+
+    def "streamed summary is gzipped JSON read on the streaming executor"() {
+        given:
+        def executor = Executors.newSingleThreadExecutor()
+        def streamingCache = new RegistrySummaryCache(registry, Duration.ofMinutes(1), true, executor)
+        def stateSummary = summary(node("group", "http://node-1", 1), node("group", "http://node-2", 1))
+        def readingThread = null
+
+        when:
+        def chunks = streamingCache.streamSummary(100, null).toList().blockingGet()
+
+        then:
+        1 * registry.writeSummary(100, Status.OK, null, _) >> {
+            readingThread = Thread.currentThread()
+            it[3].writeObject(stateSummary)
+        }
+        readingThread != Thread.currentThread()
+
+        and:
+        def out = new ByteArrayOutputStream()
+        chunks.each { out.write(it) }
+        def streamed = new JsonSlurper().parse(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))
+        streamed.followers == new JsonSlurper().parse(JsonHelper.toJsonBytes(stateSummary)).followers
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "streamed summary fails when the registry cannot be read"() {
+        given:
+        def streamingCache = new RegistrySummaryCache(registry, Duration.ofMinutes(1), true, { it.run() } as Executor)
+        registry.writeSummary(*_) >> { throw new RuntimeException("registry unavailable") }
+
+        when:
+        streamingCache.streamSummary(100, null).toList().blockingGet()
+
+        then:
+        def exception = thrown(RuntimeException)
+        exception.message == "registry unavailable"
+    }
+
+    def summary(Node... followers) {
+        new StateSummary(
+            Node.builder().localUrl(cloudUrl).offset(100).status(Status.OK).following([]).lastSeen(lastSeen).build(),
+            followers as List
+        )
+    }
+
+    def node(String group, String url, long offset) {
+        Node.builder()
+            .group(group)
+            .localUrl(new URL(url))
+            .offset(offset)
+            .status(Status.FOLLOWING)
+            .lastSeen(lastSeen)
+            .requestedToFollow([cloudUrl])
+            .build()
+    }
+}
@@ -38,4 +38,36 @@ class PostgreSQLNodeRegistrySpec extends Specification {
 		then: "the cloud url is returned"
 		result.requestedToFollow == [cloudUrl]
 	}
+
+	def "Nodes of the same group are registered in one transaction"() {
+		given: "a mock node group"
+		def cloudUrl = new URL("http://cloud.url")
+		def mockNodeGroup = Mock(PostgresNodeGroup)
+		def mockNodeGroupFactory = Mock(PostgresNodeGroupStorage)
+
+		and: "a mock data source"
+		def dataSourceMock = Mock(DataSource)
+		def mockConnection = Mock(Connection)
+		dataSourceMock.getConnection() >> mockConnection
+
+		and: "a node registry"
+		def registry = new PostgreSQLNodeRegistry(dataSourceMock, cloudUrl, Duration.ofMinutes(5), Duration.ofMinutes(10), mockNodeGroupFactory)
+
+		and: "two nodes of the same group"
+		def node1 = Node.builder().group("group").localUrl(new URL("http://node-1")).build()
+		def node2 = Node.builder().group("group").localUrl(new URL("http://node-2")).build()
+
+		when: "registering the nodes together"
+		def result = registry.registerAll([node1, node2])
+
+		then: "the group is read, processed and persisted once"
+		1 * mockNodeGroupFactory.getNodeGroup(_, "group") >> mockNodeGroup
+		2 * mockNodeGroup.upsert(_, _) >> { Node node, URL url -> node.toBuilder().requestedToFollow([cloudUrl]).build() }
+		1 * mockNodeGroup.processNodes(_, _, _)
+		1 * mockNodeGroup.persist(mockConnection)
+		1 * mockConnection.commit()
+
+		and: "registered nodes are returned in order"
+		result*.localUrl == [new URL("http://node-1"), new URL("http://node-2")]
+	}
 }
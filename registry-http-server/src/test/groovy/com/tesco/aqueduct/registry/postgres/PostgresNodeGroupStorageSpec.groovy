@@ -3,6 +3,7 @@ package com.tesco.aqueduct.registry.postgres
 
 import spock.lang.Specification
 
+import java.sql.Array
 import java.sql.Connection
 import java.sql.PreparedStatement
 import java.sql.ResultSet
@@ -58,11 +59,12 @@ class PostgresNodeGroupStorageSpec extends Specification {
 
 		given: "a SQL connection"
 		def connection = Mock(Connection) {
+			1 * createArrayOf("varchar", { it as List == ["test-group-id", "missing-group-id"] }) >> Mock(Array)
 			1 * prepareStatement(_) >> {
 				statement = it
 				return Mock(PreparedStatement) {
 					1 * executeQuery() >> Mock(ResultSet) {
-						1 * next() >> true
+						2 * next() >> true >> false
 						1 * getString("entry") >>
 						"""		
 							[ 
@@ -77,7 +79,7 @@ class PostgresNodeGroupStorageSpec extends Specification {
 							]
 						"""
 						1 * getInt("version") >> 99
-						1 * getString("group_id") >> "test-group-id-from-db"
+						1 * getString("group_id") >> "test-group-id"
 					}
 				}
 			}
@@ -87,15 +89,20 @@ class PostgresNodeGroupStorageSpec extends Specification {
 		def PostgresNodeGroupStorage = new PostgresNodeGroupStorage()
 
 		when: "I ask the PostgresNodeGroupStorage to get a list of NodeGroups"
-		def result = PostgresNodeGroupStorage.readNodeGroups(connection, ["test-group-id"])
+		def result = PostgresNodeGroupStorage.readNodeGroups(connection, ["test-group-id", "missing-group-id"])
 
-		then: "then a select statement is run"
+		then: "then a single select statement is run for all groups"
 		statement.contains("SELECT")
+		statement.contains("ANY(?)")
 
 		and: "The NodeGroups are correctly returned"
 		result[0].nodes[0].localUrl == new URL("http://node-1")
 		result[0].version == 99
-		result[0].groupId == "test-group-id-from-db"
+		result[0].groupId == "test-group-id"
+
+		and: "groups that are not stored are empty"
+		result[1].isEmpty()
+		result[1].groupId == "missing-group-id"
 	}
 
 	def "can fetch all NodeGroups"() {